@@ -0,0 +1,299 @@
+/**
+ * File			: ServerBenchmark.java
+ * Package		: chat.bench
+ * Classes		: ServerBenchmark
+ * Description	: Memory per connection and broadcast latency of a server mode
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.bench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import chat.server.Server;
+
+/**
+ * ServerBenchmark:
+ * Starts a chat server in this JVM in the given mode ("thread", "virtual"
+ * or "nio"), connects the given number of users over loopback and reports
+ *  - heap, resident memory and threads per connection
+ *  - latency of a broadcast until it arrived at every user
+ * All simulated users are served by one selector thread, so the client side
+ * costs the same in every mode and the numbers can be compared directly.
+ * Many connections need a raised limit of open files (ulimit -n).
+ *
+ * Usage: ServerBenchmark mode connections [broadcasts]
+ * @author Mathias Knoll
+ */
+public class ServerBenchmark {
+
+	// Port of the benchmarked server
+	static int PORT = 18888;
+	// How long to wait for connections or deliveries (ms)
+	static long TIMEOUT = 120000;
+
+	// Channels of the simulated users
+	private SocketChannel channelPool[];
+	// Incomplete line per user
+	private StringBuilder builderLine[];
+	// Users having been greeted by name
+	private AtomicInteger iGreeted = new AtomicInteger();
+	// Deliveries of the current broadcast
+	private AtomicInteger iDelivered = new AtomicInteger();
+	// Latencies of the current broadcast (ns)
+	private long arlLatency[];
+
+	/**
+	 * Main method
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length < 2){
+			System.out.println(
+				"Please deliver arguments for mode and connections!");
+			return;
+		}
+		int iBroadcasts = args.length >= 3 ? Integer.parseInt(args[2]) : 20;
+		new ServerBenchmark().run(
+			args[0], Integer.parseInt(args[1]), iBroadcasts);
+	}
+
+	/**
+	 * Run the benchmark
+	 * @param sMode Server mode
+	 * @param iConnections Number of users
+	 * @param iBroadcasts Number of broadcasts to measure
+	 */
+	private void run(String sMode, int iConnections, int iBroadcasts)
+			throws Exception {
+
+		// Server runs in a thread of its own
+		final String arsArgs[] = { String.valueOf(ServerBenchmark.PORT), sMode };
+		Thread threadServer = new Thread(new Runnable() {
+			public void run() {
+				Server.main(arsArgs);
+			}
+		});
+		threadServer.setDaemon(true);
+		threadServer.start();
+		Thread.sleep(1000);
+
+		long lHeapBefore = ServerBenchmark.usedHeap();
+		long lRssBefore = ServerBenchmark.residentMemory();
+		int iThreadsBefore = Thread.activeCount();
+
+		// Connect all users and send their names
+		this.channelPool = new SocketChannel[iConnections];
+		this.builderLine = new StringBuilder[iConnections];
+		this.arlLatency = new long[iConnections];
+		Selector selector = Selector.open();
+		for(int i = 0; i < iConnections; i++){
+			SocketChannel channel = SocketChannel.open(
+				new InetSocketAddress("localhost", ServerBenchmark.PORT));
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, Integer.valueOf(i));
+			ServerBenchmark.writeLine(channel, "user" + i);
+			this.channelPool[i] = channel;
+		}
+		Thread threadReader = this.startReader(selector);
+
+		long lDeadline = System.currentTimeMillis() + ServerBenchmark.TIMEOUT;
+		while(this.iGreeted.get() < iConnections &&
+			System.currentTimeMillis() < lDeadline){
+			Thread.sleep(100);
+		}
+		if(this.iGreeted.get() < iConnections){
+			System.out.println(
+				"Only " + this.iGreeted.get() + " of " + iConnections +
+				" users have been served!");
+		}
+		int iServed = Math.max(1, this.iGreeted.get());
+
+		long lHeapAfter = ServerBenchmark.usedHeap();
+		long lRssAfter = ServerBenchmark.residentMemory();
+		int iThreadsAfter = Thread.activeCount();
+
+		// Broadcasts by user0, each waited for until delivered to everybody
+		long arlP50[] = new long[iBroadcasts];
+		long arlP99[] = new long[iBroadcasts];
+		long arlMax[] = new long[iBroadcasts];
+		for(int i = 0; i < iBroadcasts; i++){
+			this.iDelivered.set(0);
+			ServerBenchmark.writeLine(
+				this.channelPool[0], "bench " + System.nanoTime());
+			lDeadline = System.currentTimeMillis() + ServerBenchmark.TIMEOUT;
+			while(this.iDelivered.get() < iServed &&
+				System.currentTimeMillis() < lDeadline){
+				Thread.sleep(1);
+			}
+			long arlSorted[] = Arrays.copyOf(this.arlLatency, iServed);
+			Arrays.sort(arlSorted);
+			arlP50[i] = arlSorted[iServed / 2];
+			arlP99[i] = arlSorted[Math.min(iServed - 1, iServed * 99 / 100)];
+			arlMax[i] = arlSorted[iServed - 1];
+		}
+
+		System.out.println("Mode                : " + sMode);
+		System.out.println("Connections         : " + iServed);
+		System.out.println(
+			"Heap per connection : " +
+			(lHeapAfter - lHeapBefore) / iServed + " bytes");
+		System.out.println(
+			"RSS per connection  : " +
+			(lRssAfter - lRssBefore) / iServed + " bytes");
+		System.out.println(
+			"Threads added       : " + (iThreadsAfter - iThreadsBefore));
+		System.out.println(
+			"Broadcast p50       : " + ServerBenchmark.median(arlP50) / 1000 + " us");
+		System.out.println(
+			"Broadcast p99       : " + ServerBenchmark.median(arlP99) / 1000 + " us");
+		System.out.println(
+			"Broadcast complete  : " + ServerBenchmark.median(arlMax) / 1000 + " us");
+
+		threadReader.interrupt();
+		System.exit(0);
+	}
+
+	/**
+	 * Start the thread reading for all users
+	 * @param selector Selector all user channels are registered with
+	 * @return The thread
+	 */
+	private Thread startReader(final Selector selector){
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+				try {
+					while(!Thread.currentThread().isInterrupted()){
+						selector.select();
+						Iterator<SelectionKey> iterKeys =
+							selector.selectedKeys().iterator();
+						while(iterKeys.hasNext()){
+							SelectionKey key = iterKeys.next();
+							iterKeys.remove();
+							int iUser = ((Integer) key.attachment()).intValue();
+							buffer.clear();
+							if(((SocketChannel) key.channel()).read(buffer) < 0){
+								key.cancel();
+								continue;
+							}
+							buffer.flip();
+							ServerBenchmark.this.consume(iUser, buffer);
+						}
+					}
+				} catch (IOException e) {
+					System.out.println("Error: Reading for users: " + e);
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Split received data into lines and evaluate them
+	 * @param iUser The receiving user
+	 * @param buffer Received data
+	 */
+	private void consume(int iUser, ByteBuffer buffer){
+		while(buffer.hasRemaining()){
+			char c = (char) buffer.get();
+			if(c == '\n'){
+				StringBuilder builder = this.builderLine[iUser];
+				String sLine = builder == null ? "" : builder.toString();
+				this.builderLine[iUser] = null;
+				this.evaluate(iUser, sLine.trim());
+			}else{
+				if(this.builderLine[iUser] == null){
+					this.builderLine[iUser] = new StringBuilder();
+				}
+				this.builderLine[iUser].append(c);
+			}
+		}
+	}
+
+	/**
+	 * Evaluate a line received by a user
+	 * @param iUser The receiving user
+	 * @param sLine The line
+	 */
+	private void evaluate(int iUser, String sLine){
+		if(sLine.startsWith("Hello ")){
+			this.iGreeted.incrementAndGet();
+		}else if(sLine.startsWith("<user0> bench ")){
+			long lSent = Long.parseLong(sLine.substring(14));
+			this.arlLatency[this.iDelivered.getAndIncrement()] =
+				System.nanoTime() - lSent;
+		}
+	}
+
+	/**
+	 * Write a line to a non-blocking channel
+	 * @param channel The channel
+	 * @param sLine The line
+	 * @throws IOException
+	 */
+	private static void writeLine(SocketChannel channel, String sLine)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap((sLine + "\n").getBytes());
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Used heap after garbage collection
+	 * @return Bytes
+	 */
+	private static long usedHeap() throws InterruptedException {
+		for(int i = 0; i < 3; i++){
+			System.gc();
+			Thread.sleep(200);
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * Resident memory of the process, which includes thread stacks
+	 * @return Bytes, or 0 if not available on this platform
+	 */
+	private static long residentMemory(){
+		try (BufferedReader reader =
+				new BufferedReader(new FileReader("/proc/self/status"))) {
+			String sLine;
+			while((sLine = reader.readLine()) != null){
+				if(sLine.startsWith("VmRSS:")){
+					return Long.parseLong(
+						sLine.substring(6).replace("kB", "").trim()) * 1024;
+				}
+			}
+		} catch (IOException e) {
+			// Not on Linux
+		}
+		return 0;
+	}
+
+	/**
+	 * Median of some values
+	 * @param arlValues The values
+	 * @return The median
+	 */
+	private static long median(long arlValues[]){
+		long arlSorted[] = arlValues.clone();
+		Arrays.sort(arlSorted);
+		return arlSorted[arlSorted.length / 2];
+	}
+}
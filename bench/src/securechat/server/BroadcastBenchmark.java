@@ -0,0 +1,118 @@
+/**
+ * File			: BroadcastBenchmark.java
+ * Package		: securechat.server
+ * Classes		: BroadcastBenchmark
+ * Description	: JMH benchmark of a chat line sent to all clients
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.KeyGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import securechat.tools.SessionCipher;
+
+/**
+ * BroadcastBenchmark:
+ * One chat line broadcast by ClientThread to 10, 1k and 10k recipients
+ * held in memory (no sockets, no writers), all in the sender's room, as
+ *   plain ..... an unverified sender: one line shared by all
+ *   session ... a verified sender, verified recipients using frames: one
+ *               encryption per recipient by its session key
+ *   room ...... as session, but all recipients are members of the room:
+ *               one encryption shared by all
+ * The outbound queues are small and drop their oldest line, so they stay
+ * full and every broadcast costs the same.
+ * @author Mathias Knoll
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+	// Number of recipients
+	@Param({ "10", "1000", "10000" })
+	int iRecipients;
+
+	// How recipients get the line
+	@Param({ "plain", "session", "room" })
+	String sMode;
+
+	// The sender, not a recipient itself
+	private ClientThread clientthreadSender;
+	// Rooms of the benchmark only, not those of the server
+	private Rooms rooms = new Rooms();
+
+	@Setup
+	public void setup() throws Exception {
+		Server.QUEUE_SIZE = 16;
+		Server.QUEUE_POLICY = OverflowPolicy.DROP_OLDEST;
+		// Recipients never read, they lag but are never evicted
+		Server.SLOW_WARN = 0;
+		Server.SLOW_SHED = 0;
+		Server.SLOW_EVICT = 0;
+		Server.SLOW_EVICT_BYTES = 0;
+		boolean bSecure = !this.sMode.equals("plain");
+		KeyGenerator generatorKeys = KeyGenerator.getInstance("AES");
+		generatorKeys.init(128);
+
+		SessionRegistry<ClientThread> registrySessions =
+			new SessionRegistry<ClientThread>(0);
+		Set<ClientThread> setMembers = new HashSet<ClientThread>();
+		Rooms.Room room = null;
+		for (int i = 0; i < this.iRecipients; i++){
+			ClientThread clientthread =
+				new ClientThread("Client-" + i, null, registrySessions);
+			if (bSecure){
+				clientthread.establishForTest(
+					new SessionCipher(
+						generatorKeys.generateKey(), SessionCipher.GCM, true));
+				setMembers.add(clientthread);
+			}
+			registrySessions.add(clientthread);
+			room = this.rooms.join("bench", clientthread);
+		}
+		this.clientthreadSender =
+			new ClientThread("Sender", null, registrySessions);
+		this.clientthreadSender.setRoomForTest(room);
+		if (bSecure){
+			this.clientthreadSender.establishForTest(
+				new SessionCipher(
+					generatorKeys.generateKey(), SessionCipher.GCM, true));
+		}
+		room.roomKey.setEpochForTest(
+			this.sMode.equals("room") ?
+				new RoomKey.Epoch(
+					1,
+					new SessionCipher(
+						generatorKeys.generateKey(), SessionCipher.GCM, true),
+					setMembers) :
+				null);
+	}
+
+	@Benchmark
+	public void broadcast(){
+		this.clientthreadSender.broadcastChat(
+			"<Sender> A line of chat as it is typed in every day");
+	}
+}
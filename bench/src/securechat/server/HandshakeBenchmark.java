@@ -0,0 +1,149 @@
+/**
+ * File			: HandshakeBenchmark.java
+ * Package		: securechat.server
+ * Classes		: HandshakeBenchmark
+ * Description	: JMH benchmark of handshakes per second per core
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import securechat.tools.CryptoTools;
+
+/**
+ * HandshakeBenchmark:
+ * The key work of one hello, client and server side, on a single thread,
+ * so the score is handshakes per second per core, by suite:
+ *   rsa ......... the server generates an RSA key pair for the client, the
+ *                 client's key is signed (MD5withRSA) and the session key
+ *                 wrapped by RSA
+ *   rsaPooled ... as rsa, but the server's keys come out of a pool
+ *   ec .......... the client signs a fresh X25519 key by Ed25519, the
+ *                 server verifies it, and both agree on the session key
+ * The client's long-lived keys (RSA or Ed25519) are created once, just like
+ * a client does at start. Times of single handshakes, next to the classic
+ * exchange and resumption, are taken by KeyExchangeBenchmark.
+ * @author Mathias Knoll
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+public class HandshakeBenchmark {
+
+	// Suite of the hello
+	@Param({ "rsa", "rsaPooled", "ec" })
+	String sSuite;
+
+	// Generators
+	private KeyPairGenerator generatorRSA;
+	private KeyGenerator generatorAES;
+	// Client's RSA and Ed25519 keys, server's pooled RSA keys
+	private KeyPair keyPairClient;
+	private KeyPair keyPairSigning;
+	private KeyPair keyPairPooled;
+
+	@Setup
+	public void setup() throws Exception {
+		this.generatorRSA = KeyPairGenerator.getInstance("RSA");
+		this.generatorRSA.initialize(KeyPool.RSA_BITS);
+		this.generatorAES = KeyGenerator.getInstance("AES");
+		this.generatorAES.init(KeyPool.AES_BITS);
+		this.keyPairClient = this.generatorRSA.generateKeyPair();
+		this.keyPairSigning = CryptoTools.generateKeyPair("Ed25519");
+		this.keyPairPooled = this.generatorRSA.generateKeyPair();
+	}
+
+	@Benchmark
+	public byte[] handshake(Blackhole blackhole) throws Exception {
+		if (this.sSuite.equals("ec")){
+			return this.handshakeEC();
+		}
+		return this.handshakeRSA(this.sSuite.equals("rsaPooled") ?
+			this.keyPairPooled : this.generatorRSA.generateKeyPair(), blackhole);
+	}
+
+	/**
+	 * Key work of an RSA hello: the client signs its key, the server verifies
+	 * it and wraps the session key, the client unwraps it
+	 * @param keyPairServer The server's keys towards the client
+	 * @param blackhole Takes what goes out unused
+	 * @return The session key as the client got it
+	 */
+	private byte[] handshakeRSA(KeyPair keyPairServer, Blackhole blackhole)
+			throws Exception {
+		byte arbKey[] = this.keyPairClient.getPublic().getEncoded();
+		byte arbSignature[] =
+			CryptoTools.signedKey(this.keyPairClient.getPrivate(), arbKey);
+		if (!CryptoTools.verifySignedKey(
+				this.keyPairClient.getPublic(), arbKey, arbSignature)){
+			throw new IllegalStateException("Signature not verified");
+		}
+		SecretKey keySession = this.generatorAES.generateKey();
+		byte arbWrapped[] = CryptoTools.cipherKey(
+			this.keyPairClient.getPublic(), keySession.getEncoded());
+		// The server's public key goes out along
+		blackhole.consume(keyPairServer.getPublic().getEncoded());
+		return CryptoTools.decipherKey(this.keyPairClient.getPrivate(), arbWrapped);
+	}
+
+	/**
+	 * Key work of an elliptic curve hello
+	 * @return The session key as the client got it
+	 */
+	private byte[] handshakeEC() throws Exception {
+		// Client
+		KeyPair keyPairAgreement = CryptoTools.generateKeyPair("X25519");
+		byte arbKeyClient[] = keyPairAgreement.getPublic().getEncoded();
+		byte arbSignature[] = CryptoTools.signEd25519(
+			this.keyPairSigning.getPrivate(), arbKeyClient);
+		// Server
+		PublicKey keySigning = CryptoTools.getPublicKey(
+			"Ed25519", this.keyPairSigning.getPublic().getEncoded());
+		if (!CryptoTools.verifyEd25519(keySigning, arbKeyClient, arbSignature)){
+			throw new IllegalStateException("Signature not verified");
+		}
+		KeyPair keyPairAnswer = CryptoTools.generateKeyPair("X25519");
+		byte arbKeyServer[] = keyPairAnswer.getPublic().getEncoded();
+		SecretKey keyServer = CryptoTools.agreeKey(
+			keyPairAnswer.getPrivate(),
+			CryptoTools.getPublicKey("X25519", arbKeyClient),
+			arbKeyClient, arbKeyServer);
+		// Client
+		SecretKey keyClient = CryptoTools.agreeKey(
+			keyPairAgreement.getPrivate(),
+			CryptoTools.getPublicKey("X25519", arbKeyServer),
+			arbKeyClient, arbKeyServer);
+		if (!Arrays.equals(keyServer.getEncoded(), keyClient.getEncoded())){
+			throw new IllegalStateException("Keys differ");
+		}
+		return keyClient.getEncoded();
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * File			: KeyExchangeBenchmark.java
+ * Package		: securechat.server
+ * Classes		: KeyExchangeBenchmark
+ * Description	: JMH benchmark of the handshakes, client and server side
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import securechat.tools.CryptoTools;
+import securechat.tools.Frame;
+import securechat.tools.SessionCipher;
+
+/**
+ * KeyExchangeBenchmark:
+ * The key work of one whole handshake, both sides on one thread, as the
+ * messages go back and forth:
+ *   classic ........ public key, session key wrapped by RSA, its signature
+ *                    verified (MD5withRSA), keys of the server pooled
+ *   classicKeygen .. as classic, the server generating its RSA key pair
+ *   helloRSA ....... the client's RSA key signed by itself, verified, the
+ *                    session key wrapped by it and unwrapped
+ *   helloEC ........ a fresh X25519 key signed by Ed25519, verified, both
+ *                    sides agreeing on the session key
+ *   resume ......... a ticket handed out and taken back, both sides
+ *                    deriving the session key and checking the proof
+ * The client's long-lived keys are created once, as a client does at start.
+ * @author Mathias Knoll
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyExchangeBenchmark {
+
+	// Generators
+	private KeyPairGenerator generatorRSA;
+	private KeyGenerator generatorAES;
+	// Client's RSA and Ed25519 keys, server's pooled RSA keys
+	private KeyPair keyPairClient;
+	private KeyPair keyPairSigning;
+	private KeyPair keyPairServer;
+	// Server's public key as sent by the classic exchange
+	private byte arbKeyServer[];
+	// Tickets of the server
+	private SessionCache cacheSessions;
+	// Source of the client's nonces
+	private SecureRandom random = new SecureRandom();
+
+	@Setup
+	public void setup() throws Exception {
+		this.generatorRSA = KeyPairGenerator.getInstance("RSA");
+		this.generatorRSA.initialize(KeyPool.RSA_BITS);
+		this.generatorAES = KeyGenerator.getInstance("AES");
+		this.generatorAES.init(KeyPool.AES_BITS);
+		this.keyPairClient = this.generatorRSA.generateKeyPair();
+		this.keyPairSigning = CryptoTools.generateKeyPair("Ed25519");
+		this.keyPairServer = this.generatorRSA.generateKeyPair();
+		this.cacheSessions = new SessionCache(1024, 600000);
+	}
+
+	@Benchmark
+	public byte[] classic() throws Exception {
+		return this.classic(this.keyPairServer);
+	}
+
+	@Benchmark
+	public byte[] classicKeygen() throws Exception {
+		return this.classic(this.generatorRSA.generateKeyPair());
+	}
+
+	/**
+	 * The classic exchange of five messages
+	 * @param keyPairServer Server's keys towards the client
+	 * @return The session key as the client got it
+	 */
+	private byte[] classic(KeyPair keyPairServer) throws Exception {
+		// Server: its public key goes out, the client's comes in
+		this.arbKeyServer = keyPairServer.getPublic().getEncoded();
+		PublicKey keyPublic = CryptoTools.getPublicKey(
+			"RSA", this.keyPairClient.getPublic().getEncoded());
+		SecretKey keySession = this.generatorAES.generateKey();
+		byte arbWrapped[] = CryptoTools.cipherKey(keyPublic, keySession.getEncoded());
+		// Client
+		byte arbKey[] = CryptoTools.decipherKey(
+			this.keyPairClient.getPrivate(), arbWrapped);
+		byte arbSigned[] = CryptoTools.signedKey(
+			this.keyPairClient.getPrivate(), arbKey);
+		// Server
+		if (!CryptoTools.verifySignedKey(keyPublic, keySession.getEncoded(), arbSigned))
+			throw new IllegalStateException("Signature not verified");
+		return arbKey;
+	}
+
+	@Benchmark
+	public byte[] helloRSA() throws Exception {
+		// Client
+		byte arbKey[] = this.keyPairClient.getPublic().getEncoded();
+		byte arbSignature[] =
+			CryptoTools.signedKey(this.keyPairClient.getPrivate(), arbKey);
+		// Server
+		PublicKey keyPublic = CryptoTools.getPublicKey("RSA", arbKey);
+		if (!CryptoTools.verifySignedKey(keyPublic, arbKey, arbSignature))
+			throw new IllegalStateException("Signature not verified");
+		SecretKey keySession = this.generatorAES.generateKey();
+		byte arbWrapped[] = CryptoTools.cipherKey(keyPublic, keySession.getEncoded());
+		// Client
+		return CryptoTools.decipherKey(this.keyPairClient.getPrivate(), arbWrapped);
+	}
+
+	@Benchmark
+	public SecretKey helloEC() throws Exception {
+		// Client
+		KeyPair keyPairAgreement = CryptoTools.generateKeyPair("X25519");
+		byte arbKeyClient[] = keyPairAgreement.getPublic().getEncoded();
+		byte arbSignature[] = CryptoTools.signEd25519(
+			this.keyPairSigning.getPrivate(), arbKeyClient);
+		// Server
+		PublicKey keySigning = CryptoTools.getPublicKey(
+			"Ed25519", this.keyPairSigning.getPublic().getEncoded());
+		if (!CryptoTools.verifyEd25519(keySigning, arbKeyClient, arbSignature))
+			throw new IllegalStateException("Signature not verified");
+		KeyPair keyPairAnswer = CryptoTools.generateKeyPair("X25519");
+		byte arbKeyServer[] = keyPairAnswer.getPublic().getEncoded();
+		CryptoTools.agreeKey(
+			keyPairAnswer.getPrivate(),
+			CryptoTools.getPublicKey("X25519", arbKeyClient),
+			arbKeyClient, arbKeyServer);
+		// Client
+		return CryptoTools.agreeKey(
+			keyPairAgreement.getPrivate(),
+			CryptoTools.getPublicKey("X25519", arbKeyServer),
+			arbKeyClient, arbKeyServer);
+	}
+
+	@Benchmark
+	public SecretKey resume() throws Exception {
+		SecretKey keyFormer = new SecretKeySpec(new byte[16], "AES");
+		byte arbTicket[] = this.cacheSessions.issue(keyFormer, null);
+		// Client
+		byte arbNonce[] = new byte[Frame.TICKET_SIZE];
+		this.random.nextBytes(arbNonce);
+		SessionCipher cipherClient = new SessionCipher(
+			CryptoTools.resumeKey(keyFormer, arbTicket, arbNonce),
+			SessionCipher.GCM, false);
+		byte arbProof[] = cipherClient.encrypt(arbTicket);
+		// Server
+		SessionCache.Session session = this.cacheSessions.take(arbTicket);
+		SecretKey keyResumed =
+			CryptoTools.resumeKey(session.keySession, arbTicket, arbNonce);
+		SessionCipher cipherServer =
+			new SessionCipher(keyResumed, SessionCipher.GCM, true);
+		if (!Arrays.equals(cipherServer.decrypt(arbProof), arbTicket))
+			throw new IllegalStateException("Proof not verified");
+		return keyResumed;
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * File			: CodecBenchmark.java
+ * Package		: securechat.tools
+ * Classes		: CodecBenchmark
+ * Description	: JMH benchmark of hex and Base64 before and after Codec
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.tools;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CodecBenchmark:
+ * Hex encoding and decoding at payloads of 64 B, 4 KB and 64 KB, by
+ *   former .. CryptoTools as it used to be: a string concatenated byte by
+ *             byte, Character.digit per character
+ *   codec ... CryptoTools by Codec, a string or an array per call
+ *   buffer .. Codec into a buffer kept for all calls
+ * and Base64 of Codec into a buffer. Divide the payload by the time for
+ * the throughput.
+ * The hex by whom is a state of its own, so Base64 is measured once per
+ * payload only.
+ * @author Mathias Knoll
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	/**
+	 * Hex:
+	 * Hex by whom
+	 */
+	@State(Scope.Thread)
+	public static class Hex {
+		@Param({ "former", "codec", "buffer" })
+		String sCodec;
+	}
+
+	// Payload size
+	@Param({ "64", "4096", "65536" })
+	int iSize;
+
+	// The payload, its hex and its Base64
+	private byte arbData[];
+	private String sHex;
+	private String sBase64;
+	// Buffer taking encoded and decoded bytes
+	private byte arbTarget[];
+
+	@Setup
+	public void setup(){
+		this.arbData = new byte[this.iSize];
+		new Random(42).nextBytes(this.arbData);
+		this.sHex = Codec.toHex(this.arbData);
+		this.sBase64 = Codec.toBase64(this.arbData);
+		this.arbTarget = new byte[Codec.hexLength(this.iSize)];
+	}
+
+	@Benchmark
+	public Object hexEncode(Hex hex) throws Exception {
+		if (hex.sCodec.equals("former")){
+			return CodecBenchmark.getHexFormer(this.arbData);
+		}
+		if (hex.sCodec.equals("codec")){
+			return CryptoTools.getHex(this.arbData);
+		}
+		return Codec.encodeHex(this.arbData, 0, this.arbData.length, this.arbTarget, 0);
+	}
+
+	@Benchmark
+	public Object hexDecode(Hex hex){
+		if (hex.sCodec.equals("former")){
+			return CodecBenchmark.getBytesFormer(this.sHex);
+		}
+		if (hex.sCodec.equals("codec")){
+			return CryptoTools.getBytes(this.sHex);
+		}
+		return Codec.decodeHex(this.sHex, 0, this.sHex.length(), this.arbTarget, 0);
+	}
+
+	@Benchmark
+	public int base64Encode(){
+		return Codec.encodeBase64(this.arbData, 0, this.arbData.length, this.arbTarget, 0);
+	}
+
+	@Benchmark
+	public int base64Decode(){
+		return Codec.decodeBase64(this.sBase64, 0, this.sBase64.length(), this.arbTarget, 0);
+	}
+
+	/**
+	 * CryptoTools.getHex as it used to be
+	 * @param arByte
+	 * @return
+	 */
+	private static String getHexFormer(byte[] arByte) {
+		String result = "";
+		for (int i=0; i < arByte.length; i++) {
+			result +=
+		      Integer.toString( ( arByte[i] & 0xff ) + 0x100, 16).substring( 1 );
+		}
+		return result;
+	}
+
+	/**
+	 * CryptoTools.getBytes as it used to be
+	 * @param sHex
+	 * @return
+	 */
+	private static byte[] getBytesFormer(String sHex){
+		int len = sHex.length();
+		byte[] data = new byte[len / 2];
+		for (int i = 0; i < len; i += 2) {
+			data[i / 2] = (byte) ((Character.digit(sHex.charAt(i), 16) << 4)
+								 + Character.digit(sHex.charAt(i+1), 16));
+		}
+		return data;
+	}
+}
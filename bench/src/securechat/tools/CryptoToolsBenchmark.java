@@ -0,0 +1,113 @@
+/**
+ * File			: CryptoToolsBenchmark.java
+ * Package		: securechat.tools
+ * Classes		: CryptoToolsBenchmark
+ * Description	: JMH benchmark of hex encoding and encryption of CryptoTools
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.tools;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CryptoToolsBenchmark:
+ * Everything a chat line goes through on its way: hex encoding and decoding
+ * (text protocol), AES as CryptoTools always did it (encryptData and
+ * decryptData) and the session cipher contexts (AES-GCM), at payloads of
+ * 64 B, 4 KB and 64 KB. The client takes every message of the session once
+ * only, so each decryption gets a message sealed for it beforehand.
+ * @author Mathias Knoll
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoToolsBenchmark {
+
+	// Payload size
+	@Param({ "64", "4096", "65536" })
+	int iSize;
+
+	// The payload and its hex
+	private byte arbData[];
+	private String sHex;
+	// Session key
+	private SecretKey keySession;
+	// The payload encrypted by encryptData and by the session cipher
+	private byte arbEncrypted[];
+	private byte arbSealed[];
+	// Session cipher of the server (encrypting) and the client (decrypting)
+	private SessionCipher cipherServer;
+	private SessionCipher cipherClient;
+
+	@Setup
+	public void setup() throws Exception {
+		this.arbData = new byte[this.iSize];
+		new Random(42).nextBytes(this.arbData);
+		this.sHex = CryptoTools.getHex(this.arbData);
+		KeyGenerator generatorKeys = KeyGenerator.getInstance("AES");
+		generatorKeys.init(128);
+		this.keySession = generatorKeys.generateKey();
+		this.arbEncrypted = CryptoTools.encryptData(this.keySession, this.arbData);
+		this.cipherServer =
+			new SessionCipher(this.keySession, SessionCipher.GCM, true);
+		this.cipherClient =
+			new SessionCipher(this.keySession, SessionCipher.GCM, false);
+	}
+
+	@Setup(Level.Invocation)
+	public void seal() throws Exception {
+		this.arbSealed = this.cipherServer.encrypt(this.arbData);
+	}
+
+	@Benchmark
+	public String getHex() throws Exception {
+		return CryptoTools.getHex(this.arbData);
+	}
+
+	@Benchmark
+	public byte[] getBytes(){
+		return CryptoTools.getBytes(this.sHex);
+	}
+
+	@Benchmark
+	public byte[] encryptData() throws Exception {
+		return CryptoTools.encryptData(this.keySession, this.arbData);
+	}
+
+	@Benchmark
+	public byte[] decryptData() throws Exception {
+		return CryptoTools.decryptData(this.keySession, this.arbEncrypted);
+	}
+
+	@Benchmark
+	public byte[] sessionEncrypt() throws Exception {
+		return this.cipherServer.encrypt(this.arbData);
+	}
+
+	@Benchmark
+	public byte[] sessionDecrypt() throws Exception {
+		return this.cipherClient.decrypt(this.arbSealed);
+	}
+}
@@ -15,6 +15,9 @@ package chat.client;
 import java.io.*;
 import java.net.*;
 
+import chat.tools.Frame;
+import chat.tools.WireReader;
+
 /**
  * Client:
  * This class connects to the server with a certain port.
@@ -33,13 +36,19 @@ public class Client extends Thread {
 	// Socket
 	private Socket socketClient = null;
 	// Input reader 
-	private BufferedReader readerInput = null;
+	private WireReader readerInput = null;
 	// Output stream
 	private PrintStream streamOut = null;
 	// Reader for input line
 	private BufferedReader readerLine = null;
 	// Flag for stopping thread
-	private boolean bStopped = false;	
+	private volatile boolean bStopped = false;	
+	// Flag if binary framing is to be asked for right after the name
+	private boolean bBinaryWanted = false;
+	// Flag if binary frames are sent instead of lines
+	private boolean bBinaryOut = false;
+	// Flag if binary frames are received instead of lines
+	private boolean bBinaryIn = false;
 	
 	/**
 	 * Main method
@@ -47,12 +56,14 @@ public class Client extends Thread {
 	 */
 	public static void main(String[] args) {
 		
-		// Host and port have to be delivered
-		if(args.length != 2){
+		// Host and port have to be delivered, "binary" optionally
+		if(args.length < 2){
 			System.out.println("Please deliver arguments for host and port!");
 		}else{
 			// Initialize Client!
 			Client client = new Client(args[0],Integer.parseInt(args[1]));
+			client.bBinaryWanted = 
+				args.length >= 3 && args[2].equals("binary");
 			client.initialize();
 		}	
 	}
@@ -93,9 +104,8 @@ public class Client extends Thread {
 		
 			// Read input from socket
 			this.readerInput = 
-				new BufferedReader(
-					new InputStreamReader(
-							this.socketClient.getInputStream()));
+				new WireReader(
+					this.socketClient.getInputStream());
 	
 		} catch (UnknownHostException e) {
 			System.err.println(
@@ -124,10 +134,17 @@ public class Client extends Thread {
 				while (!this.bStopped) {
 					
 					sLine = this.readerLine.readLine();
+					if (sLine == null)
+						break;
 					
 					// Deliver stream to client thread
-					this.streamOut.println(sLine);
+					this.sendLine(sLine);
 					
+					// Name is always sent as text, so framing may follow
+					if (this.bBinaryWanted){
+						this.bBinaryWanted = false;
+						this.sendLine(Frame.REQUEST);
+					}
 				}
 				
 				this.streamOut.close();
@@ -140,6 +157,39 @@ public class Client extends Thread {
 		}
 	}
 
+	/**
+	 * Send a line, either as text or as binary frame
+	 * @param sLine
+	 * @throws IOException
+	 */
+	private void sendLine(String sLine) throws IOException {
+		if (this.bBinaryOut){
+			Frame.write(this.streamOut, Frame.TEXT, sLine.getBytes());
+		}else{
+			this.streamOut.println(sLine);
+		}
+		// Server reads frames right after the request
+		if (sLine.startsWith(Frame.REQUEST))
+			this.bBinaryOut = true;
+	}
+	
+	/**
+	 * Read the next line, either as text or from a binary frame
+	 * @return The line or null if the connection is gone
+	 * @throws IOException
+	 */
+	private String readLine() throws IOException {
+		if (!this.bBinaryIn)
+			return this.readerInput.readLine();
+		
+		Frame frame;
+		while ((frame = this.readerInput.readFrame()) != null){
+			if (frame.getType() == Frame.TEXT)
+				return new String(frame.getPayload());
+		}
+		return null;
+	}
+
 	/**
 	 * Running the thread reading 
 	 */
@@ -149,8 +199,15 @@ public class Client extends Thread {
 		String line = null;
 
 		try {
-			while ((line = this.readerInput.readLine()) != null) {
-						
+			while ((line = this.readLine()) != null) {
+				
+				// Server sends binary frames from now on
+				if (line.equals(Frame.ACCEPT)){
+					this.bBinaryIn = true;
+					System.out.println("*** Binary framing ***");
+					continue;
+				}
+				
 				System.out.println(line);
 			
 				// If message contains a 'bye' message- we'll leave the thread
@@ -11,12 +11,18 @@
  */
 package chat.server;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import chat.tools.Frame;
+import chat.tools.WireReader;
 
 /**
  * ClientThread:
@@ -27,43 +33,68 @@ import java.net.Socket;
  * about it and terminates.
  * @author Mathias Knoll
  */
-class ClientThread extends Thread {
+class ClientThread implements Runnable, Session {
 
 	// Read inputs
-	private BufferedReader readerInput = null;
+	private WireReader readerInput = null;
 	// Output stream
-	private PrintStream printstreamOut = null;
+	private OutputStream streamOut = null;
 	// The client's socket
 	private Socket socketClient = null;
-	// The pool of client threads
-	private ClientThread clientthreadPool[];
+	// The registry of all clients' sessions
+	private SessionRegistry<Session> registrySessions = null;
 	// Thread's name
 	private String sThreadName = null;
 	// User's name
-	private String sUserName = null;	
+	private volatile String sUserName = null;	
+	// Lines waiting to be written to the client
+	private OutboundQueue queueOut = null;
+	// How far the client lags behind, as told last
+	private AtomicReference<SlowConsumers.Level> refLag = 
+		new AtomicReference<SlowConsumers.Level>(SlowConsumers.Level.FINE);
+	// Signals the writer has finished
+	private CountDownLatch latchWriter = new CountDownLatch(1);
+	// Flag if the client sends binary frames instead of lines
+	private boolean bBinary = false;
+	// Room the client is in, null until it has a name
+	private volatile Rooms.Room room = null;
+	// Messages and bytes read, counted by the reader only
+	private volatile long lMessagesIn = 0;
+	private volatile long lBytesIn = 0;
+	// Messages and bytes written, counted by the writer only
+	private volatile long lMessagesOut = 0;
+	private volatile long lBytesOut = 0;
+	// Flag if the client may ask for the server's statistics
+	private volatile boolean bAdmin = false;
 	
 	/**
 	 * Constructor of class ClientThread
 	 * Handles a single client's thread 
 	 * @param sThreadName The thread's  name
 	 * @param clientSocket The client's socket
-	 * @param clientthreadPool The pool of client threads
+	 * @param registrySessions The registry of all clients' sessions
 	 */
 	public ClientThread(
 			String sThreadName,
 			Socket clientSocket, 
-			ClientThread[] clientthreadpool) {
+			SessionRegistry<Session> registrySessions) {
 		
 		this.sThreadName = sThreadName;
 		this.socketClient = clientSocket;
-		this.clientthreadPool = clientthreadpool;
-		
+		this.registrySessions = registrySessions;
+		this.queueOut = 
+			new OutboundQueue(
+				Server.QUEUE_SIZE, 
+				Server.QUEUE_POLICY, 
+				Server.QUEUE_TIMEOUT);
 	}
 	
 	/**
 	 * Running the thread
+	 * Not synchronized: a monitor held for the whole session would pin a
+	 * virtual thread to its carrier
 	 */
-	public synchronized void run() {
+	public void run() {
 		
 		// Line of text which is typed in
 		String line = null;
@@ -71,77 +102,89 @@ class ClientThread extends Thread {
 		try {
 			// Establish input reader
 			this.readerInput = 
-				new BufferedReader(
-					new InputStreamReader(
-						this.socketClient.getInputStream()));
-			// Establish output stream
-			this.printstreamOut = 
-				new PrintStream(
-					this.socketClient.getOutputStream());
+				new WireReader(
+					this.socketClient.getInputStream());
+			// Establish output stream, lines are gathered by the writer, so
+			// waiting for acknowledgements (Nagle) would only delay them
+			this.socketClient.setTcpNoDelay(true);
+			this.streamOut = this.socketClient.getOutputStream();
+			// Whoever runs the server is admin
+			this.bAdmin = this.socketClient.getInetAddress().isLoopbackAddress();
+			
+			// Everything for the client is written by a writer of its own
+			Server.executorClients.execute(new Runnable() {
+				public void run() {
+					ClientThread.this.writeOutbound();
+				}
+			});
 			
 			// Get name of user
-			this.printstreamOut.println(
+			this.printChat(
 				"Chat by Mathias Knoll (C2009)");
-			this.printstreamOut.println(
+			this.printChat(
 				"Enter your name.");
 			this.sUserName = this.readerInput.readLine();		
+			this.countIn();
 			this.sThreadName = this.sThreadName + "-" + this.sUserName;
 			
 			// Welcome user with his name
-			this.printstreamOut.println(
+			this.printChat(
 				"Hello " + this.sUserName + "! (Type \"/help\" for usage!)");
 			
 			System.out.println("New user " + sUserName + ".");
+			Server.presence(this.sUserName, true);
 			
-			// Deliver message of new user to all other users
-			for (int i = 0; i < this.clientthreadPool.length; i++){
-				// If thread is there and not this one...
-				if (
-					this.clientthreadPool[i] != null && 
-					this.clientthreadPool[i] != this){
-					
-					this.clientthreadPool[i].printstreamOut.println(
-						"*** New user: " + this.sUserName + " ***");
-				}
-			}
+			// Deliver message of new user to all other users in the lobby
+			this.room = Server.rooms.join(Rooms.LOBBY, this);
+			Server.broadcast(
+				this.room, "*** New user: " + this.sUserName + " ***", this);
+			Server.replay(this, this.room, Server.HISTORY_REPLAY);
 			
 			// Start threads endless loop (until user quits)
 			while (true) {
 				// Get input
-				line = readerInput.readLine();
-				
-				
+				line = this.readInput();
 					
-				// If '/quit' is typed in, we'll leave the loop
-				if (line.startsWith("/quit"))
+				// If '/quit' is typed in or the connection is gone, we'll 
+				// leave the loop
+				if (line == null || line.startsWith("/quit"))
 					break;
 				if (line.startsWith("/help")){
 					this.giveHelp();
 				}else if (line.startsWith("/users")){
 					this.giveUsers();
+				}else if (line.startsWith("/queues")){
+					this.giveQueues();
+				}else if (line.startsWith("/cluster")){
+					this.giveCluster();
+				}else if (line.startsWith("/stats")){
+					this.giveStats();
+				}else if (line.startsWith("/admin")){
+					this.becomeAdmin(line.substring(6).trim());
+				}else if (line.startsWith("/join")){
+					this.joinRoom(line.substring(5).trim());
+				}else if (line.startsWith("/leave")){
+					this.joinRoom(Rooms.LOBBY);
+				}else if (line.startsWith("/rooms")){
+					this.giveRooms();
+				}else if (line.startsWith("/history")){
+					this.giveHistory(line.substring(8).trim());
+				}else if (line.startsWith(Frame.REQUEST)){
+					// Last line as text, binary frames from now on
+					this.send(SharedBuffer.acceptBinary());
+					this.bBinary = true;
 				}else{
-					// Send input to all other clients in pool
-					for (int i = 0; i < this.clientthreadPool.length; i++){
-						if (this.clientthreadPool[i] != null){
-							this.clientthreadPool[i].printChat("<" + this.sUserName + "> " + line);
-						}
-					}
+					// Send input to all clients in the room
+					Server.broadcastChat(this.room, "<" + this.sUserName + "> " + line);
 				}
 			}
 			
 			// Inform other clients that this on leaves
-			for (int i = 0; i < this.clientthreadPool.length; i++){
-				if (
-					this.clientthreadPool[i] != null && 
-					this.clientthreadPool[i] != this) {
-					
-					this.clientthreadPool[i].printstreamOut.println(
-						"*** User " + this.sUserName + " has left ***");
-				}
-			}
+			Server.broadcast(
+				this.room, "*** User " + this.sUserName + " has left ***", this);
 			
 			// Leaving message to this client
-			this.printstreamOut.println("*** Bye " + this.sUserName + " ***");
+			this.printChat("*** Bye " + this.sUserName + " ***");
 
 			this.cleanup();
 			
@@ -156,46 +199,381 @@ class ClientThread extends Thread {
 
 	
 	/**
-	 * Print either encrypted or unencrypted stuff!
+	 * Read the next line, either as text or from a binary frame
+	 * @return The line or null if the connection is gone
+	 * @throws IOException
+	 */
+	private String readInput() throws IOException {
+		if (!this.bBinary){
+			String line = this.readerInput.readLine();
+			if (line != null)
+				this.countIn();
+			return line;
+		}
+		
+		Frame frame;
+		while ((frame = this.readerInput.readFrame()) != null){
+			this.countIn();
+			if (frame.getType() == Frame.TEXT)
+				return new String(frame.getPayload(), SharedBuffer.CHARSET);
+		}
+		return null;
+	}
+	
+	/**
+	 * Count a message read, with the bytes read since the last one (reader)
+	 */
+	private void countIn(){
+		long lRead = this.readerInput.getBytesRead();
+		Server.metrics.countIn(1, lRead - this.lBytesIn);
+		this.lBytesIn = lRead;
+		this.lMessagesIn++;
+	}
+	
+	/**
+	 * Queue a line for the client, the sender never waits for the socket
 	 * @param sLine
 	 */
 	public void printChat(String sLine){
-		this.printstreamOut.println(sLine);
+		this.send(SharedBuffer.encode(sLine));
+	}
+	
+	/**
+	 * Queue an encoded line shared with other recipients
+	 * @param sbLine The line, one reference of it is handed over
+	 */
+	public void send(SharedBuffer sbLine){
+		// Lagging clients are judged by SlowConsumers, evicted ones are closed
+		if (this.refLag.get() == SlowConsumers.Level.SHED && sbLine.isSheddable()){
+			SlowConsumers.shed();
+			sbLine.release();
+		}else if (!this.queueOut.offer(sbLine, true)){
+			this.disconnect("outbound queue overflow");
+		}
+	}
+	
+	/**
+	 * Judge the client's lag, evicting it if it lags too far behind
+	 */
+	public void checkLag(){
+		if (SlowConsumers.check(this.sThreadName, this.queueOut, this.refLag) ==
+				SlowConsumers.Level.EVICT){
+			this.disconnect(null);
+		}
+	}
+	
+	/**
+	 * Write queued lines to the client until the queue is closed
+	 * Lines are gathered in a buffer of FLUSH_SIZE bytes, written out once it
+	 * is full and flushed once no more lines are queued, after lingering for
+	 * FLUSH_DELAY: a burst of lines costs a few writes to the socket, not one
+	 * each. The buffer is the writer's own, closing the socket never waits
+	 * for it.
+	 */
+	private void writeOutbound(){
+		// Lines or binary frames, switched by the line accepting frames
+		boolean bBinaryOut = false;
+		OutputStream streamGather = 
+			new BufferedOutputStream(this.streamOut, Math.max(1, Server.FLUSH_SIZE));
+		SharedBuffer sbLine = this.queueOut.take();
+		while (sbLine != null){
+			try {
+				ByteBuffer buffer = sbLine.view(bBinaryOut);
+				if (sbLine.isSwitchToBinary())
+					bBinaryOut = true;
+				if (buffer == null){
+					// Nothing to be sent in this framing
+				}else if (buffer.hasArray()){
+					// Gathered straight from the shared bytes
+					streamGather.write(
+						buffer.array(), 
+						buffer.arrayOffset() + buffer.position(), 
+						buffer.remaining());
+					this.countOut(buffer.remaining());
+				}else{
+					byte arbLine[] = new byte[buffer.remaining()];
+					buffer.get(arbLine);
+					streamGather.write(arbLine);
+					this.countOut(arbLine.length);
+				}
+			} catch (IOException e) {
+				this.queueOut.close();
+				this.queueOut.clear();
+			} finally {
+				this.queueOut.written(sbLine);
+				sbLine.release();
+			}
+			sbLine = this.queueOut.poll();
+			if (sbLine == null && Server.FLUSH_DELAY > 0){
+				sbLine = this.queueOut.poll(Server.FLUSH_DELAY * 1000);
+			}
+			if (sbLine == null){
+				// Nothing more to gather, out with it
+				try {
+					streamGather.flush();
+					Server.metrics.countFlush();
+				} catch (IOException e) {
+					this.queueOut.close();
+					this.queueOut.clear();
+				}
+				sbLine = this.queueOut.take();
+			}
+		}
+		this.latchWriter.countDown();
+	}
+	
+	/**
+	 * Count a message written (writer)
+	 * @param iBytes Bytes of the message
+	 */
+	private void countOut(int iBytes){
+		Server.metrics.countOut(1, iBytes);
+		this.lBytesOut += iBytes;
+		this.lMessagesOut++;
+	}
+	
+	/**
+	 * Drop a client which does not keep up with reading (any thread)
+	 * @param sReason Why, to be told, or null if told already
+	 */
+	private void disconnect(String sReason){
+		if (this.queueOut.isClosed())
+			return;
+		if (sReason != null)
+			SlowConsumers.evicted(this.sThreadName, sReason);
+		this.queueOut.close();
+		this.queueOut.clear();
+		// Reading thread fails and cleans up
+		try {
+			this.socketClient.close();
+		} catch (IOException e) {
+			System.out.println("Error: Closing client socket!");
+		}
+	}
+	
+	/**
+	 * Number of lines waiting to be written
+	 * @return Queue depth
+	 */
+	public int getQueueDepth(){
+		return this.queueOut.size();
+	}
+	
+	/**
+	 * Number of lines dropped since the client did not keep up
+	 * @return Dropped lines
+	 */
+	public long getDropped(){
+		return this.queueOut.getDropped();
+	}
+	
+	/**
+	 * Bytes waiting to be written
+	 * @return Bytes
+	 */
+	public long getQueuedBytes(){
+		return this.queueOut.getBytes();
+	}
+	
+	/**
+	 * How long the client has kept bytes waiting
+	 * @return Lag (ms)
+	 */
+	public long getLag(){
+		return this.queueOut.getLag();
+	}
+	
+	/**
+	 * User's name
+	 * @return The name or null as long as it is not known
+	 */
+	public String getUserName(){
+		return this.sUserName;
 	}
 	
 	/**
 	 * Give basic help on functionality!
 	 */
 	private void giveHelp(){
-		this.printstreamOut.println("Usage:");
-		this.printstreamOut.println("To leave enter \"/quit\".");
-		this.printstreamOut.println("For help type \"/help\".");
-		this.printstreamOut.println("For user infos type \"/users\".");
+		this.printChat("Usage:");
+		this.printChat("To leave enter \"/quit\".");
+		this.printChat("For help type \"/help\".");
+		this.printChat("For user infos type \"/users\".");
+		this.printChat("For outbound queues type \"/queues\".");
+		this.printChat("For the nodes of the cluster type \"/cluster\".");
+		this.printChat("For server statistics (admins) type \"/stats\".");
+		this.printChat("To become admin type \"/admin password\".");
+		this.printChat("To change the room type \"/join room\".");
+		this.printChat("To go back to the lobby type \"/leave\".");
+		this.printChat("For the rooms type \"/rooms\".");
+		this.printChat("For the last lines of the room type \"/history [n]\".");
+		this.printChat("For binary framing type \"/binary\".");
+	}
+	
+	/**
+	 * Move into another room
+	 * @param sName Name of the room
+	 */
+	private void joinRoom(String sName){
+		if (!Rooms.isValid(sName)){
+			this.printChat(
+				"Usage: /join room (up to " + Rooms.MAX_NAME + 
+				" characters, no blanks)");
+			return;
+		}
+		Rooms.Room roomFrom = this.room;
+		this.room = Server.changeRoom(this, roomFrom, sName);
+		this.printChat("*** You are in " + sName + " ***");
+		if (this.room != roomFrom)
+			Server.replay(this, this.room, Server.HISTORY_REPLAY);
+	}
+	
+	/** 
+	 * List of rooms and their number of members
+	 */
+	private void giveRooms(){
+		this.printChat("Rooms: " + Server.rooms.size());
+		for (String sLine : Server.rooms.list()){
+			this.printChat(sLine);
+		}
+	}
+
+	/**
+	 * The last lines said in the room
+	 * @param sLines Number of lines, empty for as many as on joining
+	 */
+	private void giveHistory(String sLines){
+		int iLines = Server.HISTORY_REPLAY;
+		try {
+			if (sLines.length() > 0)
+				iLines = Integer.parseInt(sLines);
+		} catch (NumberFormatException e) {
+			this.printChat("Usage: /history [n]");
+			return;
+		}
+		Server.replay(this, this.room, iLines);
 	}
 	
 	/** 
 	 * List of users in chat - just for fun
 	 */
 	private void giveUsers(){
-		this.printstreamOut.println(
+		this.printChat(
 			"Clients in chat: " + Server.getActiveClients());
-		for (int i = 0; i < this.clientthreadPool.length; i++){
-			if (
-				this.clientthreadPool[i] != null) {
-				this.printstreamOut.println(this.clientthreadPool[i].sUserName);
+		for (Session session : this.registrySessions){
+			if (session.getUserName() != null){
+				this.printChat(session.getUserName());
+			}
+		}
+		List<String> listRemote = Server.remoteUsers();
+		if (!listRemote.isEmpty()){
+			this.printChat("Clients on other nodes: " + listRemote.size());
+			for (String sUser : listRemote){
+				this.printChat(sUser);
+			}
+		}
+	}
+	
+	/** 
+	 * State of this node's links to the other nodes
+	 */
+	private void giveCluster(){
+		if (Server.cluster == null){
+			this.printChat("No cluster.");
+			return;
+		}
+		for (String sLine : Server.cluster.describe()){
+			this.printChat(sLine);
+		}
+	}
+	
+	/** 
+	 * List of users' outbound queue depths and dropped lines
+	 */
+	private void giveQueues(){
+		this.printChat(SlowConsumers.describe());
+		for (Session session : this.registrySessions){
+			if (session.getUserName() != null){
+				this.printChat(
+					session.getUserName() + ": " + session.getQueueDepth() + 
+					" queued, " + session.getQueuedBytes() + " bytes, lag " +
+					session.getLag() + " ms, " + session.getDropped() + " dropped");
 			}
 		}
 	}
 	
+	/** 
+	 * Traffic and durations of the server and traffic of every client
+	 */
+	private void giveStats(){
+		if (!this.bAdmin){
+			this.printChat("Statistics are for admins only!");
+			return;
+		}
+		for (String sLine : Server.stats()){
+			this.printChat(sLine);
+		}
+	}
+	
+	/** 
+	 * Become admin by the password the server was started with
+	 * @param sPassword The password
+	 */
+	private void becomeAdmin(String sPassword){
+		this.bAdmin = this.bAdmin || Server.isAdmin(sPassword);
+		this.printChat(this.bAdmin ? "You are admin." : "Wrong password!");
+	}
+	
+	/**
+	 * Number of messages read from the client
+	 * @return Messages
+	 */
+	public long getMessagesIn(){
+		return this.lMessagesIn;
+	}
+	
+	/**
+	 * Number of bytes read from the client
+	 * @return Bytes
+	 */
+	public long getBytesIn(){
+		return this.lBytesIn;
+	}
+	
+	/**
+	 * Number of messages written to the client
+	 * @return Messages
+	 */
+	public long getMessagesOut(){
+		return this.lMessagesOut;
+	}
+	
+	/**
+	 * Number of bytes written to the client
+	 * @return Bytes
+	 */
+	public long getBytesOut(){
+		return this.lBytesOut;
+	}
+	
 	/** 
 	 * General cleaning up of client thread pool and all open streams!
 	 */
 	private void cleanup(){
-		// Set this thread to null in client thread pool
-		for (int i = 0; i < this.clientthreadPool.length; i++){
-			if (this.clientthreadPool[i] == this) {
-				this.clientthreadPool[i] = null;
-			}
+		// Remove this thread from the registry and its room
+		this.registrySessions.remove(this);
+		if (this.room != null){
+			Server.rooms.leave(this.room, this);
+			Server.presence(this.sUserName, false);
+		}
+		
+		// Let the writer finish what is queued, but not forever
+		this.queueOut.close();
+		try {
+			if(!this.latchWriter.await(Server.QUEUE_TIMEOUT, TimeUnit.MILLISECONDS))
+				this.queueOut.clear();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 		
 		// Close all streams and connections
@@ -206,8 +584,12 @@ class ClientThread extends Thread {
 			System.out.println("Error: Closing reader input!");
 		}
 		
-		if(this.printstreamOut!=null)
-			this.printstreamOut.close();
+		try {
+			if(this.streamOut!=null)
+				this.streamOut.close();
+		} catch (IOException e) {
+			System.out.println("Error: Closing output stream!");
+		}
 		
 		try {
 			if(this.socketClient!=null)
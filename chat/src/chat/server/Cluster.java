@@ -0,0 +1,519 @@
+/**
+ * File			: Cluster.java
+ * Package		: chat.server
+ * Classes		: Cluster, Cluster.Node, Cluster.Receiver
+ * Description	: Relay of chat lines, notices and presence between nodes
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Cluster:
+ * Several servers (nodes) serve one chat: every node relays the chat lines
+ * and notices said in its rooms and the users coming and going to its
+ * peers, which hand them to their own members of the room and list the
+ * users by /users. Each node accepts its peers on a port of its own and
+ * links to every peer given (see ClusterLink), so a full mesh is given by
+ * naming all other nodes on each node.
+ * A message is framed as its length, type, the origin node and a number
+ * counting the origin's messages, followed by its fields (DataOutput
+ * UTF). It is encoded once and shared by all links. Nodes forward what
+ * they receive to their own peers if asked to (chat.cluster.forward), so
+ * a chain or ring works as well; the origin and number then drop copies
+ * arriving twice, by a window over the last numbers of each origin.
+ * Presence is sent on every new link and every heartbeat; a node not
+ * heard of for three heartbeats is gone with its users.
+ * The port accepting peers is bound to one address, the loopback address
+ * unless told otherwise, and every link proves to know the secret shared
+ * by the nodes before anything it sends is read: the accepting node sends
+ * a random challenge, the linking node answers by its HMAC-SHA256 under
+ * the secret. The messages themselves are neither signed nor encrypted,
+ * so nodes on different hosts belong into a network of their own.
+ * @author Mathias Knoll
+ */
+class Cluster extends Thread {
+
+	// Types of messages
+	static final byte CHAT = 1;
+	static final byte NOTICE = 2;
+	static final byte HERE = 3;
+	static final byte GONE = 4;
+	static final byte PRESENCE = 5;
+	// Largest message accepted (bytes)
+	static final int MAX_MESSAGE = 1 << 20;
+	// Numbers of an origin remembered for dropping copies
+	private static final int WINDOW = 64;
+	// Bytes of a challenge and of its answer
+	static final int CHALLENGE = 16;
+	static final int ANSWER = 32;
+	// Milliseconds a linking node has for its answer
+	static int AUTH_TIMEOUT = 5000;
+
+	/**
+	 * Node:
+	 * Another node as far as heard of
+	 */
+	static class Node {
+		// Name of the node, null until its presence arrived
+		volatile String sName = null;
+		// Users on the node
+		volatile Set<String> setUsers = ConcurrentHashMap.<String>newKeySet();
+		// When last heard of (ms)
+		volatile long lSeen = System.currentTimeMillis();
+		// Highest number received and the numbers below it received
+		private long lMax = 0;
+		private long lWindow = 0;
+
+		/**
+		 * Check a message not to be a copy of one received before
+		 * @param lSeq Number of the message
+		 * @return True if it is new
+		 */
+		synchronized boolean isNew(long lSeq){
+			if (lSeq > this.lMax){
+				long lShift = lSeq - this.lMax;
+				this.lWindow = lShift >= Cluster.WINDOW ? 0 : this.lWindow << lShift;
+				this.lWindow |= 1;
+				this.lMax = lSeq;
+				return true;
+			}
+			long lAge = this.lMax - lSeq;
+			if (lAge >= Cluster.WINDOW || (this.lWindow & (1L << lAge)) != 0)
+				return false;
+			this.lWindow |= 1L << lAge;
+			return true;
+		}
+	}
+
+	/**
+	 * Receiver:
+	 * Reads the messages of a peer linked to this node
+	 */
+	private class Receiver extends Thread {
+		// Socket of the peer
+		private Socket socketPeer;
+
+		Receiver(Socket socketPeer) {
+			super("Cluster receiver " + socketPeer.getRemoteSocketAddress());
+			this.setDaemon(true);
+			this.socketPeer = socketPeer;
+		}
+
+		public void run(){
+			try {
+				DataInputStream streamIn = new DataInputStream(
+					new BufferedInputStream(this.socketPeer.getInputStream()));
+				if (!this.authenticate(streamIn)){
+					System.out.println("Error: Cluster peer " +
+						this.socketPeer.getRemoteSocketAddress() + " does not know the secret");
+					return;
+				}
+				while (true){
+					int iLength = streamIn.readInt();
+					if (iLength < 17 || iLength > Cluster.MAX_MESSAGE)
+						throw new IOException("Bad message length " + iLength);
+					byte arbMessage[] = new byte[4 + iLength];
+					streamIn.readFully(arbMessage, 4, iLength);
+					arbMessage[0] = (byte) (iLength >>> 24);
+					arbMessage[1] = (byte) (iLength >>> 16);
+					arbMessage[2] = (byte) (iLength >>> 8);
+					arbMessage[3] = (byte) iLength;
+					Cluster.this.receive(arbMessage);
+				}
+			} catch (EOFException e) {
+				// Peer gone
+			} catch (IOException e) {
+				System.out.println("Error: Cluster peer " +
+					this.socketPeer.getRemoteSocketAddress() + ": " + e.getMessage());
+			} finally {
+				try {
+					this.socketPeer.close();
+				} catch (IOException e) {
+					// Closed anyway
+				}
+			}
+		}
+
+		/**
+		 * Challenge the peer to prove it knows the secret
+		 * @param streamIn Input of the peer
+		 * @return True if it answered right in time
+		 * @throws IOException
+		 */
+		private boolean authenticate(DataInputStream streamIn) throws IOException {
+			byte arbChallenge[] = new byte[Cluster.CHALLENGE];
+			Cluster.this.random.nextBytes(arbChallenge);
+			OutputStream streamOut = this.socketPeer.getOutputStream();
+			streamOut.write(arbChallenge);
+			streamOut.flush();
+			byte arbAnswer[] = new byte[Cluster.ANSWER];
+			this.socketPeer.setSoTimeout(Cluster.AUTH_TIMEOUT);
+			streamIn.readFully(arbAnswer);
+			this.socketPeer.setSoTimeout(0);
+			return MessageDigest.isEqual(arbAnswer, Cluster.this.answer(arbChallenge));
+		}
+	}
+
+	// Source of node ids and challenges
+	private SecureRandom random = new SecureRandom();
+	// This node, as told to the others
+	private long lNodeId = this.random.nextLong();
+	private String sName;
+	// Secret shared by the nodes
+	private byte arbSecret[];
+	// Number of this node's last message
+	private AtomicLong lSeq = new AtomicLong(0);
+	// Socket accepting peers
+	private ServerSocket socketCluster;
+	// Links to the peers
+	private List<ClusterLink> listLinks = new ArrayList<ClusterLink>();
+	// Other nodes heard of, by id
+	private Map<Long, Node> mapNodes = new ConcurrentHashMap<Long, Node>();
+	// Flag if messages received are forwarded to the peers
+	private boolean bForward;
+	// Messages relayed, received and received twice
+	private AtomicLong lRelayed = new AtomicLong(0);
+	private AtomicLong lReceived = new AtomicLong(0);
+	private AtomicLong lCopies = new AtomicLong(0);
+
+	/**
+	 * Constructor of class Cluster
+	 * @param sBind Address accepting peers, null for the loopback address
+	 * @param iPort Port accepting peers, 0 for any free one
+	 * @param sName Name of this node
+	 * @param sPeers Peers as host:port separated by commas
+	 * @param bForward True to forward messages received to the peers
+	 * @param sSecret Secret shared by the nodes
+	 * @throws IOException
+	 */
+	Cluster(String sBind, int iPort, String sName, String sPeers, boolean bForward,
+			String sSecret) throws IOException {
+		super("Cluster");
+		this.setDaemon(true);
+		if (sSecret == null || sSecret.length() == 0)
+			throw new IOException("No secret shared by the nodes");
+		this.arbSecret = sSecret.getBytes("UTF-8");
+		this.sName = sName;
+		this.bForward = bForward;
+		for (String sPeer : sPeers.split(",")){
+			sPeer = sPeer.trim();
+			if (sPeer.length() == 0)
+				continue;
+			int iColon = sPeer.lastIndexOf(':');
+			if (iColon < 0)
+				throw new IOException("Peer without port: " + sPeer);
+			this.listLinks.add(new ClusterLink(
+				this, sPeer.substring(0, iColon),
+				Integer.parseInt(sPeer.substring(iColon + 1)), Server.CLUSTER_QUEUE));
+		}
+		this.socketCluster = new ServerSocket(iPort, 50, sBind != null ?
+			InetAddress.getByName(sBind) : InetAddress.getLoopbackAddress());
+	}
+
+	/**
+	 * Port accepting peers
+	 * @return The port
+	 */
+	int getPort(){
+		return this.socketCluster.getLocalPort();
+	}
+
+	/**
+	 * Answer to a challenge, proving to know the secret
+	 * @param arbChallenge The challenge
+	 * @return HMAC-SHA256 of the challenge under the secret
+	 */
+	byte[] answer(byte arbChallenge[]){
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(this.arbSecret, "HmacSHA256"));
+			return mac.doFinal(arbChallenge);
+		} catch (GeneralSecurityException e) {
+			// HmacSHA256 is there on every JDK
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Accept peers, link to the peers and beat
+	 */
+	public void run(){
+		for (ClusterLink link : this.listLinks){
+			link.start();
+		}
+		Thread threadHeartbeat = new Thread("Cluster heartbeat") {
+			public void run() {
+				while (true){
+					try {
+						Thread.sleep(Server.CLUSTER_HEARTBEAT);
+					} catch (InterruptedException e) {
+						return;
+					}
+					Cluster.this.heartbeat();
+				}
+			}
+		};
+		threadHeartbeat.setDaemon(true);
+		threadHeartbeat.start();
+
+		System.out.println("Cluster: Node " + this.sName + " on " +
+			this.socketCluster.getLocalSocketAddress());
+		while (true){
+			try {
+				Socket socketPeer = this.socketCluster.accept();
+				socketPeer.setTcpNoDelay(true);
+				new Receiver(socketPeer).start();
+			} catch (IOException e) {
+				System.out.println("Error: Accepting a cluster peer");
+				System.out.println(e);
+			}
+		}
+	}
+
+	/**
+	 * Relay a chat line said in a room
+	 * @param sRoom The room
+	 * @param sLine The line
+	 */
+	void chat(String sRoom, String sLine){
+		this.relay(this.encode(Cluster.CHAT, sRoom, sLine));
+	}
+
+	/**
+	 * Relay a notice to a room
+	 * @param sRoom The room
+	 * @param sLine The notice
+	 */
+	void notice(String sRoom, String sLine){
+		this.relay(this.encode(Cluster.NOTICE, sRoom, sLine));
+	}
+
+	/**
+	 * Relay a user coming or going
+	 * @param sUserName The user
+	 * @param bHere True if coming
+	 */
+	void presence(String sUserName, boolean bHere){
+		this.relay(this.encode(bHere ? Cluster.HERE : Cluster.GONE, sUserName));
+	}
+
+	/**
+	 * The presence of this node: its name and users
+	 * @return The encoded message
+	 */
+	byte[] presence(){
+		List<String> listFields = new ArrayList<String>();
+		listFields.add(this.sName);
+		for (Session session : Server.registrySessions){
+			if (session.getUserName() != null)
+				listFields.add(session.getUserName());
+		}
+		return this.encode(Cluster.PRESENCE, listFields.toArray(new String[0]));
+	}
+
+	/**
+	 * Users on the other nodes
+	 * @return One "user (node)" each
+	 */
+	List<String> users(){
+		List<String> listUsers = new ArrayList<String>();
+		for (Node node : this.mapNodes.values()){
+			for (String sUser : node.setUsers){
+				listUsers.add(sUser + " (" + node.sName + ")");
+			}
+		}
+		return listUsers;
+	}
+
+	/**
+	 * State of the cluster for humans
+	 * @return One line for the node, one per link
+	 */
+	List<String> describe(){
+		List<String> listLines = new ArrayList<String>();
+		listLines.add("Node " + this.sName + ": " + this.mapNodes.size() + " nodes heard of, " +
+			this.lRelayed.get() + " relayed, " + this.lReceived.get() + " received, " +
+			this.lCopies.get() + " copies dropped");
+		for (ClusterLink link : this.listLinks){
+			listLines.add(link.describe());
+		}
+		return listLines;
+	}
+
+	/**
+	 * Messages of other nodes received
+	 * @return Messages
+	 */
+	long getReceived(){
+		return this.lReceived.get();
+	}
+
+	/**
+	 * Messages of other nodes received twice and dropped
+	 * @return Messages
+	 */
+	long getCopies(){
+		return this.lCopies.get();
+	}
+
+	/**
+	 * Hand a message to all links
+	 * @param arbMessage The encoded message
+	 */
+	private void relay(byte arbMessage[]){
+		this.lRelayed.incrementAndGet();
+		for (ClusterLink link : this.listLinks){
+			link.relay(arbMessage);
+		}
+	}
+
+	/**
+	 * Encode a message of this node
+	 * @param bType Type of message
+	 * @param arsFields Its fields
+	 * @return The message
+	 */
+	private byte[] encode(byte bType, String... arsFields){
+		try {
+			ByteArrayOutputStream streamBytes = new ByteArrayOutputStream(64);
+			DataOutputStream streamOut = new DataOutputStream(streamBytes);
+			streamOut.writeInt(0);
+			streamOut.writeByte(bType);
+			streamOut.writeLong(this.lNodeId);
+			streamOut.writeLong(this.lSeq.incrementAndGet());
+			for (int i = 0; i < arsFields.length; i++){
+				streamOut.writeUTF(arsFields[i]);
+				// Presence: the name, the number of users, the users
+				if (bType == Cluster.PRESENCE && i == 0)
+					streamOut.writeInt(arsFields.length - 1);
+			}
+			byte arbMessage[] = streamBytes.toByteArray();
+			int iLength = arbMessage.length - 4;
+			arbMessage[0] = (byte) (iLength >>> 24);
+			arbMessage[1] = (byte) (iLength >>> 16);
+			arbMessage[2] = (byte) (iLength >>> 8);
+			arbMessage[3] = (byte) iLength;
+			return arbMessage;
+		} catch (IOException e) {
+			// Never thrown by a stream into memory
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Act on a message of a peer, unless it is this node's own or a copy
+	 * @param arbMessage The message, its length included
+	 * @throws IOException If it is malformed
+	 */
+	private void receive(byte arbMessage[]) throws IOException{
+		try {
+			this.act(arbMessage);
+		} catch (EOFException e) {
+			throw new IOException("Malformed message");
+		}
+	}
+
+	/**
+	 * Act on a message of a peer, see receive
+	 * @param arbMessage The message, its length included
+	 * @throws IOException If it is malformed
+	 */
+	private void act(byte arbMessage[]) throws IOException{
+		DataInputStream streamIn = new DataInputStream(new ByteArrayInputStream(arbMessage));
+		streamIn.readInt();
+		byte bType = streamIn.readByte();
+		long lOrigin = streamIn.readLong();
+		long lSeq = streamIn.readLong();
+		if (lOrigin == this.lNodeId)
+			return;
+		Node node = this.mapNodes.get(lOrigin);
+		if (node == null){
+			Node nodeNew = new Node();
+			node = this.mapNodes.putIfAbsent(lOrigin, nodeNew);
+			if (node == null)
+				node = nodeNew;
+		}
+		if (!node.isNew(lSeq)){
+			this.lCopies.incrementAndGet();
+			return;
+		}
+		node.lSeen = System.currentTimeMillis();
+		this.lReceived.incrementAndGet();
+
+		if (bType == Cluster.CHAT || bType == Cluster.NOTICE){
+			String sRoom = streamIn.readUTF();
+			String sLine = streamIn.readUTF();
+			Rooms.Room room = Server.rooms.get(sRoom);
+			if (room != null){
+				if (bType == Cluster.CHAT){
+					Server.deliverChat(room, sLine);
+				}else{
+					SharedBuffer sbLine = SharedBuffer.encode(sLine).sheddable();
+					Server.broadcast(room, sbLine, null);
+					sbLine.release();
+				}
+			}
+		}else if (bType == Cluster.HERE){
+			node.setUsers.add(streamIn.readUTF());
+		}else if (bType == Cluster.GONE){
+			node.setUsers.remove(streamIn.readUTF());
+		}else if (bType == Cluster.PRESENCE){
+			node.sName = streamIn.readUTF();
+			int iUsers = streamIn.readInt();
+			Set<String> setUsers = ConcurrentHashMap.<String>newKeySet();
+			for (int i = 0; i < iUsers; i++){
+				setUsers.add(streamIn.readUTF());
+			}
+			node.setUsers = setUsers;
+		}
+
+		if (this.bForward){
+			for (ClusterLink link : this.listLinks){
+				link.relay(arbMessage);
+			}
+		}
+	}
+
+	/**
+	 * Tell the peers this node is alive and forget nodes silent too long
+	 */
+	private void heartbeat(){
+		this.relay(this.presence());
+		long lSilent = System.currentTimeMillis() - 3 * Server.CLUSTER_HEARTBEAT;
+		Iterator<Node> iteratorNodes = this.mapNodes.values().iterator();
+		while (iteratorNodes.hasNext()){
+			Node node = iteratorNodes.next();
+			if (node.lSeen < lSilent){
+				System.out.println("Cluster: Node " + node.sName + " gone");
+				iteratorNodes.remove();
+			}
+		}
+	}
+}
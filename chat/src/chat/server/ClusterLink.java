@@ -0,0 +1,138 @@
+/**
+ * File			: ClusterLink.java
+ * Package		: chat.server
+ * Classes		: ClusterLink
+ * Description	: Link sending this node's messages to one peer node
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ClusterLink:
+ * Connects to a peer node and writes the messages relayed to it, as
+ * encoded by Cluster, in batches with one flush each. Relaying only puts a
+ * message into the bounded queue of the link: a peer being slow or gone
+ * costs dropped messages, counted, never a waiting sender. A lost
+ * connection is opened again every second; the answer to the peer's
+ * challenge (see Cluster) and the presence of this node are the first
+ * things written on every connection.
+ * @author Mathias Knoll
+ */
+class ClusterLink extends Thread {
+
+	// Milliseconds between attempts to connect
+	static int RECONNECT = 1000;
+
+	// The cluster
+	private Cluster cluster;
+	// Address of the peer
+	private String sHost;
+	private int iPort;
+	// Messages waiting to be written
+	private BlockingQueue<byte[]> queueMessages;
+	// Flag if connected
+	private volatile boolean bConnected = false;
+	// Messages dropped because the queue was full
+	private AtomicLong lDropped = new AtomicLong(0);
+
+	/**
+	 * Constructor of class ClusterLink
+	 * @param cluster The cluster
+	 * @param sHost Host of the peer
+	 * @param iPort Cluster port of the peer
+	 * @param iCapacity Messages waiting at most
+	 */
+	ClusterLink(Cluster cluster, String sHost, int iPort, int iCapacity) {
+		super("Cluster link " + sHost + ":" + iPort);
+		this.setDaemon(true);
+		this.cluster = cluster;
+		this.sHost = sHost;
+		this.iPort = iPort;
+		this.queueMessages = new ArrayBlockingQueue<byte[]>(Math.max(1, iCapacity));
+	}
+
+	/**
+	 * Queue a message for the peer
+	 * @param arbMessage The encoded message, shared with the other links
+	 */
+	void relay(byte arbMessage[]){
+		if (!this.queueMessages.offer(arbMessage))
+			this.lDropped.incrementAndGet();
+	}
+
+	/**
+	 * Connect, write and connect again, forever
+	 */
+	public void run(){
+		List<byte[]> listBatch = new ArrayList<byte[]>();
+		while (true){
+			Socket socketPeer = new Socket();
+			try {
+				socketPeer.connect(new InetSocketAddress(this.sHost, this.iPort));
+				socketPeer.setTcpNoDelay(true);
+				byte arbChallenge[] = new byte[Cluster.CHALLENGE];
+				socketPeer.setSoTimeout(Cluster.AUTH_TIMEOUT);
+				new DataInputStream(socketPeer.getInputStream()).readFully(arbChallenge);
+				OutputStream streamOut = new BufferedOutputStream(socketPeer.getOutputStream());
+				streamOut.write(this.cluster.answer(arbChallenge));
+				this.bConnected = true;
+				System.out.println("Cluster: Linked to " + this.sHost + ":" + this.iPort);
+				streamOut.write(this.cluster.presence());
+				streamOut.flush();
+				while (true){
+					listBatch.add(this.queueMessages.take());
+					this.queueMessages.drainTo(listBatch);
+					for (byte arbMessage[] : listBatch){
+						streamOut.write(arbMessage);
+					}
+					listBatch.clear();
+					streamOut.flush();
+				}
+			} catch (IOException e) {
+				if (this.bConnected)
+					System.out.println("Cluster: Lost link to " + this.sHost + ":" + this.iPort + ": " + e.getMessage());
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				this.bConnected = false;
+				// Messages of a batch not written are lost
+				this.lDropped.addAndGet(listBatch.size());
+				listBatch.clear();
+				try {
+					socketPeer.close();
+				} catch (IOException e) {
+					// Closed anyway
+				}
+			}
+			try {
+				Thread.sleep(ClusterLink.RECONNECT);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * State of the link for humans
+	 * @return Peer, connection, queued and dropped messages
+	 */
+	String describe(){
+		return this.sHost + ":" + this.iPort +
+			(this.bConnected ? " linked, " : " not linked, ") +
+			this.queueMessages.size() + " queued, " + this.lDropped.get() + " dropped";
+	}
+}
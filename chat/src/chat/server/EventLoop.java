@@ -0,0 +1,154 @@
+/**
+ * File			: EventLoop.java
+ * Package		: chat.server
+ * Classes		: EventLoop
+ * Description	: Selector thread serving many client channels
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * EventLoop:
+ * One thread with one selector. New sessions and sessions with pending
+ * output are handed in through queues from any thread; everything touching
+ * the channels and selection keys happens on the loop's own thread.
+ * @author Mathias Knoll
+ */
+class EventLoop extends Thread {
+
+	// Size of the read buffer shared by all sessions of this loop
+	static int READ_BUFFER = 8192;
+
+	// Selector of this loop
+	private Selector selector = null;
+	// Sessions waiting to be registered with the selector
+	private Queue<NioSession> queueRegister = new ConcurrentLinkedQueue<NioSession>();
+	// Sessions having output to be flushed
+	private Queue<NioSession> queueFlush = new ConcurrentLinkedQueue<NioSession>();
+	// Flag if a wakeup of the selector is already pending
+	private AtomicBoolean bWakeupPending = new AtomicBoolean(false);
+	// Read buffer, only ever used by this loop's thread
+	private ByteBuffer bufferRead = ByteBuffer.allocateDirect(EventLoop.READ_BUFFER);
+
+	/**
+	 * Constructor of class EventLoop
+	 * @param sName The thread's name
+	 * @throws IOException
+	 */
+	public EventLoop(String sName) throws IOException {
+		super(sName);
+		this.setDaemon(true);
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Hand a new session over to this loop
+	 * @param session The session to register
+	 */
+	void register(NioSession session){
+		this.queueRegister.add(session);
+		this.wakeup();
+	}
+
+	/**
+	 * Ask this loop to flush the session's pending output
+	 * @param session The session having output
+	 */
+	void scheduleFlush(NioSession session){
+		this.queueFlush.add(session);
+		this.wakeup();
+	}
+
+	/**
+	 * Wake up the selector unless a wakeup is pending anyway
+	 */
+	private void wakeup(){
+		if (Thread.currentThread() != this &&
+			this.bWakeupPending.compareAndSet(false, true)){
+			this.selector.wakeup();
+		}
+	}
+
+	/**
+	 * Running the loop
+	 */
+	public void run() {
+		while (true) {
+			try {
+				this.selector.select();
+				this.bWakeupPending.set(false);
+
+				this.processRegistrations();
+
+				Iterator<SelectionKey> iterKeys =
+					this.selector.selectedKeys().iterator();
+				while (iterKeys.hasNext()){
+					SelectionKey key = iterKeys.next();
+					iterKeys.remove();
+					this.processKey(key);
+				}
+
+				// Flushes last, so output produced while handling the keys
+				// of this very loop goes out without another wakeup
+				this.processFlushes();
+			} catch (IOException e) {
+				System.out.println(
+					"[" + this.getName() + "] Failure in event loop: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Register all new sessions with the selector
+	 */
+	private void processRegistrations(){
+		NioSession session;
+		while ((session = this.queueRegister.poll()) != null){
+			try {
+				session.open(this.selector);
+			} catch (IOException e) {
+				session.close();
+			}
+		}
+	}
+
+	/**
+	 * Flush all sessions having pending output
+	 */
+	private void processFlushes(){
+		NioSession session;
+		while ((session = this.queueFlush.poll()) != null){
+			session.flush();
+		}
+	}
+
+	/**
+	 * Dispatch a ready key to its session
+	 * @param key The selected key
+	 */
+	private void processKey(SelectionKey key){
+		NioSession session = (NioSession) key.attachment();
+		try {
+			if (key.isReadable()){
+				session.read(this.bufferRead);
+			}
+			if (key.isValid() && key.isWritable()){
+				session.flush();
+			}
+		} catch (CancelledKeyException e) {
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * File			: History.java
+ * Package		: chat.server
+ * Classes		: History
+ * Description	: Last lines said in a room, kept encoded for replay
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * History:
+ * A ring of the last lines said in a room, bounded by number and age. The
+ * lines are kept as the very buffers they were broadcast in (see
+ * SharedBuffer): the history holds one reference of each, so a replay
+ * neither encodes nor copies anything, and evicting a line hands its buffer
+ * back to the pool. In nio mode the buffers are direct, so the history
+ * lives off the heap.
+ * A client joining a room while a line is being said may get it by the
+ * replay as well as live, it never misses it.
+ * @author Mathias Knoll
+ */
+class History {
+
+	// The lines, oldest at iNext - iCount
+	private SharedBuffer arsbLines[];
+	// When each line was said (ms)
+	private long arlTimes[];
+	// Slot of the next line and number of lines
+	private int iNext = 0;
+	private int iCount = 0;
+	// Age after which a line is forgotten (ms)
+	private long lMaxAge;
+
+	/**
+	 * Constructor of class History
+	 * @param iCapacity Number of lines kept at most, 0 for no history
+	 * @param lMaxAge Age after which a line is forgotten (ms)
+	 */
+	History(int iCapacity, long lMaxAge) {
+		this.arsbLines = new SharedBuffer[Math.max(0, iCapacity)];
+		this.arlTimes = new long[this.arsbLines.length];
+		this.lMaxAge = lMaxAge;
+	}
+
+	/**
+	 * Keep a line, forgetting the oldest one if the history is full
+	 * @param sbLine The line, the history takes a reference of its own
+	 */
+	void add(SharedBuffer sbLine){
+		this.add(sbLine, System.currentTimeMillis());
+	}
+
+	/**
+	 * Keep a line said earlier, e.g. restored from the log
+	 * @param sbLine The line, the history takes a reference of its own
+	 * @param lTime When it was said (ms)
+	 */
+	synchronized void add(SharedBuffer sbLine, long lTime){
+		if (this.arsbLines.length == 0)
+			return;
+		if (this.iCount == this.arsbLines.length){
+			this.arsbLines[this.iNext].release();
+			this.iCount--;
+		}
+		this.arsbLines[this.iNext] = sbLine.retain();
+		this.arlTimes[this.iNext] = lTime;
+		this.iNext = (this.iNext + 1) % this.arsbLines.length;
+		this.iCount++;
+	}
+
+	/**
+	 * The last lines, oldest first
+	 * @param iLines Number of lines asked for
+	 * @return The lines, one reference of each handed over
+	 */
+	synchronized List<SharedBuffer> last(int iLines){
+		this.expire();
+		int iTaken = Math.max(0, Math.min(iLines, this.iCount));
+		List<SharedBuffer> listLines = new ArrayList<SharedBuffer>(iTaken);
+		for (int i = iTaken; i > 0; i--){
+			int iSlot = (this.iNext - i + this.arsbLines.length) % this.arsbLines.length;
+			listLines.add(this.arsbLines[iSlot].retain());
+		}
+		return listLines;
+	}
+
+	/**
+	 * Forget lines older than the maximum age
+	 */
+	private void expire(){
+		long lOldest = System.currentTimeMillis() - this.lMaxAge;
+		while (this.iCount > 0){
+			int iSlot =
+				(this.iNext - this.iCount + this.arsbLines.length) % this.arsbLines.length;
+			if (this.arlTimes[iSlot] >= lOldest)
+				break;
+			this.arsbLines[iSlot].release();
+			this.arsbLines[iSlot] = null;
+			this.iCount--;
+		}
+	}
+
+	/**
+	 * Forget lines older than the maximum age and tell if any is left
+	 * @return True if no line is kept
+	 */
+	synchronized boolean isEmpty(){
+		this.expire();
+		return this.iCount == 0;
+	}
+
+	/**
+	 * Number of lines kept
+	 * @return Lines
+	 */
+	synchronized int size(){
+		return this.iCount;
+	}
+}
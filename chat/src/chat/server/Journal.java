@@ -0,0 +1,663 @@
+/**
+ * File			: Journal.java
+ * Package		: chat.server
+ * Classes		: Journal, Journal.Entry, Journal.Segment
+ * Description	: Durable log of chat lines on memory mapped segments
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import chat.tools.Frame;
+
+/**
+ * Journal:
+ * Appends every chat line to a log on disk, so the history of the rooms
+ * survives a restart. The log is a directory of segments, each a file of
+ * fixed size mapped into memory and named by the number of its first
+ * record, next to a sparse index (number, position and time of every
+ * record starting INDEX_INTERVAL bytes after the previous one indexed).
+ * A record is its length, a CRC32 and the body: time, room and the line's
+ * text as it was encoded for the clients, copied straight from the buffer
+ * broadcast (see SharedBuffer).
+ * Senders only put a reference of the line into a bounded queue, this
+ * thread writes and syncs the records in batches, so a slow disk never
+ * stalls a sender; lines not fitting into the queue are counted and lost
+ * for the log, not for the clients.
+ * On opening, the end of the last segment is found by the checksums (a
+ * torn record ends the log), and the lines younger than the history's age
+ * are put back into their rooms, starting at the index entry next to that
+ * age; the rooms keep them until they expire, members or not (see Rooms).
+ * Segments are sealed (truncated to what they hold) when full and deleted
+ * beyond a number of segments or an age. The next segment is mapped before
+ * the full one is sealed; while it cannot be (e.g. the disk is full), lines
+ * not fitting into the full one are counted as dropped and it is tried again
+ * with the next line.
+ * @author Mathias Knoll
+ */
+class Journal extends Thread {
+
+	// Bytes between entries of the index
+	static int INDEX_INTERVAL = 4096;
+	// Bytes in front of a record's body: length and checksum
+	private static final int RECORD_HEADER = 8;
+	// Bytes of an index entry: number of record, position and time
+	private static final int INDEX_ENTRY = 16;
+	// Suffixes of the files of a segment
+	private static final String LOG = ".log";
+	private static final String INDEX = ".idx";
+
+	/**
+	 * Entry:
+	 * A line waiting to be written
+	 */
+	private static class Entry {
+		// Room the line was said in
+		final String sRoom;
+		// The line, one reference held by the entry
+		final SharedBuffer sbLine;
+		// When it was said (ms)
+		final long lTime;
+
+		Entry(String sRoom, SharedBuffer sbLine, long lTime) {
+			this.sRoom = sRoom;
+			this.sbLine = sbLine;
+			this.lTime = lTime;
+		}
+	}
+
+	/**
+	 * Segment:
+	 * A log file and its index
+	 */
+	private static class Segment {
+		// Number of the first record
+		final long lBase;
+		// The files
+		final File fileLog;
+		final File fileIndex;
+		// Mapped files, null unless being written or read
+		MappedByteBuffer bufferLog = null;
+		MappedByteBuffer bufferIndex = null;
+		// Number of records, end of the last one and entries of the index
+		int iRecords = 0;
+		int iEnd = 0;
+		int iEntries = 0;
+		// Position of the record indexed last
+		int iIndexed = 0;
+		// Time of the last record (ms)
+		long lLast = 0;
+
+		Segment(File fileDir, long lBase) {
+			this.lBase = lBase;
+			String sName = String.format("%020d", lBase);
+			this.fileLog = new File(fileDir, sName + Journal.LOG);
+			this.fileIndex = new File(fileDir, sName + Journal.INDEX);
+		}
+	}
+
+	// Directory of the segments
+	private File fileDir;
+	// Size of a segment (bytes)
+	private int iSegmentSize;
+	// Segments, oldest first, the last one is written
+	private List<Segment> listSegments = new ArrayList<Segment>();
+	// Lines waiting to be written
+	private BlockingQueue<Entry> queueEntries;
+	// Checksum of the writing thread
+	private CRC32 crc = new CRC32();
+	// Lines not logged because the queue was full, and how many were told
+	private AtomicLong lDropped = new AtomicLong();
+	private long lDroppedTold = 0;
+	// Records written since the start
+	private AtomicLong lWritten = new AtomicLong();
+	// Flag if the journal is being closed
+	private volatile boolean bClosing = false;
+
+	/**
+	 * Constructor of class Journal, opens or creates the log
+	 * @param sDir Directory of the segments
+	 * @throws IOException
+	 */
+	Journal(String sDir) throws IOException {
+		super("Journal");
+		this.setDaemon(true);
+		this.fileDir = new File(sDir);
+		if (!this.fileDir.isDirectory() && !this.fileDir.mkdirs())
+			throw new IOException("Cannot create " + sDir);
+		this.iSegmentSize = (int) Math.min(Integer.MAX_VALUE,
+			Math.max(1, Server.LOG_SEGMENT) * 1024L * 1024L);
+		this.queueEntries = new ArrayBlockingQueue<Entry>(Math.max(1, Server.LOG_QUEUE));
+
+		// Segments found, the last one is written on
+		String arsLogs[] = this.fileDir.list(new FilenameFilter() {
+			public boolean accept(File fileParent, String sName) {
+				return sName.endsWith(Journal.LOG);
+			}
+		});
+		Arrays.sort(arsLogs);
+		for (String sLog : arsLogs){
+			try {
+				Segment segment = new Segment(this.fileDir, Long.parseLong(
+					sLog.substring(0, sLog.length() - Journal.LOG.length())));
+				segment.iEnd = (int) segment.fileLog.length();
+				segment.lLast = segment.fileLog.lastModified();
+				this.listSegments.add(segment);
+			} catch (NumberFormatException e) {
+				System.out.println("Error: Not a segment of the journal: " + sLog);
+			}
+		}
+		if (this.listSegments.isEmpty()){
+			this.listSegments.add(new Segment(this.fileDir, 0));
+			this.openWrite(this.active(), false);
+		}else{
+			this.openWrite(this.active(), true);
+		}
+	}
+
+	/**
+	 * Log a line, never waiting for the disk
+	 * @param sRoom Room the line was said in
+	 * @param sbLine The line, the journal takes a reference of its own
+	 */
+	void append(String sRoom, SharedBuffer sbLine){
+		Entry entry = new Entry(sRoom, sbLine.retain(), System.currentTimeMillis());
+		if (this.bClosing || !this.queueEntries.offer(entry)){
+			sbLine.release();
+			this.lDropped.incrementAndGet();
+			return;
+		}
+		// Closed meanwhile: the writer may have found the queue empty and
+		// stopped, the entry is taken back unless it got it
+		if (this.bClosing && this.queueEntries.remove(entry)){
+			sbLine.release();
+			this.lDropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Put the lines younger than an age back into the history of their
+	 * rooms, before any client is served
+	 * @param rooms The rooms
+	 * @param lSince Time of the oldest line wanted (ms)
+	 * @return Number of lines restored
+	 */
+	int recover(Rooms rooms, long lSince){
+		// Segments to be read, from the newest one back to the first one
+		// starting before the age wanted
+		int iFirst = this.listSegments.size() - 1;
+		while (iFirst > 0 && this.firstTime(this.listSegments.get(iFirst)) > lSince)
+			iFirst--;
+
+		int iLines = 0;
+		for (int i = iFirst; i < this.listSegments.size(); i++){
+			Segment segment = this.listSegments.get(i);
+			try {
+				boolean bActive = segment == this.active();
+				ByteBuffer bufferLog = bActive ? segment.bufferLog :
+					Journal.map(segment.fileLog, FileChannel.MapMode.READ_ONLY, segment.fileLog.length());
+				int iEnd = bActive ? segment.iEnd : bufferLog.limit();
+				int iPos = i == iFirst ? this.seek(segment, lSince) : 0;
+				int iBody;
+				while ((iBody = this.validate(bufferLog, iPos, iEnd)) > 0){
+					ByteBuffer bufferBody = bufferLog.duplicate();
+					bufferBody.limit(iPos + Journal.RECORD_HEADER + iBody);
+					bufferBody.position(iPos + Journal.RECORD_HEADER);
+					long lTime = bufferBody.getLong();
+					byte arbRoom[] = new byte[bufferBody.getShort()];
+					bufferBody.get(arbRoom);
+					if (lTime >= lSince){
+						String sRoom = new String(arbRoom, SharedBuffer.CHARSET);
+						SharedBuffer sbLine = SharedBuffer.encode(
+							SharedBuffer.CHARSET.decode(bufferBody).toString());
+						rooms.restore(sRoom, sbLine, lTime);
+						sbLine.release();
+						iLines++;
+					}
+					iPos += Journal.RECORD_HEADER + iBody;
+				}
+			} catch (IOException e) {
+				System.out.println("Error: Reading journal segment " + segment.fileLog);
+				System.out.println(e);
+			}
+		}
+		for (Segment segment : this.listSegments){
+			if (segment != this.active())
+				segment.bufferIndex = null;
+		}
+		return iLines;
+	}
+
+	/**
+	 * Write and sync until closed
+	 */
+	public void run(){
+		List<Entry> listBatch = new ArrayList<Entry>();
+		long lSynced = System.currentTimeMillis();
+		boolean bDirty = false;
+		while (true){
+			try {
+				long lWait = this.bClosing ? 0 : Server.LOG_SYNC > 0 ? Math.max(1,
+					lSynced + Server.LOG_SYNC - System.currentTimeMillis()) : 1000;
+				Entry entry = this.queueEntries.poll(lWait, TimeUnit.MILLISECONDS);
+				if (entry != null){
+					listBatch.add(entry);
+					this.queueEntries.drainTo(listBatch);
+				}
+				try {
+					for (Entry entryBatch : listBatch){
+						this.write(entryBatch);
+						bDirty = true;
+					}
+				} finally {
+					for (Entry entryBatch : listBatch)
+						entryBatch.sbLine.release();
+					listBatch.clear();
+				}
+
+				// Sync after every batch, every LOG_SYNC ms or never
+				long lNow = System.currentTimeMillis();
+				if (bDirty && (Server.LOG_SYNC == 0 ||
+						(Server.LOG_SYNC > 0 && lNow - lSynced >= Server.LOG_SYNC) ||
+						(this.bClosing && Server.LOG_SYNC >= 0))){
+					this.active().bufferLog.force();
+					this.active().bufferIndex.force();
+					bDirty = false;
+				}
+				if (lNow - lSynced >= Server.LOG_SYNC)
+					lSynced = lNow;
+				this.tellDropped();
+				if (this.bClosing && this.queueEntries.isEmpty())
+					return;
+			} catch (InterruptedException e) {
+				// Closing: what is queued is still written
+				if (!this.bClosing)
+					return;
+			} catch (RuntimeException e) {
+				// The thread goes on, a line lost is better than all after it
+				System.out.println("Error: Writing journal");
+				System.out.println(e);
+			}
+		}
+	}
+
+	/**
+	 * Write what is queued, sync it and stop writing
+	 */
+	void close(){
+		this.bClosing = true;
+		this.interrupt();
+		try {
+			this.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Records written since the start
+	 * @return Records
+	 */
+	long getWritten(){
+		return this.lWritten.get();
+	}
+
+	/**
+	 * Lines not logged because the writer fell behind
+	 * @return Lines
+	 */
+	long getDropped(){
+		return this.lDropped.get();
+	}
+
+	/**
+	 * Write a record into the active segment, rolling over if it is full;
+	 * a line fitting into no segment is counted as dropped
+	 * @param entry The line
+	 */
+	private void write(Entry entry){
+		ByteBuffer bufferText = entry.sbLine.view(true);
+		bufferText.position(Frame.HEADER);
+		byte arbRoom[] = entry.sRoom.getBytes(SharedBuffer.CHARSET);
+		int iBody = 8 + 2 + arbRoom.length + bufferText.remaining();
+		if (Journal.RECORD_HEADER + iBody > this.iSegmentSize){
+			this.lDropped.incrementAndGet();
+			return;
+		}
+		if (this.active().iEnd + Journal.RECORD_HEADER + iBody > this.iSegmentSize &&
+				!this.roll()){
+			this.lDropped.incrementAndGet();
+			return;
+		}
+
+		Segment segment = this.active();
+		MappedByteBuffer bufferLog = segment.bufferLog;
+		int iStart = segment.iEnd;
+		bufferLog.position(iStart + Journal.RECORD_HEADER);
+		bufferLog.putLong(entry.lTime);
+		bufferLog.putShort((short) arbRoom.length);
+		bufferLog.put(arbRoom);
+		bufferLog.put(bufferText);
+		ByteBuffer bufferBody = bufferLog.duplicate();
+		bufferBody.limit(iStart + Journal.RECORD_HEADER + iBody);
+		bufferBody.position(iStart + Journal.RECORD_HEADER);
+		this.crc.reset();
+		this.crc.update(bufferBody);
+		bufferLog.putInt(iStart + 4, (int) this.crc.getValue());
+		// The length last, a record without it is not there
+		bufferLog.putInt(iStart, iBody);
+
+		if (segment.iRecords == 0 ||
+				iStart - segment.iIndexed >= Journal.INDEX_INTERVAL)
+			this.index(segment, iStart, entry.lTime);
+		segment.iEnd = iStart + Journal.RECORD_HEADER + iBody;
+		segment.iRecords++;
+		segment.lLast = entry.lTime;
+		this.lWritten.incrementAndGet();
+	}
+
+	/**
+	 * Add an entry to the index of a segment
+	 * @param segment The segment
+	 * @param iPos Position of the record
+	 * @param lTime Time of the record (ms)
+	 */
+	private void index(Segment segment, int iPos, long lTime){
+		int iEntry = segment.iEntries * Journal.INDEX_ENTRY;
+		if (iEntry + Journal.INDEX_ENTRY > segment.bufferIndex.capacity())
+			return;
+		segment.bufferIndex.putInt(iEntry, segment.iRecords);
+		segment.bufferIndex.putInt(iEntry + 4, iPos);
+		segment.bufferIndex.putLong(iEntry + 8, lTime);
+		segment.iEntries++;
+		segment.iIndexed = iPos;
+	}
+
+	/**
+	 * Start a new segment and seal the active one, dropping old segments;
+	 * the active one is kept as it is unless the new one is mapped
+	 * @return False if the new segment could not be mapped
+	 */
+	private boolean roll(){
+		Segment segment = this.active();
+		Segment segmentNew = new Segment(this.fileDir, segment.lBase + segment.iRecords);
+		if (!this.openNew(segmentNew))
+			return false;
+
+		segment.bufferLog.force();
+		segment.bufferIndex.force();
+		segment.bufferLog = null;
+		segment.bufferIndex = null;
+		// Sealed segments take no more room than their records
+		Journal.truncate(segment.fileLog, segment.iEnd);
+		Journal.truncate(segment.fileIndex, (long) segment.iEntries * Journal.INDEX_ENTRY);
+		this.listSegments.add(segmentNew);
+
+		// Retention by number and age of segments
+		long lOldest = System.currentTimeMillis() - Server.LOG_RETENTION * 1000;
+		while (this.listSegments.size() > 1 &&
+				(this.listSegments.size() > Math.max(2, Server.LOG_SEGMENTS) ||
+				(Server.LOG_RETENTION > 0 && this.listSegments.get(0).lLast < lOldest))){
+			Segment segmentOld = this.listSegments.remove(0);
+			if (!segmentOld.fileLog.delete() || !segmentOld.fileIndex.delete())
+				System.out.println("Error: Deleting journal segment " + segmentOld.fileLog);
+		}
+		return true;
+	}
+
+	/**
+	 * Map a new segment for writing; an interrupt by close() getting in the
+	 * way is cleared and the mapping tried once more
+	 * @param segment The segment
+	 * @return False if it could not be mapped
+	 */
+	private boolean openNew(Segment segment){
+		for (int iTry = 0; ; iTry++){
+			try {
+				this.openWrite(segment, false);
+				return true;
+			} catch (ClosedByInterruptException e) {
+				Thread.interrupted();
+				if (iTry > 0){
+					Journal.discard(segment, e);
+					return false;
+				}
+			} catch (IOException e) {
+				Journal.discard(segment, e);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Tell about a segment which could not be started and delete what was
+	 * created of it, so it is not taken for a segment on opening
+	 * @param segment The segment
+	 * @param e Why it could not be started
+	 */
+	private static void discard(Segment segment, IOException e){
+		System.out.println("Error: Starting journal segment " + segment.fileLog);
+		System.out.println(e);
+		segment.bufferLog = null;
+		segment.bufferIndex = null;
+		if (segment.fileLog.isFile())
+			segment.fileLog.delete();
+		if (segment.fileIndex.isFile())
+			segment.fileIndex.delete();
+	}
+
+	/**
+	 * Map a segment for writing; an existing one is checked record by
+	 * record from its last index entry on, what follows the last good
+	 * record is cleared
+	 * @param segment The segment
+	 * @param bExisting True if the segment has been written before
+	 * @throws IOException
+	 */
+	private void openWrite(Segment segment, boolean bExisting) throws IOException{
+		segment.bufferLog = Journal.map(
+			segment.fileLog, FileChannel.MapMode.READ_WRITE, this.iSegmentSize);
+		segment.bufferIndex = Journal.map(
+			segment.fileIndex, FileChannel.MapMode.READ_WRITE,
+			(long) (this.iSegmentSize / Journal.INDEX_INTERVAL + 2) * Journal.INDEX_ENTRY);
+		if (!bExisting)
+			return;
+
+		// Last index entry pointing at a good record
+		segment.iEnd = 0;
+		segment.iRecords = 0;
+		segment.iEntries = this.countEntries(segment);
+		while (segment.iEntries > 0){
+			int iEntry = (segment.iEntries - 1) * Journal.INDEX_ENTRY;
+			int iPos = segment.bufferIndex.getInt(iEntry + 4);
+			if (this.validate(segment.bufferLog, iPos, this.iSegmentSize) > 0){
+				segment.iEnd = iPos;
+				segment.iRecords = segment.bufferIndex.getInt(iEntry);
+				segment.iIndexed = iPos;
+				break;
+			}
+			segment.iEntries--;
+		}
+		Journal.clear(segment.bufferIndex, segment.iEntries * Journal.INDEX_ENTRY);
+
+		// Records behind it
+		int iBody;
+		while ((iBody = this.validate(segment.bufferLog, segment.iEnd, this.iSegmentSize)) > 0){
+			segment.lLast = segment.bufferLog.getLong(segment.iEnd + Journal.RECORD_HEADER);
+			segment.iEnd += Journal.RECORD_HEADER + iBody;
+			segment.iRecords++;
+		}
+		Journal.clear(segment.bufferLog, segment.iEnd);
+	}
+
+	/**
+	 * Position of the last indexed record older than a time, to read from
+	 * @param segment The segment
+	 * @param lTime The time (ms)
+	 * @return Position, 0 if the first record is not older
+	 * @throws IOException
+	 */
+	private int seek(Segment segment, long lTime) throws IOException{
+		int iLow = 0;
+		int iHigh = this.countEntries(segment) - 1;
+		int iPos = 0;
+		while (iLow <= iHigh){
+			int iMiddle = (iLow + iHigh) >>> 1;
+			int iEntry = iMiddle * Journal.INDEX_ENTRY;
+			if (segment.bufferIndex.getLong(iEntry + 8) < lTime){
+				iPos = segment.bufferIndex.getInt(iEntry + 4);
+				iLow = iMiddle + 1;
+			}else{
+				iHigh = iMiddle - 1;
+			}
+		}
+		return iPos;
+	}
+
+	/**
+	 * Time of the first record of a segment
+	 * @param segment The segment
+	 * @return Time (ms), 0 if unknown
+	 */
+	private long firstTime(Segment segment){
+		try {
+			return this.countEntries(segment) > 0 ? segment.bufferIndex.getLong(8) : 0;
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Number of entries in the index of a segment, mapping it if needed
+	 * @param segment The segment
+	 * @return Entries
+	 * @throws IOException
+	 */
+	private int countEntries(Segment segment) throws IOException{
+		if (segment.bufferIndex == null)
+			segment.bufferIndex = Journal.map(
+				segment.fileIndex, FileChannel.MapMode.READ_ONLY, segment.fileIndex.length());
+		int iEntries = 0;
+		while ((iEntries + 1) * Journal.INDEX_ENTRY <= segment.bufferIndex.capacity() &&
+				segment.bufferIndex.getLong(iEntries * Journal.INDEX_ENTRY + 8) != 0)
+			iEntries++;
+		return iEntries;
+	}
+
+	/**
+	 * Check a record by its length and checksum
+	 * @param buffer The segment
+	 * @param iPos Position of the record
+	 * @param iEnd End of the segment
+	 * @return Length of its body, 0 if there is no good record
+	 */
+	private int validate(ByteBuffer buffer, int iPos, int iEnd){
+		if (iPos + Journal.RECORD_HEADER > iEnd)
+			return 0;
+		int iBody = buffer.getInt(iPos);
+		if (iBody <= 0 || iBody > iEnd - iPos - Journal.RECORD_HEADER)
+			return 0;
+		ByteBuffer bufferBody = buffer.duplicate();
+		bufferBody.limit(iPos + Journal.RECORD_HEADER + iBody);
+		bufferBody.position(iPos + Journal.RECORD_HEADER);
+		CRC32 crcCheck = new CRC32();
+		crcCheck.update(bufferBody);
+		return (int) crcCheck.getValue() == buffer.getInt(iPos + 4) ? iBody : 0;
+	}
+
+	/**
+	 * Tell about lines lost for the log since the last time
+	 */
+	private void tellDropped(){
+		long lDroppedNow = this.lDropped.get();
+		if (lDroppedNow != this.lDroppedTold){
+			System.out.println("Error: Journal behind, " +
+				(lDroppedNow - this.lDroppedTold) + " lines not logged");
+			this.lDroppedTold = lDroppedNow;
+		}
+	}
+
+	/**
+	 * The segment being written
+	 * @return The last segment
+	 */
+	private Segment active(){
+		return this.listSegments.get(this.listSegments.size() - 1);
+	}
+
+	/**
+	 * Map a file, growing it to the size if written
+	 * @param file The file
+	 * @param mode Read only or read and write
+	 * @param lSize Size (bytes)
+	 * @return The mapping, valid after the file is closed
+	 * @throws IOException
+	 */
+	private static MappedByteBuffer map(File file, FileChannel.MapMode mode, long lSize)
+			throws IOException{
+		boolean bWrite = mode == FileChannel.MapMode.READ_WRITE;
+		RandomAccessFile raf = new RandomAccessFile(file, bWrite ? "rw" : "r");
+		try {
+			if (bWrite && raf.length() < lSize)
+				raf.setLength(lSize);
+			return raf.getChannel().map(mode, 0, lSize);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Zero a mapped file from a position on, touching only pages holding
+	 * something, so a file cleanly written up to there stays untouched
+	 * @param buffer The mapped file
+	 * @param iFrom The position
+	 */
+	private static void clear(MappedByteBuffer buffer, int iFrom){
+		int i = iFrom;
+		for (; i < buffer.capacity() && (i & 7) != 0; i++)
+			buffer.put(i, (byte) 0);
+		for (; i + 8 <= buffer.capacity(); i += 8){
+			if (buffer.getLong(i) != 0)
+				buffer.putLong(i, 0);
+		}
+		for (; i < buffer.capacity(); i++)
+			buffer.put(i, (byte) 0);
+	}
+
+	/**
+	 * Cut a file to a size
+	 * @param file The file
+	 * @param lSize Size (bytes)
+	 */
+	private static void truncate(File file, long lSize){
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.getChannel().truncate(lSize);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			System.out.println("Error: Sealing journal segment " + file);
+			System.out.println(e);
+		}
+	}
+}
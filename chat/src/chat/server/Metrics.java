@@ -0,0 +1,203 @@
+/**
+ * File			: Metrics.java
+ * Package		: chat.server
+ * Classes		: Metrics
+ * Description	: Counters and latency histograms of the whole server
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import chat.tools.Histogram;
+
+/**
+ * Metrics:
+ * Traffic and durations of all sessions, for /stats and JMX. Recording is
+ * on the hot path of every message, so nothing in here takes a lock: the
+ * counters are striped (LongAdder), each thread adding to a cell of its own
+ * and the cells summed only when read, and the histograms are lock free.
+ * Traffic of a single session is counted by the session itself (see
+ * ClientThread and NioSession), queue depths are looked at only when asked
+ * for.
+ * @author Mathias Knoll
+ */
+class Metrics implements MetricsMXBean {
+
+	// Sessions of all connected clients
+	private SessionRegistry<Session> registrySessions = null;
+	// Messages and bytes read from all clients
+	private LongAdder lMessagesIn = new LongAdder();
+	private LongAdder lBytesIn = new LongAdder();
+	// Messages and bytes written to all clients
+	private LongAdder lMessagesOut = new LongAdder();
+	private LongAdder lBytesOut = new LongAdder();
+	// Flushes of gathered output to all clients
+	private LongAdder lFlushes = new LongAdder();
+	// Durations of broadcasts and replays (ns)
+	private Histogram histogramBroadcast = new Histogram();
+	private Histogram histogramReplay = new Histogram();
+
+	/**
+	 * Constructor of class Metrics
+	 * @param registrySessions Sessions of all connected clients
+	 */
+	Metrics(SessionRegistry<Session> registrySessions) {
+		this.registrySessions = registrySessions;
+	}
+
+	/**
+	 * Make the metrics visible by JMX
+	 * @param sName Object name, e.g. "chat:type=Metrics"
+	 * @throws JMException
+	 */
+	void register(String sName) throws JMException {
+		ManagementFactory.getPlatformMBeanServer()
+			.registerMBean(this, new ObjectName(sName));
+	}
+
+	/**
+	 * Messages were read from a client (its reader)
+	 * @param lMessages Messages read
+	 * @param lBytes Bytes read for them
+	 */
+	void countIn(long lMessages, long lBytes){
+		this.lMessagesIn.add(lMessages);
+		this.lBytesIn.add(lBytes);
+	}
+
+	/**
+	 * Messages were written to a client (its writer)
+	 * @param lMessages Messages written
+	 * @param lBytes Bytes written
+	 */
+	void countOut(long lMessages, long lBytes){
+		this.lMessagesOut.add(lMessages);
+		this.lBytesOut.add(lBytes);
+	}
+
+	/**
+	 * Output gathered for a client was flushed (its writer)
+	 */
+	void countFlush(){
+		this.lFlushes.increment();
+	}
+
+	/**
+	 * Record a broadcast
+	 * @param lNanos Duration (ns)
+	 */
+	void recordBroadcast(long lNanos){
+		this.histogramBroadcast.record(lNanos);
+	}
+
+	/**
+	 * Record a replay
+	 * @param lNanos Duration (ns)
+	 */
+	void recordReplay(long lNanos){
+		this.histogramReplay.record(lNanos);
+	}
+
+	public int getClients(){
+		return this.registrySessions.size();
+	}
+
+	public long getMessagesIn(){
+		return this.lMessagesIn.sum();
+	}
+
+	public long getBytesIn(){
+		return this.lBytesIn.sum();
+	}
+
+	public long getMessagesOut(){
+		return this.lMessagesOut.sum();
+	}
+
+	public long getBytesOut(){
+		return this.lBytesOut.sum();
+	}
+
+	public long getFlushes(){
+		return this.lFlushes.sum();
+	}
+
+	public long getQueued(){
+		long lQueued = 0;
+		for (Session session : this.registrySessions){
+			lQueued += session.getQueueDepth();
+		}
+		return lQueued;
+	}
+
+	public int getQueuedMax(){
+		int iMax = 0;
+		for (Session session : this.registrySessions){
+			iMax = Math.max(iMax, session.getQueueDepth());
+		}
+		return iMax;
+	}
+
+	public long getEvicted(){
+		return SlowConsumers.getEvicted();
+	}
+
+	public long getShed(){
+		return SlowConsumers.getShed();
+	}
+
+	public Latency getBroadcast(){
+		return Metrics.latency(this.histogramBroadcast);
+	}
+
+	public Latency getReplay(){
+		return Metrics.latency(this.histogramReplay);
+	}
+
+	public String[] sessions(){
+		List<String> listLines = new ArrayList<String>();
+		for (Session session : this.registrySessions){
+			if (session.getUserName() == null)
+				continue;
+			listLines.add(
+				session.getUserName() + ": in " +
+				session.getMessagesIn() + " messages/" +
+				session.getBytesIn() + " bytes, out " +
+				session.getMessagesOut() + " messages/" +
+				session.getBytesOut() + " bytes, " +
+				session.getQueueDepth() + " queued, " +
+				session.getQueuedBytes() + " bytes, lag " +
+				session.getLag() + " ms, " +
+				session.getDropped() + " dropped");
+		}
+		return listLines.toArray(new String[listLines.size()]);
+	}
+
+	public void reset(){
+		this.histogramBroadcast.reset();
+		this.histogramReplay.reset();
+	}
+
+	/**
+	 * Percentiles of a histogram of nanoseconds, in microseconds
+	 * @param histogram The histogram
+	 * @return The percentiles
+	 */
+	private static Latency latency(Histogram histogram){
+		return new Latency(
+			histogram.getCount(),
+			histogram.getPercentile(50) / 1000,
+			histogram.getPercentile(99) / 1000,
+			histogram.getPercentile(99.9) / 1000,
+			histogram.getMax() / 1000);
+	}
+}
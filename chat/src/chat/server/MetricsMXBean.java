@@ -0,0 +1,164 @@
+/**
+ * File			: MetricsMXBean.java
+ * Package		: chat.server
+ * Classes		: MetricsMXBean, MetricsMXBean.Latency
+ * Description	: Management interface of the server's metrics (JMX)
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+/**
+ * MetricsMXBean:
+ * What the server tells about itself by JMX (e.g. jconsole), registered as
+ * "chat:type=Metrics". Durations come as Latency, shown as one composite of
+ * count and percentiles in microseconds.
+ * @author Mathias Knoll
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * Latency:
+	 * Percentiles of durations at the time asked (us)
+	 */
+	public static class Latency {
+		// Number of durations
+		private long lCount;
+		// Percentiles and maximum (us)
+		private long lP50;
+		private long lP99;
+		private long lP999;
+		private long lMax;
+
+		/**
+		 * Constructor of class Latency
+		 * @param lCount Number of durations
+		 * @param lP50 Median (us)
+		 * @param lP99 99th percentile (us)
+		 * @param lP999 99.9th percentile (us)
+		 * @param lMax Maximum (us)
+		 */
+		public Latency(long lCount, long lP50, long lP99, long lP999, long lMax) {
+			this.lCount = lCount;
+			this.lP50 = lP50;
+			this.lP99 = lP99;
+			this.lP999 = lP999;
+			this.lMax = lMax;
+		}
+
+		public long getCount(){
+			return this.lCount;
+		}
+
+		public long getP50(){
+			return this.lP50;
+		}
+
+		public long getP99(){
+			return this.lP99;
+		}
+
+		public long getP999(){
+			return this.lP999;
+		}
+
+		public long getMax(){
+			return this.lMax;
+		}
+
+		/**
+		 * Summary for humans
+		 * @return The summary
+		 */
+		public String toString(){
+			return this.lCount + ", p50 " + this.lP50 + " us, p99 " + this.lP99 +
+				" us, p99.9 " + this.lP999 + " us, max " + this.lMax + " us";
+		}
+	}
+
+	/**
+	 * Number of connected clients
+	 * @return Clients
+	 */
+	int getClients();
+
+	/**
+	 * Messages (lines or frames) read from all clients
+	 * @return Messages
+	 */
+	long getMessagesIn();
+
+	/**
+	 * Bytes read from all clients
+	 * @return Bytes
+	 */
+	long getBytesIn();
+
+	/**
+	 * Messages written to all clients
+	 * @return Messages
+	 */
+	long getMessagesOut();
+
+	/**
+	 * Bytes written to all clients
+	 * @return Bytes
+	 */
+	long getBytesOut();
+
+	/**
+	 * Flushes of gathered output to all clients, each a write to a socket
+	 * or a few for more than a buffer full
+	 * @return Flushes
+	 */
+	long getFlushes();
+
+	/**
+	 * Messages waiting in the outbound queues of connected clients
+	 * @return Messages
+	 */
+	long getQueued();
+
+	/**
+	 * Deepest outbound queue of a connected client
+	 * @return Messages
+	 */
+	int getQueuedMax();
+
+	/**
+	 * Clients evicted for lagging behind or overflowing their queue
+	 * @return Clients
+	 */
+	long getEvicted();
+
+	/**
+	 * Notices left out for clients lagging behind
+	 * @return Notices
+	 */
+	long getShed();
+
+	/**
+	 * Time of a chat line handed to all members of its room on this node,
+	 * history and log included
+	 * @return Latency
+	 */
+	Latency getBroadcast();
+
+	/**
+	 * Time of the last lines of a room sent to a client joining it
+	 * @return Latency
+	 */
+	Latency getReplay();
+
+	/**
+	 * Traffic of every connected client, one line each
+	 * @return The lines
+	 */
+	String[] sessions();
+
+	/**
+	 * Forget all durations, e.g. before a load test
+	 */
+	void reset();
+}
@@ -0,0 +1,109 @@
+/**
+ * File			: NioServer.java
+ * Package		: chat.server
+ * Classes		: NioServer
+ * Description	: Non-blocking chat server driven by a few event loops
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * NioServer:
+ * Selector based variant of the chat server. Instead of one thread per client
+ * the accepted channels are handed round robin to a small, fixed set of event
+ * loops, each of which serves all of its connections with a single selector.
+ * Idle connections therefore cost a channel and a small session object only.
+ * @author Mathias Knoll
+ */
+class NioServer {
+
+	// Backlog of pending connections for the server channel
+	static int BACKLOG = 1024;
+
+	// Channel of server
+	private ServerSocketChannel channelServer = null;
+	// Event loops serving the client channels
+	private EventLoop eventloopPool[];
+	// Sessions of all connected clients
+	private SessionRegistry<Session> registrySessions = null;
+
+	/**
+	 * Constructor of class NioServer
+	 * Opens the server channel and starts the event loops
+	 * @param iPort The port to listen on
+	 * @param iLoops Number of event loops
+	 * @param registrySessions The registry of all clients' sessions
+	 * @throws IOException
+	 */
+	public NioServer(
+			int iPort, 
+			int iLoops, 
+			SessionRegistry<Session> registrySessions) throws IOException {
+		this.registrySessions = registrySessions;
+		this.channelServer = ServerSocketChannel.open();
+		this.channelServer.bind(new InetSocketAddress(iPort), NioServer.BACKLOG);
+
+		this.eventloopPool = new EventLoop[Math.max(1, iLoops)];
+		for (int i = 0; i < this.eventloopPool.length; i++){
+			this.eventloopPool[i] = new EventLoop("EventLoop-" + (i + 1));
+			this.eventloopPool[i].start();
+		}
+	}
+
+	/**
+	 * Accept connections and hand them over to the event loops (blocks)
+	 */
+	public void run() {
+		// Numbers of connections
+		int iConnectionNumber = 0;
+
+		System.out.println(
+			"Server up and running with " + this.eventloopPool.length +
+			" event loops ...");
+
+		while (true) {
+			try {
+				SocketChannel channelClient = this.channelServer.accept();
+				iConnectionNumber++;
+
+				channelClient.configureBlocking(false);
+				channelClient.socket().setTcpNoDelay(true);
+
+				EventLoop eventloop =
+					this.eventloopPool[iConnectionNumber % this.eventloopPool.length];
+				NioSession session =
+					new NioSession(
+						"Client-" + iConnectionNumber,
+						channelClient,
+						eventloop,
+						this);
+				if (this.registrySessions.add(session)){
+					eventloop.register(session);
+				}else{
+					System.out.println("No slots free for new client!");
+					channelClient.close();
+				}
+
+			}// try
+			catch (IOException e) {
+				System.out.println("Error: Accepting a client");
+				System.out.println(e);
+			}
+		}
+	}
+
+	/**
+	 * Sessions of all connected clients
+	 * @return The registry
+	 */
+	SessionRegistry<Session> getSessions(){
+		return this.registrySessions;
+	}
+}
@@ -0,0 +1,765 @@
+/**
+ * File			: NioSession.java
+ * Package		: chat.server
+ * Classes		: NioSession
+ * Description	: A client's connection served by an event loop
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import chat.tools.Frame;
+
+/**
+ * NioSession:
+ * Non-blocking counterpart of ClientThread speaking the very same line
+ * protocol. Incoming bytes are split into lines, outgoing lines are queued
+ * and written by the owning event loop whenever the channel accepts data.
+ * Between messages a session holds no buffers, so idle clients are cheap.
+ * @author Mathias Knoll
+ */
+class NioSession implements Session {
+
+	// Longest line accepted from a client (bytes)
+	static int MAX_LINE = 8192;
+	// Most lines written by one gathering write
+	static int GATHER = 16;
+
+	// The client's channel
+	private SocketChannel channelClient = null;
+	// Key of the channel within the event loop's selector
+	private SelectionKey keySelection = null;
+	// Event loop serving this session
+	private EventLoop eventloop = null;
+	// Server holding all sessions
+	private NioServer server = null;
+	// Session's name
+	private String sThreadName = null;
+	// User's name
+	private volatile String sUserName = null;
+	// Room the client is in, null until it has a name (event loop only)
+	private Rooms.Room room = null;
+	// Incomplete line or frame received so far (only allocated while needed)
+	private ByteBuffer bufferLine = null;
+	// Flag if the client sends binary frames instead of lines
+	private boolean bBinary = false;
+	// Payload length of the frame being received, -1 while the header is
+	// incomplete
+	private int iFrameLength = -1;
+	// Flag if binary frames are written to the client (event loop only)
+	private boolean bBinaryOut = false;
+	// Outgoing data not yet written
+	private OutboundQueue queueOut = null;
+	// How far the client lags behind, as told last
+	private AtomicReference<SlowConsumers.Level> refLag =
+		new AtomicReference<SlowConsumers.Level>(SlowConsumers.Level.FINE);
+	// Lines taken from the queue, not completely written yet (only
+	// allocated while needed) and their views
+	private SharedBuffer arsbPending[] = null;
+	private ByteBuffer arbufferPending[] = null;
+	// Number of lines in flight
+	private int iPendingCount = 0;
+	// Flag if a flush is already scheduled with the event loop
+	private AtomicBoolean bFlushScheduled = new AtomicBoolean(false);
+	// Flag if the session is to be closed once all output is written
+	private volatile boolean bCloseAfterFlush = false;
+	// Flag if the session is to be closed at once (queue overflow)
+	private volatile boolean bDisconnect = false;
+	// Flag if the session has been closed
+	private volatile boolean bClosed = false;
+	// Messages and bytes read and written (event loop only)
+	private volatile long lMessagesIn = 0;
+	private volatile long lBytesIn = 0;
+	private volatile long lMessagesOut = 0;
+	private volatile long lBytesOut = 0;
+	// Flag if the client may ask for the server's statistics
+	private boolean bAdmin = false;
+
+	/**
+	 * Constructor of class NioSession
+	 * @param sThreadName The session's name
+	 * @param channelClient The client's channel
+	 * @param eventloop The event loop serving this session
+	 * @param server The server holding all sessions
+	 */
+	public NioSession(
+			String sThreadName,
+			SocketChannel channelClient,
+			EventLoop eventloop,
+			NioServer server) {
+
+		this.sThreadName = sThreadName;
+		this.channelClient = channelClient;
+		this.eventloop = eventloop;
+		this.server = server;
+		this.queueOut = 
+			new OutboundQueue(
+				Server.QUEUE_SIZE, 
+				Server.QUEUE_POLICY, 
+				Server.QUEUE_TIMEOUT);
+	}
+
+	/**
+	 * Register with the selector and greet the client (event loop only)
+	 * @param selector The event loop's selector
+	 * @throws IOException
+	 */
+	void open(Selector selector) throws IOException {
+		this.keySelection =
+			this.channelClient.register(selector, SelectionKey.OP_READ, this);
+		// Whoever runs the server is admin
+		this.bAdmin =
+			this.channelClient.socket().getInetAddress().isLoopbackAddress();
+
+		// Get name of user
+		this.printChat("Chat by Mathias Knoll (C2009)");
+		this.printChat("Enter your name.");
+	}
+
+	/**
+	 * Read available data and handle all complete lines (event loop only)
+	 * @param bufferRead The event loop's read buffer
+	 */
+	void read(ByteBuffer bufferRead){
+		int iRead;
+		try {
+			bufferRead.clear();
+			iRead = this.channelClient.read(bufferRead);
+		} catch (IOException e) {
+			iRead = -1;
+		}
+		if (iRead < 0){
+			this.close();
+			return;
+		}
+		bufferRead.flip();
+		this.lBytesIn += iRead;
+		Server.metrics.countIn(0, iRead);
+
+		while (bufferRead.hasRemaining() && !this.bClosed){
+			if (this.bBinary){
+				this.readFrame(bufferRead);
+				continue;
+			}
+			byte b = bufferRead.get();
+			if (b == '\n'){
+				this.countIn();
+				this.handleLine(this.takeLine());
+			}else{
+				this.appendToLine(b);
+			}
+		}
+
+		// Give back the line buffer between messages
+		if (this.bufferLine != null && this.bufferLine.position() == 0){
+			this.bufferLine = null;
+		}
+	}
+
+	/**
+	 * Count a message read, its bytes are counted as they arrive
+	 */
+	private void countIn(){
+		this.lMessagesIn++;
+		Server.metrics.countIn(1, 0);
+	}
+
+	/**
+	 * Append a byte to the incomplete line
+	 * @param b The byte
+	 */
+	private void appendToLine(byte b){
+		if (this.bufferLine == null){
+			this.bufferLine = ByteBuffer.allocate(128);
+		}
+		if (!this.bufferLine.hasRemaining()){
+			// Overlong lines are cut, the rest is dropped until line end
+			if (this.bufferLine.capacity() >= NioSession.MAX_LINE){
+				return;
+			}
+			ByteBuffer bufferNew = ByteBuffer.allocate(
+				Math.min(this.bufferLine.capacity() * 2, NioSession.MAX_LINE));
+			this.bufferLine.flip();
+			bufferNew.put(this.bufferLine);
+			this.bufferLine = bufferNew;
+		}
+		this.bufferLine.put(b);
+	}
+
+	/**
+	 * Take bytes of a binary frame and handle the frame once complete
+	 * @param bufferRead Received data
+	 */
+	private void readFrame(ByteBuffer bufferRead){
+		// Header first, then as much payload as announced
+		int iWanted = this.iFrameLength < 0 ?
+			Frame.HEADER : Frame.HEADER + this.iFrameLength;
+		this.reserveLine(iWanted);
+		int iChunk = Math.min(
+			iWanted - this.bufferLine.position(), bufferRead.remaining());
+		ByteBuffer bufferChunk = bufferRead.duplicate();
+		bufferChunk.limit(bufferRead.position() + iChunk);
+		this.bufferLine.put(bufferChunk);
+		bufferRead.position(bufferRead.position() + iChunk);
+
+		if (this.bufferLine.position() < iWanted){
+			return;
+		}
+		if (this.iFrameLength < 0){
+			this.iFrameLength = this.bufferLine.getInt(0);
+			if (this.iFrameLength < 0 || this.iFrameLength > NioSession.MAX_LINE){
+				System.out.println(
+					"[" + this.sThreadName + "] Frame of " + this.iFrameLength +
+					" bytes refused, cleaning up ...");
+				this.close();
+				return;
+			}
+			if (this.iFrameLength > 0){
+				return;
+			}
+		}
+
+		this.countIn();
+		byte bType = this.bufferLine.get(4);
+		String sLine = new String(
+			this.bufferLine.array(), Frame.HEADER, this.iFrameLength,
+			SharedBuffer.CHARSET);
+		this.bufferLine.clear();
+		this.iFrameLength = -1;
+		if (bType == Frame.TEXT){
+			this.handleLine(sLine);
+		}
+	}
+
+	/**
+	 * Make sure the line buffer holds the given number of bytes
+	 * @param iSize Bytes needed
+	 */
+	private void reserveLine(int iSize){
+		if (this.bufferLine == null){
+			this.bufferLine = ByteBuffer.allocate(Math.max(128, iSize));
+		}else if (this.bufferLine.capacity() < iSize){
+			ByteBuffer bufferNew = ByteBuffer.allocate(iSize);
+			this.bufferLine.flip();
+			bufferNew.put(this.bufferLine);
+			this.bufferLine = bufferNew;
+		}
+	}
+
+	/**
+	 * Take the line received so far, without its line end
+	 * @return The line
+	 */
+	private String takeLine(){
+		if (this.bufferLine == null){
+			return "";
+		}
+		this.bufferLine.flip();
+		int iLength = this.bufferLine.limit();
+		if (iLength > 0 && this.bufferLine.get(iLength - 1) == '\r'){
+			iLength--;
+		}
+		String sLine = new String(
+			this.bufferLine.array(), 0, iLength, SharedBuffer.CHARSET);
+		this.bufferLine.clear();
+		return sLine;
+	}
+
+	/**
+	 * Handle a single line of the chat protocol
+	 * @param line The line typed in by the client
+	 */
+	private void handleLine(String line){
+		// Nothing counts after "/quit", the session has left its room
+		if (this.bCloseAfterFlush){
+			return;
+		}
+		// First line is the user's name
+		if (this.sUserName == null){
+			this.sUserName = line;
+			this.sThreadName = this.sThreadName + "-" + this.sUserName;
+
+			// Welcome user with his name
+			this.printChat(
+				"Hello " + this.sUserName + "! (Type \"/help\" for usage!)");
+
+			System.out.println("New user " + sUserName + ".");
+			Server.presence(this.sUserName, true);
+
+			// Deliver message of new user to all other users in the lobby
+			this.room = Server.rooms.join(Rooms.LOBBY, this);
+			Server.broadcast(
+				this.room, "*** New user: " + this.sUserName + " ***", this);
+			Server.replay(this, this.room, Server.HISTORY_REPLAY);
+			return;
+		}
+
+		// If '/quit' is typed in, we'll leave
+		if (line.startsWith("/quit")){
+			this.quit();
+		}else if (line.startsWith("/help")){
+			this.giveHelp();
+		}else if (line.startsWith("/users")){
+			this.giveUsers();
+		}else if (line.startsWith("/queues")){
+			this.giveQueues();
+		}else if (line.startsWith("/cluster")){
+			this.giveCluster();
+		}else if (line.startsWith("/stats")){
+			this.giveStats();
+		}else if (line.startsWith("/admin")){
+			this.becomeAdmin(line.substring(6).trim());
+		}else if (line.startsWith("/join")){
+			this.joinRoom(line.substring(5).trim());
+		}else if (line.startsWith("/leave")){
+			this.joinRoom(Rooms.LOBBY);
+		}else if (line.startsWith("/rooms")){
+			this.giveRooms();
+		}else if (line.startsWith("/history")){
+			this.giveHistory(line.substring(8).trim());
+		}else if (line.startsWith(Frame.REQUEST)){
+			// Last line as text, binary frames from now on
+			this.send(SharedBuffer.acceptBinary());
+			this.bBinary = true;
+		}else{
+			// Send input to all clients in the room
+			Server.broadcastChat(this.room, "<" + this.sUserName + "> " + line);
+		}
+	}
+
+	/**
+	 * User's name
+	 * @return The name or null as long as it is not known
+	 */
+	public String getUserName(){
+		return this.sUserName;
+	}
+
+	/**
+	 * Say goodbye and close the session once everything is written
+	 */
+	private void quit(){
+		this.server.getSessions().remove(this);
+
+		// Inform other clients that this one leaves
+		Server.broadcast(
+			this.room, "*** User " + this.sUserName + " has left ***", this);
+		Server.rooms.leave(this.room, this);
+		Server.presence(this.sUserName, false);
+
+		// Leaving message to this client
+		this.printChat("*** Bye " + this.sUserName + " ***");
+		this.bCloseAfterFlush = true;
+	}
+
+	/**
+	 * Queue a line for the client (any thread)
+	 * @param sLine The line to send
+	 */
+	public void printChat(String sLine){
+		this.send(SharedBuffer.encode(sLine));
+	}
+
+	/**
+	 * Queue an encoded line shared with other recipients (any thread)
+	 * @param sbLine The line, one reference of it is handed over
+	 */
+	public void send(SharedBuffer sbLine){
+		if (this.bClosed){
+			sbLine.release();
+			return;
+		}
+		// Lagging clients are judged by SlowConsumers, evicted ones are closed
+		if (this.refLag.get() == SlowConsumers.Level.SHED && sbLine.isSheddable()){
+			SlowConsumers.shed();
+			sbLine.release();
+			return;
+		}
+		// Event loops must never wait for another client
+		if (!this.queueOut.offer(
+				sbLine, !(Thread.currentThread() instanceof EventLoop))){
+			this.evict("outbound queue overflow");
+			return;
+		}
+		if (this.bFlushScheduled.compareAndSet(false, true)){
+			this.eventloop.scheduleFlush(this);
+		}
+	}
+
+	/**
+	 * Judge the client's lag, evicting it if it lags too far behind
+	 */
+	public void checkLag(){
+		if (SlowConsumers.check(this.sThreadName, this.queueOut, this.refLag) ==
+				SlowConsumers.Level.EVICT){
+			this.evict(null);
+		}
+	}
+
+	/**
+	 * Drop a client which does not keep up with reading (any thread), the
+	 * event loop closes it
+	 * @param sReason Why, to be told, or null if told already
+	 */
+	private void evict(String sReason){
+		if (this.queueOut.isClosed()){
+			return;
+		}
+		if (sReason != null){
+			SlowConsumers.evicted(this.sThreadName, sReason);
+		}
+		this.queueOut.close();
+		this.bDisconnect = true;
+		if (this.bFlushScheduled.compareAndSet(false, true)){
+			this.eventloop.scheduleFlush(this);
+		}
+	}
+
+	/**
+	 * Number of lines waiting to be written
+	 * @return Queue depth
+	 */
+	public int getQueueDepth(){
+		return this.queueOut.size() + this.iPendingCount;
+	}
+
+	/**
+	 * Number of lines dropped since the client did not keep up
+	 * @return Dropped lines
+	 */
+	public long getDropped(){
+		return this.queueOut.getDropped();
+	}
+
+	/**
+	 * Bytes waiting to be written
+	 * @return Bytes
+	 */
+	public long getQueuedBytes(){
+		return this.queueOut.getBytes();
+	}
+
+	/**
+	 * How long the client has kept bytes waiting
+	 * @return Lag (ms)
+	 */
+	public long getLag(){
+		return this.queueOut.getLag();
+	}
+
+	/**
+	 * Number of messages read from the client
+	 * @return Messages
+	 */
+	public long getMessagesIn(){
+		return this.lMessagesIn;
+	}
+
+	/**
+	 * Number of bytes read from the client
+	 * @return Bytes
+	 */
+	public long getBytesIn(){
+		return this.lBytesIn;
+	}
+
+	/**
+	 * Number of messages written to the client
+	 * @return Messages
+	 */
+	public long getMessagesOut(){
+		return this.lMessagesOut;
+	}
+
+	/**
+	 * Number of bytes written to the client
+	 * @return Bytes
+	 */
+	public long getBytesOut(){
+		return this.lBytesOut;
+	}
+
+	/**
+	 * Write as much pending output as the channel takes (event loop only)
+	 * Up to GATHER queued lines go out with a single gathering write.
+	 */
+	void flush(){
+		this.bFlushScheduled.set(false);
+		if (this.bClosed || this.keySelection == null){
+			return;
+		}
+		if (this.bDisconnect){
+			this.close();
+			return;
+		}
+		try {
+			while (true){
+				// Top up the lines in flight from the queue
+				if (this.arsbPending == null){
+					this.arsbPending = new SharedBuffer[NioSession.GATHER];
+					this.arbufferPending = new ByteBuffer[NioSession.GATHER];
+				}
+				while (this.iPendingCount < NioSession.GATHER){
+					SharedBuffer sbLine = this.queueOut.poll();
+					if (sbLine == null){
+						break;
+					}
+					ByteBuffer bufferView = sbLine.view(this.bBinaryOut);
+					if (sbLine.isSwitchToBinary()){
+						this.bBinaryOut = true;
+					}
+					if (bufferView == null){
+						// Nothing to be sent in this framing
+						this.queueOut.written(sbLine);
+						sbLine.release();
+						continue;
+					}
+					this.arsbPending[this.iPendingCount] = sbLine;
+					this.arbufferPending[this.iPendingCount] = bufferView;
+					this.iPendingCount++;
+				}
+				if (this.iPendingCount == 0){
+					break;
+				}
+
+				long lWritten = this.channelClient.write(
+					this.arbufferPending, 0, this.iPendingCount);
+				int iWritten = this.releaseWritten();
+				this.lMessagesOut += iWritten;
+				this.lBytesOut += lWritten;
+				Server.metrics.countOut(iWritten, lWritten);
+				Server.metrics.countFlush();
+
+				if (this.iPendingCount > 0){
+					// Socket is full, continue once it is writable again
+					this.keySelection.interestOps(
+						SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+			}
+			// Nothing in flight, give back the arrays
+			this.arsbPending = null;
+			this.arbufferPending = null;
+			this.keySelection.interestOps(SelectionKey.OP_READ);
+
+			if (this.bCloseAfterFlush){
+				this.close();
+			}
+		} catch (IOException e) {
+			System.out.println(
+				"[" + this.sThreadName + "] Failure writing to client, " +
+				"cleaning up ...");
+			this.close();
+		}
+	}
+
+	/**
+	 * Release the lines in flight which are written completely
+	 * @return Number of lines released
+	 */
+	private int releaseWritten(){
+		int iDone = 0;
+		while (iDone < this.iPendingCount &&
+			!this.arbufferPending[iDone].hasRemaining()){
+			this.queueOut.written(this.arsbPending[iDone]);
+			this.arsbPending[iDone].release();
+			iDone++;
+		}
+		int iLeft = this.iPendingCount - iDone;
+		System.arraycopy(this.arsbPending, iDone, this.arsbPending, 0, iLeft);
+		System.arraycopy(this.arbufferPending, iDone, this.arbufferPending, 0, iLeft);
+		for (int i = iLeft; i < this.iPendingCount; i++){
+			this.arsbPending[i] = null;
+			this.arbufferPending[i] = null;
+		}
+		this.iPendingCount = iLeft;
+		return iDone;
+	}
+
+	/**
+	 * Release all lines in flight
+	 */
+	private void releasePending(){
+		for (int i = 0; i < this.iPendingCount; i++){
+			this.arsbPending[i].release();
+		}
+		this.iPendingCount = 0;
+		this.arsbPending = null;
+		this.arbufferPending = null;
+	}
+
+	/**
+	 * Give basic help on functionality!
+	 */
+	private void giveHelp(){
+		this.printChat("Usage:");
+		this.printChat("To leave enter \"/quit\".");
+		this.printChat("For help type \"/help\".");
+		this.printChat("For user infos type \"/users\".");
+		this.printChat("For outbound queues type \"/queues\".");
+		this.printChat("For the nodes of the cluster type \"/cluster\".");
+		this.printChat("For server statistics (admins) type \"/stats\".");
+		this.printChat("To become admin type \"/admin password\".");
+		this.printChat("To change the room type \"/join room\".");
+		this.printChat("To go back to the lobby type \"/leave\".");
+		this.printChat("For the rooms type \"/rooms\".");
+		this.printChat("For the last lines of the room type \"/history [n]\".");
+		this.printChat("For binary framing type \"/binary\".");
+	}
+
+	/**
+	 * Move into another room
+	 * @param sName Name of the room
+	 */
+	private void joinRoom(String sName){
+		if (!Rooms.isValid(sName)){
+			this.printChat(
+				"Usage: /join room (up to " + Rooms.MAX_NAME +
+				" characters, no blanks)");
+			return;
+		}
+		Rooms.Room roomFrom = this.room;
+		this.room = Server.changeRoom(this, roomFrom, sName);
+		this.printChat("*** You are in " + sName + " ***");
+		if (this.room != roomFrom)
+			Server.replay(this, this.room, Server.HISTORY_REPLAY);
+	}
+
+	/**
+	 * List of rooms and their number of members
+	 */
+	private void giveRooms(){
+		this.printChat("Rooms: " + Server.rooms.size());
+		for (String sLine : Server.rooms.list()){
+			this.printChat(sLine);
+		}
+	}
+
+	/**
+	 * The last lines said in the room
+	 * @param sLines Number of lines, empty for as many as on joining
+	 */
+	private void giveHistory(String sLines){
+		int iLines = Server.HISTORY_REPLAY;
+		try {
+			if (sLines.length() > 0)
+				iLines = Integer.parseInt(sLines);
+		} catch (NumberFormatException e) {
+			this.printChat("Usage: /history [n]");
+			return;
+		}
+		Server.replay(this, this.room, iLines);
+	}
+
+	/**
+	 * List of users in chat - just for fun
+	 */
+	private void giveUsers(){
+		this.printChat("Clients in chat: " + this.server.getSessions().size());
+		for (Session session : this.server.getSessions()){
+			if (session.getUserName() != null){
+				this.printChat(session.getUserName());
+			}
+		}
+		List<String> listRemote = Server.remoteUsers();
+		if (!listRemote.isEmpty()){
+			this.printChat("Clients on other nodes: " + listRemote.size());
+			for (String sUser : listRemote){
+				this.printChat(sUser);
+			}
+		}
+	}
+
+	/**
+	 * State of this node's links to the other nodes
+	 */
+	private void giveCluster(){
+		if (Server.cluster == null){
+			this.printChat("No cluster.");
+			return;
+		}
+		for (String sLine : Server.cluster.describe()){
+			this.printChat(sLine);
+		}
+	}
+
+	/**
+	 * List of users' outbound queue depths and dropped lines
+	 */
+	private void giveQueues(){
+		this.printChat(SlowConsumers.describe());
+		for (Session session : this.server.getSessions()){
+			if (session.getUserName() != null){
+				this.printChat(
+					session.getUserName() + ": " + session.getQueueDepth() +
+					" queued, " + session.getQueuedBytes() + " bytes, lag " +
+					session.getLag() + " ms, " + session.getDropped() + " dropped");
+			}
+		}
+	}
+
+	/**
+	 * Traffic and durations of the server and traffic of every client
+	 */
+	private void giveStats(){
+		if (!this.bAdmin){
+			this.printChat("Statistics are for admins only!");
+			return;
+		}
+		for (String sLine : Server.stats()){
+			this.printChat(sLine);
+		}
+	}
+
+	/**
+	 * Become admin by the password the server was started with
+	 * @param sPassword The password
+	 */
+	private void becomeAdmin(String sPassword){
+		this.bAdmin = this.bAdmin || Server.isAdmin(sPassword);
+		this.printChat(this.bAdmin ? "You are admin." : "Wrong password!");
+	}
+
+	/**
+	 * Close the channel and leave the server (event loop only)
+	 */
+	void close(){
+		if (this.bClosed){
+			return;
+		}
+		this.bClosed = true;
+		this.server.getSessions().remove(this);
+		this.queueOut.close();
+		this.queueOut.clear();
+		this.releasePending();
+
+		if (this.keySelection != null){
+			this.keySelection.cancel();
+		}
+		try {
+			this.channelClient.close();
+		} catch (IOException e) {
+			System.out.println("Error: Closing client channel!");
+		}
+
+		// Users dropping the connection leave as well
+		if (this.room != null && !this.bCloseAfterFlush){
+			Server.broadcast(
+				this.room, "*** User " + this.sUserName + " has left ***", this);
+			Server.rooms.leave(this.room, this);
+			Server.presence(this.sUserName, false);
+		}
+		System.out.println("Removing user " + sUserName + ".");
+		System.out.println("Clients in chat: " + this.server.getSessions().size());
+	}
+}
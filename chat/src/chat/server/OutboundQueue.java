@@ -0,0 +1,360 @@
+/**
+ * File			: OutboundQueue.java
+ * Package		: chat.server
+ * Classes		: OutboundQueue
+ * Description	: Bounded queue of messages waiting to be written to a client
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OutboundQueue:
+ * Decouples senders from a client's socket. Any number of senders offer
+ * messages, exactly one writer takes them. If the queue is full the
+ * OverflowPolicy decides, so a client not reading never stalls the sender.
+ * Nothing is preallocated, an empty queue costs a few small objects only.
+ * The queue owns one reference of each queued buffer: messages dropped or
+ * cleared are released here, messages taken are released by the writer.
+ * It also keeps the write lag of the client: the bytes queued or being
+ * written, which the writer gives back by written(), and since when it has
+ * kept bytes waiting without taking any (see SlowConsumers).
+ * @author Mathias Knoll
+ */
+class OutboundQueue {
+
+	// The messages
+	private Queue<SharedBuffer> queueItems = new ConcurrentLinkedQueue<SharedBuffer>();
+	// Number of messages
+	private AtomicInteger iSize = new AtomicInteger(0);
+	// Maximum number of messages
+	private int iCapacity;
+	// What to do if full
+	private OverflowPolicy policy;
+	// How long a sender waits for room with policy BLOCK (ms)
+	private long lBlockTimeout;
+	// Number of messages dropped
+	private AtomicLong lDropped = new AtomicLong(0);
+	// Writer parked waiting for messages
+	private volatile Thread threadWaiting = null;
+	// Lock and condition for senders waiting for room (policy BLOCK only)
+	private ReentrantLock lockFull = new ReentrantLock();
+	private Condition conditionNotFull = this.lockFull.newCondition();
+	// Flag if the queue has been closed
+	private volatile boolean bClosed = false;
+	// Bytes queued or being written
+	private AtomicLong lBytes = new AtomicLong(0);
+	// Since when bytes wait without the writer taking any (System.nanoTime())
+	private volatile long lStalledSince = 0;
+
+	/**
+	 * Constructor of class OutboundQueue
+	 * @param iCapacity Maximum number of messages
+	 * @param policy What to do if full
+	 * @param lBlockTimeout How long a sender waits for room with policy
+	 * BLOCK (ms)
+	 */
+	public OutboundQueue(int iCapacity, OverflowPolicy policy, long lBlockTimeout) {
+		this.iCapacity = Math.max(1, iCapacity);
+		this.policy = policy;
+		this.lBlockTimeout = lBlockTimeout;
+	}
+
+	/**
+	 * Offer a message (any thread), handing over one reference of it
+	 * @param item The message
+	 * @param bMayBlock False if the caller must never wait (e.g. an event
+	 * loop), policy BLOCK then acts like DISCONNECT
+	 * @return False if the client is to be disconnected or the queue is closed
+	 */
+	public boolean offer(SharedBuffer item, boolean bMayBlock){
+		if (!this.enqueue(item, bMayBlock)){
+			// Not queued, so the reference handed over ends here
+			item.release();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Queue a message unless the policy refuses it
+	 * @param item The message
+	 * @param bMayBlock False if the caller must never wait
+	 * @return False if the message has been refused, true if it has been
+	 * queued or dropped by policy DROP_OLDEST
+	 */
+	private boolean enqueue(SharedBuffer item, boolean bMayBlock){
+		long lDeadline = 0;
+		while (!this.bClosed){
+			// Reserve a slot first, so the bound holds for many senders
+			int iCurrent = this.iSize.get();
+			if (iCurrent < this.iCapacity){
+				if (this.iSize.compareAndSet(iCurrent, iCurrent + 1)){
+					if (this.lBytes.getAndAdd(item.size()) == 0){
+						this.lStalledSince = System.nanoTime();
+					}
+					this.queueItems.add(item);
+					// Closed and maybe cleared meanwhile: taken back unless
+					// the writer or clear() got it, which release it then
+					if (this.bClosed && this.queueItems.remove(item)){
+						this.iSize.decrementAndGet();
+						this.lBytes.addAndGet(-item.size());
+						return false;
+					}
+					Thread thread = this.threadWaiting;
+					if (thread != null){
+						LockSupport.unpark(thread);
+					}
+					return true;
+				}
+				continue;
+			}
+
+			switch (this.policy){
+			case DROP_OLDEST:
+				if (!this.dropOldest()){
+					// Nothing to be dropped but switches, the message is
+					// the oldest one which may be dropped
+					this.lDropped.incrementAndGet();
+					item.release();
+					return true;
+				}
+				break;
+			case BLOCK:
+				if (!bMayBlock){
+					return false;
+				}
+				if (lDeadline == 0){
+					lDeadline = System.nanoTime() +
+						TimeUnit.MILLISECONDS.toNanos(this.lBlockTimeout);
+				}
+				if (!this.awaitRoom(lDeadline)){
+					return false;
+				}
+				break;
+			default:
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Drop the oldest message, but never one switching the client to binary
+	 * frames: the writer would go on writing lines to a client reading frames
+	 * @return False if there is nothing but switches to be dropped
+	 */
+	private boolean dropOldest(){
+		for (SharedBuffer itemOldest : this.queueItems){
+			if (itemOldest.isSwitchToBinary()){
+				continue;
+			}
+			// Gone meanwhile if the writer took it, the next one is tried
+			if (this.queueItems.remove(itemOldest)){
+				this.iSize.decrementAndGet();
+				this.lDropped.incrementAndGet();
+				this.lBytes.addAndGet(-itemOldest.size());
+				itemOldest.release();
+				return true;
+			}
+		}
+		return this.iSize.get() < this.iCapacity;
+	}
+
+	/**
+	 * Wait until there is room in the queue
+	 * @param lDeadline Deadline (System.nanoTime())
+	 * @return False if the deadline has passed
+	 */
+	private boolean awaitRoom(long lDeadline){
+		this.lockFull.lock();
+		try {
+			while (!this.bClosed && this.iSize.get() >= this.iCapacity){
+				long lRemaining = lDeadline - System.nanoTime();
+				if (lRemaining <= 0){
+					return false;
+				}
+				this.conditionNotFull.awaitNanos(lRemaining);
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			this.lockFull.unlock();
+		}
+	}
+
+	/**
+	 * Take the next message without waiting (writer only)
+	 * @return The message or null if there is none
+	 */
+	public SharedBuffer poll(){
+		SharedBuffer item = this.queueItems.poll();
+		if (item != null){
+			this.iSize.decrementAndGet();
+			if (this.policy == OverflowPolicy.BLOCK){
+				this.signalNotFull();
+			}
+		}
+		return item;
+	}
+
+	/**
+	 * Take the next message, waiting for one if necessary (writer only)
+	 * @return The message or null if the queue is closed and empty
+	 */
+	public SharedBuffer take(){
+		while (true){
+			SharedBuffer item = this.poll();
+			if (item != null){
+				return item;
+			}
+			if (this.bClosed){
+				return null;
+			}
+			this.threadWaiting = Thread.currentThread();
+			// Check again, a sender may have missed the waiting writer
+			item = this.poll();
+			if (item != null){
+				this.threadWaiting = null;
+				return item;
+			}
+			if (!this.bClosed){
+				LockSupport.park(this);
+			}
+			this.threadWaiting = null;
+		}
+	}
+
+	/**
+	 * Take the next message, waiting a while at most (writer only)
+	 * @param lTimeout Nanoseconds to wait at most
+	 * @return The message or null if none came in time or the queue is closed
+	 */
+	public SharedBuffer poll(long lTimeout){
+		long lDeadline = System.nanoTime() + lTimeout;
+		while (true){
+			SharedBuffer item = this.poll();
+			if (item != null){
+				return item;
+			}
+			long lLeft = lDeadline - System.nanoTime();
+			if (this.bClosed || lLeft <= 0){
+				return null;
+			}
+			this.threadWaiting = Thread.currentThread();
+			// Check again, a sender may have missed the waiting writer
+			item = this.poll();
+			if (item != null){
+				this.threadWaiting = null;
+				return item;
+			}
+			if (!this.bClosed){
+				LockSupport.parkNanos(this, lLeft);
+			}
+			this.threadWaiting = null;
+		}
+	}
+
+	/**
+	 * Wake up senders waiting for room
+	 */
+	private void signalNotFull(){
+		this.lockFull.lock();
+		try {
+			this.conditionNotFull.signalAll();
+		} finally {
+			this.lockFull.unlock();
+		}
+	}
+
+	/**
+	 * Close the queue: no more messages are accepted, the writer still gets
+	 * the messages already queued
+	 */
+	public void close(){
+		this.bClosed = true;
+		Thread thread = this.threadWaiting;
+		if (thread != null){
+			LockSupport.unpark(thread);
+		}
+		if (this.policy == OverflowPolicy.BLOCK){
+			this.signalNotFull();
+		}
+	}
+
+	/**
+	 * Tell if the queue has been closed
+	 * @return True if closed
+	 */
+	public boolean isClosed(){
+		return this.bClosed;
+	}
+
+	/**
+	 * Throw away all queued messages
+	 */
+	public void clear(){
+		SharedBuffer item;
+		while ((item = this.poll()) != null){
+			this.lBytes.addAndGet(-item.size());
+			item.release();
+		}
+	}
+
+	/**
+	 * Give back the bytes of a message written or left out by the writer,
+	 * before releasing it
+	 * @param item The message
+	 */
+	public void written(SharedBuffer item){
+		this.lBytes.addAndGet(-item.size());
+		this.lStalledSince = System.nanoTime();
+	}
+
+	/**
+	 * Get bytes queued or being written
+	 * @return Bytes
+	 */
+	public long getBytes(){
+		return this.lBytes.get();
+	}
+
+	/**
+	 * Get how long the client has kept bytes waiting without taking any
+	 * @return Lag (ms), 0 if nothing waits
+	 */
+	public long getLag(){
+		if (this.lBytes.get() <= 0){
+			return 0;
+		}
+		return (System.nanoTime() - this.lStalledSince) / 1000000;
+	}
+
+	/**
+	 * Get number of queued messages
+	 * @return Queue depth
+	 */
+	public int size(){
+		return this.iSize.get();
+	}
+
+	/**
+	 * Get number of messages dropped by policy DROP_OLDEST
+	 * @return Number of dropped messages
+	 */
+	public long getDropped(){
+		return this.lDropped.get();
+	}
+}
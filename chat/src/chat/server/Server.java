@@ -14,6 +14,12 @@ package chat.server;
 // Imports
 import java.io.*;
 import java.net.*;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.management.JMException;
 
 /**
  * Server:
@@ -24,17 +30,85 @@ import java.net.*;
 public class Server {
 
 	static int PORT = 8888;
+	// Maximum number of messages queued for a client
+	static int QUEUE_SIZE = Integer.getInteger("chat.queue.size", 1024);
+	// What to do if a client's queue is full
+	static OverflowPolicy QUEUE_POLICY = OverflowPolicy.valueOf(
+		System.getProperty("chat.queue.policy", "DROP_OLDEST"));
+	// How long a sender waits with policy BLOCK (ms)
+	static long QUEUE_TIMEOUT = Long.getLong("chat.queue.timeout", 1000);
+	// Maximum number of clients, 0 for no limit
+	static int MAX_CLIENTS = Integer.getInteger("chat.maxClients", 0);
+	// Number of event loops in "nio" mode
+	static int LOOPS = Integer.getInteger(
+		"chat.loops", Runtime.getRuntime().availableProcessors());
+	// Lines kept per room, how long (s) and how many a joining client gets
+	static int HISTORY_SIZE = Integer.getInteger("chat.history.size", 100);
+	static long HISTORY_AGE = Long.getLong("chat.history.age", 3600);
+	static int HISTORY_REPLAY = Integer.getInteger("chat.history.replay", 10);
+	// Directory of the durable log of chat lines, none for no log
+	static String LOG_DIR = System.getProperty("chat.log.dir");
+	// Size of a log segment (MB), segments kept and for how long (s)
+	static int LOG_SEGMENT = Integer.getInteger("chat.log.segment", 64);
+	static int LOG_SEGMENTS = Integer.getInteger("chat.log.segments", 16);
+	static long LOG_RETENTION = Long.getLong("chat.log.retention", 7 * 24 * 3600);
+	// Sync to disk every that many ms, 0 after every batch, -1 never
+	static long LOG_SYNC = Long.getLong("chat.log.sync", 1000);
+	// Lines waiting to be logged at most
+	static int LOG_QUEUE = Integer.getInteger("chat.log.queue", 65536);
+	// Bytes a client's writer gathers before writing them out at most, and
+	// how long (us) it lingers for more lines before flushing, 0 for not
+	static int FLUSH_SIZE = Integer.getInteger("chat.flush.size", 8192);
+	static long FLUSH_DELAY = Long.getLong("chat.flush.delay", 0);
+	// Write lag (ms) and bytes waiting for a client at which the server
+	// warns, sheds notices and evicts the client, 0 for none
+	static long SLOW_WARN = Long.getLong("chat.slow.warn", 2000);
+	static long SLOW_SHED = Long.getLong("chat.slow.shed", 5000);
+	static long SLOW_EVICT = Long.getLong("chat.slow.evict", 15000);
+	static long SLOW_WARN_BYTES = Long.getLong("chat.slow.warn.bytes", 0);
+	static long SLOW_SHED_BYTES = Long.getLong("chat.slow.shed.bytes", 0);
+	static long SLOW_EVICT_BYTES = Long.getLong("chat.slow.evict.bytes", 16 * 1024 * 1024);
+	// Port accepting other nodes of the cluster, 0 for no cluster, and its
+	// address, the loopback address by default
+	static int CLUSTER_PORT = Integer.getInteger("chat.cluster.port", 0);
+	static String CLUSTER_BIND = System.getProperty("chat.cluster.bind");
+	// Secret shared by the nodes of the cluster
+	static String CLUSTER_SECRET = System.getProperty("chat.cluster.secret");
+	// Other nodes as host:port separated by commas, and this node's name
+	static String CLUSTER_PEERS = System.getProperty("chat.cluster.peers", "");
+	static String CLUSTER_NAME = System.getProperty("chat.cluster.name");
+	// Messages waiting for a peer at most
+	static int CLUSTER_QUEUE = Integer.getInteger("chat.cluster.queue", 16384);
+	// Milliseconds between heartbeats of a node
+	static long CLUSTER_HEARTBEAT = Long.getLong("chat.cluster.heartbeat", 2000);
+	// Flag if messages of other nodes are forwarded (no full mesh)
+	static boolean CLUSTER_FORWARD = Boolean.getBoolean("chat.cluster.forward");
+	// Password making a client admin by "/admin", empty for none (clients
+	// connecting from the loopback address are admins anyway)
+	static String ADMIN = System.getProperty("chat.admin", "");
 	
 	// Socket for clients
 	static Socket socketClient = null;
 	// Socket for server
 	static ServerSocket socketServer = null;
-	// This chat server can accept up to 10 clients' connections
-	static ClientThread clientthreadPool[] = new ClientThread[10];
+	// Sessions of all connected clients
+	static SessionRegistry<Session> registrySessions = 
+		new SessionRegistry<Session>(Server.MAX_CLIENTS);
+	// Executor running the client threads
+	static ExecutorService executorClients = null;
+	// Rooms and their members
+	static Rooms rooms = new Rooms();
+	// Durable log of chat lines, or null
+	static Journal journal = null;
+	// Other nodes serving the chat, or null
+	static Cluster cluster = null;
+	// Traffic and durations of all sessions
+	static Metrics metrics = new Metrics(Server.registrySessions);
 
 	/**
 	 * Runs server
-	 * @param args
+	 * @param args [port] [mode], where mode is "thread" (default), "virtual"
+	 * or "nio"
 	 */
 	public static void main(String args[]) {
 		// Numbers of Threads
@@ -44,10 +118,54 @@ public class Server {
 		int iPort = Server.PORT;
 		
 		// Given port
-		if(args.length == 1){
+		if(args.length >= 1){
 			iPort = Integer.parseInt(args[0]);
 		}
 		
+		// Non-blocking mode serves all clients by a few event loops
+		boolean bNio = args.length >= 2 && args[1].equals("nio");
+		SharedBuffer.DIRECT = bNio;
+		
+		// Metrics for jconsole and the like, the chat runs without them
+		try {
+			Server.metrics.register("chat:type=Metrics");
+		} catch (JMException e) {
+			System.out.println("Error: Registering metrics");
+			System.out.println(e);
+		}
+		
+		// Lines of the last run back into the rooms' history
+		if (Server.LOG_DIR != null){
+			Server.openJournal(Server.LOG_DIR);
+		}
+		
+		// Other nodes of the cluster
+		if (Server.CLUSTER_PORT > 0){
+			Server.openCluster(iPort);
+		}
+		
+		// Clients lagging behind are evicted even without traffic
+		SlowConsumers.watch(Server.registrySessions);
+		
+		// Rooms left empty go once their history has expired
+		Server.rooms.watch(Math.max(1, Math.min(60, Server.HISTORY_AGE)) * 1000);
+		
+		if(bNio){
+			try {
+				new NioServer(iPort, Server.LOOPS, Server.registrySessions).run();
+			}// try
+			catch (IOException e) {
+				System.out.println("Error: Open server socket on port " + iPort);
+				System.out.println(e);
+				System.exit(1);
+			}
+			return;
+		}
+		
+		// Platform or virtual threads for the clients
+		Server.executorClients = 
+			Server.createExecutor(args.length >= 2 ? args[1] : "thread");
+		
 		// Try to open a server socket on port port_number (default 8888)
 		// Note: Ports less than 1023 can only be defined by privileged users 
 		try {
@@ -74,11 +192,12 @@ public class Server {
 					new ClientThread(
 						"Client-" + iThreadNumber,
 						Server.socketClient, 
-						Server.clientthreadPool);
+						Server.registrySessions);
 				if(Server.add2Pool(clientthreadTmp)){
-					clientthreadTmp.start();
+					Server.executorClients.execute(clientthreadTmp);
 				}else{
 					System.out.println("No slots free for new client!");
+					Server.socketClient.close();
 				}
 				
 				System.out.println(
@@ -96,33 +215,253 @@ public class Server {
 	}
 	
 	/**
-	 *  Add client thread to thread pool
+	 * Open the durable log, restore the history of the rooms from it and
+	 * start writing to it; the server runs without a log if it fails
+	 * @param sDir Directory of the log
+	 */
+	static void openJournal(String sDir){
+		try {
+			Server.journal = new Journal(sDir);
+		}// try
+		catch (IOException e) {
+			System.out.println("Error: Open journal in " + sDir);
+			System.out.println(e);
+			return;
+		}
+		if (Server.HISTORY_SIZE > 0){
+			int iLines = Server.journal.recover(
+				Server.rooms, System.currentTimeMillis() - Server.HISTORY_AGE * 1000);
+			System.out.println("Journal: " + iLines + " lines restored");
+		}
+		Server.journal.start();
+		Runtime.getRuntime().addShutdownHook(new Thread("Journal close") {
+			public void run() {
+				Server.journal.close();
+			}
+		});
+	}
+	
+	/**
+	 * Accept and link to the other nodes of the cluster; the server runs
+	 * alone if it fails
+	 * @param iPort Port of the clients, naming the node by default
+	 */
+	static void openCluster(int iPort){
+		try {
+			Server.cluster = new Cluster(
+				Server.CLUSTER_BIND,
+				Server.CLUSTER_PORT,
+				Server.CLUSTER_NAME != null ? Server.CLUSTER_NAME : "node-" + iPort,
+				Server.CLUSTER_PEERS,
+				Server.CLUSTER_FORWARD,
+				Server.CLUSTER_SECRET);
+			Server.cluster.start();
+		}// try
+		catch (IOException e) {
+			System.out.println("Error: Open cluster port " + Server.CLUSTER_PORT);
+			System.out.println(e);
+		}
+		catch (NumberFormatException e) {
+			System.out.println("Error: Cluster peers " + Server.CLUSTER_PEERS);
+		}
+	}
+	
+	/**
+	 * Create the executor running the client threads
+	 * @param sMode "virtual" for a virtual thread per client, otherwise a
+	 * platform thread per client
+	 * @return The executor
+	 */
+	static ExecutorService createExecutor(String sMode){
+		if(sMode.equals("virtual")){
+			// Looked up reflectively to still run on JDKs without them
+			try {
+				ExecutorService executor = (ExecutorService) 
+					Executors.class
+						.getMethod("newVirtualThreadPerTaskExecutor")
+						.invoke(null);
+				System.out.println("Serving clients by virtual threads.");
+				return executor;
+			} catch (Exception e) {
+				System.out.println(
+					"Error: Virtual threads not available, " +
+					"using platform threads!");
+			}
+		}
+		return Executors.newCachedThreadPool();
+	}
+	
+	/**
+	 *  Add client thread to the registry
 	 * @param clientthreadNew The new thread of a client
-	 * @return True if a slot was free, otherwise false
-	 */
-	public static synchronized boolean add2Pool(ClientThread clientthreadNew){
-		boolean bInPool = false;
-		for(int i=0; i<Server.clientthreadPool.length;i++){
-			if(Server.clientthreadPool[i]==null){
-				Server.clientthreadPool[i] = clientthreadNew;
-				bInPool = true;
-				break;
+	 * @return True if the client limit was not reached, otherwise false
+	 */
+	public static boolean add2Pool(ClientThread clientthreadNew){
+		return Server.registrySessions.add(clientthreadNew);
+	}
+	
+	/**
+	 * Send a line to all members of a room, encoded only once for all of
+	 * them, and to the members on the other nodes
+	 * @param room The room
+	 * @param sLine The line
+	 * @param sessionExcept Client not to receive the line, or null
+	 */
+	static void broadcast(Rooms.Room room, String sLine, Session sessionExcept){
+		SharedBuffer sbLine = SharedBuffer.encode(sLine).sheddable();
+		Server.broadcast(room, sbLine, sessionExcept);
+		sbLine.release();
+		if (Server.cluster != null){
+			Server.cluster.notice(room.sName, sLine);
+		}
+	}
+	
+	/**
+	 * Send an encoded line to all members of a room
+	 * @param room The room
+	 * @param sbLine The line, the caller keeps its reference
+	 * @param sessionExcept Client not to receive the line, or null
+	 */
+	static void broadcast(Rooms.Room room, SharedBuffer sbLine, Session sessionExcept){
+		for (Session session : room.setMembers){
+			if (session != sessionExcept){
+				session.send(sbLine.retain());
 			}
 		}
-		return bInPool;
 	}
 	
 	/**
-	 * Get number of active client threads in pool
-	 * @return Number of threads in pool
+	 * Send a chat line to all members of a room, here and on the other
+	 * nodes
+	 * @param room The room
+	 * @param sLine The line
 	 */
-	public static int getActiveClients(){
-		int iCount = 0;
-		for(int i=0; i < Server.clientthreadPool.length; i++){
-			if(Server.clientthreadPool[i] != null)
-				iCount++;
+	static void broadcastChat(Rooms.Room room, String sLine){
+		Server.deliverChat(room, sLine);
+		if (Server.cluster != null){
+			Server.cluster.chat(room.sName, sLine);
+		}
+	}
+	
+	/**
+	 * Send a chat line to the members of a room on this node and keep it in
+	 * the room's history and the log
+	 * @param room The room
+	 * @param sLine The line
+	 */
+	static void deliverChat(Rooms.Room room, String sLine){
+		long lStart = System.nanoTime();
+		SharedBuffer sbLine = SharedBuffer.encode(sLine);
+		room.history.add(sbLine);
+		if (Server.journal != null){
+			Server.journal.append(room.sName, sbLine);
+		}
+		Server.broadcast(room, sbLine, null);
+		sbLine.release();
+		Server.metrics.recordBroadcast(System.nanoTime() - lStart);
+	}
+	
+	/**
+	 * Send the last lines said in a room to a client, as they were encoded
+	 * @param session The client
+	 * @param room The room
+	 * @param iLines Number of lines
+	 */
+	static void replay(Session session, Rooms.Room room, int iLines){
+		long lStart = System.nanoTime();
+		for (SharedBuffer sbLine : room.history.last(iLines)){
+			session.send(sbLine);
+		}
+		Server.metrics.recordReplay(System.nanoTime() - lStart);
+	}
+	
+	/**
+	 * Move a client from its room into another one, telling the members of
+	 * both
+	 * @param session The client
+	 * @param roomFrom Room the client is in
+	 * @param sName Name of the room to join
+	 * @return The room joined
+	 */
+	static Rooms.Room changeRoom(Session session, Rooms.Room roomFrom, String sName){
+		if (roomFrom.sName.equals(sName))
+			return roomFrom;
+		Server.rooms.leave(roomFrom, session);
+		Server.broadcast(
+			roomFrom, 
+			"*** User " + session.getUserName() + " left for " + sName + " ***", 
+			session);
+		Rooms.Room room = Server.rooms.join(sName, session);
+		Server.broadcast(
+			room, 
+			"*** User " + session.getUserName() + " joined " + sName + " ***", 
+			session);
+		return room;
+	}
+	
+	/**
+	 * Tell the other nodes about a user coming or going
+	 * @param sUserName The user, null if never named
+	 * @param bHere True if coming
+	 */
+	static void presence(String sUserName, boolean bHere){
+		if (Server.cluster != null && sUserName != null){
+			Server.cluster.presence(sUserName, bHere);
+		}
+	}
+	
+	/**
+	 * Users on the other nodes
+	 * @return One "user (node)" each, none without cluster
+	 */
+	static List<String> remoteUsers(){
+		if (Server.cluster == null)
+			return new ArrayList<String>();
+		return Server.cluster.users();
+	}
+	
+	/**
+	 * Check the password making a client admin
+	 * @param sPassword The password told by the client
+	 * @return True if it is the one the server was started with
+	 */
+	static boolean isAdmin(String sPassword){
+		return Server.ADMIN.length() > 0 &&
+			MessageDigest.isEqual(
+				Server.ADMIN.getBytes(SharedBuffer.CHARSET),
+				sPassword.getBytes(SharedBuffer.CHARSET));
+	}
+	
+	/**
+	 * Traffic and durations of the server and traffic of every client
+	 * @return The lines
+	 */
+	static List<String> stats(){
+		Metrics metrics = Server.metrics;
+		List<String> listLines = new ArrayList<String>();
+		listLines.add(
+			"Traffic: " + metrics.getClients() + " clients, in " + 
+			metrics.getMessagesIn() + " messages/" + 
+			metrics.getBytesIn() + " bytes, out " + 
+			metrics.getMessagesOut() + " messages/" + 
+			metrics.getBytesOut() + " bytes, " + 
+			metrics.getFlushes() + " flushes, " + 
+			metrics.getQueued() + " queued (deepest " + 
+			metrics.getQueuedMax() + ")");
+		listLines.add("Broadcasts: " + metrics.getBroadcast());
+		listLines.add("Replays: " + metrics.getReplay());
+		for (String sLine : metrics.sessions()){
+			listLines.add(sLine);
 		}
-		return iCount;
+		return listLines;
+	}
+	
+	/**
+	 * Get number of connected clients
+	 * @return Number of sessions in registry
+	 */
+	public static int getActiveClients(){
+		return Server.registrySessions.size();
 	}
 }
 
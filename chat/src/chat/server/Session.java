@@ -0,0 +1,91 @@
+/**
+ * File			: Session.java
+ * Package		: chat.server
+ * Classes		: Session
+ * Description	: A connected client as seen by the other clients
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+/**
+ * Session:
+ * What the other clients need of a connected client, no matter whether it
+ * is served by its own thread (ClientThread) or by an event loop (NioSession).
+ * @author Mathias Knoll
+ */
+interface Session {
+
+	/**
+	 * User's name
+	 * @return The name or null as long as the user has not entered it
+	 */
+	String getUserName();
+
+	/**
+	 * Deliver a line to the client
+	 * @param sLine The line
+	 */
+	void printChat(String sLine);
+
+	/**
+	 * Deliver an encoded line shared with other recipients
+	 * @param sbLine The line, one reference of it is handed over
+	 */
+	void send(SharedBuffer sbLine);
+
+	/**
+	 * Number of messages waiting to be written to the client
+	 * @return Queue depth
+	 */
+	int getQueueDepth();
+
+	/**
+	 * Number of messages dropped since the client did not keep up
+	 * @return Dropped messages
+	 */
+	long getDropped();
+
+	/**
+	 * Bytes waiting to be written to the client
+	 * @return Bytes
+	 */
+	long getQueuedBytes();
+
+	/**
+	 * How long the client has kept bytes waiting without taking any
+	 * @return Lag (ms)
+	 */
+	long getLag();
+
+	/**
+	 * Number of messages read from the client
+	 * @return Messages
+	 */
+	long getMessagesIn();
+
+	/**
+	 * Number of bytes read from the client
+	 * @return Bytes
+	 */
+	long getBytesIn();
+
+	/**
+	 * Number of messages written to the client
+	 * @return Messages
+	 */
+	long getMessagesOut();
+
+	/**
+	 * Number of bytes written to the client
+	 * @return Bytes
+	 */
+	long getBytesOut();
+
+	/**
+	 * Judge the client's lag, evicting it if it lags too far behind (see
+	 * SlowConsumers)
+	 */
+	void checkLag();
+}
@@ -0,0 +1,172 @@
+/**
+ * File			: SlowConsumers.java
+ * Package		: chat.server
+ * Classes		: SlowConsumers, SlowConsumers.Level
+ * Description	: Write lag thresholds of clients, their events and counts
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * SlowConsumers:
+ * Judges the write lag of a client, the bytes waiting for it and how long
+ * it has kept them waiting without taking any (see OutboundQueue). Past the
+ * first thresholds the server warns, past the second ones it sheds notices
+ * to the client (see SharedBuffer.sheddable), past the last ones it evicts
+ * the client, which then holds messages, memory and a writer no longer.
+ * The lag of all clients is judged every second on a thread of its own,
+ * so a client stalling without any traffic is evicted as well, and a
+ * sender only reads the level judged last, once per line and recipient.
+ * Every change of level is an event, told on the console and counted; so
+ * is every client disconnected by its overflowing queue.
+ * @author Mathias Knoll
+ */
+class SlowConsumers {
+
+	/**
+	 * Level:
+	 * How far a client lags behind
+	 */
+	enum Level {
+		// Keeping up
+		FINE,
+		// Told on the console
+		WARN,
+		// Notices are left out
+		SHED,
+		// Disconnected
+		EVICT
+	}
+
+	// Clients warned about, shedding and evicted, notices shed
+	private static AtomicLong lWarned = new AtomicLong(0);
+	private static AtomicLong lShedding = new AtomicLong(0);
+	private static AtomicLong lEvicted = new AtomicLong(0);
+	private static AtomicLong lShed = new AtomicLong(0);
+
+	/**
+	 * Judge the lag of a client and tell about a change of its level
+	 * @param sWho The client
+	 * @param queue Its outbound queue
+	 * @param refLevel Level of the client told last, updated
+	 * @return The level
+	 */
+	static Level check(String sWho, OutboundQueue queue, AtomicReference<Level> refLevel){
+		// Closed clients are gone, whatever they lagged
+		if (queue.isClosed()){
+			return refLevel.get();
+		}
+		Level level = Level.FINE;
+		long lBytes = queue.getBytes();
+		long lLag = 0;
+		if (lBytes > 0){
+			lLag = queue.getLag();
+			if (SlowConsumers.exceeds(lLag, lBytes, Server.SLOW_EVICT, Server.SLOW_EVICT_BYTES)){
+				level = Level.EVICT;
+			}else if (SlowConsumers.exceeds(lLag, lBytes, Server.SLOW_SHED, Server.SLOW_SHED_BYTES)){
+				level = Level.SHED;
+			}else if (SlowConsumers.exceeds(lLag, lBytes, Server.SLOW_WARN, Server.SLOW_WARN_BYTES)){
+				level = Level.WARN;
+			}
+		}
+		Level levelTold = refLevel.get();
+		if (level != levelTold && refLevel.compareAndSet(levelTold, level)){
+			if (level == Level.EVICT){
+				SlowConsumers.evicted(sWho, lBytes + " bytes waiting for " + lLag + " ms");
+			}else{
+				if (level == Level.WARN && levelTold == Level.FINE){
+					SlowConsumers.lWarned.incrementAndGet();
+				}else if (level == Level.SHED){
+					SlowConsumers.lShedding.incrementAndGet();
+				}
+				System.out.println("[" + sWho + "] Slow client " + level +
+					", " + lBytes + " bytes waiting for " + lLag + " ms");
+			}
+		}
+		return level;
+	}
+
+	/**
+	 * Tell about and count a client evicted
+	 * @param sWho The client
+	 * @param sReason Why
+	 */
+	static void evicted(String sWho, String sReason){
+		SlowConsumers.lEvicted.incrementAndGet();
+		System.out.println("[" + sWho + "] Slow client evicted, " + sReason);
+	}
+
+	/**
+	 * Count a notice left out for a client
+	 */
+	static void shed(){
+		SlowConsumers.lShed.incrementAndGet();
+	}
+
+	/**
+	 * Judge the lag of all clients every second, on a thread of its own
+	 * @param iterableSessions The clients
+	 */
+	static void watch(final Iterable<? extends Session> iterableSessions){
+		Thread threadWatch = new Thread("Slow consumers") {
+			public void run() {
+				while (true){
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (Session session : iterableSessions){
+						session.checkLag();
+					}
+				}
+			}
+		};
+		threadWatch.setDaemon(true);
+		threadWatch.start();
+	}
+
+	/**
+	 * Clients evicted since the start
+	 * @return Clients
+	 */
+	static long getEvicted(){
+		return SlowConsumers.lEvicted.get();
+	}
+
+	/**
+	 * Notices left out since the start
+	 * @return Notices
+	 */
+	static long getShed(){
+		return SlowConsumers.lShed.get();
+	}
+
+	/**
+	 * Counts for humans
+	 * @return The counts
+	 */
+	static String describe(){
+		return "Slow clients: " + SlowConsumers.lWarned.get() + " warned, " +
+			SlowConsumers.lShedding.get() + " shedding, " +
+			SlowConsumers.lEvicted.get() + " evicted, " +
+			SlowConsumers.lShed.get() + " notices shed";
+	}
+
+	/**
+	 * Check a lag against thresholds
+	 * @param lLag Lag (ms)
+	 * @param lBytes Bytes waiting
+	 * @param lMaxLag Threshold of the lag (ms), 0 for none
+	 * @param lMaxBytes Threshold of the bytes, 0 for none
+	 * @return True if past one of them
+	 */
+	private static boolean exceeds(long lLag, long lBytes, long lMaxLag, long lMaxBytes){
+		return (lMaxLag > 0 && lLag >= lMaxLag) || (lMaxBytes > 0 && lBytes >= lMaxBytes);
+	}
+}
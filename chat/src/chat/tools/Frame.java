@@ -0,0 +1,101 @@
+/**
+ * File			: Frame.java
+ * Package		: chat.tools
+ * Classes		: Frame
+ * Description	: Message of the binary wire protocol
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Frame:
+ * Once client and server agreed on binary framing ("/binary" answered by
+ * "[binary]OK") every message travels as
+ *   4 bytes  length of the payload (big endian)
+ *   1 byte   type
+ *   n bytes  payload
+ * Parsing needs no scanning for line ends and lines may contain any bytes.
+ * @author Mathias Knoll
+ */
+public class Frame {
+
+	// Line asking for binary framing and its answer (text protocol)
+	public static final String REQUEST = "/binary";
+	public static final String ACCEPT = "[binary]OK";
+
+	// Size of the header
+	public static final int HEADER = 5;
+	// Largest payload accepted
+	public static int MAX_PAYLOAD = 1 << 20;
+
+	// A line of text
+	public static final byte TEXT = 1;
+
+	// Type of frame
+	private byte bType;
+	// Payload
+	private byte arbPayload[];
+
+	/**
+	 * Constructor of class Frame
+	 * @param bType Type of frame
+	 * @param arbPayload Payload
+	 */
+	public Frame(byte bType, byte[] arbPayload) {
+		this.bType = bType;
+		this.arbPayload = arbPayload;
+	}
+
+	/**
+	 * Type of frame
+	 * @return The type
+	 */
+	public byte getType(){
+		return this.bType;
+	}
+
+	/**
+	 * Payload of frame
+	 * @return The payload
+	 */
+	public byte[] getPayload(){
+		return this.arbPayload;
+	}
+
+	/**
+	 * Write the header of a frame into an array
+	 * @param arbTarget Array with at least HEADER bytes from iOffset
+	 * @param iOffset Where to put the header
+	 * @param bType Type of frame
+	 * @param iLength Length of the payload
+	 */
+	public static void putHeader(
+			byte[] arbTarget, int iOffset, byte bType, int iLength){
+		arbTarget[iOffset] = (byte) (iLength >>> 24);
+		arbTarget[iOffset + 1] = (byte) (iLength >>> 16);
+		arbTarget[iOffset + 2] = (byte) (iLength >>> 8);
+		arbTarget[iOffset + 3] = (byte) iLength;
+		arbTarget[iOffset + 4] = bType;
+	}
+
+	/**
+	 * Write a frame in one go and flush it
+	 * @param streamOut The stream
+	 * @param bType Type of frame
+	 * @param arbPayload Payload
+	 * @throws IOException
+	 */
+	public static void write(OutputStream streamOut, byte bType, byte[] arbPayload)
+			throws IOException {
+		byte arbFrame[] = new byte[Frame.HEADER + arbPayload.length];
+		Frame.putHeader(arbFrame, 0, bType, arbPayload.length);
+		System.arraycopy(arbPayload, 0, arbFrame, Frame.HEADER, arbPayload.length);
+		streamOut.write(arbFrame);
+		streamOut.flush();
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * File			: Histogram.java
+ * Package		: chat.tools
+ * Classes		: Histogram
+ * Description	: Lock free histogram of durations, for percentiles
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram:
+ * Counts values (e.g. nanoseconds) in buckets growing with the value: each
+ * power of two is split into 32 buckets, so a percentile is off by 3 % at
+ * most while the whole range of long takes less than 2000 counters. Any
+ * number of threads record at the same time without a lock; count and sum
+ * are striped (LongAdder), so threads recording at once do not fight over
+ * one counter. Reading while others record gives a view which is only
+ * nearly consistent, good enough for reporting.
+ * @author Mathias Knoll
+ */
+public class Histogram {
+
+	// Bits of the sub buckets of each power of two
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << Histogram.SUB_BITS;
+	// Number of buckets
+	private static final int BUCKETS =
+		(64 - Histogram.SUB_BITS + 1) * Histogram.SUB_COUNT;
+
+	// Counts of the buckets
+	private AtomicLongArray arlCounts = new AtomicLongArray(Histogram.BUCKETS);
+	// Number of values, their sum and the largest one
+	private LongAdder lCount = new LongAdder();
+	private LongAdder lSum = new LongAdder();
+	private AtomicLong lMax = new AtomicLong(0);
+
+	/**
+	 * Record a value
+	 * @param lValue The value, negative ones count as 0
+	 */
+	public void record(long lValue){
+		if (lValue < 0)
+			lValue = 0;
+		this.arlCounts.incrementAndGet(Histogram.bucket(lValue));
+		this.lCount.increment();
+		this.lSum.add(lValue);
+		long lMaxNow;
+		while (lValue > (lMaxNow = this.lMax.get())){
+			if (this.lMax.compareAndSet(lMaxNow, lValue))
+				break;
+		}
+	}
+
+	/**
+	 * Bucket of a value
+	 * @param lValue The value, not negative
+	 * @return Index of the bucket
+	 */
+	private static int bucket(long lValue){
+		if (lValue < Histogram.SUB_COUNT)
+			return (int) lValue;
+		int iExponent = 63 - Long.numberOfLeadingZeros(lValue);
+		int iShift = iExponent - Histogram.SUB_BITS;
+		return (iShift + 1) * Histogram.SUB_COUNT +
+			(int) ((lValue >>> iShift) & (Histogram.SUB_COUNT - 1));
+	}
+
+	/**
+	 * Smallest value of a bucket
+	 * @param iBucket Index of the bucket
+	 * @return The value
+	 */
+	private static long lowest(int iBucket){
+		if (iBucket < Histogram.SUB_COUNT)
+			return iBucket;
+		int iShift = iBucket / Histogram.SUB_COUNT - 1;
+		return ((long) (Histogram.SUB_COUNT + iBucket % Histogram.SUB_COUNT)) << iShift;
+	}
+
+	/**
+	 * Value below which a share of all values lies
+	 * @param dPercentile The share in percent, e.g. 99.9
+	 * @return The value (middle of its bucket), 0 if nothing was recorded
+	 */
+	public long getPercentile(double dPercentile){
+		long lTotal = this.lCount.sum();
+		if (lTotal == 0)
+			return 0;
+		long lRank = (long) Math.ceil(lTotal * dPercentile / 100.0);
+		long lSeen = 0;
+		for (int i = 0; i < Histogram.BUCKETS; i++){
+			lSeen += this.arlCounts.get(i);
+			if (lSeen >= Math.max(1, lRank)){
+				long lLow = Histogram.lowest(i);
+				long lHigh = i + 1 < Histogram.BUCKETS ?
+					Histogram.lowest(i + 1) : Long.MAX_VALUE;
+				return Math.min(this.lMax.get(), lLow + (lHigh - lLow) / 2);
+			}
+		}
+		return this.lMax.get();
+	}
+
+	/**
+	 * Number of values
+	 * @return Count
+	 */
+	public long getCount(){
+		return this.lCount.sum();
+	}
+
+	/**
+	 * Average of the values
+	 * @return Average, 0 if nothing was recorded
+	 */
+	public double getAverage(){
+		long lTotal = this.lCount.sum();
+		return lTotal == 0 ? 0 : (double) this.lSum.sum() / lTotal;
+	}
+
+	/**
+	 * Largest value
+	 * @return Maximum
+	 */
+	public long getMax(){
+		return this.lMax.get();
+	}
+
+	/**
+	 * Forget all values (values recorded meanwhile may get lost)
+	 */
+	public void reset(){
+		for (int i = 0; i < Histogram.BUCKETS; i++){
+			this.arlCounts.set(i, 0);
+		}
+		this.lCount.reset();
+		this.lSum.reset();
+		this.lMax.set(0);
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * File			: WireReader.java
+ * Package		: chat.tools
+ * Classes		: WireReader
+ * Description	: Reads lines as well as binary frames from a stream
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * WireReader:
+ * A BufferedReader reads ahead characters, which would be lost when the
+ * connection switches from lines to binary frames. This reader buffers raw
+ * bytes instead, so either a line or a frame can be taken at any point.
+ * @author Mathias Knoll
+ */
+public class WireReader {
+
+	// Charset of lines, the same as PrintStream and Reader use
+	private static final Charset CHARSET = Charset.defaultCharset();
+
+	// The stream
+	private InputStream streamIn = null;
+	// Bytes read ahead
+	private byte arbBuffer[] = new byte[8192];
+	// Next byte to take and end of bytes read ahead
+	private int iPosition = 0;
+	private int iLimit = 0;
+	// Bytes read from the stream so far, written by the reading thread only
+	private volatile long lBytesRead = 0;
+
+	/**
+	 * Constructor of class WireReader
+	 * @param streamIn The stream
+	 */
+	public WireReader(InputStream streamIn) {
+		this.streamIn = streamIn;
+	}
+
+	/**
+	 * Read ahead if nothing is buffered
+	 * @return False at the end of the stream
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		if (this.iPosition < this.iLimit){
+			return true;
+		}
+		int iRead = this.streamIn.read(this.arbBuffer);
+		if (iRead <= 0){
+			return false;
+		}
+		this.iPosition = 0;
+		this.iLimit = iRead;
+		this.lBytesRead += iRead;
+		return true;
+	}
+
+	/**
+	 * Number of bytes read from the stream, some may still be buffered
+	 * @return Bytes read
+	 */
+	public long getBytesRead(){
+		return this.lBytesRead;
+	}
+
+	/**
+	 * Read a line, without its line end
+	 * @return The line or null at the end of the stream
+	 * @throws IOException
+	 */
+	public String readLine() throws IOException {
+		byte arbLine[] = new byte[128];
+		int iLength = 0;
+		boolean bAny = false;
+		while (this.fill()){
+			bAny = true;
+			// Copy up to the line end within what is buffered
+			int iStart = this.iPosition;
+			while (this.iPosition < this.iLimit &&
+				this.arbBuffer[this.iPosition] != '\n'){
+				this.iPosition++;
+			}
+			int iChunk = this.iPosition - iStart;
+			if (iLength + iChunk > arbLine.length){
+				byte arbNew[] = new byte[Math.max(arbLine.length * 2, iLength + iChunk)];
+				System.arraycopy(arbLine, 0, arbNew, 0, iLength);
+				arbLine = arbNew;
+			}
+			System.arraycopy(this.arbBuffer, iStart, arbLine, iLength, iChunk);
+			iLength += iChunk;
+
+			if (this.iPosition < this.iLimit){
+				// Skip line end
+				this.iPosition++;
+				return WireReader.decode(arbLine, iLength);
+			}
+		}
+		return bAny ? WireReader.decode(arbLine, iLength) : null;
+	}
+
+	/**
+	 * Decode a line, dropping a carriage return at its end
+	 * @param arbLine Bytes of the line
+	 * @param iLength Number of bytes
+	 * @return The line
+	 */
+	private static String decode(byte[] arbLine, int iLength){
+		if (iLength > 0 && arbLine[iLength - 1] == '\r'){
+			iLength--;
+		}
+		return new String(arbLine, 0, iLength, WireReader.CHARSET);
+	}
+
+	/**
+	 * Read a binary frame
+	 * @return The frame or null at the end of the stream
+	 * @throws IOException If the frame is malformed or the stream ends
+	 * within the frame
+	 */
+	public Frame readFrame() throws IOException {
+		byte arbHeader[] = new byte[Frame.HEADER];
+		if (!this.readFully(arbHeader, true)){
+			return null;
+		}
+		int iLength =
+			((arbHeader[0] & 0xff) << 24) | ((arbHeader[1] & 0xff) << 16) |
+			((arbHeader[2] & 0xff) << 8) | (arbHeader[3] & 0xff);
+		if (iLength < 0 || iLength > Frame.MAX_PAYLOAD){
+			throw new IOException("Frame of " + iLength + " bytes refused");
+		}
+		byte arbPayload[] = new byte[iLength];
+		this.readFully(arbPayload, false);
+		return new Frame(arbHeader[4], arbPayload);
+	}
+
+	/**
+	 * Fill an array completely
+	 * @param arbTarget The array
+	 * @param bMayEnd True if the stream may end before the first byte
+	 * @return False if the stream ended before the first byte
+	 * @throws IOException If the stream ends within the array
+	 */
+	private boolean readFully(byte[] arbTarget, boolean bMayEnd)
+			throws IOException {
+		int iDone = 0;
+		while (iDone < arbTarget.length){
+			if (!this.fill()){
+				if (iDone == 0 && bMayEnd){
+					return false;
+				}
+				throw new IOException("Connection closed within a frame");
+			}
+			int iChunk = Math.min(arbTarget.length - iDone, this.iLimit - this.iPosition);
+			System.arraycopy(this.arbBuffer, this.iPosition, arbTarget, iDone, iChunk);
+			this.iPosition += iChunk;
+			iDone += iChunk;
+		}
+		return true;
+	}
+
+	/**
+	 * Close the stream
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		this.streamIn.close();
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * File			: ClusterTest.java
+ * Package		: chat.server
+ * Classes		: ClusterTest
+ * Description	: Two nodes of a cluster on localhost
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * ClusterTest:
+ * Node a links to node b twice, both on ephemeral ports of the loopback
+ * address, so every message of a arrives at b twice and the copy has to be
+ * dropped. A member of a room on b collects what b delivers to it. Both
+ * nodes share the registry of users, which is the server's.
+ * @author Mathias Knoll
+ */
+class ClusterTest {
+
+	// Secret of the nodes
+	private static final String SECRET = "test secret";
+	// The nodes
+	private static Cluster clusterA;
+	private static Cluster clusterB;
+	// Lines delivered to the member on node b
+	private static BlockingQueue<String> queueLines = new LinkedBlockingQueue<String>();
+
+	/**
+	 * A user, collecting the lines delivered to it
+	 */
+	private static class Member implements Session {
+		private String sUserName;
+		Member(String sUserName){ this.sUserName = sUserName; }
+		public String getUserName(){ return this.sUserName; }
+		public void printChat(String sLine){ ClusterTest.queueLines.add(sLine); }
+		public void send(SharedBuffer sbLine){
+			ClusterTest.queueLines.add(SharedBuffer.CHARSET.decode(sbLine.view(false))
+				.toString().trim());
+			sbLine.release();
+		}
+		public int getQueueDepth(){ return 0; }
+		public long getDropped(){ return 0; }
+		public long getQueuedBytes(){ return 0; }
+		public long getLag(){ return 0; }
+		public long getMessagesIn(){ return 0; }
+		public long getBytesIn(){ return 0; }
+		public long getMessagesOut(){ return 0; }
+		public long getBytesOut(){ return 0; }
+		public void checkLag(){ }
+	}
+
+	@BeforeAll
+	static void startNodes() throws Exception {
+		ClusterTest.clusterB = new Cluster(null, 0, "b", "", false, ClusterTest.SECRET);
+		ClusterTest.clusterB.start();
+		String sPeer = "127.0.0.1:" + ClusterTest.clusterB.getPort();
+		ClusterTest.clusterA = new Cluster(
+			null, 0, "a", sPeer + "," + sPeer, false, ClusterTest.SECRET);
+		ClusterTest.clusterA.start();
+		Server.rooms.join("cluster", new Member("bob"));
+	}
+
+	@Test
+	void relaysChatLinesOnceEach() throws Exception {
+		long lCopies = ClusterTest.clusterB.getCopies();
+		ClusterTest.clusterA.chat("cluster", "<alice> Hello b!");
+		assertEquals("<alice> Hello b!", ClusterTest.queueLines.poll(10, TimeUnit.SECONDS));
+		// The copy by the second link arrives and is dropped
+		long lDeadline = System.currentTimeMillis() + 10000;
+		while (ClusterTest.clusterB.getCopies() == lCopies &&
+				System.currentTimeMillis() < lDeadline)
+			Thread.sleep(20);
+		assertTrue(ClusterTest.clusterB.getCopies() > lCopies);
+		assertNull(ClusterTest.queueLines.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void listsUsersOfOtherNodes() throws Exception {
+		// As a server does: registered, then told; the presence of a new
+		// link lists the users registered
+		Member memberAlice = new Member("alice");
+		Server.registrySessions.add(memberAlice);
+		ClusterTest.clusterA.presence("alice", true);
+		long lDeadline = System.currentTimeMillis() + 10000;
+		while (!ClusterTest.clusterB.users().contains("alice (a)") &&
+				System.currentTimeMillis() < lDeadline)
+			Thread.sleep(20);
+		assertTrue(ClusterTest.clusterB.users().contains("alice (a)"));
+
+		Server.registrySessions.remove(memberAlice);
+		ClusterTest.clusterA.presence("alice", false);
+		lDeadline = System.currentTimeMillis() + 10000;
+		while (ClusterTest.clusterB.users().contains("alice (a)") &&
+				System.currentTimeMillis() < lDeadline)
+			Thread.sleep(20);
+		assertFalse(ClusterTest.clusterB.users().contains("alice (a)"));
+	}
+
+	@Test
+	void refusesNodesNotKnowingTheSecret() throws Exception {
+		Cluster clusterIntruder = new Cluster(
+			null, 0, "intruder", "127.0.0.1:" + ClusterTest.clusterB.getPort(),
+			false, "wrong secret");
+		clusterIntruder.start();
+		Thread.sleep(500);
+		clusterIntruder.chat("cluster", "<mallory> Hello b!");
+		assertNull(ClusterTest.queueLines.poll(1500, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void dropsCopiesByNumber(){
+		Cluster.Node node = new Cluster.Node();
+		assertTrue(node.isNew(1));
+		assertFalse(node.isNew(1));
+		assertTrue(node.isNew(3));
+		assertTrue(node.isNew(2));
+		assertFalse(node.isNew(2));
+		assertTrue(node.isNew(100));
+		// Out of the window, taken for a copy
+		assertFalse(node.isNew(3));
+		assertTrue(node.isNew(99));
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * File			: JournalTest.java
+ * Package		: chat.server
+ * Classes		: JournalTest
+ * Description	: Lines written, restored, torn and rolled over
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * JournalTest:
+ * Every test writes a log of its own into a new directory, closes it and
+ * opens it again the way a restarted server does. Segments are 1 MB and
+ * index entries close together, so few lines make for many of them.
+ * @author Mathias Knoll
+ */
+class JournalTest {
+
+	// Settings changed for the tests, put back afterwards
+	private static int iSegmentWas;
+	private static int iIntervalWas;
+
+	@BeforeAll
+	static void configure(){
+		JournalTest.iSegmentWas = Server.LOG_SEGMENT;
+		JournalTest.iIntervalWas = Journal.INDEX_INTERVAL;
+		Server.LOG_SEGMENT = 1;
+		Journal.INDEX_INTERVAL = 64;
+	}
+
+	@AfterAll
+	static void restore(){
+		Server.LOG_SEGMENT = JournalTest.iSegmentWas;
+		Journal.INDEX_INTERVAL = JournalTest.iIntervalWas;
+	}
+
+	/**
+	 * Log lines and wait for them to be written
+	 * @param journal The journal
+	 * @param sRoom Room of the lines
+	 * @param arsLines The lines
+	 */
+	private static void append(Journal journal, String sRoom, String... arsLines)
+			throws InterruptedException {
+		long lDone = journal.getWritten() + journal.getDropped() + arsLines.length;
+		for (String sLine : arsLines){
+			SharedBuffer sbLine = SharedBuffer.encode(sLine);
+			journal.append(sRoom, sbLine);
+			sbLine.release();
+		}
+		long lDeadline = System.currentTimeMillis() + 10000;
+		while (journal.getWritten() + journal.getDropped() < lDone &&
+				System.currentTimeMillis() < lDeadline)
+			Thread.sleep(10);
+	}
+
+	/**
+	 * Lines numbered from a number on
+	 * @param iFrom First number
+	 * @param iCount Number of lines
+	 * @param iLength Length of each line
+	 * @return The lines
+	 */
+	private static String[] lines(int iFrom, int iCount, int iLength){
+		String arsLines[] = new String[iCount];
+		StringBuilder sbPad = new StringBuilder();
+		while (sbPad.length() + 8 < iLength)
+			sbPad.append('x');
+		for (int i = 0; i < iCount; i++){
+			arsLines[i] = String.format("%08d", iFrom + i) + sbPad;
+		}
+		return arsLines;
+	}
+
+	/**
+	 * Text of the last lines of a room's history
+	 * @param rooms The rooms
+	 * @param sRoom Name of the room
+	 * @param iLines Number of lines
+	 * @return The lines
+	 */
+	private static String[] history(Rooms rooms, String sRoom, int iLines){
+		List<SharedBuffer> listLines = rooms.get(sRoom).history.last(iLines);
+		String arsLines[] = new String[listLines.size()];
+		for (int i = 0; i < arsLines.length; i++){
+			SharedBuffer sbLine = listLines.get(i);
+			arsLines[i] = SharedBuffer.CHARSET.decode(sbLine.view(false)).toString().trim();
+			sbLine.release();
+		}
+		return arsLines;
+	}
+
+	@Test
+	void restoresLinesSinceTimeByIndex(@TempDir File fileDir) throws Exception {
+		Journal journal = new Journal(fileDir.getPath());
+		journal.start();
+		JournalTest.append(journal, "seek", JournalTest.lines(0, 60, 20));
+		Thread.sleep(50);
+		long lSince = System.currentTimeMillis();
+		Thread.sleep(5);
+		JournalTest.append(journal, "seek", JournalTest.lines(60, 40, 20));
+		journal.close();
+		assertEquals(100, journal.getWritten());
+
+		// From the index entry before the time on, the rest by the times
+		Rooms rooms = new Rooms();
+		assertEquals(40, new Journal(fileDir.getPath()).recover(rooms, lSince));
+		String arsLines[] = JournalTest.history(rooms, "seek", 100);
+		assertEquals(40, arsLines.length);
+		assertTrue(arsLines[0].startsWith("00000060"));
+		assertTrue(arsLines[39].startsWith("00000099"));
+
+		rooms = new Rooms();
+		assertEquals(100, new Journal(fileDir.getPath()).recover(rooms, 0));
+	}
+
+	@Test
+	void endsLogAtTornRecord(@TempDir File fileDir) throws Exception {
+		Journal journal = new Journal(fileDir.getPath());
+		journal.start();
+		JournalTest.append(journal, "torn", JournalTest.lines(0, 50, 30));
+		journal.close();
+
+		// Spoil the last record as a crash within writing it would
+		RandomAccessFile raf = new RandomAccessFile(
+			new File(fileDir, String.format("%020d.log", 0)), "rw");
+		try {
+			int iPos = 0;
+			int iLast = 0;
+			int iBody;
+			while ((iBody = raf.readInt()) > 0){
+				iLast = iPos;
+				iPos += 8 + iBody;
+				raf.seek(iPos);
+			}
+			raf.seek(iLast);
+			iBody = raf.readInt();
+			raf.seek(iLast + 8 + iBody - 1);
+			int iByte = raf.readByte();
+			raf.seek(iLast + 8 + iBody - 1);
+			raf.write(iByte ^ 0x55);
+		} finally {
+			raf.close();
+		}
+
+		Rooms rooms = new Rooms();
+		journal = new Journal(fileDir.getPath());
+		assertEquals(49, journal.recover(rooms, 0));
+		// Written on from the last good record
+		journal.start();
+		JournalTest.append(journal, "torn", "after the crash");
+		journal.close();
+
+		rooms = new Rooms();
+		assertEquals(50, new Journal(fileDir.getPath()).recover(rooms, 0));
+		String arsLines[] = JournalTest.history(rooms, "torn", 2);
+		assertTrue(arsLines[0].startsWith("00000048"));
+		assertEquals("after the crash", arsLines[1]);
+	}
+
+	@Test
+	void keepsWritingWhenSegmentCannotStart(@TempDir File fileDir) throws Exception {
+		// Records of a line of 1000 bytes: header, time, room and the line
+		int iPerSegment = (1 << 20) / (8 + 8 + 2 + "roll".length() + 1000);
+		// A directory in the way of the index of the next segment
+		File fileBlock = new File(fileDir, String.format("%020d.idx", iPerSegment));
+		assertTrue(fileBlock.mkdir());
+
+		Journal journal = new Journal(fileDir.getPath());
+		journal.start();
+		JournalTest.append(journal, "roll", JournalTest.lines(0, iPerSegment + 10, 1000));
+		assertEquals(iPerSegment, journal.getWritten());
+		assertEquals(10, journal.getDropped());
+		assertFalse(new File(fileDir, String.format("%020d.log", iPerSegment)).exists());
+
+		// Out of the way, the journal rolls over and goes on
+		assertTrue(fileBlock.delete());
+		JournalTest.append(journal, "roll", JournalTest.lines(iPerSegment + 10, 5, 1000));
+		journal.close();
+		assertEquals(iPerSegment + 5, journal.getWritten());
+
+		Rooms rooms = new Rooms();
+		assertEquals(iPerSegment + 5, new Journal(fileDir.getPath()).recover(rooms, 0));
+		String arsLines[] = JournalTest.history(rooms, "roll", 6);
+		assertTrue(arsLines[0].startsWith(String.format("%08d", iPerSegment - 1)));
+		assertTrue(arsLines[1].startsWith(String.format("%08d", iPerSegment + 10)));
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * File			: OutboundQueueTest.java
+ * Package		: chat.server
+ * Classes		: OutboundQueueTest
+ * Description	: Full queues dropping lines but never the switch to frames
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package chat.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * OutboundQueueTest:
+ * With policy DROP_OLDEST a full queue makes room by the oldest line, the
+ * switch to binary frames stays queued however much follows it.
+ * @author Mathias Knoll
+ */
+class OutboundQueueTest {
+
+	/**
+	 * Text of a line taken from the queue, released
+	 * @param sbLine The line
+	 * @return The text
+	 */
+	private static String text(SharedBuffer sbLine){
+		String sLine = SharedBuffer.CHARSET.decode(sbLine.view(false)).toString().trim();
+		sbLine.release();
+		return sLine;
+	}
+
+	@Test
+	void dropsOldestLine(){
+		OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST, 0);
+		assertTrue(queue.offer(SharedBuffer.encode("one"), false));
+		assertTrue(queue.offer(SharedBuffer.encode("two"), false));
+		assertTrue(queue.offer(SharedBuffer.encode("three"), false));
+		assertEquals(1, queue.getDropped());
+		assertEquals("two", OutboundQueueTest.text(queue.poll()));
+		assertEquals("three", OutboundQueueTest.text(queue.poll()));
+		assertNull(queue.poll());
+	}
+
+	@Test
+	void keepsSwitchToBinary(){
+		OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST, 0);
+		SharedBuffer sbAccept = SharedBuffer.acceptBinary();
+		assertTrue(queue.offer(sbAccept, false));
+		for (int i = 0; i < 5; i++){
+			assertTrue(queue.offer(SharedBuffer.encode("line " + i), false));
+		}
+		assertEquals(4, queue.getDropped());
+		assertEquals(2, queue.size());
+		SharedBuffer sbFirst = queue.poll();
+		assertSame(sbAccept, sbFirst);
+		assertTrue(sbFirst.isSwitchToBinary());
+		sbFirst.release();
+		assertEquals("line 4", OutboundQueueTest.text(queue.poll()));
+	}
+
+	@Test
+	void dropsNewLineBehindSwitchOnly(){
+		OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.DROP_OLDEST, 0);
+		SharedBuffer sbAccept = SharedBuffer.acceptBinary();
+		assertTrue(queue.offer(sbAccept, false));
+		assertTrue(queue.offer(SharedBuffer.encode("line"), false));
+		assertEquals(1, queue.getDropped());
+		assertEquals(1, queue.size());
+		assertEquals(sbAccept.size(), queue.getBytes());
+		assertSame(sbAccept, queue.poll());
+		sbAccept.release();
+		assertNull(queue.poll());
+	}
+}
@@ -15,12 +15,20 @@ package securechat.client;
 // Imports
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.security.*;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
+import securechat.tools.Compression;
 import securechat.tools.CryptoTools;
+import securechat.tools.Frame;
+import securechat.tools.SessionCipher;
+import securechat.tools.WireReader;
 
 /**
  * Client:
@@ -32,6 +40,21 @@ public class Client extends Thread {
 	// Default values
 	static String HOST = "localhost";
 	static int PORT = 8888;
+	// Cipher mode asked for by "/secure" (gcm, or ecb as in former days)
+	static String CIPHER = System.getProperty("securechat.cipher", SessionCipher.GCM);
+	// Key suite of the hello: "ec" (X25519 and Ed25519) or "rsa"
+	static String SUITE = System.getProperty("securechat.suite", "ec");
+	// How long typed lines wait for the handshake to finish (ms)
+	static long HANDSHAKE_TIMEOUT = 10000;
+	// Flag if "/secure" asks for the room key as well
+	static boolean ROOM = 
+		Boolean.parseBoolean(System.getProperty("securechat.room", "true"));
+	// Flag if "/secure" asks for compressed lines as well
+	static boolean ZIP = 
+		Boolean.parseBoolean(System.getProperty("securechat.zip", "true"));
+	// File keeping the ticket to resume the session when connecting again,
+	// null for no resumption
+	static String TICKET = System.getProperty("securechat.ticket");
 
 	// Host
 	@SuppressWarnings("unused")
@@ -42,7 +65,7 @@ public class Client extends Thread {
 	// Socket
 	private Socket socketClient = null;
 	// Input reader 
-	private BufferedReader readerInput = null;
+	private WireReader readerInput = null;
 	// Output stream
 	private PrintStream streamOut = null;
 	// Reader for input line
@@ -53,13 +76,44 @@ public class Client extends Thread {
 	private boolean bIsSecure = false;	
 	// RSA Key
 	private KeyPair keyPair = null;	
+	// Ed25519 key signing the X25519 keys (elliptic curve suite)
+	private KeyPair keyPairSigning = null;
+	// X25519 key of the current hello (elliptic curve suite)
+	private KeyPair keyPairAgreement = null;
 	// Public key
 	@SuppressWarnings("unused")
 	private String keyPublicClientThread = null;	
 	// Session Key
 	private SecretKey keySession = null;	
+	// Cipher contexts of the session key
+	private volatile SessionCipher cipherSession = null;
+	// Cipher contexts of the current and the previous room key, since
+	// messages of the previous epoch may still be on their way
+	private SessionCipher cipherRoom = null;
+	private SessionCipher cipherRoomPrevious = null;
+	// Epochs of these room keys
+	private int iRoomEpoch = 0;
+	private int iRoomEpochPrevious = 0;
 	// Verification
 	private boolean bIsVerified = false;	
+	// Flag if binary framing is to be asked for right after the name
+	private boolean bBinaryWanted = false;
+	// Flag if security is to be asked for right after the name
+	private boolean bSecureWanted = false;
+	// Flag if the handshake is done in one round trip (hello)
+	private volatile boolean bHello = false;
+	// Flag if a ticket has been sent and waits for its verification
+	private volatile boolean bResume = false;
+	// Flag if the room key comes wrapped by the session key instead of RSA
+	private volatile boolean bRoomBySession = false;
+	// Flag if the server accepted compression, lines go out compressed
+	private volatile boolean bZip = false;
+	// Open until the hello has been answered, typed lines wait for it
+	private volatile CountDownLatch latchSecure = null;
+	// Flag if binary frames are sent instead of lines
+	private volatile boolean bBinaryOut = false;
+	// Flag if binary frames are received instead of lines
+	private volatile boolean bBinaryIn = false;
 	
 	/**
 	 * Main method
@@ -67,12 +121,18 @@ public class Client extends Thread {
 	 */
 	public static void main(String[] args) {
 		
-		// Host and port have to be delivered
-		if(args.length != 2){
+		// Host and port have to be delivered, "binary" and "secure" optionally
+		if(args.length < 2){
 			System.out.println("Please deliver arguments for host and port!");
 		}else{
 			// Initialize Client!
 			Client client = new Client(args[0],Integer.parseInt(args[1]));
+			for (int i = 2; i < args.length; i++){
+				if (args[i].equals("binary"))
+					client.bBinaryWanted = true;
+				else if (args[i].equals("secure"))
+					client.bSecureWanted = true;
+			}
 			client.initialize();
 		}	
 	}
@@ -123,9 +183,8 @@ public class Client extends Thread {
 		
 			// Read input from socket
 			this.readerInput = 
-				new BufferedReader(
-					new InputStreamReader(
-							this.socketClient.getInputStream()));
+				new WireReader(
+					this.socketClient.getInputStream());
 	
 		} catch (UnknownHostException e) {
 			System.err.println(
@@ -154,42 +213,29 @@ public class Client extends Thread {
 				while (!this.bStopped) {
 					
 					sLine = this.readerLine.readLine();
+					if (sLine == null)
+						break;
+					
+					// Typed lines go out encrypted once the hello is answered
+					this.awaitSecure();
 
-					// If secured transfer is established:
-					if(
-						this.bIsSecure && 
-						this.bIsVerified && 
-						this.keySession != null){
-						
-						try {
-							sLine = 
-								CryptoTools.getHex(
-									CryptoTools.encryptData(
-										this.keySession, 
-										sLine.getBytes()));
-						} catch (Exception e) {
-							sLine = "*** Encrypting failed! ***";
-						}	
-						
+					// Handle operation codes (/secure)
+					if(sLine.equals("/secure") && !this.bIsSecure){
+						this.secureChat();
+					}else{
+						// Deliver stream to client thread
+						this.sendLine(sLine);
 					}
 					
-					// Deliver stream to client thread
-					this.streamOut.println(sLine);
-				
-					// Handle operation codes (/secure)
-					if(sLine.equals("/secure")){
-						try {
-							this.streamOut.println(
-								"[public_key]" +
-								CryptoTools.getHex(
-									this.keyPair.getPublic().getEncoded()));
-							this.bIsSecure = true;
-						} catch (Exception e) {
-							this.streamOut.println("[public_key]FAIL");
-							System.out.println(
-								"[Client] [public_key] Exception: "+
-								e.getMessage());
-						}
+					// Name is always sent as text, so framing may follow
+					if (this.bBinaryWanted){
+						this.bBinaryWanted = false;
+						this.sendLine(Frame.REQUEST);
+					}
+					// Security follows right behind, without waiting
+					if (this.bSecureWanted){
+						this.bSecureWanted = false;
+						this.secureChat();
 					}
 				}
 				
@@ -203,6 +249,490 @@ public class Client extends Thread {
 		}
 	}
 
+	/**
+	 * Ask for security: by a hello answered in one round trip for AES-GCM
+	 * (by the ticket of the former session if one has been kept), otherwise
+	 * by the classic exchange ("/secure", public key, session key, signature
+	 * and verification)
+	 * @throws IOException
+	 */
+	private void secureChat() throws IOException {
+		if (SessionCipher.GCM.equals(Client.CIPHER)){
+			this.bHello = true;
+			this.latchSecure = new CountDownLatch(1);
+			this.bIsSecure = true;
+			if (!this.resumeSession())
+				this.sendHello();
+			return;
+		}
+		
+		this.sendLine(Client.ZIP ? "/secure " + SessionCipher.ECB + " zip" : "/secure");
+		try {
+			this.sendControl(
+				Frame.PUBLIC_KEY, "[public_key]",
+				this.keyPair.getPublic().getEncoded());
+			this.bIsSecure = true;
+		} catch (Exception e) {
+			this.sendControl(
+				Frame.PUBLIC_KEY, "[public_key]FAIL", null);
+			System.out.println(
+				"[Client] [public_key] Exception: "+
+				e.getMessage());
+		}
+	}
+	
+	/**
+	 * Send the hello: the client's key signed by itself
+	 * @throws IOException
+	 */
+	private void sendHello() throws IOException {
+		ByteBuffer bufferHello;
+		byte bRoom = (byte) (
+			(Client.ROOM ? Frame.HELLO_ROOM : 0) | 
+			(Client.ZIP ? Frame.HELLO_ZIP : 0));
+		if (this.keyPairSigning != null){
+			// Elliptic curve suite: a fresh X25519 key signed by Ed25519
+			byte arbKey[];
+			byte arbKeySigning[];
+			byte arbSignature[];
+			try {
+				this.keyPairAgreement = CryptoTools.generateKeyPair("X25519");
+				arbKey = this.keyPairAgreement.getPublic().getEncoded();
+				arbKeySigning = this.keyPairSigning.getPublic().getEncoded();
+				arbSignature = CryptoTools.signEd25519(
+					this.keyPairSigning.getPrivate(), arbKey);
+			} catch (GeneralSecurityException e) {
+				throw new IOException(e.getMessage());
+			}
+			bufferHello = ByteBuffer.allocate(
+				5 + arbKey.length + arbKeySigning.length + arbSignature.length);
+			bufferHello.put((byte) (bRoom | Frame.HELLO_EC));
+			bufferHello.putShort((short) arbKey.length);
+			bufferHello.put(arbKey);
+			bufferHello.putShort((short) arbKeySigning.length);
+			bufferHello.put(arbKeySigning);
+			bufferHello.put(arbSignature);
+		}else{
+			byte arbKey[] = this.keyPair.getPublic().getEncoded();
+			byte arbSignature[] = 
+				CryptoTools.signedKey(this.keyPair.getPrivate(), arbKey);
+			bufferHello = 
+				ByteBuffer.allocate(3 + arbKey.length + arbSignature.length);
+			bufferHello.put(bRoom);
+			bufferHello.putShort((short) arbKey.length);
+			bufferHello.put(arbKey);
+			bufferHello.put(arbSignature);
+		}
+
+		this.sendControl(Frame.HELLO, "[hello]", bufferHello.array());
+	}
+	
+	/**
+	 * Resume the former session if a ticket has been kept. The ticket is
+	 * used up either way.
+	 * @return False if there is no ticket
+	 * @throws IOException
+	 */
+	private boolean resumeSession() throws IOException {
+		if (Client.TICKET == null)
+			return false;
+		File fileTicket = new File(Client.TICKET);
+		if (!fileTicket.exists())
+			return false;
+		byte arbTicket[];
+		SecretKey keyFormer;
+		BufferedReader readerTicket = null;
+		try {
+			readerTicket = new BufferedReader(new FileReader(fileTicket));
+			String arsTicket[] = readerTicket.readLine().split(" ");
+			arbTicket = CryptoTools.getBytes(arsTicket[0]);
+			keyFormer = new SecretKeySpec(CryptoTools.getBytes(arsTicket[1]), "AES");
+		} catch (Exception e) {
+			return false;
+		} finally {
+			if (readerTicket != null)
+				readerTicket.close();
+			fileTicket.delete();
+		}
+		if (arbTicket.length != Frame.TICKET_SIZE)
+			return false;
+		
+		byte arbNonce[] = new byte[Frame.TICKET_SIZE];
+		new SecureRandom().nextBytes(arbNonce);
+		byte arbProof[];
+		try {
+			this.keySession = 
+				CryptoTools.resumeKey(keyFormer, arbTicket, arbNonce);
+			this.cipherSession = 
+				new SessionCipher(this.keySession, SessionCipher.GCM, false);
+			arbProof = this.cipherSession.encrypt(arbTicket);
+		} catch (GeneralSecurityException e) {
+			this.cipherSession = null;
+			return false;
+		}
+		ByteBuffer bufferResume = ByteBuffer.allocate(
+			1 + 2 * Frame.TICKET_SIZE + arbProof.length);
+		bufferResume.put((byte) (
+			(Client.ROOM ? Frame.HELLO_ROOM : 0) | 
+			(Client.ZIP ? Frame.HELLO_ZIP : 0)));
+		bufferResume.put(arbTicket);
+		bufferResume.put(arbNonce);
+		bufferResume.put(arbProof);
+		
+		this.bResume = true;
+		this.bRoomBySession = true;
+		this.sendControl(Frame.RESUME, "[resume]", bufferResume.array());
+		return true;
+	}
+	
+	/**
+	 * Keep a ticket sent by the server, along with the session key it stands
+	 * for, to resume the session when connecting again
+	 * @param arbTicket The ticket
+	 */
+	private void storeTicket(byte[] arbTicket){
+		if (
+			Client.TICKET == null || 
+			arbTicket.length != Frame.TICKET_SIZE || 
+			this.keySession == null)
+			return;
+		File fileTicket = new File(Client.TICKET);
+		PrintStream streamTicket = null;
+		try {
+			// The file holds the session key, only its owner may read it
+			fileTicket.delete();
+			fileTicket.createNewFile();
+			fileTicket.setReadable(false, false);
+			fileTicket.setReadable(true, true);
+			streamTicket = new PrintStream(fileTicket);
+			streamTicket.println(
+				CryptoTools.getHex(arbTicket) + " " + 
+				CryptoTools.getHex(this.keySession.getEncoded()));
+		} catch (Exception e) {
+			System.out.println("*** Keeping ticket failed: " + e.getMessage() + " ***");
+		} finally {
+			if (streamTicket != null)
+				streamTicket.close();
+		}
+	}
+	
+	/**
+	 * Wait until an outstanding hello has been answered
+	 */
+	private void awaitSecure(){
+		CountDownLatch latch = this.latchSecure;
+		if (latch == null)
+			return;
+		try {
+			if (!latch.await(Client.HANDSHAKE_TIMEOUT, TimeUnit.MILLISECONDS))
+				System.out.println("*** No answer to hello! ***");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.latchSecure = null;
+	}
+	
+	/**
+	 * Verification arrived, typed lines may go out
+	 * @param bVerified True if the server verified the client
+	 */
+	private void storeVerification(boolean bVerified){
+		// A ticket refused (unknown or expired) costs a full hello
+		if (this.bResume && !bVerified){
+			this.bResume = false;
+			this.bRoomBySession = false;
+			this.cipherSession = null;
+			System.out.println("*** Ticket refused, full handshake ***");
+			try {
+				this.sendHello();
+			} catch (IOException e) {
+				System.out.println("*** Hello failed: " + e.getMessage() + " ***");
+			}
+			return;
+		}
+		if (this.bResume){
+			this.bResume = false;
+			System.out.println("*** Session resumed ***");
+		}
+		this.bIsVerified = bVerified;
+		System.out.println("*** Got verification from server! ***");
+		CountDownLatch latch = this.latchSecure;
+		if (latch != null)
+			latch.countDown();
+	}
+	
+	/**
+	 * Send a line, encrypted if secured transfer is established, either as
+	 * text or as binary frame
+	 * @param sLine
+	 * @throws IOException
+	 */
+	private void sendLine(String sLine) throws IOException {
+		// If secured transfer is established:
+		if(
+			this.bIsSecure && 
+			this.bIsVerified && 
+			this.cipherSession != null){
+			
+			byte arbLine[] = sLine.getBytes();
+			// Compressed before encrypting, if the server agreed and worth it
+			byte arbZipped[] = this.bZip ? Compression.deflate(arbLine) : null;
+			byte arbCipher[];
+			try {
+				arbCipher = this.cipherSession.encrypt(
+					arbZipped != null ? arbZipped : arbLine);
+			} catch (Exception e) {
+				System.out.println("*** Encrypting failed! ***");
+				return;
+			}	
+			if (arbZipped != null){
+				this.sendControl(Frame.CIPHER_ZIP, "[z]", arbCipher);
+			}else{
+				this.sendControl(Frame.CIPHER, "", arbCipher);
+			}
+			
+		}else if (this.bBinaryOut){
+			Frame.write(this.streamOut, Frame.TEXT, sLine.getBytes());
+		}else{
+			this.streamOut.println(sLine);
+		}
+		// Server reads frames right after the request
+		if (sLine.startsWith(Frame.REQUEST))
+			this.bBinaryOut = true;
+	}
+	
+	/**
+	 * Send a message of the key exchange, a frame of its own or a line
+	 * prefixed by its tag and holding the bytes as hex
+	 * @param bType Type of frame
+	 * @param sTag Prefix of the line
+	 * @param arbData The bytes or null if there are none
+	 * @throws IOException
+	 */
+	private void sendControl(byte bType, String sTag, byte[] arbData)
+			throws IOException {
+		if (this.bBinaryOut){
+			Frame.write(
+				this.streamOut, bType, arbData == null ? new byte[0] : arbData);
+		}else if (arbData == null){
+			this.streamOut.println(sTag);
+		}else{
+			try {
+				this.streamOut.println(sTag + CryptoTools.getHex(arbData));
+			} catch (Exception e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Store away the session key sent by the server and answer with its
+	 * signature
+	 * @param arbKey The session key wrapped by the client's public key
+	 */
+	private void storeSessionKey(byte[] arbKey){
+		try {
+			if (this.bHello && this.keyPairAgreement != null){
+				// Elliptic curve suite: the server's X25519 key
+				this.keySession = CryptoTools.agreeKey(
+					this.keyPairAgreement.getPrivate(),
+					CryptoTools.getPublicKey("X25519", arbKey),
+					this.keyPairAgreement.getPublic().getEncoded(),
+					arbKey);
+				this.bRoomBySession = true;
+			}else{
+				this.keySession = new SecretKeySpec(
+					CryptoTools.decipherKey(
+						this.keyPair.getPrivate(), 
+						arbKey
+					)
+				,"AES");
+			}
+			this.cipherSession = 
+				new SessionCipher(this.keySession, Client.CIPHER, false);
+		} catch (GeneralSecurityException e) {
+			System.out.println("*** Cipher failed: " + e.getMessage() + " ***");
+			return;
+		}
+		System.out.println("*** Got session key ***");
+		
+		// A hello has been verified by the public key's signature already
+		if (this.bHello)
+			return;
+		
+		try {
+			this.sendControl(
+				Frame.SIGNED_KEY, "[signed_key]",
+				CryptoTools.signedKey(
+					this.keyPair.getPrivate(),
+					this.keySession.getEncoded()
+				)
+			);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Bytes of a hex string sent by the server
+	 * @param sHex The hex string
+	 * @return The bytes, none if the string is no hex
+	 */
+	private static byte[] getBytes(String sHex){
+		try {
+			return CryptoTools.getBytes(sHex);
+		} catch (IllegalArgumentException e) {
+			return new byte[0];
+		}
+	}
+	
+	/**
+	 * Store away a room key sent by the server
+	 * @param arbData Epoch and the room key wrapped by the client's public key
+	 */
+	private void storeRoomKey(byte[] arbData){
+		if (arbData.length <= 4){
+			System.out.println("*** Room key failed ***");
+			return;
+		}
+		ByteBuffer bufferData = ByteBuffer.wrap(arbData);
+		int iEpoch = bufferData.getInt();
+		byte arbWrapped[] = new byte[bufferData.remaining()];
+		bufferData.get(arbWrapped);
+		try {
+			// Wrapped by the session key (elliptic curve suite, resumed) or RSA
+			byte arbKey[] = this.bRoomBySession ?
+				this.cipherSession.decrypt(arbWrapped) :
+				CryptoTools.decipherKey(this.keyPair.getPrivate(), arbWrapped);
+			SessionCipher cipher = new SessionCipher(
+				new SecretKeySpec(arbKey, "AES"),
+				SessionCipher.GCM, 
+				false);
+			this.cipherRoomPrevious = this.cipherRoom;
+			this.iRoomEpochPrevious = this.iRoomEpoch;
+			this.cipherRoom = cipher;
+			this.iRoomEpoch = iEpoch;
+			System.out.println("*** Got room key " + iEpoch + " ***");
+		} catch (GeneralSecurityException e) {
+			System.out.println("*** Room key failed: " + e.getMessage() + " ***");
+		}
+	}
+	
+	/**
+	 * Store away whether the server accepted compression
+	 * @param arbData Version of the server's dictionary
+	 */
+	private void storeZip(byte[] arbData){
+		this.bZip = 
+			arbData.length == 1 && arbData[0] == Compression.DICTIONARY_VERSION;
+		System.out.println(
+			this.bZip ? "*** Compression ***" : "*** Compression refused ***");
+	}
+	
+	/**
+	 * Decrypt a line sent by the session key
+	 * @param arbCipher The message
+	 * @param bZipped If the line has been compressed before encrypting it
+	 * @return The line
+	 * @throws Exception If it cannot be decrypted or decompressed
+	 */
+	private String decryptSession(byte[] arbCipher, boolean bZipped)
+			throws Exception {
+		byte arbLine[] = this.cipherSession.decrypt(arbCipher);
+		if (bZipped)
+			arbLine = Compression.inflate(arbLine);
+		return new String(arbLine) + " [ENCRYPTED]";
+	}
+	
+	/**
+	 * Decrypt a line sent to all members of the room
+	 * @param arbSealed Epoch and the message
+	 * @param bZipped If the line has been compressed before sealing it
+	 * @return The line
+	 */
+	private String decryptRoom(byte[] arbSealed, boolean bZipped){
+		try {
+			ByteBuffer bufferIn = ByteBuffer.wrap(arbSealed);
+			int iEpoch = bufferIn.getInt();
+			SessionCipher cipher = 
+				iEpoch == this.iRoomEpoch ? this.cipherRoom :
+				iEpoch == this.iRoomEpochPrevious ? this.cipherRoomPrevious : 
+				null;
+			if (cipher == null)
+				return "*** No room key " + iEpoch + " ***";
+			ByteBuffer bufferOut = ByteBuffer.allocate(arbSealed.length);
+			cipher.decrypt(bufferIn, bufferOut);
+			byte arbLine[] = 
+				Arrays.copyOf(bufferOut.array(), bufferOut.position());
+			if (bZipped)
+				arbLine = Compression.inflate(arbLine);
+			return new String(arbLine) + " [ENCRYPTED]";
+		} catch (Exception e) {
+			return "*** Decrypting failed! ***";
+		}
+	}
+	
+	/**
+	 * Read the next line to be shown from binary frames, key exchange frames
+	 * are handled on the way
+	 * @return The line or null if the connection is gone
+	 * @throws IOException
+	 */
+	private String readFrameLine() throws IOException {
+		Frame frame;
+		while ((frame = this.readerInput.readFrame()) != null){
+			switch (frame.getType()){
+			case Frame.TEXT:
+				String line = new String(frame.getPayload());
+				// Sent as a line before the server saw the switch
+				if (line.startsWith("[room]"))
+					return this.decryptRoom(Client.getBytes(line.substring(6)), false);
+				if (line.startsWith("[room_z]"))
+					return this.decryptRoom(Client.getBytes(line.substring(8)), true);
+				// Inform chatter of unencrypted text!
+				if (this.bIsSecure && this.bIsVerified)
+					line = line + " [UNENCRYPTED]";
+				return line;
+			case Frame.CIPHER:
+			case Frame.CIPHER_ZIP:
+				try {
+					return this.decryptSession(
+						frame.getPayload(), frame.getType() == Frame.CIPHER_ZIP);
+				} catch (Exception e) {
+					return "*** Decrypting failed! ***";
+				}
+			case Frame.ROOM_CIPHER:
+			case Frame.ROOM_CIPHER_ZIP:
+				return this.decryptRoom(
+					frame.getPayload(), frame.getType() == Frame.ROOM_CIPHER_ZIP);
+			case Frame.ZIP:
+				this.storeZip(frame.getPayload());
+				break;
+			case Frame.ROOM_KEY:
+				this.storeRoomKey(frame.getPayload());
+				break;
+			case Frame.PUBLIC_KEY:
+				this.keyPublicClientThread = 
+					frame.getPayload().length + " bytes";
+				System.out.println("*** Got public key from server! ***");
+				break;
+			case Frame.SESSION_KEY:
+				this.storeSessionKey(frame.getPayload());
+				break;
+			case Frame.VERIFY_KEY:
+				this.storeVerification(
+					frame.getPayload().length == 1 && frame.getPayload()[0] == 1);
+				break;
+			case Frame.TICKET:
+				this.storeTicket(frame.getPayload());
+				break;
+			default:
+				System.out.println("*** Unknown frame " + frame.getType() + " ***");
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Running the thread reading 
 	 */
@@ -212,20 +742,68 @@ public class Client extends Thread {
 		String line = null;
 
 		try {
-			while ((line = this.readerInput.readLine()) != null) {
+			while (true) {
+				
+				// Frames are handled as a whole
+				if (this.bBinaryIn){
+					line = this.readFrameLine();
+					if (line == null)
+						break;
+					System.out.println(line);
+					if (line.indexOf("*** Bye") != -1)
+						break;
+					continue;
+				}
+				
+				line = this.readerInput.readLine();
+				if (line == null)
+					break;
+				
+				// Server sends binary frames from now on
+				if (line.equals(Frame.ACCEPT)){
+					this.bBinaryIn = true;
+					System.out.println("*** Binary framing ***");
+					continue;
+				}
+				
+				// Operations of the room key, the same for all members
+				if (line.startsWith("[room_key]")){
+					this.storeRoomKey(Client.getBytes(line.substring(10)));
+					continue;
+				}
+				if (line.startsWith("[room]")){
+					line = this.decryptRoom(Client.getBytes(line.substring(6)), false);
+					System.out.println(line);
+					continue;
+				}
+				if (line.startsWith("[room_z]")){
+					line = this.decryptRoom(Client.getBytes(line.substring(8)), true);
+					System.out.println(line);
+					continue;
+				}
+				if (line.startsWith("[zip]")){
+					this.storeZip(Client.getBytes(line.substring(5)));
+					continue;
+				}
+				if (line.startsWith("[ticket]")){
+					this.storeTicket(Client.getBytes(line.substring(8)));
+					continue;
+				}
 				
 				// If secured transfer is established:
 				if(
 					this.bIsSecure && 
 					this.bIsVerified && 
-					this.keySession != null){
+					this.cipherSession != null){
 					
 					try {
-						line = new String(
-								CryptoTools.decryptData(
-									this.keySession, 
-									CryptoTools.getBytes(line)));
-						line = line + " [ENCRYPTED]";
+						if (line.startsWith("[z]")){
+							line = this.decryptSession(
+								CryptoTools.getBytes(line.substring(3)), true);
+						}else{
+							line = this.decryptSession(
+								CryptoTools.getBytes(line), false);
+						}
 					} catch (Exception e) {
 						// Inform chatter of unencrypted text!
 						line = line + " [UNENCRYPTED]";
@@ -240,32 +818,13 @@ public class Client extends Thread {
 				}
 				// Operation: session key transmitted
 				else if(line.startsWith("[session_key]")){ 
-					this.keySession = new SecretKeySpec(
-						CryptoTools.decipherKey(
-							this.keyPair.getPrivate(), 
-							CryptoTools.getBytes(line.substring(13))
-						)
-					,"AES");
-					System.out.println("*** Got session key ***");
-					
-					try {
-						this.streamOut.println(
-							"[signed_key]" + 
-							CryptoTools.getHex(
-								CryptoTools.signedKey(
-									this.keyPair.getPrivate(),
-									this.keySession.getEncoded()
-								)
-							)	
-						);
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
+					this.storeSessionKey(
+						Client.getBytes(line.substring(13)));
 				}
 				// Operation: verifying transmitted
 				else if(line.startsWith("[verify_key]")){
-					this.bIsVerified = line.substring(12).equalsIgnoreCase("OK");
-					System.out.println("*** Got verification from server! ***");	
+					this.storeVerification(
+						line.substring(12).equalsIgnoreCase("OK"));
 				}
 				// Deliver line at last
 				else{
@@ -288,6 +847,15 @@ public class Client extends Thread {
 	 * @throws IOException
 	 */
 	private void createKeys() throws NoSuchAlgorithmException, IOException {
+		// The elliptic curve suite needs no RSA keys
+		if (Client.SUITE.equals("ec") && SessionCipher.GCM.equals(Client.CIPHER)){
+			try {
+				this.keyPairSigning = CryptoTools.generateKeyPair("Ed25519");
+				return;
+			} catch (GeneralSecurityException e) {
+				System.out.println("Ed25519 not available, using RSA.");
+			}
+		}
 		//Create key generator (RSA asymmetric encryption)
 		KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
 		//Use 1024 bit keys
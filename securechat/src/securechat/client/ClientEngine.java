@@ -0,0 +1,253 @@
+/**
+ * File			: ClientEngine.java
+ * Package		: securechat.client
+ * Classes		: ClientEngine
+ * Description	: Selector thread and workers serving client connections
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.client;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ClientEngine:
+ * The client side of the server's event loop: one thread with one selector
+ * moves the bytes of any number of connections without ever blocking, a
+ * fixed number of workers, one per core by default, decodes and decrypts
+ * what arrived and calls the listeners. Neither waits for the console or
+ * whatever else a listener does with a line, and reading a connection
+ * stops while its workers lag behind (see Connection).
+ * <pre>
+ * ClientEngine engine = new ClientEngine();
+ * engine.start();
+ * Connection connection =
+ *     engine.connect("localhost", 8888, "alice", true, listener);
+ * connection.send("Hello!");
+ * </pre>
+ * @author Mathias Knoll
+ */
+public class ClientEngine extends Thread {
+
+	// Number of workers
+	static int WORKERS = Integer.getInteger(
+		"securechat.client.workers", Runtime.getRuntime().availableProcessors());
+
+	// Selector of the engine
+	private Selector selector = null;
+	// Connections waiting to be registered with the selector
+	private Queue<Connection> queueRegister = new ConcurrentLinkedQueue<Connection>();
+	// Connections having output to be flushed
+	private Queue<Connection> queueFlush = new ConcurrentLinkedQueue<Connection>();
+	// Flag if a wakeup of the selector is already pending
+	private AtomicBoolean bWakeupPending = new AtomicBoolean(false);
+	// Workers decoding, decrypting and calling listeners
+	private ExecutorService executorWorkers = null;
+	// Connections not closed yet
+	private Set<Connection> setConnections =
+		ConcurrentHashMap.<Connection>newKeySet();
+	// Flag if the engine is to stop
+	private volatile boolean bStopped = false;
+
+	/**
+	 * Constructor of class ClientEngine with WORKERS workers
+	 * @throws IOException
+	 */
+	public ClientEngine() throws IOException {
+		this(ClientEngine.WORKERS);
+	}
+
+	/**
+	 * Constructor of class ClientEngine
+	 * @param iWorkers Number of workers
+	 * @throws IOException
+	 */
+	public ClientEngine(int iWorkers) throws IOException {
+		super("Client engine");
+		this.setDaemon(true);
+		this.selector = Selector.open();
+		final AtomicInteger iNumber = new AtomicInteger(0);
+		this.executorWorkers = Executors.newFixedThreadPool(
+			Math.max(1, iWorkers),
+			new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(
+						runnable, "Client worker-" + iNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	}
+
+	/**
+	 * Open a connection to a server; it connects in the background, lines
+	 * sent meanwhile wait for it
+	 * @param sHost Host of the server
+	 * @param iPort Port of the server
+	 * @param sName Name of the user
+	 * @param bSecure If the connection asks for encryption
+	 * @param listener Receiver of what arrives
+	 * @return The connection
+	 * @throws IOException If the keys of the hello cannot be made
+	 */
+	public Connection connect(
+			String sHost, int iPort, String sName, boolean bSecure,
+			ClientListener listener) throws IOException {
+		Connection connection =
+			new Connection(this, sHost, iPort, sName, bSecure, listener);
+		this.setConnections.add(connection);
+		this.queueRegister.add(connection);
+		this.wakeup();
+		return connection;
+	}
+
+	/**
+	 * Connections not closed yet
+	 * @return The connections
+	 */
+	public List<Connection> getConnections(){
+		return new ArrayList<Connection>(this.setConnections);
+	}
+
+	/**
+	 * Stop the engine: connections are closed at once, their listeners are
+	 * told after the lines before
+	 */
+	public void shutdown(){
+		this.bStopped = true;
+		this.selector.wakeup();
+	}
+
+	/**
+	 * Ask the engine to flush the connection's pending output
+	 * @param connection The connection having output
+	 */
+	void scheduleFlush(Connection connection){
+		this.queueFlush.add(connection);
+		this.wakeup();
+	}
+
+	/**
+	 * Have a worker handle what arrived on the connection
+	 * @param connection The connection
+	 */
+	void work(final Connection connection){
+		this.executorWorkers.execute(new Runnable() {
+			public void run() {
+				connection.process();
+			}
+		});
+	}
+
+	/**
+	 * A connection is closed
+	 * @param connection The connection
+	 */
+	void closed(Connection connection){
+		this.setConnections.remove(connection);
+	}
+
+	/**
+	 * Wake up the selector unless a wakeup is pending anyway
+	 */
+	private void wakeup(){
+		if (Thread.currentThread() != this &&
+			this.bWakeupPending.compareAndSet(false, true)){
+			this.selector.wakeup();
+		}
+	}
+
+	/**
+	 * Running the engine
+	 */
+	public void run() {
+		while (!this.bStopped) {
+			try {
+				this.selector.select();
+				this.bWakeupPending.set(false);
+
+				this.processRegistrations();
+
+				Iterator<SelectionKey> iterKeys =
+					this.selector.selectedKeys().iterator();
+				while (iterKeys.hasNext()){
+					SelectionKey key = iterKeys.next();
+					iterKeys.remove();
+					this.processKey(key);
+				}
+
+				this.processFlushes();
+			} catch (IOException e) {
+				System.out.println("[" + this.getName() + "] Failure in engine: " + e);
+			}
+		}
+		this.processRegistrations();
+		for (Connection connection : this.getConnections()){
+			connection.closeNow("Engine stopped");
+		}
+		try {
+			this.selector.close();
+		} catch (IOException e) {
+			// Closed anyway
+		}
+		// Workers finish what is queued, the listeners learn of the end
+		this.executorWorkers.shutdown();
+	}
+
+	/**
+	 * Register all new connections with the selector
+	 */
+	private void processRegistrations(){
+		Connection connection;
+		while ((connection = this.queueRegister.poll()) != null){
+			connection.open(this.selector);
+		}
+	}
+
+	/**
+	 * Flush all connections having pending output
+	 */
+	private void processFlushes(){
+		Connection connection;
+		while ((connection = this.queueFlush.poll()) != null){
+			connection.flush();
+		}
+	}
+
+	/**
+	 * Dispatch a ready key to its connection
+	 * @param key The selected key
+	 */
+	private void processKey(SelectionKey key){
+		Connection connection = (Connection) key.attachment();
+		try {
+			if (key.isConnectable()){
+				connection.connected();
+			}
+			if (key.isValid() && key.isReadable()){
+				connection.read();
+			}
+			if (key.isValid() && key.isWritable()){
+				connection.flush();
+			}
+		} catch (CancelledKeyException e) {
+			connection.closeNow("Key cancelled");
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * File			: ClientListener.java
+ * Package		: securechat.client
+ * Classes		: ClientListener
+ * Description	: Receiver of what arrives on the connections of a ClientEngine
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.client;
+
+/**
+ * ClientListener:
+ * Gets the lines arriving on connections of a ClientEngine, decoded and
+ * decrypted, and what happens to the connections. It is called by the
+ * engine's workers, never by its I/O thread: calls for one connection come
+ * one after the other and in the order things arrived, calls for different
+ * connections may come at the same time. A listener taking its time holds
+ * up its connection only, which stops reading once too much waits for it.
+ * @author Mathias Knoll
+ */
+public interface ClientListener {
+
+	/**
+	 * A line arrived
+	 * @param connection The connection
+	 * @param sLine The line
+	 * @param bEncrypted If it arrived encrypted
+	 */
+	void received(Connection connection, String sLine, boolean bEncrypted);
+
+	/**
+	 * Something happened on the connection, e.g. it got verified or a room
+	 * key arrived
+	 * @param connection The connection
+	 * @param sNotice What happened
+	 */
+	void notice(Connection connection, String sNotice);
+
+	/**
+	 * The connection is gone, nothing follows
+	 * @param connection The connection
+	 * @param sReason Why
+	 */
+	void closed(Connection connection, String sReason);
+}
@@ -0,0 +1,728 @@
+/**
+ * File			: Connection.java
+ * Package		: securechat.client
+ * Classes		: Connection
+ * Description	: One connection of a ClientEngine to a chat server
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import securechat.tools.Compression;
+import securechat.tools.CryptoTools;
+import securechat.tools.Frame;
+import securechat.tools.SessionCipher;
+
+/**
+ * Connection:
+ * One connection of a ClientEngine to a chat server, speaking the protocol
+ * of Client: the name as a line, binary frames from then on and, if asked
+ * for, the hello by elliptic curves with room key and compression. The
+ * engine's I/O thread only moves bytes, it cuts what arrives into lines and
+ * frames and writes what is queued. Agreeing on keys, decrypting,
+ * decompressing and calling the listener is done by the engine's workers,
+ * by one at a time for a connection. If more than BACKLOG lines wait for
+ * the workers, the connection stops reading until half of them are done,
+ * so a flood of lines costs memory for a bounded number of them only.
+ * Lines may be sent by any thread; with security asked for, lines sent
+ * before the server's verification wait for it.
+ * @author Mathias Knoll
+ */
+public class Connection {
+
+	// Size of the buffer receiving bytes, grown for a larger frame
+	static int READ_BUFFER = 16384;
+	// Most buffers written by one gathering write
+	static int GATHER = 16;
+	// Lines waiting for the workers at which reading pauses
+	static int BACKLOG = Integer.getInteger("securechat.client.backlog", 4096);
+	// Most lines and frames a worker handles before giving way to others
+	static int BATCH = 256;
+	// Flags if the hello asks for the room key and for compression
+	static boolean ROOM =
+		Boolean.parseBoolean(System.getProperty("securechat.room", "true"));
+	static boolean ZIP =
+		Boolean.parseBoolean(System.getProperty("securechat.zip", "true"));
+	// Charset of lines
+	private static final Charset CHARSET = Charset.defaultCharset();
+	// Marks the end of the lines and frames for the workers
+	private static final Object CLOSED = new Object();
+
+	// Engine serving the connection
+	private ClientEngine engine = null;
+	// Receiver of what arrives
+	private ClientListener listener = null;
+	// Address of the server and name of the user
+	private InetSocketAddress address = null;
+	private String sName = null;
+	// Flag if security is asked for
+	private boolean bSecure = false;
+
+	// Channel and its key within the engine's selector (I/O thread only)
+	private SocketChannel channel = null;
+	private SelectionKey key = null;
+	// Bytes not yet cut into lines or frames (I/O thread only)
+	private ByteBuffer bufferIn = ByteBuffer.allocate(Connection.READ_BUFFER);
+	// Flag if the server sends frames, once it accepted them (I/O thread only)
+	private boolean bFramesIn = false;
+	// Buffers waiting to be written
+	private Queue<ByteBuffer> queueOut = new ConcurrentLinkedQueue<ByteBuffer>();
+	// Buffers being written (I/O thread only)
+	private ByteBuffer arbufferPending[] = new ByteBuffer[Connection.GATHER];
+	private int iPendingCount = 0;
+	// Flag if a flush is scheduled with the engine
+	private AtomicBoolean bFlushScheduled = new AtomicBoolean(false);
+	// Flag if the connection closes once everything is written
+	private volatile boolean bCloseWanted = false;
+	// Flag if closed, and why
+	private volatile boolean bClosed = false;
+	private volatile String sClosedReason = null;
+
+	// Lines and frames waiting for the workers and their number
+	private Queue<Object> queueIn = new ConcurrentLinkedQueue<Object>();
+	private AtomicInteger iBacklog = new AtomicInteger(0);
+	// Flag if a worker is on the connection
+	private AtomicBoolean bWorking = new AtomicBoolean(false);
+	// Flag if reading pauses for the workers to catch up
+	private AtomicBoolean bPaused = new AtomicBoolean(false);
+
+	// Key pair agreeing on the session key (workers only)
+	private KeyPair keyPairAgreement = null;
+	// Session cipher, once the server's key has arrived
+	private volatile SessionCipher cipherSession = null;
+	// Room ciphers of the current and previous epoch (workers only)
+	private SessionCipher cipherRoom = null;
+	private SessionCipher cipherRoomPrevious = null;
+	private int iRoomEpoch = 0;
+	private int iRoomEpochPrevious = 0;
+	// Flag if verified, and if the server accepted compression
+	private volatile boolean bVerified = false;
+	private volatile boolean bZip = false;
+	// Guards sending: lines go out in the order sent, held back until
+	// the handshake is over
+	private Object lockSend = new Object();
+	// Flag if the handshake is over, verified or not
+	private boolean bHandshakeOver = false;
+	// Lines sent before the handshake was over
+	private List<String> listPending = new ArrayList<String>();
+	// Flag if closed before the handshake was over, once the lines held
+	// back are sent
+	private boolean bCloseHeld = false;
+
+	/**
+	 * Constructor of class Connection, the name, the request for frames and
+	 * the hello are queued right away
+	 * @param engine Engine serving the connection
+	 * @param sHost Host of the server
+	 * @param iPort Port of the server
+	 * @param sName Name of the user
+	 * @param bSecure If security is asked for
+	 * @param listener Receiver of what arrives
+	 * @throws IOException If the keys of the hello cannot be made
+	 */
+	Connection(
+			ClientEngine engine, String sHost, int iPort, String sName,
+			boolean bSecure, ClientListener listener) throws IOException {
+		this.engine = engine;
+		this.address = new InetSocketAddress(sHost, iPort);
+		this.sName = sName;
+		this.bSecure = bSecure;
+		this.listener = listener;
+		this.queueOut.add(ByteBuffer.wrap(
+			(sName + "\n" + Frame.REQUEST + "\n").getBytes(Connection.CHARSET)));
+		if (bSecure){
+			try {
+				this.queueFrame(Frame.HELLO, this.hello());
+			} catch (GeneralSecurityException e) {
+				throw new IOException("Hello failed: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * The hello of the elliptic curve suite: a fresh X25519 key signed by a
+	 * fresh Ed25519 key
+	 * @return The hello
+	 * @throws GeneralSecurityException
+	 */
+	private byte[] hello() throws GeneralSecurityException {
+		KeyPair keyPairSigning = CryptoTools.generateKeyPair("Ed25519");
+		this.keyPairAgreement = CryptoTools.generateKeyPair("X25519");
+		byte arbKey[] = this.keyPairAgreement.getPublic().getEncoded();
+		byte arbKeySigning[] = keyPairSigning.getPublic().getEncoded();
+		byte arbSignature[] =
+			CryptoTools.signEd25519(keyPairSigning.getPrivate(), arbKey);
+		ByteBuffer bufferHello = ByteBuffer.allocate(
+			5 + arbKey.length + arbKeySigning.length + arbSignature.length);
+		bufferHello.put((byte) (
+			(Connection.ROOM ? Frame.HELLO_ROOM : 0) |
+			(Connection.ZIP ? Frame.HELLO_ZIP : 0) |
+			Frame.HELLO_EC));
+		bufferHello.putShort((short) arbKey.length);
+		bufferHello.put(arbKey);
+		bufferHello.putShort((short) arbKeySigning.length);
+		bufferHello.put(arbKeySigning);
+		bufferHello.put(arbSignature);
+		return bufferHello.array();
+	}
+
+	/**
+	 * Send a line, encrypted once verified (any thread)
+	 * @param sLine The line
+	 * @return False if the connection is closed or encrypting failed
+	 */
+	public boolean send(String sLine){
+		if (this.bClosed || this.bCloseWanted)
+			return false;
+		synchronized (this.lockSend){
+			if (this.bCloseHeld)
+				return false;
+			if (this.bSecure && !this.bHandshakeOver){
+				this.listPending.add(sLine);
+				return true;
+			}
+			return this.sendNow(sLine);
+		}
+	}
+
+	/**
+	 * Queue a line, compressed and encrypted if agreed (lock held)
+	 * @param sLine The line
+	 * @return False if encrypting failed
+	 */
+	private boolean sendNow(String sLine){
+		byte arbLine[] = sLine.getBytes(Connection.CHARSET);
+		SessionCipher cipher = this.cipherSession;
+		if (!this.bVerified || cipher == null){
+			this.queueFrame(Frame.TEXT, arbLine);
+			return true;
+		}
+		byte arbZipped[] = this.bZip ? Compression.deflate(arbLine) : null;
+		try {
+			byte arbCipher[] = cipher.encrypt(arbZipped != null ? arbZipped : arbLine);
+			this.queueFrame(
+				arbZipped != null ? Frame.CIPHER_ZIP : Frame.CIPHER, arbCipher);
+			return true;
+		} catch (GeneralSecurityException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Queue a frame
+	 * @param bType Type of frame
+	 * @param arbPayload Payload
+	 */
+	private void queueFrame(byte bType, byte[] arbPayload){
+		ByteBuffer buffer = ByteBuffer.allocate(Frame.HEADER + arbPayload.length);
+		buffer.putInt(arbPayload.length);
+		buffer.put(bType);
+		buffer.put(arbPayload);
+		buffer.flip();
+		this.queueOut.add(buffer);
+		this.scheduleFlush();
+	}
+
+	/**
+	 * Close the connection once everything sent is written, with security
+	 * asked for after the handshake (any thread)
+	 */
+	public void close(){
+		synchronized (this.lockSend){
+			if (this.bSecure && !this.bHandshakeOver){
+				this.bCloseHeld = true;
+				return;
+			}
+		}
+		this.bCloseWanted = true;
+		this.scheduleFlush();
+	}
+
+	/**
+	 * Ask the engine to write what is queued
+	 */
+	private void scheduleFlush(){
+		if (this.bFlushScheduled.compareAndSet(false, true))
+			this.engine.scheduleFlush(this);
+	}
+
+	/**
+	 * Start connecting (I/O thread only)
+	 * @param selector The engine's selector
+	 */
+	void open(Selector selector){
+		try {
+			this.channel = SocketChannel.open();
+			this.channel.configureBlocking(false);
+			// Lines are gathered by the engine already
+			this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			boolean bConnected = this.channel.connect(this.address);
+			this.key = this.channel.register(
+				selector, bConnected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+			if (bConnected)
+				this.flush();
+		} catch (IOException e) {
+			this.closeNow("Connecting failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * The connection is established (I/O thread only)
+	 */
+	void connected(){
+		try {
+			this.channel.finishConnect();
+		} catch (IOException e) {
+			this.closeNow("Connecting failed: " + e.getMessage());
+			return;
+		}
+		this.flush();
+	}
+
+	/**
+	 * Read what arrived and hand lines and frames to the workers (I/O
+	 * thread only)
+	 */
+	void read(){
+		try {
+			if (this.channel.read(this.bufferIn) < 0){
+				this.closeNow("Connection closed by the server");
+				return;
+			}
+			this.cut();
+		} catch (IOException e) {
+			this.closeNow("Failure reading: " + e.getMessage());
+			return;
+		}
+		if (this.iBacklog.get() >= Connection.BACKLOG){
+			// Checked again, the workers may have caught up meanwhile
+			this.bPaused.set(true);
+			if (this.iBacklog.get() <= Connection.BACKLOG / 2)
+				this.bPaused.set(false);
+			this.updateInterest();
+		}
+	}
+
+	/**
+	 * Cut the bytes received into lines, until the server accepts frames,
+	 * and frames (I/O thread only)
+	 * @throws IOException If a line or frame is too long
+	 */
+	private void cut() throws IOException {
+		ByteBuffer buffer = this.bufferIn;
+		buffer.flip();
+		// Bytes needed for the line or frame not complete yet
+		int iNeeded = 0;
+		while (buffer.hasRemaining()){
+			if (!this.bFramesIn){
+				int iEnd = buffer.position();
+				while (iEnd < buffer.limit() && buffer.get(iEnd) != '\n')
+					iEnd++;
+				if (iEnd == buffer.limit()){
+					iNeeded = buffer.remaining() + 1;
+					break;
+				}
+				int iLength = iEnd - buffer.position();
+				if (iLength > 0 && buffer.get(iEnd - 1) == '\r')
+					iLength--;
+				byte arbLine[] = new byte[iLength];
+				buffer.get(arbLine);
+				buffer.position(iEnd + 1);
+				String sLine = new String(arbLine, Connection.CHARSET);
+				if (sLine.equals(Frame.ACCEPT)){
+					this.bFramesIn = true;
+				}else{
+					this.receive(sLine);
+				}
+				continue;
+			}
+			if (buffer.remaining() < Frame.HEADER){
+				iNeeded = Frame.HEADER;
+				break;
+			}
+			int iLength = buffer.getInt(buffer.position());
+			if (iLength < 0 || iLength > Frame.MAX_PAYLOAD)
+				throw new IOException("Frame of " + iLength + " bytes");
+			if (buffer.remaining() < Frame.HEADER + iLength){
+				iNeeded = Frame.HEADER + iLength;
+				break;
+			}
+			buffer.getInt();
+			byte bType = buffer.get();
+			byte arbPayload[] = new byte[iLength];
+			buffer.get(arbPayload);
+			this.receive(new Frame(bType, arbPayload));
+		}
+		buffer.compact();
+		if (iNeeded > buffer.capacity()){
+			if (iNeeded > Frame.HEADER + Frame.MAX_PAYLOAD)
+				throw new IOException("Line too long");
+			ByteBuffer bufferGrown = ByteBuffer.allocate(Math.min(
+				Frame.HEADER + Frame.MAX_PAYLOAD,
+				Math.max(iNeeded, buffer.capacity() * 2)));
+			buffer.flip();
+			bufferGrown.put(buffer);
+			this.bufferIn = bufferGrown;
+		}else if (
+			buffer.position() == 0 &&
+			buffer.capacity() > Connection.READ_BUFFER){
+			// A large frame is through, back to the usual size
+			this.bufferIn = ByteBuffer.allocate(Connection.READ_BUFFER);
+		}
+	}
+
+	/**
+	 * Hand a line or frame to the workers
+	 * @param item The line, frame or CLOSED
+	 */
+	private void receive(Object item){
+		this.queueIn.add(item);
+		this.iBacklog.incrementAndGet();
+		if (this.bWorking.compareAndSet(false, true))
+			this.engine.work(this);
+	}
+
+	/**
+	 * Write as much of the queued output as the channel takes (I/O thread
+	 * only)
+	 */
+	void flush(){
+		this.bFlushScheduled.set(false);
+		if (this.bClosed || this.key == null || !this.channel.isConnected())
+			return;
+		try {
+			while (true){
+				while (this.iPendingCount < Connection.GATHER){
+					ByteBuffer buffer = this.queueOut.poll();
+					if (buffer == null)
+						break;
+					this.arbufferPending[this.iPendingCount++] = buffer;
+				}
+				if (this.iPendingCount == 0)
+					break;
+				this.channel.write(this.arbufferPending, 0, this.iPendingCount);
+				int iDone = 0;
+				while (
+					iDone < this.iPendingCount &&
+					!this.arbufferPending[iDone].hasRemaining())
+					iDone++;
+				int iLeft = this.iPendingCount - iDone;
+				System.arraycopy(
+					this.arbufferPending, iDone, this.arbufferPending, 0, iLeft);
+				for (int i = iLeft; i < this.iPendingCount; i++)
+					this.arbufferPending[i] = null;
+				this.iPendingCount = iLeft;
+				if (iLeft > 0)
+					// Socket is full, go on once it is writable again
+					break;
+			}
+			if (this.iPendingCount == 0 && this.bCloseWanted){
+				this.closeNow("Closed");
+				return;
+			}
+			this.updateInterest();
+		} catch (IOException e) {
+			this.closeNow("Failure writing: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Read unless paused, write while output is pending (I/O thread only)
+	 */
+	private void updateInterest(){
+		if (this.key == null || !this.key.isValid() || !this.channel.isConnected())
+			return;
+		this.key.interestOps(
+			(this.bPaused.get() ? 0 : SelectionKey.OP_READ) |
+			(this.iPendingCount > 0 ? SelectionKey.OP_WRITE : 0));
+	}
+
+	/**
+	 * Close the channel, the listener is told after the lines before (I/O
+	 * thread only)
+	 * @param sReason Why
+	 */
+	void closeNow(String sReason){
+		if (this.bClosed)
+			return;
+		this.bClosed = true;
+		this.sClosedReason = sReason;
+		if (this.key != null)
+			this.key.cancel();
+		try {
+			if (this.channel != null)
+				this.channel.close();
+		} catch (IOException e) {
+			// Closed anyway
+		}
+		this.queueOut.clear();
+		this.engine.closed(this);
+		this.receive(Connection.CLOSED);
+	}
+
+	/**
+	 * Handle the lines and frames waiting, one worker at a time; after BATCH
+	 * of them the connection queues up again behind others
+	 */
+	void process(){
+		int iDone = 0;
+		while (true){
+			Object item;
+			while ((item = this.queueIn.poll()) != null){
+				this.iBacklog.decrementAndGet();
+				try {
+					this.handle(item);
+				} catch (RuntimeException e) {
+					System.out.println("Error: Listener failed: " + e);
+				}
+				// Reading goes on once half of the backlog is done
+				if (
+					this.bPaused.get() &&
+					this.iBacklog.get() <= Connection.BACKLOG / 2 &&
+					this.bPaused.compareAndSet(true, false))
+					this.engine.scheduleFlush(this);
+				if (++iDone == Connection.BATCH){
+					this.engine.work(this);
+					return;
+				}
+			}
+			this.bWorking.set(false);
+			// A line may have come in after the queue was found empty
+			if (this.queueIn.isEmpty() || !this.bWorking.compareAndSet(false, true))
+				return;
+		}
+	}
+
+	/**
+	 * Handle a line or frame (worker)
+	 * @param item The line, frame or CLOSED
+	 */
+	private void handle(Object item){
+		if (item == Connection.CLOSED){
+			synchronized (this.lockSend){
+				this.listPending.clear();
+			}
+			this.listener.closed(this, this.sClosedReason);
+			return;
+		}
+		if (item instanceof String){
+			this.listener.received(this, (String) item, false);
+			return;
+		}
+		Frame frame = (Frame) item;
+		byte arbPayload[] = frame.getPayload();
+		switch (frame.getType()){
+		case Frame.TEXT:
+			this.listener.received(
+				this, new String(arbPayload, Connection.CHARSET), false);
+			break;
+		case Frame.CIPHER:
+		case Frame.CIPHER_ZIP:
+			this.deliver(this.decrypt(
+				arbPayload, frame.getType() == Frame.CIPHER_ZIP));
+			break;
+		case Frame.ROOM_CIPHER:
+		case Frame.ROOM_CIPHER_ZIP:
+			this.deliver(this.decryptRoom(
+				arbPayload, frame.getType() == Frame.ROOM_CIPHER_ZIP));
+			break;
+		case Frame.ROOM_KEY:
+			this.storeRoomKey(arbPayload);
+			break;
+		case Frame.SESSION_KEY:
+			this.storeSessionKey(arbPayload);
+			break;
+		case Frame.VERIFY_KEY:
+			this.storeVerification(arbPayload.length == 1 && arbPayload[0] == 1);
+			break;
+		case Frame.ZIP:
+			this.bZip = arbPayload.length == 1 &&
+				arbPayload[0] == Compression.DICTIONARY_VERSION;
+			this.listener.notice(
+				this, this.bZip ? "Compression" : "Compression refused");
+			break;
+		case Frame.TICKET:
+			// Every connection does a hello, sessions are not resumed
+			break;
+		default:
+			this.listener.notice(this, "Unknown frame " + frame.getType());
+		}
+	}
+
+	/**
+	 * Hand a decrypted line to the listener
+	 * @param arbLine The line, null if decrypting failed
+	 */
+	private void deliver(byte[] arbLine){
+		if (arbLine == null){
+			this.listener.notice(this, "Decrypting failed!");
+			return;
+		}
+		this.listener.received(
+			this, new String(arbLine, Connection.CHARSET), true);
+	}
+
+	/**
+	 * Decrypt a line sent by the session key (worker)
+	 * @param arbCipher The message
+	 * @param bZipped If the line has been compressed before encrypting it
+	 * @return The line or null if it cannot be decrypted or decompressed
+	 */
+	private byte[] decrypt(byte[] arbCipher, boolean bZipped){
+		try {
+			byte arbLine[] = this.cipherSession.decrypt(arbCipher);
+			return bZipped ? Compression.inflate(arbLine) : arbLine;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Decrypt a line sent to all members of the room (worker)
+	 * @param arbSealed Epoch and the message
+	 * @param bZipped If the line has been compressed before sealing it
+	 * @return The line or null if it cannot be decrypted or decompressed
+	 */
+	private byte[] decryptRoom(byte[] arbSealed, boolean bZipped){
+		try {
+			ByteBuffer bufferIn = ByteBuffer.wrap(arbSealed);
+			int iEpoch = bufferIn.getInt();
+			SessionCipher cipher =
+				iEpoch == this.iRoomEpoch ? this.cipherRoom :
+				iEpoch == this.iRoomEpochPrevious ? this.cipherRoomPrevious :
+				null;
+			ByteBuffer bufferOut = ByteBuffer.allocate(arbSealed.length);
+			cipher.decrypt(bufferIn, bufferOut);
+			byte arbLine[] = new byte[bufferOut.position()];
+			System.arraycopy(bufferOut.array(), 0, arbLine, 0, arbLine.length);
+			return bZipped ? Compression.inflate(arbLine) : arbLine;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Agree on the session key with the server's X25519 key (worker)
+	 * @param arbKey The server's key
+	 */
+	private void storeSessionKey(byte[] arbKey){
+		try {
+			this.cipherSession = new SessionCipher(
+				CryptoTools.agreeKey(
+					this.keyPairAgreement.getPrivate(),
+					CryptoTools.getPublicKey("X25519", arbKey),
+					this.keyPairAgreement.getPublic().getEncoded(),
+					arbKey),
+				SessionCipher.GCM,
+				false);
+		} catch (Exception e) {
+			this.listener.notice(this, "Cipher failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Store away a room key, wrapped by the session key (worker)
+	 * @param arbData Epoch and the wrapped key
+	 */
+	private void storeRoomKey(byte[] arbData){
+		try {
+			ByteBuffer bufferData = ByteBuffer.wrap(arbData);
+			int iEpoch = bufferData.getInt();
+			byte arbWrapped[] = new byte[bufferData.remaining()];
+			bufferData.get(arbWrapped);
+			SessionCipher cipher = new SessionCipher(
+				new SecretKeySpec(this.cipherSession.decrypt(arbWrapped), "AES"),
+				SessionCipher.GCM,
+				false);
+			this.cipherRoomPrevious = this.cipherRoom;
+			this.iRoomEpochPrevious = this.iRoomEpoch;
+			this.cipherRoom = cipher;
+			this.iRoomEpoch = iEpoch;
+			this.listener.notice(this, "Got room key " + iEpoch);
+		} catch (Exception e) {
+			this.listener.notice(this, "Room key failed");
+		}
+	}
+
+	/**
+	 * The handshake is over: lines held back go out, encrypted if verified
+	 * (worker)
+	 * @param bVerified If the server verified the hello
+	 */
+	private void storeVerification(boolean bVerified){
+		boolean bClose;
+		synchronized (this.lockSend){
+			this.bVerified = bVerified && this.cipherSession != null;
+			this.bHandshakeOver = true;
+			for (String sLine : this.listPending){
+				this.sendNow(sLine);
+			}
+			this.listPending.clear();
+			bClose = this.bCloseHeld;
+		}
+		if (bClose)
+			this.close();
+		this.listener.notice(
+			this, this.bVerified ? "Verified" : "Not verified, lines go out unencrypted");
+	}
+
+	/**
+	 * Tell if the server verified the connection
+	 * @return True if lines go out encrypted
+	 */
+	public boolean isVerified(){
+		return this.bVerified;
+	}
+
+	/**
+	 * Tell if the connection is gone
+	 * @return True if closed
+	 */
+	public boolean isClosed(){
+		return this.bClosed;
+	}
+
+	/**
+	 * Name of the user on this connection
+	 * @return The name
+	 */
+	public String getName(){
+		return this.sName;
+	}
+
+	/**
+	 * Lines and frames waiting for the workers
+	 * @return Backlog
+	 */
+	public int getBacklog(){
+		return this.iBacklog.get();
+	}
+
+	/**
+	 * The connection for humans
+	 * @return Name, host and port
+	 */
+	public String toString(){
+		return this.sName + "@" + this.address.getHostString() + ":" + this.address.getPort();
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * File			: ConsoleWriter.java
+ * Package		: securechat.client
+ * Classes		: ConsoleWriter
+ * Description	: Thread writing what arrives to the console in batches
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.client;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ConsoleWriter:
+ * Listener printing lines and notices the way Client does, on a thread of
+ * its own so the workers never wait for the console. Lines are queued, the
+ * thread takes all there are and writes them with a single flush. The
+ * queue is bounded by QUEUE lines: a console falling behind further than
+ * that loses lines rather than memory, and tells how many it left out.
+ * @author Mathias Knoll
+ */
+public class ConsoleWriter extends Thread implements ClientListener {
+
+	// Lines waiting for the console at most
+	static int QUEUE = Integer.getInteger("securechat.console.queue", 65536);
+	// Marks the end of the lines
+	private static final String END = new String("END");
+
+	// Lines waiting for the console
+	private BlockingQueue<String> queueLines =
+		new ArrayBlockingQueue<String>(ConsoleWriter.QUEUE);
+	// Lines left out since told last
+	private AtomicLong lDropped = new AtomicLong(0);
+	// Flag if lines are prefixed by their connection
+	private volatile boolean bPrefix = false;
+	// The console
+	private Writer writerOut = null;
+
+	/**
+	 * Constructor of class ConsoleWriter, writing to standard output
+	 */
+	public ConsoleWriter() {
+		super("Console writer");
+		this.setDaemon(true);
+		this.writerOut = new BufferedWriter(
+			new OutputStreamWriter(new FileOutputStream(FileDescriptor.out)), 65536);
+	}
+
+	/**
+	 * Prefix lines by their connection, for more than one
+	 * @param bPrefix If lines are prefixed
+	 */
+	public void setPrefix(boolean bPrefix){
+		this.bPrefix = bPrefix;
+	}
+
+	/**
+	 * A line arrived
+	 * @param connection The connection
+	 * @param sLine The line
+	 * @param bEncrypted If it arrived encrypted
+	 */
+	public void received(Connection connection, String sLine, boolean bEncrypted){
+		if (bEncrypted){
+			sLine = sLine + " [ENCRYPTED]";
+		}else if (connection.isVerified()){
+			sLine = sLine + " [UNENCRYPTED]";
+		}
+		this.print(connection, sLine);
+	}
+
+	/**
+	 * Something happened on the connection
+	 * @param connection The connection
+	 * @param sNotice What happened
+	 */
+	public void notice(Connection connection, String sNotice){
+		this.print(connection, "*** " + sNotice + " ***");
+	}
+
+	/**
+	 * The connection is gone
+	 * @param connection The connection
+	 * @param sReason Why
+	 */
+	public void closed(Connection connection, String sReason){
+		this.print(connection, "*** " + sReason + " ***");
+	}
+
+	/**
+	 * Queue a line for the console, or count it if the queue is full
+	 * @param connection The connection
+	 * @param sLine The line
+	 */
+	public void print(Connection connection, String sLine){
+		if (this.bPrefix && connection != null)
+			sLine = "[" + connection + "] " + sLine;
+		if (!this.queueLines.offer(sLine))
+			this.lDropped.incrementAndGet();
+	}
+
+	/**
+	 * Write the lines queued so far and stop
+	 */
+	public void finish(){
+		try {
+			this.queueLines.put(ConsoleWriter.END);
+			this.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writing lines in batches
+	 */
+	public void run() {
+		List<String> listBatch = new ArrayList<String>();
+		try {
+			while (true){
+				listBatch.add(this.queueLines.take());
+				this.queueLines.drainTo(listBatch);
+				long lDropped = this.lDropped.getAndSet(0);
+				if (lDropped > 0){
+					this.writerOut.write("*** " + lDropped + " lines not shown ***");
+					this.writerOut.write(System.lineSeparator());
+				}
+				for (String sLine : listBatch){
+					if (sLine == ConsoleWriter.END){
+						this.writerOut.flush();
+						return;
+					}
+					this.writerOut.write(sLine);
+					this.writerOut.write(System.lineSeparator());
+				}
+				this.writerOut.flush();
+				listBatch.clear();
+			}
+		} catch (InterruptedException e) {
+			// Stopped
+		} catch (IOException e) {
+			System.out.println("Error: Console failed: " + e.getMessage());
+		}
+	}
+}
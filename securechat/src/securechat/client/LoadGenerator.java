@@ -0,0 +1,583 @@
+/**
+ * File			: LoadGenerator.java
+ * Package		: securechat.client
+ * Classes		: LoadGenerator, LoadGenerator.User
+ * Description	: Headless clients simulating many users of a chat server
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.client;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import securechat.tools.Compression;
+import securechat.tools.CryptoTools;
+import securechat.tools.Frame;
+import securechat.tools.Histogram;
+import securechat.tools.SessionCipher;
+import securechat.tools.WireReader;
+
+/**
+ * LoadGenerator:
+ * Opens many simulated users from one process, speaking the protocol of
+ * Client (name, binary frames, hello by elliptic curves, session and room
+ * keys), and lets them chat at a given rate. Every message carries the time
+ * it was meant to be sent, so each delivery to each user gives the latency
+ * from end to end; a sender held up by the server does not hide that
+ * delay. Once a second, and at the end for the whole run, messages sent,
+ * deliveries, their rates and latency percentiles are reported.
+ * Users without security also work against chat.server.Server.
+ *
+ * Usage: LoadGenerator host port users [seconds]
+ *   -Dsecurechat.load.rate=R     messages per second of each sender (1)
+ *   -Dsecurechat.load.size=N     bytes per message (64)
+ *   -Dsecurechat.load.secure=F   share of users doing the hello, 0..1 (0.5)
+ *   -Dsecurechat.load.senders=N  number of users sending (all)
+ *   -Dsecurechat.load.ramp=N     users connecting per second (200)
+ *   -Dsecurechat.load.rooms=N    users spread over N rooms, 0 for the lobby
+ *   -Dsecurechat.room=false      secure users do not ask for the room key
+ *   -Dsecurechat.load.zip=true   secure users ask for compressed lines
+ * Every user costs a reading thread (a virtual one if available), so
+ * thousands of users may need a raised limit of open files (ulimit -n).
+ * @author Mathias Knoll
+ */
+public class LoadGenerator {
+
+	// Messages per second of each sender
+	static double RATE = Double.parseDouble(
+		System.getProperty("securechat.load.rate", "1"));
+	// Bytes per message
+	static int SIZE = Integer.getInteger("securechat.load.size", 64);
+	// Share of users doing the hello
+	static double SECURE = Double.parseDouble(
+		System.getProperty("securechat.load.secure", "0.5"));
+	// Users connecting per second
+	static int RAMP = Integer.getInteger("securechat.load.ramp", 200);
+	// Number of rooms users are spread over, 0 for all in the lobby
+	static int ROOMS = Integer.getInteger("securechat.load.rooms", 0);
+	// Flag if secure users ask for the room key
+	static boolean ROOM =
+		Boolean.parseBoolean(System.getProperty("securechat.room", "true"));
+	// Flag if secure users ask for compressed lines
+	static boolean ZIP =
+		Boolean.parseBoolean(System.getProperty("securechat.load.zip", "false"));
+	// Threads sending for all users
+	static int SENDERS_THREADS =
+		Math.min(4, Runtime.getRuntime().availableProcessors());
+	// Marker in front of the time a message was meant to be sent
+	static String STAMP = "t=";
+	// Text padding a message to its size, like chat rather than one letter
+	static byte PADDING[] = (
+		"Could you send me the notes of the meeting today? I think we should " +
+		"talk about the release next week, maybe on Tuesday morning. ").getBytes();
+
+	// Server
+	private String sHost;
+	private int iPort;
+	// Users
+	private List<User> listUsers = new ArrayList<User>();
+	// Users ready to chat and users failed
+	private AtomicInteger iReady = new AtomicInteger(0);
+	private AtomicInteger iFailed = new AtomicInteger(0);
+	// Messages sent and delivered, in this second and in the whole run
+	private AtomicLong lSent = new AtomicLong(0);
+	private AtomicLong lSentTotal = new AtomicLong(0);
+	private AtomicLong lDeliveredTotal = new AtomicLong(0);
+	// Latency of deliveries (ns), in this second and in the whole run
+	private Histogram histogramInterval = new Histogram();
+	private Histogram histogramTotal = new Histogram();
+	// Time from connecting until ready to chat (ns)
+	private Histogram histogramConnect = new Histogram();
+	// Time of the hello until verified (ns)
+	private Histogram histogramHello = new Histogram();
+	// Flag if users stop sending
+	private volatile boolean bStopped = false;
+
+	/**
+	 * User:
+	 * A simulated user, read by a thread of its own, written by the senders
+	 */
+	class User implements Runnable {
+		// Number of the user
+		final int iNumber;
+		// Flag if the user does the hello
+		final boolean bSecure;
+		// Connection
+		private Socket socket = null;
+		private WireReader readerInput = null;
+		private OutputStream streamOut = null;
+		// Session cipher, room ciphers of the current and previous epoch
+		private volatile SessionCipher cipherSession = null;
+		private SessionCipher cipherRoom = null;
+		private SessionCipher cipherRoomPrevious = null;
+		private int iRoomEpoch = 0;
+		private int iRoomEpochPrevious = 0;
+		// Flag if the server accepted compression
+		private volatile boolean bZip = false;
+		// Flag if the user may send
+		private volatile boolean bReady = false;
+		// Times a message was due, sent or not
+		private long lTicks = 0;
+		// When the first message was due (ns)
+		private long lFirst = 0;
+
+		User(int iNumber, boolean bSecure) {
+			this.iNumber = iNumber;
+			this.bSecure = bSecure;
+		}
+
+		/**
+		 * Connect, ask for frames and security, then read until the end
+		 */
+		public void run() {
+			try {
+				long lStart = System.nanoTime();
+				this.connect();
+				LoadGenerator.this.histogramConnect.record(System.nanoTime() - lStart);
+				this.bReady = true;
+				LoadGenerator.this.iReady.incrementAndGet();
+				this.read();
+			} catch (Exception e) {
+				if (!LoadGenerator.this.bStopped){
+					LoadGenerator.this.iFailed.incrementAndGet();
+					if (LoadGenerator.this.iFailed.get() <= 5)
+						System.out.println(
+							"Error: User " + this.iNumber + ": " + e);
+				}
+			} finally {
+				if (this.bReady)
+					LoadGenerator.this.iReady.decrementAndGet();
+				this.bReady = false;
+				this.close();
+			}
+		}
+
+		/**
+		 * Connect and do what Client does before chatting
+		 * @throws Exception
+		 */
+		private void connect() throws Exception {
+			this.socket = new Socket(LoadGenerator.this.sHost, LoadGenerator.this.iPort);
+			this.socket.setTcpNoDelay(true);
+			this.readerInput = new WireReader(this.socket.getInputStream());
+			this.streamOut = new BufferedOutputStream(this.socket.getOutputStream());
+
+			// Name and frames, lines of others may come in between
+			this.writeLine("load" + this.iNumber);
+			this.writeLine(Frame.REQUEST);
+			String sLine;
+			while ((sLine = this.readerInput.readLine()) != null){
+				if (sLine.equals(Frame.ACCEPT))
+					break;
+			}
+			if (sLine == null)
+				throw new IOException("Connection closed before frames");
+			if (LoadGenerator.ROOMS > 0)
+				this.write(
+					Frame.TEXT, 
+					("/join load-" + this.iNumber % LoadGenerator.ROOMS).getBytes());
+			if (!this.bSecure)
+				return;
+
+			// Hello of the elliptic curve suite
+			long lHello = System.nanoTime();
+			KeyPair keyPairSigning = CryptoTools.generateKeyPair("Ed25519");
+			KeyPair keyPairAgreement = CryptoTools.generateKeyPair("X25519");
+			byte arbKey[] = keyPairAgreement.getPublic().getEncoded();
+			byte arbKeySigning[] = keyPairSigning.getPublic().getEncoded();
+			byte arbSignature[] =
+				CryptoTools.signEd25519(keyPairSigning.getPrivate(), arbKey);
+			ByteBuffer bufferHello = ByteBuffer.allocate(
+				5 + arbKey.length + arbKeySigning.length + arbSignature.length);
+			bufferHello.put((byte)
+				((LoadGenerator.ROOM ? Frame.HELLO_ROOM : 0) | 
+				(LoadGenerator.ZIP ? Frame.HELLO_ZIP : 0) | Frame.HELLO_EC));
+			bufferHello.putShort((short) arbKey.length);
+			bufferHello.put(arbKey);
+			bufferHello.putShort((short) arbKeySigning.length);
+			bufferHello.put(arbKeySigning);
+			bufferHello.put(arbSignature);
+			this.write(Frame.HELLO, bufferHello.array());
+
+			Frame frame;
+			while ((frame = this.readerInput.readFrame()) != null){
+				if (frame.getType() == Frame.SESSION_KEY){
+					this.cipherSession = new SessionCipher(
+						CryptoTools.agreeKey(
+							keyPairAgreement.getPrivate(),
+							CryptoTools.getPublicKey("X25519", frame.getPayload()),
+							arbKey,
+							frame.getPayload()),
+						SessionCipher.GCM,
+						false);
+				}else if (frame.getType() == Frame.ZIP){
+					this.bZip = frame.getPayload().length == 1 &&
+						frame.getPayload()[0] == Compression.DICTIONARY_VERSION;
+				}else if (frame.getType() == Frame.VERIFY_KEY){
+					if (frame.getPayload().length != 1 || frame.getPayload()[0] != 1)
+						throw new IOException("Hello not verified");
+					LoadGenerator.this.histogramHello.record(System.nanoTime() - lHello);
+					return;
+				}
+			}
+			throw new IOException("Connection closed before verification");
+		}
+
+		/**
+		 * Read frames until the connection is gone
+		 * @throws Exception
+		 */
+		private void read() throws Exception {
+			Frame frame;
+			while ((frame = this.readerInput.readFrame()) != null){
+				switch (frame.getType()){
+				case Frame.TEXT:
+					LoadGenerator.this.deliver(frame.getPayload());
+					break;
+				case Frame.CIPHER:
+					LoadGenerator.this.deliver(
+						this.cipherSession.decrypt(frame.getPayload()));
+					break;
+				case Frame.CIPHER_ZIP:
+					LoadGenerator.this.deliver(Compression.inflate(
+						this.cipherSession.decrypt(frame.getPayload())));
+					break;
+				case Frame.ROOM_CIPHER:
+					this.deliverRoom(frame.getPayload(), false);
+					break;
+				case Frame.ROOM_CIPHER_ZIP:
+					this.deliverRoom(frame.getPayload(), true);
+					break;
+				case Frame.ROOM_KEY:
+					this.storeRoomKey(frame.getPayload());
+					break;
+				default:
+					// Tickets and the like are of no interest
+				}
+			}
+		}
+
+		/**
+		 * Store away a room key, wrapped by the session key
+		 * @param arbData Epoch and the wrapped key
+		 * @throws GeneralSecurityException
+		 */
+		private void storeRoomKey(byte[] arbData) throws GeneralSecurityException {
+			ByteBuffer bufferData = ByteBuffer.wrap(arbData);
+			int iEpoch = bufferData.getInt();
+			byte arbWrapped[] = new byte[bufferData.remaining()];
+			bufferData.get(arbWrapped);
+			this.cipherRoomPrevious = this.cipherRoom;
+			this.iRoomEpochPrevious = this.iRoomEpoch;
+			this.cipherRoom = new SessionCipher(
+				new SecretKeySpec(this.cipherSession.decrypt(arbWrapped), "AES"),
+				SessionCipher.GCM,
+				false);
+			this.iRoomEpoch = iEpoch;
+		}
+
+		/**
+		 * Decrypt a message sent to the room and deliver it
+		 * @param arbSealed Epoch and the message
+		 * @param bZipped If the line has been compressed before sealing it
+		 * @throws Exception
+		 */
+		private void deliverRoom(byte[] arbSealed, boolean bZipped) throws Exception {
+			ByteBuffer bufferIn = ByteBuffer.wrap(arbSealed);
+			int iEpoch = bufferIn.getInt();
+			SessionCipher cipher =
+				iEpoch == this.iRoomEpoch ? this.cipherRoom :
+				iEpoch == this.iRoomEpochPrevious ? this.cipherRoomPrevious :
+				null;
+			if (cipher == null)
+				return;
+			ByteBuffer bufferOut = ByteBuffer.allocate(arbSealed.length);
+			cipher.decrypt(bufferIn, bufferOut);
+			byte arbLine[] = Arrays.copyOf(bufferOut.array(), bufferOut.position());
+			LoadGenerator.this.deliver(
+				bZipped ? Compression.inflate(arbLine) : arbLine);
+		}
+
+		/**
+		 * Send the message now due, stamped with the time it was due rather
+		 * than the time it goes out (one sending thread at a time)
+		 * @param lPeriod Time between two messages (ns)
+		 */
+		void send(long lPeriod){
+			long lIntended = this.lFirst + this.lTicks++ * lPeriod;
+			if (!this.bReady || LoadGenerator.this.bStopped)
+				return;
+			byte arbLine[] = LoadGenerator.message(lIntended);
+			try {
+				SessionCipher cipher = this.cipherSession;
+				byte arbZipped[] = 
+					cipher != null && this.bZip ? Compression.deflate(arbLine) : null;
+				if (arbZipped != null){
+					this.write(Frame.CIPHER_ZIP, cipher.encrypt(arbZipped));
+				}else if (cipher != null){
+					this.write(Frame.CIPHER, cipher.encrypt(arbLine));
+				}else{
+					this.write(Frame.TEXT, arbLine);
+				}
+				LoadGenerator.this.lSent.incrementAndGet();
+				LoadGenerator.this.lSentTotal.incrementAndGet();
+			} catch (Exception e) {
+				this.close();
+			}
+		}
+
+		/**
+		 * Write a line of the text protocol
+		 * @param sLine The line
+		 * @throws IOException
+		 */
+		private void writeLine(String sLine) throws IOException {
+			synchronized (this){
+				this.streamOut.write((sLine + "\n").getBytes());
+				this.streamOut.flush();
+			}
+		}
+
+		/**
+		 * Write a frame
+		 * @param bType Type of frame
+		 * @param arbPayload Payload
+		 * @throws IOException
+		 */
+		private void write(byte bType, byte[] arbPayload) throws IOException {
+			synchronized (this){
+				Frame.write(this.streamOut, bType, arbPayload);
+			}
+		}
+
+		/**
+		 * Close the connection, the reader ends
+		 */
+		void close(){
+			this.bReady = false;
+			try {
+				if (this.socket != null)
+					this.socket.close();
+			} catch (IOException e) {
+				// Closed anyway
+			}
+		}
+	}
+
+	/**
+	 * Main method
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3){
+			System.out.println(
+				"Please deliver arguments for host, port and users!");
+			return;
+		}
+		int iUsers = Integer.parseInt(args[2]);
+		int iSeconds = args.length >= 4 ? Integer.parseInt(args[3]) : 30;
+		int iSenders = Integer.getInteger("securechat.load.senders", iUsers);
+		new LoadGenerator(args[0], Integer.parseInt(args[1]))
+			.run(iUsers, iSenders, iSeconds);
+		System.exit(0);
+	}
+
+	/**
+	 * Constructor of class LoadGenerator
+	 * @param sHost Host of the server
+	 * @param iPort Port of the server
+	 */
+	public LoadGenerator(String sHost, int iPort) {
+		this.sHost = sHost;
+		this.iPort = iPort;
+	}
+
+	/**
+	 * Connect the users, let them chat for a while and report
+	 * @param iUsers Number of users
+	 * @param iSenders Number of them sending
+	 * @param iSeconds How long to chat once all are connected
+	 */
+	void run(int iUsers, int iSenders, int iSeconds) throws Exception {
+		System.out.println(String.format(
+			"%d users (%d secure), %d sending %.2f messages/s of %d bytes each",
+			iUsers, Math.round(iUsers * LoadGenerator.SECURE),
+			Math.min(iSenders, iUsers), LoadGenerator.RATE, LoadGenerator.SIZE));
+		ExecutorService executorUsers = LoadGenerator.createExecutor();
+		ScheduledExecutorService executorSend =
+			Executors.newScheduledThreadPool(LoadGenerator.SENDERS_THREADS);
+
+		// Users connect at the rate of the ramp, secure ones spread evenly
+		long lStart = System.nanoTime();
+		double dSecure = 0;
+		for (int i = 0; i < iUsers; i++){
+			dSecure += LoadGenerator.SECURE;
+			boolean bSecure = dSecure >= 1;
+			if (bSecure)
+				dSecure -= 1;
+			User user = new User(i, bSecure);
+			this.listUsers.add(user);
+			long lDue = lStart + i * 1000000000L / Math.max(1, LoadGenerator.RAMP);
+			long lWait = lDue - System.nanoTime();
+			if (lWait > 0)
+				TimeUnit.NANOSECONDS.sleep(lWait);
+			executorUsers.execute(user);
+		}
+		long lDeadline = System.currentTimeMillis() + 30000;
+		while (this.iReady.get() + this.iFailed.get() < iUsers &&
+				System.currentTimeMillis() < lDeadline){
+			Thread.sleep(100);
+		}
+		System.out.println(String.format(
+			"%d users ready in %.1f s, %d failed; connect p50 %.1f ms p99 %.1f ms, " +
+			"hello p50 %.1f ms p99 %.1f ms",
+			this.iReady.get(), (System.nanoTime() - lStart) / 1e9, this.iFailed.get(),
+			this.histogramConnect.getPercentile(50) / 1e6,
+			this.histogramConnect.getPercentile(99) / 1e6,
+			this.histogramHello.getPercentile(50) / 1e6,
+			this.histogramHello.getPercentile(99) / 1e6));
+
+		// Senders are spread over the period, so they do not send in bursts
+		if (LoadGenerator.RATE > 0){
+			final long lPeriod = (long) (1e9 / LoadGenerator.RATE);
+			int iSending = Math.min(iSenders, iUsers);
+			for (int i = 0; i < iSending; i++){
+				final User user = this.listUsers.get(i);
+				long lDelay = lPeriod * i / iSending;
+				user.lFirst = System.nanoTime() + lDelay;
+				executorSend.scheduleAtFixedRate(new Runnable() {
+					public void run() {
+						user.send(lPeriod);
+					}
+				}, lDelay, lPeriod, TimeUnit.NANOSECONDS);
+			}
+		}
+
+		// Report once a second
+		System.out.println(String.format(
+			"%5s %6s %10s %12s %9s %9s %9s %9s",
+			"s", "users", "sent/s", "delivered/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+		long lDelivered = 0;
+		for (int iSecond = 1; iSecond <= iSeconds; iSecond++){
+			Thread.sleep(1000);
+			long lDeliveredNow = this.lDeliveredTotal.get();
+			this.report(
+				String.valueOf(iSecond),
+				this.lSent.getAndSet(0), lDeliveredNow - lDelivered,
+				this.histogramInterval);
+			this.histogramInterval.reset();
+			lDelivered = lDeliveredNow;
+		}
+
+		// Let the last messages arrive, then sum up
+		this.bStopped = true;
+		executorSend.shutdownNow();
+		Thread.sleep(1000);
+		System.out.println("Whole run:");
+		this.report(
+			"all", this.lSentTotal.get() / iSeconds,
+			this.lDeliveredTotal.get() / iSeconds, this.histogramTotal);
+		System.out.println(String.format(
+			"%d messages sent, %d delivered, %d users failed",
+			this.lSentTotal.get(), this.lDeliveredTotal.get(), this.iFailed.get()));
+
+		for (User user : this.listUsers){
+			user.close();
+		}
+		executorUsers.shutdownNow();
+	}
+
+	/**
+	 * Print a line of the report
+	 * @param sWhen Second or "all"
+	 * @param lSentPerSecond Messages sent per second
+	 * @param lDeliveredPerSecond Deliveries per second
+	 * @param histogram Latencies (ns)
+	 */
+	private void report(
+			String sWhen, long lSentPerSecond, long lDeliveredPerSecond,
+			Histogram histogram){
+		System.out.println(String.format(
+			"%5s %6d %10d %12d %9.2f %9.2f %9.2f %9.2f",
+			sWhen, this.iReady.get(), lSentPerSecond, lDeliveredPerSecond,
+			histogram.getPercentile(50) / 1e6,
+			histogram.getPercentile(99) / 1e6,
+			histogram.getPercentile(99.9) / 1e6,
+			histogram.getMax() / 1e6));
+	}
+
+	/**
+	 * A message, the time it was meant to be sent padded to its size
+	 * @param lIntended The time (ns)
+	 * @return The message
+	 */
+	static byte[] message(long lIntended){
+		String sStamp = LoadGenerator.STAMP + lIntended + " ";
+		byte arbMessage[] = new byte[Math.max(sStamp.length(), LoadGenerator.SIZE)];
+		for (int i = 0; i < arbMessage.length; i++)
+			arbMessage[i] = LoadGenerator.PADDING[i % LoadGenerator.PADDING.length];
+		System.arraycopy(sStamp.getBytes(), 0, arbMessage, 0, sStamp.length());
+		return arbMessage;
+	}
+
+	/**
+	 * A line arrived at a user: "<name> " and a message of some user
+	 * @param arbLine The line
+	 */
+	private void deliver(byte[] arbLine){
+		long lNow = System.nanoTime();
+		// The stamp follows the name, no need to make a string of it all
+		int i = 0;
+		while (i < arbLine.length && arbLine[i] != '>')
+			i++;
+		i += 2 + LoadGenerator.STAMP.length();
+		if (i >= arbLine.length || arbLine[i - 1] != '=')
+			return;
+		long lIntended = 0;
+		boolean bNegative = arbLine[i] == '-';
+		if (bNegative)
+			i++;
+		while (i < arbLine.length && arbLine[i] >= '0' && arbLine[i] <= '9'){
+			lIntended = lIntended * 10 + (arbLine[i++] - '0');
+		}
+		if (bNegative)
+			lIntended = -lIntended;
+		this.lDeliveredTotal.incrementAndGet();
+		this.histogramInterval.record(lNow - lIntended);
+		this.histogramTotal.record(lNow - lIntended);
+	}
+
+	/**
+	 * Create the executor running the users' readers: virtual threads if
+	 * the JDK has them, platform threads otherwise
+	 * @return The executor
+	 */
+	private static ExecutorService createExecutor(){
+		try {
+			return (ExecutorService)
+				Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+		} catch (Exception e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+}
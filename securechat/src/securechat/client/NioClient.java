@@ -0,0 +1,137 @@
+/**
+ * File			: NioClient.java
+ * Package		: securechat.client
+ * Classes		: NioClient
+ * Description	: Console client on the non-blocking ClientEngine
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * NioClient:
+ * Console client of one or more servers at once, on a ClientEngine. Three
+ * pipelines run side by side: the main thread reads typed lines and hands
+ * them to the engine without waiting for the network, the engine moves
+ * bytes and decrypts on its own threads, and a ConsoleWriter prints in
+ * batches. A burst of lines arriving thus neither holds up typing nor
+ * fills memory without bound.
+ * Typed lines go to the current connection; "/to n" makes the n-th one
+ * current, "/to" lists them, "/quit" goes to all and ends the client.
+ * @author Mathias Knoll
+ */
+public class NioClient {
+
+	/**
+	 * Main method, arguments: name, host:port of each server and "secure"
+	 * optionally
+	 * @param args Arguments
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2){
+			System.out.println(
+				"Please deliver arguments for name and host:port!");
+			return;
+		}
+		boolean bSecure = false;
+		List<String> listServers = new ArrayList<String>();
+		for (int i = 1; i < args.length; i++){
+			if (args[i].equals("secure"))
+				bSecure = true;
+			else
+				listServers.add(args[i]);
+		}
+
+		// Ends the client once every connection is gone
+		final CountDownLatch latchClosed = new CountDownLatch(listServers.size());
+		ConsoleWriter writer = new ConsoleWriter() {
+			public void closed(Connection connection, String sReason){
+				super.closed(connection, sReason);
+				latchClosed.countDown();
+			}
+		};
+		writer.setPrefix(listServers.size() > 1);
+		writer.start();
+
+		ClientEngine engine = new ClientEngine();
+		engine.start();
+		List<Connection> listConnections = new ArrayList<Connection>();
+		for (String sServer : listServers){
+			int iColon = sServer.lastIndexOf(':');
+			if (iColon < 0){
+				System.out.println("Error: No port in " + sServer);
+				latchClosed.countDown();
+				continue;
+			}
+			listConnections.add(engine.connect(
+				sServer.substring(0, iColon),
+				Integer.parseInt(sServer.substring(iColon + 1)),
+				args[0],
+				bSecure,
+				writer));
+		}
+		if (listConnections.isEmpty()){
+			writer.finish();
+			return;
+		}
+
+		NioClient.type(listConnections, writer, latchClosed);
+		latchClosed.await();
+		engine.shutdown();
+		writer.finish();
+		System.exit(0);
+	}
+
+	/**
+	 * Read typed lines until "/quit", the end of input or every connection
+	 * is gone
+	 * @param listConnections The connections
+	 * @param writer The console
+	 * @param latchClosed Counts the connections not gone yet
+	 * @throws IOException
+	 */
+	private static void type(
+			List<Connection> listConnections, ConsoleWriter writer,
+			CountDownLatch latchClosed) throws IOException {
+		BufferedReader readerLine =
+			new BufferedReader(new InputStreamReader(System.in));
+		Connection connection = listConnections.get(0);
+		String sLine;
+		while (latchClosed.getCount() > 0 && (sLine = readerLine.readLine()) != null){
+			if (sLine.equals("/to")){
+				for (int i = 0; i < listConnections.size(); i++){
+					Connection connectionListed = listConnections.get(i);
+					writer.print(null, "*** " + (i + 1) + ": " + connectionListed +
+						(connectionListed == connection ? " (current)" : "") +
+						(connectionListed.isClosed() ? " (closed)" : "") + " ***");
+				}
+			}else if (sLine.startsWith("/to ")){
+				try {
+					connection = listConnections.get(
+						Integer.parseInt(sLine.substring(4).trim()) - 1);
+					writer.print(null, "*** To " + connection + " ***");
+				} catch (RuntimeException e) {
+					writer.print(null, "*** No connection " + sLine.substring(4) + " ***");
+				}
+			}else if (sLine.equals("/quit")){
+				break;
+			}else if (!connection.send(sLine)){
+				writer.print(null, "*** Not sent, " + connection + " is closed ***");
+			}
+		}
+		// The server says goodbye and closes, so do the connections
+		for (Connection connectionOpen : listConnections){
+			if (!connectionOpen.send("/quit"))
+				continue;
+			connectionOpen.close();
+		}
+	}
+}
@@ -12,22 +12,33 @@
  */
 package securechat.server;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.nio.CharBuffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DataFormatException;
 
 // Have the security library imported ;-)
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 
-import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 
+import securechat.tools.Compression;
 import securechat.tools.CryptoTools;
+import securechat.tools.Frame;
+import securechat.tools.SessionCipher;
+import securechat.tools.WireReader;
 
 /**
  * ClientThread:
@@ -38,71 +49,116 @@ import securechat.tools.CryptoTools;
  * about it and terminates.
  * @author Mathias Knoll
  */
-class ClientThread extends Thread {
+class ClientThread implements Runnable {
 
 	// Read inputs
-	private BufferedReader readerInput = null;
+	private WireReader readerInput = null;
 	// Output stream
-	private PrintStream printstreamOut = null;
+	private OutputStream streamOut = null;
 	// The client's socket
 	private Socket socketClient = null;
-	// The pool of client threads
-	private ClientThread clientthreadPool[];
+	// The registry of all clients' sessions
+	private SessionRegistry<ClientThread> registrySessions = null;
 	// Thread's name
 	private String sThreadName = null;
 	// User's name
-	private String sUserName = null;	
+	private volatile String sUserName = null;	
 	// Flag which tells if cryptography is initialized properly
 	private boolean bIsCryptoInitialized =  false;
 	// If signature is verified correctly
-	private boolean bIsCryptoVerfied = false;	
+	private volatile boolean bIsCryptoVerfied = false;	
 	// Flag if communication is secure!
-	private boolean bSecure = false;	
+	private volatile boolean bSecure = false;	
 	// Secret key
-	private SecretKey keySession;
+	private volatile SecretKey keySession;
+	// Cipher contexts of the session key, set up once the client asks
+	private volatile SessionCipher cipherSession = null;
+	// Held from encrypting by the session key until the message is queued,
+	// the client refuses messages out of the order of their counters
+	private Object lockSeal = new Object();
+	// Flag if the client asked for the room key
+	private volatile boolean bRoom = false;
+	// Flag if the client asked for compression, and if it gets lines
+	// compressed
+	private volatile boolean bZipWanted = false;
+	private volatile boolean bZip = false;
+	// Room the client is in, null until it has a name
+	private volatile Rooms.Room room = null;
+	// Guards moving to another room against a handshake joining the key
+	// of the room left
+	private Object lockRoom = new Object();
+	// Flag if the lines of verified senders have been replayed since the
+	// client got verified
+	private boolean bReplayedVerified = false;
+	// Flag if the room key is wrapped by the session key instead of the
+	// client's RSA key: the session key has been agreed by the elliptic curve
+	// suite (keyPublicClient then is the client's Ed25519 key) or resumed
+	private volatile boolean bRoomBySession = false;
 	// Key Pair
 	private KeyPair keyPair;
 	// Public key of client
 	private PublicKey keyPublicClient; 
+	// Lines waiting to be written to the client
+	private OutboundQueue queueOut = null;
+	// How far the client lags behind, as told last
+	private AtomicReference<SlowConsumers.Level> refLag = 
+		new AtomicReference<SlowConsumers.Level>(SlowConsumers.Level.FINE);
+	// Signals the writer has finished
+	private CountDownLatch latchWriter = new CountDownLatch(1);
+	// Flag if the client has switched to binary frames
+	private volatile boolean bBinary = false;
+	// Last handshake handed to the crypto pool, the next one waits for it
+	private CompletableFuture<Void> futureHandshake = 
+		CompletableFuture.completedFuture(null);
+	// When the client asked for security (ns), 0 if no handshake is running
+	private volatile long lHandshakeStart = 0;
+	// Messages and bytes read, counted by the reader only
+	private volatile long lMessagesIn = 0;
+	private volatile long lBytesIn = 0;
+	// Messages and bytes written, counted by the writer only
+	private volatile long lMessagesOut = 0;
+	private volatile long lBytesOut = 0;
+	// Flag if the client may ask for the server's statistics
+	private volatile boolean bAdmin = false;
 	
 	/**
 	 * Constructor of class ClientThread
 	 * Handles a single client's thread 
 	 * @param sThreadName The thread's  name
 	 * @param clientSocket The client's socket
-	 * @param clientthreadPool The pool of client threads
+	 * @param registrySessions The registry of all clients' sessions
 	 */
 	public ClientThread(
 			String sThreadName,
 			Socket clientSocket, 
-			ClientThread[] clientthreadpool) {
+			SessionRegistry<ClientThread> registrySessions) {
 		this.sThreadName = sThreadName;
 		this.socketClient = clientSocket;
-		this.clientthreadPool = clientthreadpool;
-		
-		// Initializing keys and other stuff
-		this.bIsCryptoInitialized = this.initializeCryptography();
+		this.registrySessions = registrySessions;
+		this.queueOut = 
+			new OutboundQueue(
+				Server.QUEUE_SIZE, 
+				Server.QUEUE_POLICY, 
+				Server.QUEUE_TIMEOUT);
 	}
 	
 	/** 
-	 * Initializing keys and other stuff
+	 * Initializing keys and other stuff, taken from the key pool (client's
+	 * thread, not the accepting one) once RSA is asked for, so a client
+	 * using the elliptic curve suite or no security at all takes none
 	 */
 	private boolean initializeCryptography(){
+		if (this.bIsCryptoInitialized)
+			return true;
 		try {
-			
-			// Key generator for AES
-			KeyGenerator generatorKeys = KeyGenerator.getInstance("AES");
-			generatorKeys.init(128);
-			this.keySession = generatorKeys.generateKey();
-			
-			// Key generator for RSA
-			KeyPairGenerator generatorKeyPair = KeyPairGenerator.getInstance("RSA");
-	   	 	generatorKeyPair.initialize(1024);
-	   		this.keyPair = generatorKeyPair.generateKeyPair();
+			KeyPool.Keys keys = Server.keyPool.take();
+			this.keySession = keys.keySession;
+			this.keyPair = keys.keyPair;
+			this.bIsCryptoInitialized = true;
 			
 	   		return true;
 	   		
-		} catch (NoSuchAlgorithmException e) {
+		} catch (GeneralSecurityException e) {
 			System.out.println("Error: Crypto algorithm.");
 			System.out.println(e.getMessage());
 			return false;
@@ -119,8 +175,10 @@ class ClientThread extends Thread {
 	
 	/**
 	 * Running the thread
+	 * Not synchronized: a monitor held for the whole session would pin a
+	 * virtual thread to its carrier
 	 */
-	public synchronized void run() {
+	public void run() {
 		
 		// Line of text which is typed in
 		String line = null;
@@ -128,61 +186,49 @@ class ClientThread extends Thread {
 		try {
 			// Establish input reader
 			this.readerInput = 
-				new BufferedReader(
-					new InputStreamReader(
-						this.socketClient.getInputStream()));
-			// Establish output stream
-			this.printstreamOut = 
-				new PrintStream(
-					this.socketClient.getOutputStream());
+				new WireReader(this.socketClient.getInputStream());
+			// Establish output stream, lines are gathered by the writer, so
+			// waiting for acknowledgements (Nagle) would only delay them
+			this.socketClient.setTcpNoDelay(true);
+			this.streamOut = this.socketClient.getOutputStream();
+			// Whoever runs the server is admin
+			this.bAdmin = this.socketClient.getInetAddress().isLoopbackAddress();
+			
+			// Everything for the client is written by a writer of its own
+			Server.executorClients.execute(new Runnable() {
+				public void run() {
+					ClientThread.this.writeOutbound();
+				}
+			});
 			
 			// Get name of user
-			this.printstreamOut.println(
+			this.printLine(
 				"aseChat1.0/Applied Cryptography/Mathias Knoll/ASE08/2009");
-			this.printstreamOut.println(
+			this.printLine(
 				"Enter your name.");
 			this.sUserName = this.readerInput.readLine();		
+			this.countIn();
 			this.sThreadName = this.sThreadName + "-" + this.sUserName;
 			
 			// Welcome user with his name
-			this.printstreamOut.println(
+			this.printLine(
 				"Hello " + this.sUserName + "! (Type \"/help\" for usage!)");
 			
 			System.out.println("New user " + sUserName + ".");
 			
-			// Deliver message of new user to all other users
-			for (int i = 0; i < this.clientthreadPool.length; i++){
-				// If thread is there and not this one...
-				if (
-					this.clientthreadPool[i] != null && 
-					this.clientthreadPool[i] != this){
-					
-					this.clientthreadPool[i].printstreamOut.println(
-						"*** New user: " + this.sUserName + " ***");
-				}
-			}
+			// Deliver message of new user to all other users in the lobby
+			this.room = Server.rooms.join(Rooms.LOBBY, this);
+			this.broadcastLine("*** New user: " + this.sUserName + " ***");
+			this.replay(this.room, Server.HISTORY_REPLAY, false);
 			
 			// Start threads endless loop (until user quits)
 			while (true) {
 				// Get input
-				line = readerInput.readLine();
+				line = this.readInput();
 				
-				// If secured transfer is established:
-				if(
-					this.bSecure && 
-					this.bIsCryptoVerfied && 
-					this.keySession != null){
-					
-					try {
-						line = new String(
-								CryptoTools.decryptData(
-									this.keySession, 
-									CryptoTools.getBytes(line)));
-					} catch (Exception e) {
-						line = "[" + this.sThreadName + "] Decrypting failed!";
-					}	
-					
-				}
+				// Connection is gone, we'll leave the loop
+				if (line == null)
+					break;
 					
 				// If '/quit' is typed in, we'll leave the loop
 				if (line.startsWith("/quit"))
@@ -191,41 +237,51 @@ class ClientThread extends Thread {
 					this.giveHelp();
 				}else if (line.startsWith("/users")){
 					this.giveUsers();
+				}else if (line.startsWith("/queues")){
+					this.giveQueues();
+				}else if (line.startsWith("/keys")){
+					this.giveKeys();
+				}else if (line.startsWith("/stats")){
+					this.giveStats();
+				}else if (line.startsWith("/admin")){
+					this.becomeAdmin(line.substring(6).trim());
+				}else if (line.startsWith("/join")){
+					this.joinRoom(line.substring(5).trim());
+				}else if (line.startsWith("/leave")){
+					this.joinRoom(Rooms.LOBBY);
+				}else if (line.startsWith("/rooms")){
+					this.giveRooms();
+				}else if (line.startsWith("/history")){
+					this.giveHistory(line.substring(8).trim());
 				}else if (line.startsWith("/secure")){
-					this.secureChat();
-				}else if (line.startsWith("[public_key]")){
-					this.storeKeyPublicClient(line.substring(12));
-				}else if (line.startsWith("[signed_key]")){
-					this.storeSignedSessionKey(line.substring(12));
+					this.secureChat(line.substring(7).trim());
+				}else if (line.startsWith(Frame.REQUEST)){
+					// Last line as text, frames from now on
+					this.send(SharedBuffer.acceptBinary());
+					this.bBinary = true;
+				}else if (!this.bBinary && line.startsWith("[public_key]")){
+					this.handshake(
+						Frame.PUBLIC_KEY, ClientThread.getBytes(line.substring(12)));
+				}else if (!this.bBinary && line.startsWith("[hello]")){
+					this.handshake(
+						Frame.HELLO, ClientThread.getBytes(line.substring(7)));
+				}else if (!this.bBinary && line.startsWith("[resume]")){
+					this.handshake(
+						Frame.RESUME, ClientThread.getBytes(line.substring(8)));
+				}else if (!this.bBinary && line.startsWith("[signed_key]")){
+					this.handshake(
+						Frame.SIGNED_KEY, ClientThread.getBytes(line.substring(12)));
 				}else{
-					// Send input to all other clients in pool
-					for (int i = 0; i < this.clientthreadPool.length; i++){
-						if (this.clientthreadPool[i] != null){
-							
-							this.clientthreadPool[i].printChat(
-									"<" + this.sUserName + "> " + line,
-									this.bIsCryptoVerfied);
-							
-							//this.clientthreadPool[i].printstreamOut.println(
-							//	"<" + this.sUserName + "> " + line);
-						}
-					}
+					// Send input to all clients in the room
+					this.broadcastChat("<" + this.sUserName + "> " + line);
 				}
 			}
 			
 			// Inform other clients that this on leaves
-			for (int i = 0; i < this.clientthreadPool.length; i++){
-				if (
-					this.clientthreadPool[i] != null && 
-					this.clientthreadPool[i] != this) {
-					
-					this.clientthreadPool[i].printstreamOut.println(
-						"*** User " + this.sUserName + " has left ***");
-				}
-			}
+			this.broadcastLine("*** User " + this.sUserName + " has left ***");
 			
 			// Leaving message to this client
-			this.printstreamOut.println("*** Bye " + this.sUserName + " ***");
+			this.printLine("*** Bye " + this.sUserName + " ***");
 
 			this.cleanup();
 			
@@ -238,19 +294,194 @@ class ClientThread extends Thread {
 
 	}
 
+	/**
+	 * Read the next line, either as text or from frames. Key exchange frames
+	 * are handled on the way, encrypted input is decrypted.
+	 * @return The line or null at the end of the stream
+	 * @throws IOException
+	 */
+	private String readInput() throws IOException {
+		if (!this.bBinary){
+			String line = this.readerInput.readLine();
+			if (line != null)
+				this.countIn();
+			// If secured transfer is established:
+			if(
+				line != null &&
+				this.bSecure && 
+				this.bIsCryptoVerfied && 
+				this.cipherSession != null){
+				if (line.startsWith("[z]")){
+					line = this.decryptLine(
+						ClientThread.getBytes(line.substring(3)), true);
+				}else{
+					line = this.decryptLine(ClientThread.getBytes(line), false);
+				}
+			}
+			return line;
+		}
+		
+		Frame frame;
+		while ((frame = this.readerInput.readFrame()) != null){
+			this.countIn();
+			switch (frame.getType()){
+			case Frame.TEXT:
+				return new String(frame.getPayload(), SharedBuffer.CHARSET);
+			case Frame.CIPHER:
+				return this.decryptLine(frame.getPayload(), false);
+			case Frame.CIPHER_ZIP:
+				return this.decryptLine(frame.getPayload(), true);
+			case Frame.PUBLIC_KEY:
+			case Frame.SIGNED_KEY:
+			case Frame.HELLO:
+			case Frame.RESUME:
+				this.handshake(frame.getType(), frame.getPayload());
+				break;
+			default:
+				System.out.println(
+					"["+this.sThreadName+"] Unknown frame " + frame.getType());
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Count a message read, with the bytes read since the last one (reader)
+	 */
+	private void countIn(){
+		long lRead = this.readerInput.getBytesRead();
+		Server.metrics.countIn(lRead - this.lBytesIn);
+		this.lBytesIn = lRead;
+		this.lMessagesIn++;
+	}
+	
+	/**
+	 * Hand a message of the key exchange to the crypto pool. The reader
+	 * goes on reading, the answer is queued to the client by the worker.
+	 * Handshakes of a client are done one after the other, in order: the
+	 * reader waits for the last one before handing over the next, so with
+	 * the pool's queue full it is the reader doing the handshake, never the
+	 * worker just finishing the last one.
+	 * @param bType Type of message (frame type)
+	 * @param arbData The bytes
+	 */
+	private void handshake(final byte bType, final byte[] arbData){
+		if (bType == Frame.HELLO || bType == Frame.RESUME)
+			this.lHandshakeStart = System.nanoTime();
+		final Runnable runnableHandshake = new Runnable() {
+			public void run() {
+				switch (bType){
+				case Frame.PUBLIC_KEY:
+					ClientThread.this.storeKeyPublicClient(
+						arbData.length == 0 ? null : arbData);
+					break;
+				case Frame.SIGNED_KEY:
+					ClientThread.this.storeSignedSessionKey(arbData);
+					break;
+				case Frame.HELLO:
+					ClientThread.this.storeHello(arbData);
+					break;
+				case Frame.RESUME:
+					ClientThread.this.storeResume(arbData);
+					break;
+				}
+			}
+		};
+		try {
+			this.futureHandshake.join();
+		} catch (CompletionException e) {
+			// Counted by the crypto pool
+		}
+		this.futureHandshake = Server.cryptoPool.submit(runnableHandshake);
+	}
+	
+	/**
+	 * Bytes of a hex string sent by the client
+	 * @param sHex The hex string
+	 * @return The bytes, none if the string is no hex (e.g. "FAIL")
+	 */
+	private static byte[] getBytes(String sHex){
+		try {
+			return CryptoTools.getBytes(sHex);
+		} catch (IllegalArgumentException e) {
+			return new byte[0];
+		}
+	}
+	
+	/**
+	 * Decrypt a line by the session key
+	 * @param arbCipher The encrypted line
+	 * @param bZipped If the line has been compressed before encrypting it
+	 * @return The line
+	 */
+	private String decryptLine(byte[] arbCipher, boolean bZipped){
+		try {
+			long lStart = System.nanoTime();
+			byte arbLine[] = this.cipherSession.decrypt(arbCipher);
+			Server.metrics.recordDecrypt(System.nanoTime() - lStart);
+			if (bZipped){
+				if (!this.bZip)
+					throw new DataFormatException("Compression not agreed");
+				lStart = System.nanoTime();
+				arbLine = Compression.inflate(arbLine);
+				Server.metrics.recordInflate(System.nanoTime() - lStart);
+			}
+			return new String(arbLine);
+		} catch (Exception e) {
+			return "[" + this.sThreadName + "] Decrypting failed!";
+		}
+	}
+	
+	/**
+	 * Queue a message of the key exchange, a frame of its own or a line
+	 * prefixed by its tag and holding the bytes as hex
+	 * @param bType Type of frame
+	 * @param sTag Prefix of the line
+	 * @param arbData The bytes
+	 * @throws Exception
+	 */
+	private void sendControl(byte bType, String sTag, byte[] arbData)
+			throws Exception {
+		if (this.bBinary){
+			this.send(SharedBuffer.frame(bType, arbData));
+		}else{
+			this.printLine(sTag + CryptoTools.getHex(arbData));
+		}
+	}
+	
 	/**
 	 * Activate secure transfer of data!
+	 * @param sArgs Cipher mode asked for (gcm or empty for the classic one),
+	 * optionally followed by "room" for the room key and "zip" for compression
 	 */
-	private void secureChat(){
-		this.bSecure = true;
+	private void secureChat(String sArgs){
 		System.out.println(
 			"User " + this.sUserName + "("+ this.sThreadName + 
 			") demands security!");
+		this.lHandshakeStart = System.nanoTime();
+		String arsArgs[] = sArgs.split("\\s+");
+		for (int i = 1; i < arsArgs.length; i++){
+			if (arsArgs[i].equals("room"))
+				this.bRoom = Server.ROOM;
+			if (arsArgs[i].equals("zip"))
+				this.bZipWanted = true;
+		}
+		if (!this.initializeCryptography())
+			return;
+		try {
+			this.cipherSession = 
+				new SessionCipher(this.keySession, arsArgs[0], true);
+		} catch (GeneralSecurityException e) {
+			System.out.println(
+				"["+this.sThreadName+"] Exception creating cipher: " +
+				e.getMessage());
+			return;
+		}
+		this.bSecure = true;
 		try {
 			System.out.println("["+this.sThreadName+"] send public key!");
-			this.printstreamOut.println(
-				"[public_key]" +
-				CryptoTools.getHex(this.getPublicKey()));
+			this.sendControl(
+				Frame.PUBLIC_KEY, "[public_key]", this.getPublicKey());
 		} catch (Exception e) {
 			System.out.println(
 				"["+this.sThreadName+"] Exception sending public key: +" +
@@ -258,60 +489,432 @@ class ClientThread extends Thread {
 		}
 	}
 	
-	public void printChat(String sLine, boolean bIsCryptoVerfied){
+	/**
+	 * Test only, never called by the server: take the session as
+	 * established by a hello, verified and using frames, without any
+	 * handshake. For the broadcast benchmark, which holds its clients in
+	 * memory, without sockets to shake hands by.
+	 * @param cipherSession Cipher contexts of the session key
+	 */
+	void establishForTest(SessionCipher cipherSession){
+		this.cipherSession = cipherSession;
+		this.bSecure = true;
+		this.bIsCryptoVerfied = true;
+		this.bBinary = true;
+	}
+
+	/**
+	 * Test only, never called by the server: put the client into a room
+	 * without joining it or telling anyone. For the broadcast benchmark,
+	 * whose sender is no recipient of its own lines.
+	 * @param room The room
+	 */
+	void setRoomForTest(Rooms.Room room){
+		this.room = room;
+	}
+
+	/**
+	 * Send a chat line to all clients in the room. Whatever goes out
+	 * unencrypted is encoded only once and shared by all recipients getting
+	 * it.
+	 * Not private, the broadcast benchmark drives it.
+	 * @param sLine
+	 */
+	void broadcastChat(String sLine){
+		long lStart = System.nanoTime();
+		Rooms.Room room = this.room;
+		// Line for recipients which do not get it encrypted
+		SharedBuffer sbPlain = 
+			SharedBuffer.encode(this.bIsCryptoVerfied ? "" : sLine);
+		// Line for recipients which get it encrypted
+		byte arbLine[] = sLine.getBytes();
+		
+		// Kept for clients joining later, encoded anew if the recipients not
+		// getting it encrypted get an empty line
+		if (Server.HISTORY_SIZE > 0){
+			SharedBuffer sbHistory = 
+				this.bIsCryptoVerfied ? SharedBuffer.encode(sLine) : sbPlain;
+			room.history.add(sbHistory, this.bIsCryptoVerfied);
+			if (sbHistory != sbPlain)
+				sbHistory.release();
+		}
+		
+		// Members of the room get the line encrypted once, compressed or not,
+		// as a frame or a line, whichever is needed first
+		RoomKey.Epoch epoch = 
+			this.bIsCryptoVerfied ? room.roomKey.getEpoch() : null;
+		if (epoch == null){
+			this.broadcastChat(room, null, arbLine, sbPlain);
+		}else{
+			// Sealed by the counter of the epoch, members have to get the
+			// lines of all senders in its order
+			synchronized (epoch){
+				this.broadcastChat(room, epoch, arbLine, sbPlain);
+			}
+		}
+		sbPlain.release();
+		Server.metrics.recordBroadcast(System.nanoTime() - lStart);
+	}
 	
-		String sLineNew = "";
+	/**
+	 * Send a chat line to all members of a room
+	 * @param room The room
+	 * @param epoch Epoch of the room key sealing the line, null for none
+	 * @param arbLine Line for recipients which get it encrypted
+	 * @param sbPlain Line for recipients which do not get it encrypted
+	 */
+	private void broadcastChat(
+			Rooms.Room room, RoomKey.Epoch epoch, byte[] arbLine, 
+			SharedBuffer sbPlain){
+		// Sealed line as it is and compressed
+		byte ararbSealed[][] = new byte[2][];
+		// Sealed line as it is and compressed, each as a line and a frame
+		SharedBuffer arsbRoom[] = new SharedBuffer[4];
+		// Line compressed once for members getting it compressed, if worth it
+		byte arbZipped[] = null;
+		boolean bZipTried = false;
+		
+		for (ClientThread clientthread : room.setMembers){
+			boolean bZipped = false;
+			if (this.bIsCryptoVerfied && clientthread.bZip){
+				if (!bZipTried){
+					bZipTried = true;
+					arbZipped = ClientThread.deflate(arbLine);
+				}
+				bZipped = arbZipped != null;
+			}
+			int iZip = bZipped ? 1 : 0;
+			boolean bSealed = 
+				epoch != null && epoch.setMembers.contains(clientthread);
+			if (bSealed && ararbSealed[iZip] == null){
+				try {
+					long lSeal = System.nanoTime();
+					ararbSealed[iZip] = 
+						RoomKey.seal(epoch, bZipped ? arbZipped : arbLine);
+					Server.metrics.recordEncrypt(System.nanoTime() - lSeal);
+				} catch (GeneralSecurityException e) {
+					epoch = null;
+					bSealed = false;
+				}
+			}
+			if (!bSealed){
+				clientthread.printChat(
+					arbLine, bZipped ? arbZipped : null, sbPlain, 
+					this.bIsCryptoVerfied);
+				continue;
+			}
+			int iKind = iZip * 2 + (clientthread.bBinary ? 1 : 0);
+			if (arsbRoom[iKind] == null){
+				if (clientthread.bBinary){
+					arsbRoom[iKind] = SharedBuffer.frame(
+						bZipped ? Frame.ROOM_CIPHER_ZIP : Frame.ROOM_CIPHER, 
+						ararbSealed[iZip]);
+				}else{
+					arsbRoom[iKind] = SharedBuffer.encode(ClientThread.hexLine(
+						bZipped ? "[room_z]" : "[room]", ararbSealed[iZip]));
+				}
+			}
+			clientthread.send(arsbRoom[iKind].retain());
+		}
+		for (SharedBuffer sbRoom : arsbRoom){
+			if (sbRoom != null)
+				sbRoom.release();
+		}
+	}
+	
+	/**
+	 * Compress a line for clients having asked for it, counting the bytes
+	 * saved and the time spent
+	 * @param arbLine The line
+	 * @return The line compressed or null if it is not worth it
+	 */
+	private static byte[] deflate(byte[] arbLine){
+		long lStart = System.nanoTime();
+		byte arbZipped[] = Compression.deflate(arbLine);
+		Server.metrics.recordDeflate(
+			System.nanoTime() - lStart, 
+			arbLine.length, 
+			arbZipped == null ? arbLine.length : arbZipped.length);
+		return arbZipped;
+	}
+	
+	/**
+	 * Hand out a room key, wrapped by the client's public key (any thread)
+	 * @param iEpoch Number of the key
+	 * @param keyRoom The room key
+	 * @return False if the key could not be queued
+	 */
+	boolean sendRoomKey(int iEpoch, SecretKey keyRoom){
+		synchronized (this.lockSeal){
+			byte arbWrapped[];
+			if (this.bRoomBySession){
+				// No RSA key, the session key wraps it instead
+				try {
+					arbWrapped = this.cipherSession.encrypt(keyRoom.getEncoded());
+				} catch (GeneralSecurityException e) {
+					return false;
+				}
+			}else{
+				arbWrapped = CryptoTools.cipherKey(
+					this.keyPublicClient, keyRoom.getEncoded());
+			}
+			if (arbWrapped.length == 0)
+				return false;
+			ByteBuffer bufferKey = ByteBuffer.allocate(4 + arbWrapped.length);
+			bufferKey.putInt(iEpoch);
+			bufferKey.put(arbWrapped);
+			try {
+				this.sendControl(Frame.ROOM_KEY, "[room_key]", bufferKey.array());
+			} catch (Exception e) {
+				return false;
+			}
+		}
+		return !this.queueOut.isClosed();
+	}
+	
+	/**
+	 * Line holding bytes as hex behind a tag
+	 * @param sTag Prefix of the line
+	 * @param arbData The bytes
+	 * @return The line
+	 */
+	private static String hexLine(String sTag, byte[] arbData){
+		try {
+			return sTag + CryptoTools.getHex(arbData);
+		} catch (Exception e) {
+			return sTag;
+		}
+	}
+	
+	/**
+	 * Send a line as it is to all other clients in the room, encoded only
+	 * once
+	 * @param sLine
+	 */
+	private void broadcastLine(String sLine){
+		this.broadcastLine(this.room, sLine);
+	}
+	
+	/**
+	 * Send a line as it is to all other clients in a room, encoded only once
+	 * @param room The room
+	 * @param sLine
+	 */
+	private void broadcastLine(Rooms.Room room, String sLine){
+		SharedBuffer sbLine = SharedBuffer.encode(sLine).sheddable();
+		for (ClientThread clientthread : room.setMembers){
+			if (clientthread != this)
+				clientthread.send(sbLine.retain());
+		}
+		sbLine.release();
+	}
+	
+	/**
+	 * Print either encrypted or unencrypted stuff!
+	 * @param arbLine The line
+	 * @param arbZipped The line compressed, sent instead if not null and the
+	 * client gets lines compressed
+	 * @param sbPlain The line for recipients not getting it encrypted
+	 * @param bIsCryptoVerfied If the sender is verified
+	 */
+	public void printChat(
+			byte[] arbLine, byte[] arbZipped, SharedBuffer sbPlain,
+			boolean bIsCryptoVerfied){
 		
 		// If secured transfer is established:
+		SessionCipher cipher = this.cipherSession;
 		if(
+			bIsCryptoVerfied &&
 			this.bSecure && 
 			this.bIsCryptoVerfied && 
-			this.keySession != null){
+			cipher != null){
 			
+			boolean bZipped = arbZipped != null && this.bZip;
+			synchronized (this.lockSeal){
+				try {
+					long lStart = System.nanoTime();
+					if (this.bBinary){
+						SharedBuffer sbSealed = bZipped ?
+							SharedBuffer.encrypt(cipher, Frame.CIPHER_ZIP, arbZipped) :
+							SharedBuffer.encrypt(cipher, Frame.CIPHER, arbLine);
+						Server.metrics.recordEncrypt(System.nanoTime() - lStart);
+						this.send(sbSealed);
+					}else{
+						byte arbSealed[] = 
+							cipher.encrypt(bZipped ? arbZipped : arbLine);
+						Server.metrics.recordEncrypt(System.nanoTime() - lStart);
+						this.printLine(
+							(bZipped ? "[z]" : "") + CryptoTools.getHex(arbSealed));
+					}
+				} catch (Exception e) {
+					this.printLine("Encrypting failed!");
+				}
+			}
+		}else{
+			this.send(sbPlain.retain());
+		}
+	}
+	
+	/**
+	 * Queue a line as it is, the sender never waits for the socket
+	 * @param sLine
+	 */
+	void printLine(String sLine){
+		this.send(SharedBuffer.encode(sLine));
+	}
+	
+	/**
+	 * Queue an encoded line shared with other recipients
+	 * @param sbLine The line, one reference of it is handed over
+	 */
+	void send(SharedBuffer sbLine){
+		// Lagging clients are judged by SlowConsumers, evicted ones are closed
+		if (this.refLag.get() == SlowConsumers.Level.SHED && sbLine.isSheddable()){
+			SlowConsumers.shed();
+			sbLine.release();
+		}else if (!this.queueOut.offer(sbLine, true)){
+			this.disconnect("outbound queue overflow");
+		}
+	}
+	
+	/**
+	 * Judge the client's lag, evicting it if it lags too far behind
+	 */
+	void checkLag(){
+		if (SlowConsumers.check(this.sThreadName, this.queueOut, this.refLag) ==
+				SlowConsumers.Level.EVICT){
+			this.disconnect(null);
+		}
+	}
+	
+	/**
+	 * Write queued lines to the client until the queue is closed
+	 * Lines are gathered in a buffer of FLUSH_SIZE bytes, written out once it
+	 * is full and flushed once no more lines are queued, after lingering for
+	 * FLUSH_DELAY: a burst of lines costs a few writes to the socket, not one
+	 * each. The buffer is the writer's own, closing the socket never waits
+	 * for it.
+	 */
+	private void writeOutbound(){
+		// Lines or binary frames, switched by the line accepting frames
+		boolean bBinaryOut = false;
+		OutputStream streamGather = 
+			new BufferedOutputStream(this.streamOut, Math.max(1, Server.FLUSH_SIZE));
+		SharedBuffer sbLine = this.queueOut.take();
+		while (sbLine != null){
 			try {
-				sLineNew = 
-					CryptoTools.getHex(
-						CryptoTools.encryptData(
-							this.keySession, 
-							sLine.getBytes()));
-			} catch (Exception e) {
-				sLineNew = "Encrypting failed!";
-			}	
+				ByteBuffer buffer = sbLine.view(bBinaryOut);
+				if (sbLine.isSwitchToBinary())
+					bBinaryOut = true;
+				if (buffer != null){
+					int iBytes = buffer.remaining();
+					if (buffer.hasArray()){
+						// Gathered straight from the shared bytes
+						streamGather.write(
+							buffer.array(), 
+							buffer.arrayOffset() + buffer.position(), 
+							buffer.remaining());
+					}else{
+						byte arbLine[] = new byte[buffer.remaining()];
+						buffer.get(arbLine);
+						streamGather.write(arbLine);
+					}
+					this.lMessagesOut++;
+					this.lBytesOut += iBytes;
+					Server.metrics.countOut(iBytes);
+				}
+			} catch (IOException e) {
+				this.queueOut.close();
+				this.queueOut.clear();
+			} finally {
+				this.queueOut.written(sbLine);
+				sbLine.release();
+			}
+			sbLine = this.queueOut.poll();
+			if (sbLine == null && Server.FLUSH_DELAY > 0){
+				sbLine = this.queueOut.poll(Server.FLUSH_DELAY * 1000);
+			}
+			if (sbLine == null){
+				// Nothing more to gather, out with it
+				try {
+					streamGather.flush();
+					Server.metrics.countFlush();
+				} catch (IOException e) {
+					this.queueOut.close();
+					this.queueOut.clear();
+				}
+				sbLine = this.queueOut.take();
+			}
 		}
-		// Only send if encryption is defined
-		if( bIsCryptoVerfied)
-			this.printstreamOut.println(sLineNew);
-		else
-			this.printstreamOut.println(sLine);
+		this.latchWriter.countDown();
+	}
+	
+	/**
+	 * Drop a client which does not keep up with reading (any thread)
+	 * @param sReason Why, to be told, or null if told already
+	 */
+	private void disconnect(String sReason){
+		if (this.queueOut.isClosed())
+			return;
+		if (sReason != null)
+			SlowConsumers.evicted(this.sThreadName, sReason);
+		this.queueOut.close();
+		this.queueOut.clear();
+		// Reading thread fails and cleans up
+		try {
+			this.socketClient.close();
+		} catch (IOException e) {
+			System.out.println("Error: Closing client socket!");
+		}
+	}
+	
+	/**
+	 * Number of lines waiting to be written
+	 * @return Queue depth
+	 */
+	public int getQueueDepth(){
+		return this.queueOut.size();
+	}
+	
+	/**
+	 * Number of lines dropped since the client did not keep up
+	 * @return Dropped lines
+	 */
+	public long getDropped(){
+		return this.queueOut.getDropped();
+	}
+	
+	/**
+	 * Bytes waiting to be written
+	 * @return Bytes
+	 */
+	public long getQueuedBytes(){
+		return this.queueOut.getBytes();
+	}
+	
+	/**
+	 * How long the client has kept bytes waiting
+	 * @return Lag (ms)
+	 */
+	public long getLag(){
+		return this.queueOut.getLag();
 	}
 	
 	/**
 	 * Store away the clients public key!
-	 * @param sKey
+	 * @param arbKey The encoded key or null if the client failed
 	 */
-	private void storeKeyPublicClient(String sKey){
-		System.out.println("["+this.sThreadName+"] Got public key: " + sKey);
-		if (! sKey.startsWith("FAIL")){
-			X509EncodedKeySpec publicKeySpec=new X509EncodedKeySpec(
-				CryptoTools.getBytes(sKey));
+	private void storeKeyPublicClient(byte[] arbKey){
+		System.out.println(
+			"["+this.sThreadName+"] Got public key: " + 
+			(arbKey == null ? "FAIL" : arbKey.length + " bytes"));
+		if (arbKey != null){
+			X509EncodedKeySpec publicKeySpec=new X509EncodedKeySpec(arbKey);
 			KeyFactory keyFactory;
 			try {
 				keyFactory = KeyFactory.getInstance("RSA");
 			this.keyPublicClient = keyFactory.generatePublic(publicKeySpec);
-			try {
-				System.out.println(
-						"["+this.sThreadName+"] send encrypted session key!");
-				this.printstreamOut.println(
-					"[session_key]" +
-					CryptoTools.getHex(
-						CryptoTools.cipherKey(
-							this.keyPublicClient, 
-							this.keySession.getEncoded())));
-			} catch (Exception e) {
-				System.out.println(
-					"["+this.sThreadName+"] Exception sending public key: +" +
-					e.getMessage());
-			}
+			this.sendSessionKey();
 			} catch (NoSuchAlgorithmException e) {
 				this.keyPublicClient = null;
 				e.printStackTrace();
@@ -324,24 +927,267 @@ class ClientThread extends Thread {
 		}
 	}
 	
+	/**
+	 * Send the session key wrapped by the client's public key
+	 */
+	private void sendSessionKey(){
+		try {
+			System.out.println(
+					"["+this.sThreadName+"] send encrypted session key!");
+			this.sendControl(
+				Frame.SESSION_KEY, "[session_key]",
+				CryptoTools.cipherKey(
+					this.keyPublicClient, 
+					this.keySession.getEncoded()));
+		} catch (Exception e) {
+			System.out.println(
+				"["+this.sThreadName+"] Exception sending public key: +" +
+				e.getMessage());
+		}
+	}
+	
+	/**
+	 * Handshake in one round trip: the client's hello, sent right behind its
+	 * name, carries its public key signed by its private key. The signature
+	 * proves the client holds the key, so the session key can be sent and
+	 * the session be verified at once instead of waiting for the client to
+	 * sign the session key.
+	 * With the elliptic curve suite the client's X25519 key is signed by its
+	 * Ed25519 key; the server answers by an X25519 key of its own and both
+	 * sides agree on the session key, no RSA involved.
+	 * @param arbHello Flags, length of the public key, the key and signature
+	 * (elliptic curve suite: length and Ed25519 key before the signature)
+	 */
+	private void storeHello(byte[] arbHello){
+		System.out.println(
+			"User " + this.sUserName + "("+ this.sThreadName + 
+			") demands security in one round trip!");
+		PublicKey keyPublic = null;
+		boolean bRoomWanted = false;
+		byte arbKeyServer[] = null;
+		try {
+			ByteBuffer bufferHello = ByteBuffer.wrap(arbHello);
+			byte bFlags = bufferHello.get();
+			bRoomWanted = (bFlags & Frame.HELLO_ROOM) != 0;
+			this.bZipWanted = (bFlags & Frame.HELLO_ZIP) != 0;
+			byte arbKey[] = new byte[bufferHello.getShort() & 0xffff];
+			bufferHello.get(arbKey);
+			if ((bFlags & Frame.HELLO_EC) != 0){
+				byte arbKeySigning[] = new byte[bufferHello.getShort() & 0xffff];
+				bufferHello.get(arbKeySigning);
+				byte arbSignature[] = new byte[bufferHello.remaining()];
+				bufferHello.get(arbSignature);
+				keyPublic = CryptoTools.getPublicKey("Ed25519", arbKeySigning);
+				if (!CryptoTools.verifyEd25519(keyPublic, arbKey, arbSignature))
+					throw new GeneralSecurityException("Signature");
+				
+				// Agree on the session key, no pooled keys needed
+				KeyPair keyPairAgreement = CryptoTools.generateKeyPair("X25519");
+				arbKeyServer = keyPairAgreement.getPublic().getEncoded();
+				this.keySession = CryptoTools.agreeKey(
+					keyPairAgreement.getPrivate(),
+					CryptoTools.getPublicKey("X25519", arbKey),
+					arbKey, 
+					arbKeyServer);
+				this.bRoomBySession = true;
+			}else{
+				byte arbSignature[] = new byte[bufferHello.remaining()];
+				bufferHello.get(arbSignature);
+				keyPublic = CryptoTools.getPublicKey("RSA", arbKey);
+				if (!CryptoTools.verifySignedKey(keyPublic, arbKey, arbSignature))
+					throw new GeneralSecurityException("Signature");
+				if (!this.initializeCryptography())
+					throw new GeneralSecurityException("Key pool");
+			}
+			this.cipherSession = 
+				new SessionCipher(this.keySession, SessionCipher.GCM, true);
+		} catch (Exception e) {
+			keyPublic = null;
+		}
+		
+		if (keyPublic == null){
+			System.out.println(
+				"[" + this.sThreadName + "] did NOT verify hello!");
+			this.bIsCryptoVerfied = false;
+			this.sendVerification();
+			return;
+		}
+		this.keyPublicClient = keyPublic;
+		this.bRoom = bRoomWanted && Server.ROOM;
+		this.bSecure = true;
+		if (arbKeyServer != null){
+			try {
+				this.sendControl(Frame.SESSION_KEY, "[session_key]", arbKeyServer);
+			} catch (Exception e) {
+				System.out.println(
+					"["+this.sThreadName+"] Exception sending key: " +
+					e.getMessage());
+			}
+		}else{
+			this.sendSessionKey();
+		}
+		System.out.println(
+			"[" + this.sThreadName + "] successfully verifed hello!");
+		this.bIsCryptoVerfied = true;
+		Server.sessionCache.countFull();
+		this.recordHandshake(false);
+		this.sendVerification();
+	}
+	
+	/**
+	 * Resume a former session by its ticket, no public key operation at all.
+	 * The session key is derived from the one the ticket stands for and a
+	 * nonce of the client; the ticket encrypted by the derived key proves the
+	 * client knows it.
+	 * @param arbResume Flags, ticket, nonce and the encrypted ticket
+	 */
+	private void storeResume(byte[] arbResume){
+		System.out.println(
+			"User " + this.sUserName + "("+ this.sThreadName + 
+			") resumes a session!");
+		SessionCipher cipher = null;
+		SessionCache.Session session = null;
+		boolean bRoomWanted = false;
+		try {
+			ByteBuffer bufferResume = ByteBuffer.wrap(arbResume);
+			byte bFlags = bufferResume.get();
+			bRoomWanted = (bFlags & Frame.HELLO_ROOM) != 0;
+			this.bZipWanted = (bFlags & Frame.HELLO_ZIP) != 0;
+			byte arbTicket[] = new byte[Frame.TICKET_SIZE];
+			bufferResume.get(arbTicket);
+			byte arbNonce[] = new byte[Frame.TICKET_SIZE];
+			bufferResume.get(arbNonce);
+			byte arbProof[] = new byte[bufferResume.remaining()];
+			bufferResume.get(arbProof);
+			
+			session = Server.sessionCache.take(arbTicket);
+			if (session != null){
+				SecretKey keyResumed = 
+					CryptoTools.resumeKey(session.keySession, arbTicket, arbNonce);
+				cipher = new SessionCipher(keyResumed, SessionCipher.GCM, true);
+				if (!Arrays.equals(cipher.decrypt(arbProof), arbTicket))
+					throw new GeneralSecurityException("Proof");
+				this.keySession = keyResumed;
+			}
+		} catch (Exception e) {
+			cipher = null;
+		}
+		
+		if (cipher == null){
+			System.out.println(
+				"[" + this.sThreadName + "] did NOT resume, full handshake needed!");
+			this.bIsCryptoVerfied = false;
+			this.sendVerification();
+			return;
+		}
+		this.cipherSession = cipher;
+		this.keyPublicClient = session.keyPublicClient;
+		this.bRoomBySession = true;
+		this.bRoom = bRoomWanted && Server.ROOM;
+		this.bSecure = true;
+		System.out.println(
+			"[" + this.sThreadName + "] successfully resumed session!");
+		this.bIsCryptoVerfied = true;
+		Server.sessionCache.countResumed();
+		this.recordHandshake(true);
+		this.sendVerification();
+	}
+	
 	/**
 	 * Store away the clients public key!
-	 * @param sKey
+	 * @param arbSigned The signature of the session key
 	 */
-	private void storeSignedSessionKey( String sKey){
+	private void storeSignedSessionKey(byte[] arbSigned){
 		this.bIsCryptoVerfied = 
 			CryptoTools.verifySignedKey(
 				this.keyPublicClient, 
 				this.keySession.getEncoded(), 
-				CryptoTools.getBytes(sKey) );
+				arbSigned);
 		if(this.bIsCryptoVerfied){
 			System.out.println(
 					"[" + this.sThreadName + "] successfully verifed key!");
-			this.printstreamOut.println("[verify_key]OK");
+			Server.sessionCache.countFull();
+			this.recordHandshake(false);
 		}else{
 			System.out.println(
 					"[" + this.sThreadName + "] did NOT verify key!");
-			this.printstreamOut.println("[verify_key]FAIL");
+		}
+		this.sendVerification();
+	}
+	
+	/**
+	 * Record how long the handshake took, from the client asking until now
+	 * @param bResumed If the session was resumed by a ticket
+	 */
+	private void recordHandshake(boolean bResumed){
+		long lStart = this.lHandshakeStart;
+		if (lStart == 0)
+			return;
+		if (bResumed){
+			Server.metrics.recordResume(System.nanoTime() - lStart);
+		}else{
+			Server.metrics.recordHandshake(System.nanoTime() - lStart);
+		}
+	}
+	
+	/**
+	 * Tell the client whether it is verified
+	 */
+	private void sendVerification(){
+		this.lHandshakeStart = 0;
+		
+		// Compression asked for is accepted ahead, the client may get
+		// compressed lines right after it
+		if (this.bIsCryptoVerfied && this.bZipWanted && Server.ZIP && !this.bZip){
+			try {
+				this.sendControl(
+					Frame.ZIP, "[zip]", new byte[] { Compression.DICTIONARY_VERSION });
+				this.bZip = true;
+			} catch (Exception e) {
+				System.out.println(
+					"["+this.sThreadName+"] Exception accepting compression: " +
+					e.getMessage());
+			}
+		}
+		
+		if (this.bBinary){
+			this.send(
+				SharedBuffer.frame(
+					Frame.VERIFY_KEY, 
+					new byte[] { (byte) (this.bIsCryptoVerfied ? 1 : 0) }));
+		}else{
+			this.printLine(
+				"[verify_key]" + (this.bIsCryptoVerfied ? "OK" : "FAIL"));
+		}
+		
+		// Sessions by AES-GCM may be resumed later on
+		if (
+			this.bIsCryptoVerfied && 
+			SessionCipher.GCM.equals(this.cipherSession.getMode())){
+			byte arbTicket[] = 
+				Server.sessionCache.issue(this.keySession, this.keyPublicClient);
+			if (arbTicket != null){
+				try {
+					this.sendControl(Frame.TICKET, "[ticket]", arbTicket);
+				} catch (Exception e) {
+					System.out.println(
+						"["+this.sThreadName+"] Exception sending ticket: " +
+						e.getMessage());
+				}
+			}
+		}
+		
+		// Verified members asking for it share the room key from now on
+		if (this.bIsCryptoVerfied && this.bRoom){
+			synchronized (this.lockRoom){
+				this.room.roomKey.join(this);
+			}
+		}
+		
+		// Lines of verified senders could not be read before
+		if (this.bIsCryptoVerfied && !this.bReplayedVerified){
+			this.bReplayedVerified = true;
+			this.replay(this.room, Server.HISTORY_REPLAY, true);
 		}
 	}
 	
@@ -349,37 +1195,290 @@ class ClientThread extends Thread {
 	 * Give basic help on functionality!
 	 */
 	private void giveHelp(){
-		this.printstreamOut.println("Usage:");
-		this.printstreamOut.println("To leave enter \"/quit\".");
-		this.printstreamOut.println("For help type \"/help\".");
-		this.printstreamOut.println("For user infos type \"/users\".");
+		this.printLine("Usage:");
+		this.printLine("To leave enter \"/quit\".");
+		this.printLine("For help type \"/help\".");
+		this.printLine("For user infos type \"/users\".");
+		this.printLine("For outbound queues type \"/queues\".");
+		this.printLine("For the key pool type \"/keys\".");
+		this.printLine("For server statistics (admins) type \"/stats\".");
+		this.printLine("To become admin type \"/admin password\".");
+		this.printLine("To change the room type \"/join room\".");
+		this.printLine("To go back to the lobby type \"/leave\".");
+		this.printLine("For the rooms type \"/rooms\".");
+		this.printLine("For the last lines of the room type \"/history [n]\".");
+		this.printLine("For binary framing type \"/binary\".");
+	}
+	
+	/**
+	 * Move into another room, taking the room key along if the client has
+	 * asked for it
+	 * @param sName Name of the room
+	 */
+	private void joinRoom(String sName){
+		if (!Rooms.isValid(sName)){
+			this.printLine(
+				"Usage: /join room (up to " + Rooms.MAX_NAME + 
+				" characters, no blanks)");
+			return;
+		}
+		Rooms.Room roomFrom;
+		Rooms.Room roomTo;
+		synchronized (this.lockRoom){
+			roomFrom = this.room;
+			if (roomFrom.sName.equals(sName)){
+				roomTo = roomFrom;
+			}else{
+				roomFrom.roomKey.leave(this);
+				Server.rooms.leave(roomFrom, this);
+				roomTo = Server.rooms.join(sName, this);
+				this.room = roomTo;
+				if (this.bIsCryptoVerfied && this.bRoom)
+					roomTo.roomKey.join(this);
+			}
+		}
+		if (roomTo != roomFrom){
+			this.broadcastLine(
+				roomFrom, "*** User " + this.sUserName + " left for " + sName + " ***");
+			this.broadcastLine(
+				roomTo, "*** User " + this.sUserName + " joined " + sName + " ***");
+		}
+		this.printLine("*** You are in " + sName + " ***");
+		if (roomTo != roomFrom)
+			this.replay(roomTo, Server.HISTORY_REPLAY, false);
+	}
+	
+	/** 
+	 * List of rooms and their number of members
+	 */
+	private void giveRooms(){
+		this.printLine("Rooms: " + Server.rooms.size());
+		for (String sLine : Server.rooms.list()){
+			this.printLine(sLine);
+		}
+	}
+	
+	/**
+	 * The last lines said in the room
+	 * @param sLines Number of lines, empty for as many as on joining
+	 */
+	private void giveHistory(String sLines){
+		int iLines = Server.HISTORY_REPLAY;
+		try {
+			if (sLines.length() > 0)
+				iLines = Integer.parseInt(sLines);
+		} catch (NumberFormatException e) {
+			this.printLine("Usage: /history [n]");
+			return;
+		}
+		this.replay(this.room, iLines, false);
+	}
+	
+	/**
+	 * Send the last lines said in a room, as far as the client may read
+	 * them: lines of unverified senders as they were encoded, lines of
+	 * verified senders to verified clients only, encrypted by the session
+	 * key like any line of them
+	 * @param room The room
+	 * @param iLines Number of lines
+	 * @param bVerifiedOnly Flag if only lines of verified senders are sent
+	 */
+	private void replay(Rooms.Room room, int iLines, boolean bVerifiedOnly){
+		boolean bReadsVerified = 
+			this.bSecure && this.bIsCryptoVerfied && this.cipherSession != null;
+		for (History.Line line : room.history.last(iLines)){
+			if (!line.bVerified){
+				if (!bVerifiedOnly)
+					this.send(line.sbLine.retain());
+			}else if (bReadsVerified){
+				ByteBuffer bufferText = line.sbLine.view(true);
+				bufferText.position(Frame.HEADER);
+				byte arbLine[] = new byte[bufferText.remaining()];
+				bufferText.get(arbLine);
+				this.printChat(
+					arbLine, this.bZip ? ClientThread.deflate(arbLine) : null, 
+					null, true);
+			}
+			line.sbLine.release();
+		}
 	}
 	
 	/** 
 	 * List of users in chat - just for fun
 	 */
 	private void giveUsers(){
-		this.printstreamOut.println(
+		this.printLine(
 			"Clients in chat: " + Server.getActiveClients());
-		for (int i = 0; i < this.clientthreadPool.length; i++){
-			if (
-				this.clientthreadPool[i] != null) {
-				this.printstreamOut.println(this.clientthreadPool[i].sUserName);
+		for (ClientThread clientthread : this.registrySessions){
+			if (clientthread.getUserName() != null){
+				this.printLine(clientthread.getUserName());
+			}
+		}
+	}
+	
+	/** 
+	 * List of users' outbound queue depths and dropped lines
+	 */
+	private void giveQueues(){
+		this.printLine(SlowConsumers.describe());
+		for (ClientThread clientthread : this.registrySessions){
+			if (clientthread.getUserName() != null){
+				this.printLine(
+					clientthread.getUserName() + ": " + clientthread.getQueueDepth() + 
+					" queued, " + clientthread.getQueuedBytes() + " bytes, lag " +
+					clientthread.getLag() + " ms, " + clientthread.getDropped() + 
+					" dropped");
 			}
 		}
 	}
 	
+	/** 
+	 * State of the key pool
+	 */
+	private void giveKeys(){
+		this.printLine(
+			"Key pool: " + Server.keyPool.size() + " ready, " + 
+			Server.keyPool.getHits() + " hits, " + 
+			Server.keyPool.getMisses() + " misses" +
+			(Server.keyPool.isShared() ? ", shared identity" : ""));
+		this.printLine(
+			"Crypto pool: " + Server.cryptoPool.getThreads() + " workers, " + 
+			Server.cryptoPool.getQueued() + " queued, " + 
+			Server.cryptoPool.getService().getCount() + " handshakes, wait " + 
+			Server.cryptoPool.getWait() + ", service " + 
+			Server.cryptoPool.getService() + ", " + 
+			Server.cryptoPool.getCallerRuns() + " done by readers, " + 
+			Server.cryptoPool.getFailed() + " failed");
+		this.printLine(
+			"Sessions: " + Server.sessionCache.size() + " tickets, " + 
+			Server.sessionCache.getFull() + " full, " + 
+			Server.sessionCache.getResumed() + " resumed handshakes, " + 
+			Server.sessionCache.getRefused() + " tickets refused, " + 
+			Server.sessionCache.getEvicted() + " evicted");
+	}
+	
+	/** 
+	 * Traffic and durations of the server and traffic of every client
+	 */
+	private void giveStats(){
+		if (!this.bAdmin){
+			this.printLine("Statistics are for admins only!");
+			return;
+		}
+		Metrics metrics = Server.metrics;
+		this.printLine(
+			"Traffic: " + metrics.getClients() + " clients, in " + 
+			metrics.getMessagesIn() + " messages/" + 
+			metrics.getBytesIn() + " bytes, out " + 
+			metrics.getMessagesOut() + " messages/" + 
+			metrics.getBytesOut() + " bytes in " + 
+			metrics.getFlushes() + " flushes, " + 
+			metrics.getQueued() + " queued (deepest " + 
+			metrics.getQueuedMax() + ")");
+		this.printLine("Broadcasts: " + metrics.getBroadcast());
+		this.printLine("Handshakes: " + metrics.getHandshake());
+		this.printLine("Resumed: " + metrics.getResume());
+		this.printLine("Encryptions: " + metrics.getEncrypt());
+		this.printLine("Decryptions: " + metrics.getDecrypt());
+		this.printLine(
+			"Compression: " + metrics.getZipped() + " of " + 
+			metrics.getZipLines() + " lines compressed, " + 
+			String.format("%.2f", metrics.getZipRatio()) + " bytes per byte");
+		this.printLine("Compressions: " + metrics.getDeflate());
+		this.printLine("Decompressions: " + metrics.getInflate());
+		this.printLine(SlowConsumers.describe());
+		for (String sLine : metrics.sessions()){
+			this.printLine(sLine);
+		}
+	}
+	
+	/** 
+	 * Become admin by the password the server was started with
+	 * @param sPassword The password
+	 */
+	private void becomeAdmin(String sPassword){
+		this.bAdmin = this.bAdmin || (
+			Server.ADMIN.length() > 0 &&
+			MessageDigest.isEqual(
+				Server.ADMIN.getBytes(SharedBuffer.CHARSET), 
+				sPassword.getBytes(SharedBuffer.CHARSET)));
+		this.printLine(this.bAdmin ? "You are admin." : "Wrong password!");
+	}
+	
+	/**
+	 * Name of the user
+	 * @return The name, null until the client told it
+	 */
+	String getUserName(){
+		return this.sUserName;
+	}
+	
+	/**
+	 * Number of messages read from the client
+	 * @return Messages
+	 */
+	long getMessagesIn(){
+		return this.lMessagesIn;
+	}
+	
+	/**
+	 * Number of bytes read from the client
+	 * @return Bytes
+	 */
+	long getBytesIn(){
+		return this.lBytesIn;
+	}
+	
+	/**
+	 * Number of messages written to the client
+	 * @return Messages
+	 */
+	long getMessagesOut(){
+		return this.lMessagesOut;
+	}
+	
+	/**
+	 * Number of bytes written to the client
+	 * @return Bytes
+	 */
+	long getBytesOut(){
+		return this.lBytesOut;
+	}
+	
 	/** 
 	 * General cleaning up of client thread pool and all open streams!
 	 */
 	private void cleanup(){
-		// Set this thread to null in client thread pool
-		for (int i = 0; i < this.clientthreadPool.length; i++){
-			if (this.clientthreadPool[i] == this) {
-				this.clientthreadPool[i] = null;
+		// A handshake still running might join the room after leaving it
+		try {
+			this.futureHandshake.get(Server.QUEUE_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// Counted by the crypto pool
+		} catch (TimeoutException e) {
+			System.out.println(
+				"["+this.sThreadName+"] Handshake still running, leaving anyway");
+		}
+		
+		// Remove this thread from the registry and the room
+		this.registrySessions.remove(this);
+		synchronized (this.lockRoom){
+			if (this.room != null){
+				this.room.roomKey.leave(this);
+				Server.rooms.leave(this.room, this);
 			}
 		}
 		
+		// Let the writer finish what is queued, but not forever
+		this.queueOut.close();
+		try {
+			if(!this.latchWriter.await(Server.QUEUE_TIMEOUT, TimeUnit.MILLISECONDS))
+				this.queueOut.clear();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
 		// Close all streams and connections
 		try {
 			if(this.readerInput!=null)
@@ -388,8 +1487,12 @@ class ClientThread extends Thread {
 			System.out.println("Error: Closing reader input!");
 		}
 		
-		if(this.printstreamOut!=null)
-			this.printstreamOut.close();
+		try {
+			if(this.streamOut!=null)
+				this.streamOut.close();
+		} catch (IOException e) {
+			System.out.println("Error: Closing output stream!");
+		}
 		
 		try {
 			if(this.socketClient!=null)
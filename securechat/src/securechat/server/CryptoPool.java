@@ -0,0 +1,206 @@
+/**
+ * File			: CryptoPool.java
+ * Package		: securechat.server
+ * Classes		: CryptoPool
+ * Description	: Worker threads doing the public key work of handshakes
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CryptoPool:
+ * Handshakes (verifying signatures, wrapping and agreeing on keys) are CPU
+ * bound, the threads reading clients' input are not. A fixed number of
+ * workers, one per core by default, takes the handshakes off the readers,
+ * which go on reading; the answers are queued to the client by the worker.
+ * Handshakes are handed over by the reader of the client only, never by a
+ * worker. The queue in front of the workers is bounded: once it is full
+ * the reader does the handshake itself, which slows down just that client.
+ * For every handshake the time spent waiting in the queue and the time
+ * spent working is recorded: long waits at short service times mean too
+ * few workers, short waits mean handshakes are no bottleneck at all.
+ * @author Mathias Knoll
+ */
+class CryptoPool {
+
+	/**
+	 * Timing:
+	 * Number, sum and maximum of durations
+	 */
+	static class Timing {
+		// Number of durations
+		private AtomicLong lCount = new AtomicLong(0);
+		// Sum and maximum (ns)
+		private AtomicLong lSum = new AtomicLong(0);
+		private AtomicLong lMax = new AtomicLong(0);
+
+		/**
+		 * Record a duration
+		 * @param lNanos The duration (ns)
+		 */
+		void add(long lNanos){
+			this.lCount.incrementAndGet();
+			this.lSum.addAndGet(lNanos);
+			long lMaxNow;
+			while (lNanos > (lMaxNow = this.lMax.get())){
+				if (this.lMax.compareAndSet(lMaxNow, lNanos))
+					break;
+			}
+		}
+
+		/**
+		 * Number of durations
+		 * @return Count
+		 */
+		long getCount(){
+			return this.lCount.get();
+		}
+
+		/**
+		 * Average duration
+		 * @return Average (ms)
+		 */
+		double getAverage(){
+			long lCountNow = this.lCount.get();
+			return lCountNow == 0 ? 0 : this.lSum.get() / 1e6 / lCountNow;
+		}
+
+		/**
+		 * Longest duration
+		 * @return Maximum (ms)
+		 */
+		double getMax(){
+			return this.lMax.get() / 1e6;
+		}
+
+		/**
+		 * Summary for humans
+		 * @return The summary
+		 */
+		public String toString(){
+			return String.format(
+				"avg %.2f ms, max %.2f ms", this.getAverage(), this.getMax());
+		}
+	}
+
+	// The workers
+	private ThreadPoolExecutor executor = null;
+	// Time waited in the queue and time worked
+	private Timing timingWait = new Timing();
+	private Timing timingService = new Timing();
+	// Number of handshakes done by readers since the queue was full
+	private AtomicLong lCallerRuns = new AtomicLong(0);
+	// Number of handshakes which failed by an exception
+	private AtomicLong lFailed = new AtomicLong(0);
+
+	/**
+	 * Constructor of class CryptoPool, starts the workers
+	 * @param iThreads Number of workers
+	 * @param iQueue Number of handshakes waiting at most
+	 */
+	CryptoPool(int iThreads, int iQueue) {
+		final AtomicInteger iNumber = new AtomicInteger(0);
+		this.executor = new ThreadPoolExecutor(
+			Math.max(1, iThreads), Math.max(1, iThreads),
+			0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(Math.max(1, iQueue)),
+			new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread =
+						new Thread(runnable, "Crypto-" + iNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			},
+			new RejectedExecutionHandler() {
+				public void rejectedExecution(
+						Runnable runnable, ThreadPoolExecutor executor) {
+					CryptoPool.this.lCallerRuns.incrementAndGet();
+					runnable.run();
+				}
+			});
+	}
+
+	/**
+	 * Run a handshake on a worker (reader)
+	 * @param runnable The handshake, exceptions are caught and counted
+	 * @return Completed once the handshake is done, never exceptionally
+	 */
+	CompletableFuture<Void> submit(final Runnable runnable){
+		final long lSubmitted = System.nanoTime();
+		return CompletableFuture.runAsync(new Runnable() {
+			public void run() {
+				long lStarted = System.nanoTime();
+				CryptoPool.this.timingWait.add(lStarted - lSubmitted);
+				try {
+					runnable.run();
+				} catch (RuntimeException e) {
+					CryptoPool.this.lFailed.incrementAndGet();
+					System.out.println("Error: Handshake failed!");
+					System.out.println(e);
+				} finally {
+					CryptoPool.this.timingService.add(System.nanoTime() - lStarted);
+				}
+			}
+		}, this.executor);
+	}
+
+	/**
+	 * Number of workers
+	 * @return Workers
+	 */
+	int getThreads(){
+		return this.executor.getMaximumPoolSize();
+	}
+
+	/**
+	 * Number of handshakes waiting
+	 * @return Handshakes queued
+	 */
+	int getQueued(){
+		return this.executor.getQueue().size();
+	}
+
+	/**
+	 * Time handshakes waited for a worker
+	 * @return The timing
+	 */
+	Timing getWait(){
+		return this.timingWait;
+	}
+
+	/**
+	 * Time handshakes took on a worker
+	 * @return The timing
+	 */
+	Timing getService(){
+		return this.timingService;
+	}
+
+	/**
+	 * Number of handshakes done by readers as the queue was full
+	 * @return Handshakes
+	 */
+	long getCallerRuns(){
+		return this.lCallerRuns.get();
+	}
+
+	/**
+	 * Number of handshakes failed by an exception
+	 * @return Handshakes
+	 */
+	long getFailed(){
+		return this.lFailed.get();
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * File			: History.java
+ * Package		: securechat.server
+ * Classes		: History, History.Line
+ * Description	: Last lines said in a room, kept encoded for replay
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * History:
+ * A ring of the last lines said in a room, bounded by number and age. The
+ * lines are kept as the very buffers they were broadcast in (see
+ * SharedBuffer): the history holds one reference of each, so a replay
+ * neither encodes nor copies anything, and evicting a line hands its buffer
+ * back to the pool.
+ * Lines of verified senders are kept as well, as they would go out to
+ * clients not getting them encrypted; they are replayed to verified
+ * clients only, encrypted by their session keys like any line of them.
+ * A client joining a room while a line is being said may get it by the
+ * replay as well as live, it never misses it.
+ * @author Mathias Knoll
+ */
+class History {
+
+	/**
+	 * Line:
+	 * A line of the history
+	 */
+	static class Line {
+		// The line as encoded for clients not getting it encrypted
+		final SharedBuffer sbLine;
+		// Flag if the sender was verified
+		final boolean bVerified;
+
+		Line(SharedBuffer sbLine, boolean bVerified) {
+			this.sbLine = sbLine;
+			this.bVerified = bVerified;
+		}
+	}
+
+	// The lines, oldest at iNext - iCount
+	private SharedBuffer arsbLines[];
+	// Flags if the senders were verified
+	private boolean arbVerified[];
+	// When each line was said (ms)
+	private long arlTimes[];
+	// Slot of the next line and number of lines
+	private int iNext = 0;
+	private int iCount = 0;
+	// Age after which a line is forgotten (ms)
+	private long lMaxAge;
+
+	/**
+	 * Constructor of class History
+	 * @param iCapacity Number of lines kept at most, 0 for no history
+	 * @param lMaxAge Age after which a line is forgotten (ms)
+	 */
+	History(int iCapacity, long lMaxAge) {
+		this.arsbLines = new SharedBuffer[Math.max(0, iCapacity)];
+		this.arbVerified = new boolean[this.arsbLines.length];
+		this.arlTimes = new long[this.arsbLines.length];
+		this.lMaxAge = lMaxAge;
+	}
+
+	/**
+	 * Keep a line, forgetting the oldest one if the history is full
+	 * @param sbLine The line, the history takes a reference of its own
+	 * @param bVerified Flag if the sender was verified
+	 */
+	synchronized void add(SharedBuffer sbLine, boolean bVerified){
+		if (this.arsbLines.length == 0)
+			return;
+		if (this.iCount == this.arsbLines.length){
+			this.arsbLines[this.iNext].release();
+			this.iCount--;
+		}
+		this.arsbLines[this.iNext] = sbLine.retain();
+		this.arbVerified[this.iNext] = bVerified;
+		this.arlTimes[this.iNext] = System.currentTimeMillis();
+		this.iNext = (this.iNext + 1) % this.arsbLines.length;
+		this.iCount++;
+	}
+
+	/**
+	 * The last lines, oldest first
+	 * @param iLines Number of lines asked for
+	 * @return The lines, one reference of each handed over
+	 */
+	synchronized List<Line> last(int iLines){
+		this.expire();
+		int iTaken = Math.max(0, Math.min(iLines, this.iCount));
+		List<Line> listLines = new ArrayList<Line>(iTaken);
+		for (int i = iTaken; i > 0; i--){
+			int iSlot = (this.iNext - i + this.arsbLines.length) % this.arsbLines.length;
+			listLines.add(
+				new Line(this.arsbLines[iSlot].retain(), this.arbVerified[iSlot]));
+		}
+		return listLines;
+	}
+
+	/**
+	 * Forget lines older than the maximum age
+	 */
+	private void expire(){
+		long lOldest = System.currentTimeMillis() - this.lMaxAge;
+		while (this.iCount > 0){
+			int iSlot =
+				(this.iNext - this.iCount + this.arsbLines.length) % this.arsbLines.length;
+			if (this.arlTimes[iSlot] >= lOldest)
+				break;
+			this.arsbLines[iSlot].release();
+			this.arsbLines[iSlot] = null;
+			this.iCount--;
+		}
+	}
+
+	/**
+	 * Forget lines older than the maximum age and tell if any is left
+	 * @return True if no line is kept
+	 */
+	synchronized boolean isEmpty(){
+		this.expire();
+		return this.iCount == 0;
+	}
+
+	/**
+	 * Number of lines kept
+	 * @return Lines
+	 */
+	synchronized int size(){
+		return this.iCount;
+	}
+}
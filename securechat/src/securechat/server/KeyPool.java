@@ -0,0 +1,176 @@
+/**
+ * File			: KeyPool.java
+ * Package		: securechat.server
+ * Classes		: KeyPool
+ * Description	: Key material generated ahead of time by background threads
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * KeyPool:
+ * Generating an RSA key pair takes far longer than accepting a connection.
+ * Refill threads keep a number of key pairs and session keys ready, so a new
+ * client just takes one. Only if the pool has run dry (a miss) the client's
+ * own thread generates its keys, never the thread accepting connections.
+ * Optionally all clients share one long-lived server identity key pair and
+ * only get a session key of their own.
+ * @author Mathias Knoll
+ */
+class KeyPool {
+
+	// Size of RSA keys (bits)
+	static int RSA_BITS = 1024;
+	// Size of session keys (bits)
+	static int AES_BITS = 128;
+
+	/**
+	 * Keys:
+	 * Key material of one client
+	 */
+	static class Keys {
+		// Key pair of the server towards this client
+		final KeyPair keyPair;
+		// Session key
+		final SecretKey keySession;
+
+		Keys(KeyPair keyPair, SecretKey keySession) {
+			this.keyPair = keyPair;
+			this.keySession = keySession;
+		}
+	}
+
+	// Key material ready to be taken
+	private BlockingQueue<Keys> queueReady = null;
+	// Key pair shared by all clients, null for a key pair per client
+	private KeyPair keyPairShared = null;
+	// Number of clients served from the pool and served by generating keys
+	private AtomicLong lHits = new AtomicLong(0);
+	private AtomicLong lMisses = new AtomicLong(0);
+
+	/**
+	 * Constructor of class KeyPool, starts the refill threads
+	 * @param iSize Number of keys kept ready
+	 * @param iThreads Number of refill threads
+	 * @param bShared True for one server identity key pair shared by all
+	 * clients
+	 * @throws GeneralSecurityException
+	 */
+	KeyPool(int iSize, int iThreads, boolean bShared)
+			throws GeneralSecurityException {
+		this.queueReady = new ArrayBlockingQueue<Keys>(Math.max(1, iSize));
+		if (bShared){
+			this.keyPairShared = KeyPool.generateKeyPair();
+		}
+		for (int i = 0; i < iThreads && iSize > 0; i++){
+			Thread threadRefill = new Thread(new Runnable() {
+				public void run() {
+					KeyPool.this.refill();
+				}
+			}, "KeyPool-" + (i + 1));
+			threadRefill.setDaemon(true);
+			threadRefill.setPriority(Thread.MIN_PRIORITY);
+			threadRefill.start();
+		}
+	}
+
+	/**
+	 * Keep the pool full, waiting while it is
+	 */
+	private void refill(){
+		try {
+			while (true){
+				this.queueReady.put(this.generate());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (GeneralSecurityException e) {
+			System.out.println("Error: Key pool refill stopped!");
+			System.out.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * Take key material for a client, generating it if the pool is empty
+	 * @return The keys
+	 * @throws GeneralSecurityException
+	 */
+	Keys take() throws GeneralSecurityException {
+		Keys keys = this.queueReady.poll();
+		if (keys != null){
+			this.lHits.incrementAndGet();
+			return keys;
+		}
+		this.lMisses.incrementAndGet();
+		return this.generate();
+	}
+
+	/**
+	 * Generate key material for a client
+	 * @return The keys
+	 * @throws GeneralSecurityException
+	 */
+	private Keys generate() throws GeneralSecurityException {
+		KeyGenerator generatorKeys = KeyGenerator.getInstance("AES");
+		generatorKeys.init(KeyPool.AES_BITS);
+		return new Keys(
+			this.keyPairShared != null ?
+				this.keyPairShared : KeyPool.generateKeyPair(),
+			generatorKeys.generateKey());
+	}
+
+	/**
+	 * Generate an RSA key pair
+	 * @return The key pair
+	 * @throws GeneralSecurityException
+	 */
+	private static KeyPair generateKeyPair() throws GeneralSecurityException {
+		KeyPairGenerator generatorKeyPair = KeyPairGenerator.getInstance("RSA");
+		generatorKeyPair.initialize(KeyPool.RSA_BITS);
+		return generatorKeyPair.generateKeyPair();
+	}
+
+	/**
+	 * Number of keys ready
+	 * @return Keys ready
+	 */
+	int size(){
+		return this.queueReady.size();
+	}
+
+	/**
+	 * Number of clients served from the pool
+	 * @return Hits
+	 */
+	long getHits(){
+		return this.lHits.get();
+	}
+
+	/**
+	 * Number of clients which had to generate their keys
+	 * @return Misses
+	 */
+	long getMisses(){
+		return this.lMisses.get();
+	}
+
+	/**
+	 * Tell if all clients share one key pair
+	 * @return True if shared
+	 */
+	boolean isShared(){
+		return this.keyPairShared != null;
+	}
+}
@@ -0,0 +1,294 @@
+/**
+ * File			: Metrics.java
+ * Package		: securechat.server
+ * Classes		: Metrics
+ * Description	: Counters and latency histograms of the whole server
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import securechat.tools.Histogram;
+
+/**
+ * Metrics:
+ * Traffic and durations of all sessions, for /stats and JMX. Recording is
+ * on the hot path of every message, so nothing in here takes a lock: the
+ * counters are striped (LongAdder), each thread adding to a cell of its own
+ * and the cells summed only when read, and the histograms are lock free.
+ * Traffic of a single session is counted by the session itself (see
+ * ClientThread), queue depths are looked at only when asked for.
+ * @author Mathias Knoll
+ */
+class Metrics implements MetricsMXBean {
+
+	// Sessions of all connected clients
+	private SessionRegistry<ClientThread> registrySessions = null;
+	// Messages and bytes read from all clients
+	private LongAdder lMessagesIn = new LongAdder();
+	private LongAdder lBytesIn = new LongAdder();
+	// Messages and bytes written to all clients
+	private LongAdder lMessagesOut = new LongAdder();
+	private LongAdder lBytesOut = new LongAdder();
+	// Flushes of gathered output to all clients
+	private LongAdder lFlushes = new LongAdder();
+	// Durations of broadcasts, handshakes, encryption and decryption (ns)
+	private Histogram histogramBroadcast = new Histogram();
+	private Histogram histogramHandshake = new Histogram();
+	private Histogram histogramResume = new Histogram();
+	private Histogram histogramEncrypt = new Histogram();
+	private Histogram histogramDecrypt = new Histogram();
+	// Lines offered for compression and those compressed, their bytes before
+	// and as sent, durations of compressing and decompressing (ns)
+	private LongAdder lZipLines = new LongAdder();
+	private LongAdder lZipped = new LongAdder();
+	private LongAdder lZipBytesIn = new LongAdder();
+	private LongAdder lZipBytesOut = new LongAdder();
+	private Histogram histogramDeflate = new Histogram();
+	private Histogram histogramInflate = new Histogram();
+
+	/**
+	 * Constructor of class Metrics
+	 * @param registrySessions Sessions of all connected clients
+	 */
+	Metrics(SessionRegistry<ClientThread> registrySessions) {
+		this.registrySessions = registrySessions;
+	}
+
+	/**
+	 * Make the metrics visible by JMX
+	 * @param sName Object name, e.g. "securechat:type=Metrics"
+	 * @throws JMException
+	 */
+	void register(String sName) throws JMException {
+		ManagementFactory.getPlatformMBeanServer()
+			.registerMBean(this, new ObjectName(sName));
+	}
+
+	/**
+	 * A message was read from a client (its reader)
+	 * @param lBytes Bytes read for it
+	 */
+	void countIn(long lBytes){
+		this.lMessagesIn.increment();
+		this.lBytesIn.add(lBytes);
+	}
+
+	/**
+	 * A message was written to a client (its writer)
+	 * @param lBytes Bytes written
+	 */
+	void countOut(long lBytes){
+		this.lMessagesOut.increment();
+		this.lBytesOut.add(lBytes);
+	}
+
+	/**
+	 * Output gathered for a client was flushed (its writer)
+	 */
+	void countFlush(){
+		this.lFlushes.increment();
+	}
+
+	/**
+	 * Record a broadcast
+	 * @param lNanos Duration (ns)
+	 */
+	void recordBroadcast(long lNanos){
+		this.histogramBroadcast.record(lNanos);
+	}
+
+	/**
+	 * Record a full handshake
+	 * @param lNanos Duration (ns)
+	 */
+	void recordHandshake(long lNanos){
+		this.histogramHandshake.record(lNanos);
+	}
+
+	/**
+	 * Record a resumed handshake
+	 * @param lNanos Duration (ns)
+	 */
+	void recordResume(long lNanos){
+		this.histogramResume.record(lNanos);
+	}
+
+	/**
+	 * Record an encryption
+	 * @param lNanos Duration (ns)
+	 */
+	void recordEncrypt(long lNanos){
+		this.histogramEncrypt.record(lNanos);
+	}
+
+	/**
+	 * Record a decryption
+	 * @param lNanos Duration (ns)
+	 */
+	void recordDecrypt(long lNanos){
+		this.histogramDecrypt.record(lNanos);
+	}
+
+	/**
+	 * Record a line offered for compression
+	 * @param lNanos Duration (ns)
+	 * @param iBytes Bytes of the line
+	 * @param iZipped Bytes compressed, iBytes if not compressed
+	 */
+	void recordDeflate(long lNanos, int iBytes, int iZipped){
+		this.lZipLines.increment();
+		if (iZipped < iBytes)
+			this.lZipped.increment();
+		this.lZipBytesIn.add(iBytes);
+		this.lZipBytesOut.add(iZipped);
+		this.histogramDeflate.record(lNanos);
+	}
+
+	/**
+	 * Record a decompression
+	 * @param lNanos Duration (ns)
+	 */
+	void recordInflate(long lNanos){
+		this.histogramInflate.record(lNanos);
+	}
+
+	public int getClients(){
+		return this.registrySessions.size();
+	}
+
+	public long getMessagesIn(){
+		return this.lMessagesIn.sum();
+	}
+
+	public long getBytesIn(){
+		return this.lBytesIn.sum();
+	}
+
+	public long getMessagesOut(){
+		return this.lMessagesOut.sum();
+	}
+
+	public long getBytesOut(){
+		return this.lBytesOut.sum();
+	}
+
+	public long getFlushes(){
+		return this.lFlushes.sum();
+	}
+
+	public long getQueued(){
+		long lQueued = 0;
+		for (ClientThread clientthread : this.registrySessions){
+			lQueued += clientthread.getQueueDepth();
+		}
+		return lQueued;
+	}
+
+	public int getQueuedMax(){
+		int iMax = 0;
+		for (ClientThread clientthread : this.registrySessions){
+			iMax = Math.max(iMax, clientthread.getQueueDepth());
+		}
+		return iMax;
+	}
+
+	public long getEvicted(){
+		return SlowConsumers.getEvicted();
+	}
+
+	public long getShed(){
+		return SlowConsumers.getShed();
+	}
+
+	public Latency getBroadcast(){
+		return Metrics.latency(this.histogramBroadcast);
+	}
+
+	public Latency getHandshake(){
+		return Metrics.latency(this.histogramHandshake);
+	}
+
+	public Latency getResume(){
+		return Metrics.latency(this.histogramResume);
+	}
+
+	public Latency getEncrypt(){
+		return Metrics.latency(this.histogramEncrypt);
+	}
+
+	public Latency getDecrypt(){
+		return Metrics.latency(this.histogramDecrypt);
+	}
+
+	public long getZipLines(){
+		return this.lZipLines.sum();
+	}
+
+	public long getZipped(){
+		return this.lZipped.sum();
+	}
+
+	public double getZipRatio(){
+		long lBytesIn = this.lZipBytesIn.sum();
+		return lBytesIn == 0 ? 1 : (double) this.lZipBytesOut.sum() / lBytesIn;
+	}
+
+	public Latency getDeflate(){
+		return Metrics.latency(this.histogramDeflate);
+	}
+
+	public Latency getInflate(){
+		return Metrics.latency(this.histogramInflate);
+	}
+
+	public String[] sessions(){
+		List<String> listLines = new ArrayList<String>();
+		for (ClientThread clientthread : this.registrySessions){
+			listLines.add(
+				clientthread.getUserName() + ": in " +
+				clientthread.getMessagesIn() + " messages/" +
+				clientthread.getBytesIn() + " bytes, out " +
+				clientthread.getMessagesOut() + " messages/" +
+				clientthread.getBytesOut() + " bytes, " +
+				clientthread.getQueueDepth() + " queued, " +
+				clientthread.getQueuedBytes() + " bytes, lag " +
+				clientthread.getLag() + " ms, " +
+				clientthread.getDropped() + " dropped");
+		}
+		return listLines.toArray(new String[listLines.size()]);
+	}
+
+	public void reset(){
+		this.histogramBroadcast.reset();
+		this.histogramHandshake.reset();
+		this.histogramResume.reset();
+		this.histogramEncrypt.reset();
+		this.histogramDecrypt.reset();
+		this.histogramDeflate.reset();
+		this.histogramInflate.reset();
+	}
+
+	/**
+	 * Percentiles of a histogram of nanoseconds, in microseconds
+	 * @param histogram The histogram
+	 * @return The percentiles
+	 */
+	private static Latency latency(Histogram histogram){
+		return new Latency(
+			histogram.getCount(),
+			histogram.getPercentile(50) / 1000,
+			histogram.getPercentile(99) / 1000,
+			histogram.getPercentile(99.9) / 1000,
+			histogram.getMax() / 1000);
+	}
+}
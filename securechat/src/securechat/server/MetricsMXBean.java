@@ -0,0 +1,211 @@
+/**
+ * File			: MetricsMXBean.java
+ * Package		: securechat.server
+ * Classes		: MetricsMXBean, MetricsMXBean.Latency
+ * Description	: Management interface of the server's metrics (JMX)
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+/**
+ * MetricsMXBean:
+ * What the server tells about itself by JMX (e.g. jconsole), registered as
+ * "securechat:type=Metrics". Durations come as Latency, shown as one
+ * composite of count and percentiles in microseconds.
+ * @author Mathias Knoll
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * Latency:
+	 * Percentiles of durations at the time asked (us)
+	 */
+	public static class Latency {
+		// Number of durations
+		private long lCount;
+		// Percentiles and maximum (us)
+		private long lP50;
+		private long lP99;
+		private long lP999;
+		private long lMax;
+
+		/**
+		 * Constructor of class Latency
+		 * @param lCount Number of durations
+		 * @param lP50 Median (us)
+		 * @param lP99 99th percentile (us)
+		 * @param lP999 99.9th percentile (us)
+		 * @param lMax Maximum (us)
+		 */
+		public Latency(long lCount, long lP50, long lP99, long lP999, long lMax) {
+			this.lCount = lCount;
+			this.lP50 = lP50;
+			this.lP99 = lP99;
+			this.lP999 = lP999;
+			this.lMax = lMax;
+		}
+
+		public long getCount(){
+			return this.lCount;
+		}
+
+		public long getP50(){
+			return this.lP50;
+		}
+
+		public long getP99(){
+			return this.lP99;
+		}
+
+		public long getP999(){
+			return this.lP999;
+		}
+
+		public long getMax(){
+			return this.lMax;
+		}
+
+		/**
+		 * Summary for humans
+		 * @return The summary
+		 */
+		public String toString(){
+			return this.lCount + ", p50 " + this.lP50 + " us, p99 " + this.lP99 +
+				" us, p99.9 " + this.lP999 + " us, max " + this.lMax + " us";
+		}
+	}
+
+	/**
+	 * Number of connected clients
+	 * @return Clients
+	 */
+	int getClients();
+
+	/**
+	 * Messages (lines or frames) read from all clients
+	 * @return Messages
+	 */
+	long getMessagesIn();
+
+	/**
+	 * Bytes read from all clients
+	 * @return Bytes
+	 */
+	long getBytesIn();
+
+	/**
+	 * Messages written to all clients
+	 * @return Messages
+	 */
+	long getMessagesOut();
+
+	/**
+	 * Bytes written to all clients
+	 * @return Bytes
+	 */
+	long getBytesOut();
+
+	/**
+	 * Flushes of gathered output to all clients, each a write to a socket
+	 * or a few for more than a buffer full
+	 * @return Flushes
+	 */
+	long getFlushes();
+
+	/**
+	 * Messages waiting in the outbound queues of connected clients
+	 * @return Messages
+	 */
+	long getQueued();
+
+	/**
+	 * Deepest outbound queue of a connected client
+	 * @return Messages
+	 */
+	int getQueuedMax();
+
+	/**
+	 * Clients evicted for lagging behind or overflowing their queue
+	 * @return Clients
+	 */
+	long getEvicted();
+
+	/**
+	 * Notices left out for clients lagging behind
+	 * @return Notices
+	 */
+	long getShed();
+
+	/**
+	 * Time of a chat line sent to all clients, encryption included
+	 * @return Latency
+	 */
+	Latency getBroadcast();
+
+	/**
+	 * Time of a full handshake, from the client asking until verified
+	 * @return Latency
+	 */
+	Latency getHandshake();
+
+	/**
+	 * Time of a resumed handshake, from the ticket until verified
+	 * @return Latency
+	 */
+	Latency getResume();
+
+	/**
+	 * Time of encrypting a message (session or room key)
+	 * @return Latency
+	 */
+	Latency getEncrypt();
+
+	/**
+	 * Time of decrypting a message of a client
+	 * @return Latency
+	 */
+	Latency getDecrypt();
+
+	/**
+	 * Lines offered for compression to clients having asked for it
+	 * @return Lines
+	 */
+	long getZipLines();
+
+	/**
+	 * Lines sent compressed, the others were too short or got no smaller
+	 * @return Lines
+	 */
+	long getZipped();
+
+	/**
+	 * Bytes sent of the lines offered for compression per byte of them
+	 * @return Ratio, 1 for none saved
+	 */
+	double getZipRatio();
+
+	/**
+	 * Time of compressing a line
+	 * @return Latency
+	 */
+	Latency getDeflate();
+
+	/**
+	 * Time of decompressing a line of a client
+	 * @return Latency
+	 */
+	Latency getInflate();
+
+	/**
+	 * Traffic of every connected client, one line each
+	 * @return The lines
+	 */
+	String[] sessions();
+
+	/**
+	 * Forget all durations, e.g. before a load test
+	 */
+	void reset();
+}
@@ -0,0 +1,26 @@
+/**
+ * File			: OverflowPolicy.java
+ * Package		: securechat.server
+ * Classes		: OverflowPolicy
+ * Description	: What to do when a client's outbound queue is full
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+/**
+ * OverflowPolicy:
+ * Decides what happens to a message for a client which does not read fast
+ * enough and whose outbound queue is full.
+ * @author Mathias Knoll
+ */
+enum OverflowPolicy {
+
+	// Throw away the oldest queued message to make room
+	DROP_OLDEST,
+	// Disconnect the client
+	DISCONNECT,
+	// Let the sender wait for room up to a timeout, then disconnect
+	BLOCK
+}
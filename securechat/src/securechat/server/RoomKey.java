@@ -0,0 +1,167 @@
+/**
+ * File			: RoomKey.java
+ * Package		: securechat.server
+ * Classes		: RoomKey
+ * Description	: Key shared by the members of a room, rotated on join and leave
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import securechat.tools.SessionCipher;
+
+/**
+ * RoomKey:
+ * With session keys only, a broadcast is encrypted once per verified
+ * recipient. Members of the room instead share one room key, so a
+ * broadcast is encrypted once no matter how many members get it. The key is
+ * wrapped by each member's public key just like the session key, and a new
+ * key (a new epoch) is handed out whenever a member joins or leaves, so no
+ * one reads messages sent before joining or after leaving.
+ * Every room (see Rooms) has a key of its own. Epochs are numbered across
+ * all rooms, so a client moving to another room never mistakes the key of
+ * one room for that of the other.
+ * Only the server encrypts by the room key, members keep sending by their
+ * session key, so GCM nonces (direction and counter) never collide.
+ * A sealed message is laid out as
+ *   4 bytes  epoch (big endian)
+ *   n bytes  message of SessionCipher (gcm)
+ * @author Mathias Knoll
+ */
+class RoomKey {
+
+	/**
+	 * Epoch:
+	 * A room key and the members it has been handed out to
+	 */
+	static class Epoch {
+		// Number of the epoch
+		final int iNumber;
+		// Cipher contexts of the room key
+		final SessionCipher cipher;
+		// Members knowing the key
+		final Set<ClientThread> setMembers;
+
+		Epoch(int iNumber, SessionCipher cipher, Set<ClientThread> setMembers) {
+			this.iNumber = iNumber;
+			this.cipher = cipher;
+			this.setMembers = setMembers;
+		}
+	}
+
+	// Members of the room
+	private Set<ClientThread> setMembers =
+		ConcurrentHashMap.<ClientThread>newKeySet();
+	// Current epoch, null as long as the room is empty
+	private volatile Epoch epochCurrent = null;
+	// Number of the last epoch of all rooms
+	private static AtomicInteger iEpochs = new AtomicInteger(0);
+
+	/**
+	 * Add a verified member and hand out a new key
+	 * @param clientthread The member
+	 */
+	void join(ClientThread clientthread){
+		if (this.setMembers.add(clientthread)){
+			this.rotate();
+		}
+	}
+
+	/**
+	 * Remove a member and hand out a new key to the others
+	 * @param clientthread The member
+	 */
+	void leave(ClientThread clientthread){
+		if (this.setMembers.remove(clientthread)){
+			this.rotate();
+		}
+	}
+
+	/**
+	 * Create a new key and queue it to all members before any message
+	 * encrypted by it
+	 */
+	private synchronized void rotate(){
+		if (this.setMembers.isEmpty()){
+			this.epochCurrent = null;
+			return;
+		}
+		try {
+			KeyGenerator generatorKeys = KeyGenerator.getInstance("AES");
+			generatorKeys.init(128);
+			SecretKey keyRoom = generatorKeys.generateKey();
+			int iNumber = RoomKey.iEpochs.incrementAndGet();
+
+			Set<ClientThread> setKnowing = new HashSet<ClientThread>();
+			for (ClientThread clientthread : this.setMembers){
+				if (clientthread.sendRoomKey(iNumber, keyRoom)){
+					setKnowing.add(clientthread);
+				}
+			}
+			this.epochCurrent = new Epoch(
+				iNumber,
+				new SessionCipher(keyRoom, SessionCipher.GCM, true),
+				setKnowing);
+		} catch (GeneralSecurityException e) {
+			System.out.println("Error: Creating room key!");
+			System.out.println(e.getMessage());
+			this.epochCurrent = null;
+		}
+	}
+
+	/**
+	 * Current epoch
+	 * @return The epoch or null if there are no members
+	 */
+	Epoch getEpoch(){
+		return this.epochCurrent;
+	}
+
+	/**
+	 * Encrypt a line once for all members of an epoch. The caller holds the
+	 * epoch until the message is queued to all of them, members refuse
+	 * messages out of the order of their counters.
+	 * @param epoch The epoch
+	 * @param arbLine The line
+	 * @return The sealed message
+	 * @throws GeneralSecurityException
+	 */
+	static byte[] seal(Epoch epoch, byte[] arbLine)
+			throws GeneralSecurityException {
+		ByteBuffer bufferOut = ByteBuffer.allocate(
+			4 + epoch.cipher.getEncryptedSize(arbLine.length));
+		bufferOut.putInt(epoch.iNumber);
+		epoch.cipher.encrypt(ByteBuffer.wrap(arbLine), bufferOut);
+		return bufferOut.array();
+	}
+
+	/**
+	 * Test only, never called by the server: make an epoch current without
+	 * handing out its key, to members known to have it. For the broadcast
+	 * benchmark, which would otherwise rotate the key once per member
+	 * joining.
+	 * @param epoch The epoch or null for none
+	 */
+	void setEpochForTest(Epoch epoch){
+		this.epochCurrent = epoch;
+	}
+
+	/**
+	 * Number of members
+	 * @return Members
+	 */
+	int size(){
+		return this.setMembers.size();
+	}
+}
@@ -0,0 +1,172 @@
+/**
+ * File			: Rooms.java
+ * Package		: securechat.server
+ * Classes		: Rooms, Rooms.Room
+ * Description	: Named rooms, the clients in them and their room keys
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Rooms:
+ * Every named client is in exactly one room, the lobby until it joins
+ * another one, and what it says goes to the members of its room only, so
+ * a line costs as much as the room is big, not as the server is.
+ * A room exists as long as it has members or history; creating it on the
+ * first join and dropping it is done atomically per room, without a lock
+ * over all rooms. Members may be iterated while others join or leave.
+ * Every room has a room key of its own (see RoomKey), handed out to those
+ * of its members which are verified and asked for it. A room outlasts its
+ * last member as long as its history (see History) keeps lines, so members
+ * dropping out together find them when they come back; rooms without
+ * members are swept once their history has expired.
+ * @author Mathias Knoll
+ */
+class Rooms {
+
+	// Room every client is in unless it joined another one
+	static final String LOBBY = "lobby";
+	// Longest name of a room
+	static final int MAX_NAME = 32;
+
+	/**
+	 * Room:
+	 * A room, its members, its key and the last lines said in it
+	 */
+	static class Room {
+		// Name of the room
+		final String sName;
+		// Members of the room
+		final Set<ClientThread> setMembers = 
+			ConcurrentHashMap.<ClientThread>newKeySet();
+		// Key of the members getting lines encrypted once for all
+		final RoomKey roomKey = new RoomKey();
+		// Last lines said in the room
+		final History history = 
+			new History(Server.HISTORY_SIZE, Server.HISTORY_AGE * 1000);
+
+		Room(String sName) {
+			this.sName = sName;
+		}
+	}
+
+	// Rooms having members or history, by name
+	private ConcurrentHashMap<String, Room> mapRooms =
+		new ConcurrentHashMap<String, Room>();
+
+	/**
+	 * Check the name of a room
+	 * @param sName The name
+	 * @return True if it may be joined
+	 */
+	static boolean isValid(String sName){
+		if (sName.length() == 0 || sName.length() > Rooms.MAX_NAME)
+			return false;
+		for (int i = 0; i < sName.length(); i++){
+			if (Character.isWhitespace(sName.charAt(i)) ||
+					Character.isISOControl(sName.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Add a member to a room, creating the room if needed
+	 * @param sName Name of the room
+	 * @param clientthread The member
+	 * @return The room
+	 */
+	Room join(String sName, final ClientThread clientthread){
+		return this.mapRooms.compute(sName, new BiFunction<String, Room, Room>() {
+			public Room apply(String sKey, Room room) {
+				if (room == null)
+					room = new Room(sKey);
+				room.setMembers.add(clientthread);
+				return room;
+			}
+		});
+	}
+
+	/**
+	 * Remove a member from its room, dropping the room if it gets empty and
+	 * has no history
+	 * @param room The room
+	 * @param clientthread The member
+	 */
+	void leave(Room room, final ClientThread clientthread){
+		this.mapRooms.computeIfPresent(room.sName, new BiFunction<String, Room, Room>() {
+			public Room apply(String sKey, Room roomNow) {
+				roomNow.setMembers.remove(clientthread);
+				// Kept while its history lasts, members coming back after a
+				// while find what was said
+				if (!roomNow.setMembers.isEmpty() || !roomNow.history.isEmpty())
+					return roomNow;
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Drop the rooms without members whose history has expired
+	 */
+	void sweep(){
+		for (String sName : this.mapRooms.keySet()){
+			this.mapRooms.computeIfPresent(sName, new BiFunction<String, Room, Room>() {
+				public Room apply(String sKey, Room roomNow) {
+					if (!roomNow.setMembers.isEmpty() || !roomNow.history.isEmpty())
+						return roomNow;
+					return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Sweep the rooms every so often, on a thread of its own
+	 * @param lInterval Time between sweeps (ms)
+	 */
+	void watch(final long lInterval){
+		Thread threadSweep = new Thread("Rooms") {
+			public void run() {
+				while (true){
+					try {
+						Thread.sleep(lInterval);
+					} catch (InterruptedException e) {
+						return;
+					}
+					Rooms.this.sweep();
+				}
+			}
+		};
+		threadSweep.setDaemon(true);
+		threadSweep.start();
+	}
+
+	/**
+	 * Rooms and their number of members, for humans
+	 * @return One line per room
+	 */
+	List<String> list(){
+		List<String> listLines = new ArrayList<String>();
+		for (Room room : this.mapRooms.values()){
+			listLines.add(room.sName + ": " + room.setMembers.size() + " members");
+		}
+		return listLines;
+	}
+
+	/**
+	 * Number of rooms
+	 * @return Rooms
+	 */
+	int size(){
+		return this.mapRooms.size();
+	}
+}
@@ -15,9 +15,10 @@ package securechat.server;
 // Imports
 import java.io.*;
 import java.net.*;
-import java.security.NoSuchAlgorithmException;
-
-import javax.crypto.KeyGenerator;
+import java.security.GeneralSecurityException;
+import javax.management.JMException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Server:
@@ -28,14 +29,81 @@ import javax.crypto.KeyGenerator;
 public class Server {
 
 	static int PORT = 8888;
+	// Maximum number of messages queued for a client
+	static int QUEUE_SIZE = Integer.getInteger("securechat.queue.size", 1024);
+	// What to do if a client's queue is full
+	static OverflowPolicy QUEUE_POLICY = OverflowPolicy.valueOf(
+		System.getProperty("securechat.queue.policy", "DROP_OLDEST"));
+	// How long a sender waits with policy BLOCK (ms)
+	static long QUEUE_TIMEOUT = Long.getLong("securechat.queue.timeout", 1000);
+	// Maximum number of clients, 0 for no limit
+	static int MAX_CLIENTS = Integer.getInteger("securechat.maxClients", 0);
+	// Number of key pairs generated ahead of time and threads generating them
+	static int KEYS_POOL = Integer.getInteger("securechat.keys.pool", 32);
+	static int KEYS_THREADS = Integer.getInteger("securechat.keys.threads", 1);
+	// Flag if all clients share one server identity key pair
+	static boolean KEYS_SHARED = 
+		Boolean.parseBoolean(System.getProperty("securechat.keys.shared", "false"));
+	// Flag if clients asking for it get the room key
+	static boolean ROOM = 
+		Boolean.parseBoolean(System.getProperty("securechat.room", "true"));
+	// Flag if clients asking for it get lines compressed (see Compression)
+	static boolean ZIP = 
+		Boolean.parseBoolean(System.getProperty("securechat.zip", "true"));
+	// Number of sessions kept for resumption (0 for no tickets) and how
+	// long a ticket lives (s)
+	static int TICKETS = Integer.getInteger("securechat.tickets", 1024);
+	static long TICKETS_TTL = Long.getLong("securechat.tickets.ttl", 600);
+	// Number of workers doing handshakes and of handshakes waiting for them
+	static int CRYPTO_THREADS = Integer.getInteger(
+		"securechat.crypto.threads", Runtime.getRuntime().availableProcessors());
+	static int CRYPTO_QUEUE = Integer.getInteger("securechat.crypto.queue", 256);
+	// Password making a client admin by "/admin", empty for none (clients
+	// connecting from the loopback address are admins anyway)
+	static String ADMIN = System.getProperty("securechat.admin", "");
+	// Lines kept per room, how long (s) and how many a joining client gets
+	static int HISTORY_SIZE = Integer.getInteger("securechat.history.size", 100);
+	static long HISTORY_AGE = Long.getLong("securechat.history.age", 3600);
+	static int HISTORY_REPLAY = Integer.getInteger("securechat.history.replay", 10);
+	// Bytes a client's writer gathers before writing them out at most, and
+	// how long (us) it lingers for more lines before flushing, 0 for not
+	static int FLUSH_SIZE = Integer.getInteger("securechat.flush.size", 8192);
+	static long FLUSH_DELAY = Long.getLong("securechat.flush.delay", 0);
+	// Write lag (ms) and bytes waiting for a client at which the server
+	// warns, sheds notices and evicts the client, 0 for none
+	static long SLOW_WARN = Long.getLong("securechat.slow.warn", 2000);
+	static long SLOW_SHED = Long.getLong("securechat.slow.shed", 5000);
+	static long SLOW_EVICT = Long.getLong("securechat.slow.evict", 15000);
+	static long SLOW_WARN_BYTES = Long.getLong("securechat.slow.warn.bytes", 0);
+	static long SLOW_SHED_BYTES = Long.getLong("securechat.slow.shed.bytes", 0);
+	static long SLOW_EVICT_BYTES = Long.getLong("securechat.slow.evict.bytes", 16 * 1024 * 1024);
 	
 	// Socket for clients
 	static Socket socketClient = null;
 	// Socket for server
 	static ServerSocket socketServer = null;
-	// This chat server can accept up to 10 clients' connections
-	static ClientThread clientthreadPool[] = new ClientThread[10];
+	// Sessions of all connected clients
+	static SessionRegistry<ClientThread> registrySessions = 
+		new SessionRegistry<ClientThread>(Server.MAX_CLIENTS);
+	// Executor running the client threads
+	static ExecutorService executorClients = null;
+	// Rooms, their members and room keys
+	static Rooms rooms = new Rooms();
+	// Key material generated ahead of time
+	static KeyPool keyPool = null;
+	// Sessions to be resumed by tickets
+	static SessionCache sessionCache = 
+		new SessionCache(Server.TICKETS, Server.TICKETS_TTL * 1000);
+	// Workers doing handshakes
+	static CryptoPool cryptoPool = 
+		new CryptoPool(Server.CRYPTO_THREADS, Server.CRYPTO_QUEUE);
+	// Traffic and durations of all sessions
+	static Metrics metrics = new Metrics(Server.registrySessions);
 
+	/**
+	 * Runs server
+	 * @param args [port] [mode], where mode is "thread" (default) or "virtual"
+	 */
 	public static void main(String args[]) {
 		// Numbers of Threads
 		int iThreadNumber = 0;
@@ -44,10 +112,38 @@ public class Server {
 		int iPort = Server.PORT;
 		
 		// Given port
-		if(args.length == 1){
+		if(args.length >= 1){
 			iPort = Integer.parseInt(args[0]);
 		}
 		
+		// Platform or virtual threads for the clients
+		Server.executorClients = 
+			Server.createExecutor(args.length >= 2 ? args[1] : "thread");
+		
+		// Keys are generated in the background, not while accepting
+		try {
+			Server.keyPool = new KeyPool(
+				Server.KEYS_POOL, Server.KEYS_THREADS, Server.KEYS_SHARED);
+		} catch (GeneralSecurityException e) {
+			System.out.println("Error: Creating key pool");
+			System.out.println(e);
+			System.exit(1);
+		}
+		
+		// Metrics for jconsole and the like, the chat runs without them
+		try {
+			Server.metrics.register("securechat:type=Metrics");
+		} catch (JMException e) {
+			System.out.println("Error: Registering metrics");
+			System.out.println(e);
+		}
+		
+		// Clients lagging behind are evicted even without traffic
+		SlowConsumers.watch(Server.registrySessions);
+		
+		// Rooms left empty go once their history has expired
+		Server.rooms.watch(Math.max(1, Math.min(60, Server.HISTORY_AGE)) * 1000);
+		
 		// Try to open a server socket on port port_number (default 8888)
 		// Note: Ports less than 1023 can only be defined by privileged users 
 		try {
@@ -74,11 +170,12 @@ public class Server {
 					new ClientThread(
 						"Client-" + iThreadNumber,
 						Server.socketClient, 
-						Server.clientthreadPool);
+						Server.registrySessions);
 				if(Server.add2Pool(clientthreadTmp)){
-					clientthreadTmp.start();
+					Server.executorClients.execute(clientthreadTmp);
 				}else{
 					System.out.println("No slots free for new client!");
+					Server.socketClient.close();
 				}
 				
 				System.out.println(
@@ -96,33 +193,45 @@ public class Server {
 	}
 	
 	/**
-	 *  Add client thread to thread pool
-	 * @param clientthreadNew The new thread of a client
-	 * @return True if a slot was free, otherwise false
+	 * Create the executor running the client threads
+	 * @param sMode "virtual" for a virtual thread per client, otherwise a
+	 * platform thread per client
+	 * @return The executor
 	 */
-	public static synchronized boolean add2Pool(ClientThread clientthreadNew){
-		boolean bInPool = false;
-		for(int i=0; i<Server.clientthreadPool.length;i++){
-			if(Server.clientthreadPool[i]==null){
-				Server.clientthreadPool[i] = clientthreadNew;
-				bInPool = true;
-				break;
+	static ExecutorService createExecutor(String sMode){
+		if(sMode.equals("virtual")){
+			// Looked up reflectively to still run on JDKs without them
+			try {
+				ExecutorService executor = (ExecutorService) 
+					Executors.class
+						.getMethod("newVirtualThreadPerTaskExecutor")
+						.invoke(null);
+				System.out.println("Serving clients by virtual threads.");
+				return executor;
+			} catch (Exception e) {
+				System.out.println(
+					"Error: Virtual threads not available, " +
+					"using platform threads!");
 			}
 		}
-		return bInPool;
+		return Executors.newCachedThreadPool();
 	}
 	
 	/**
-	 * Get number of active client threads in pool
-	 * @return Number of threads in pool
+	 *  Add client thread to the registry
+	 * @param clientthreadNew The new thread of a client
+	 * @return True if the client limit was not reached, otherwise false
+	 */
+	public static boolean add2Pool(ClientThread clientthreadNew){
+		return Server.registrySessions.add(clientthreadNew);
+	}
+	
+	/**
+	 * Get number of connected clients
+	 * @return Number of sessions in registry
 	 */
 	public static int getActiveClients(){
-		int iCount = 0;
-		for(int i=0; i < Server.clientthreadPool.length; i++){
-			if(Server.clientthreadPool[i] != null)
-				iCount++;
-		}
-		return iCount;
+		return Server.registrySessions.size();
 	}
 }
 
@@ -0,0 +1,194 @@
+/**
+ * File			: SessionCache.java
+ * Package		: securechat.server
+ * Classes		: SessionCache
+ * Description	: Session keys kept for clients resuming by a ticket
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+
+import securechat.tools.Codec;
+import securechat.tools.Frame;
+
+/**
+ * SessionCache:
+ * After a verified handshake the client gets a ticket, a random number
+ * standing for its session key. A client coming back with the ticket resumes
+ * its session without any public key operation. Tickets are good for one
+ * resumption only (each one hands out a new ticket), live for a limited
+ * time and the cache holds a limited number of them: all live equally long,
+ * so the oldest (least recently issued) ticket is the first to expire and
+ * the first to be evicted once the cache is full.
+ * @author Mathias Knoll
+ */
+class SessionCache {
+
+	/**
+	 * Session:
+	 * What a ticket stands for
+	 */
+	static class Session {
+		// Session key
+		final SecretKey keySession;
+		// Client's public key which has been verified
+		final PublicKey keyPublicClient;
+		// When the ticket expires (ms)
+		final long lExpires;
+
+		Session(SecretKey keySession, PublicKey keyPublicClient, long lExpires) {
+			this.keySession = keySession;
+			this.keyPublicClient = keyPublicClient;
+			this.lExpires = lExpires;
+		}
+	}
+
+	// Sessions by ticket (hex), oldest first
+	private LinkedHashMap<String, Session> mapSessions =
+		new LinkedHashMap<String, Session>();
+	// Maximum number of sessions kept, 0 for no tickets at all
+	private int iCapacity = 0;
+	// How long a ticket lives (ms)
+	private long lTimeToLive = 0;
+	// Source of tickets
+	private SecureRandom random = new SecureRandom();
+	// Number of full and of resumed handshakes
+	private AtomicLong lFull = new AtomicLong(0);
+	private AtomicLong lResumed = new AtomicLong(0);
+	// Number of tickets refused and of sessions evicted to make room
+	private AtomicLong lRefused = new AtomicLong(0);
+	private AtomicLong lEvicted = new AtomicLong(0);
+
+	/**
+	 * Constructor of class SessionCache
+	 * @param iCapacity Maximum number of sessions kept
+	 * @param lTimeToLive How long a ticket lives (ms)
+	 */
+	SessionCache(int iCapacity, long lTimeToLive) {
+		this.iCapacity = Math.max(0, iCapacity);
+		this.lTimeToLive = lTimeToLive;
+	}
+
+	/**
+	 * Keep a session and hand out a ticket for it
+	 * @param keySession Session key
+	 * @param keyPublicClient Client's verified public key
+	 * @return The ticket or null if tickets are turned off
+	 */
+	byte[] issue(SecretKey keySession, PublicKey keyPublicClient){
+		if (this.iCapacity == 0){
+			return null;
+		}
+		byte arbTicket[] = new byte[Frame.TICKET_SIZE];
+		this.random.nextBytes(arbTicket);
+		long lNow = System.currentTimeMillis();
+		synchronized (this.mapSessions){
+			this.expire(lNow);
+			if (this.mapSessions.size() >= this.iCapacity){
+				Iterator<String> iterator = this.mapSessions.keySet().iterator();
+				iterator.next();
+				iterator.remove();
+				this.lEvicted.incrementAndGet();
+			}
+			this.mapSessions.put(
+				Codec.toHex(arbTicket),
+				new Session(keySession, keyPublicClient, lNow + this.lTimeToLive));
+		}
+		return arbTicket;
+	}
+
+	/**
+	 * Take the session of a ticket, the ticket is used up
+	 * @param arbTicket The ticket
+	 * @return The session or null if the ticket is unknown or expired
+	 */
+	Session take(byte[] arbTicket){
+		Session session;
+		synchronized (this.mapSessions){
+			session = this.mapSessions.remove(Codec.toHex(arbTicket));
+		}
+		if (session == null || session.lExpires < System.currentTimeMillis()){
+			this.lRefused.incrementAndGet();
+			return null;
+		}
+		return session;
+	}
+
+	/**
+	 * Drop expired sessions, which are the oldest ones
+	 * @param lNow Current time (ms)
+	 */
+	private void expire(long lNow){
+		Iterator<Map.Entry<String, Session>> iterator =
+			this.mapSessions.entrySet().iterator();
+		while (iterator.hasNext() && iterator.next().getValue().lExpires < lNow){
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Count a full handshake
+	 */
+	void countFull(){
+		this.lFull.incrementAndGet();
+	}
+
+	/**
+	 * Count a resumed handshake
+	 */
+	void countResumed(){
+		this.lResumed.incrementAndGet();
+	}
+
+	/**
+	 * Number of sessions kept
+	 * @return Sessions
+	 */
+	int size(){
+		synchronized (this.mapSessions){
+			return this.mapSessions.size();
+		}
+	}
+
+	/**
+	 * Number of full handshakes
+	 * @return Full handshakes
+	 */
+	long getFull(){
+		return this.lFull.get();
+	}
+
+	/**
+	 * Number of resumed handshakes
+	 * @return Resumed handshakes
+	 */
+	long getResumed(){
+		return this.lResumed.get();
+	}
+
+	/**
+	 * Number of tickets refused (unknown, used or expired)
+	 * @return Refused tickets
+	 */
+	long getRefused(){
+		return this.lRefused.get();
+	}
+
+	/**
+	 * Number of sessions evicted before they expired
+	 * @return Evicted sessions
+	 */
+	long getEvicted(){
+		return this.lEvicted.get();
+	}
+}
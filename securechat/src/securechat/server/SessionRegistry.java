@@ -0,0 +1,93 @@
+/**
+ * File			: SessionRegistry.java
+ * Package		: securechat.server
+ * Classes		: SessionRegistry
+ * Description	: Concurrent registry of all connected clients' sessions
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SessionRegistry:
+ * Replaces the fixed array of client threads. Adding and removing a session
+ * costs O(1) without a global lock, the number of sessions is kept in an
+ * atomic counter and iterating never fails while clients join or leave:
+ * every session present during the whole iteration is visited exactly once.
+ * @author Mathias Knoll
+ */
+class SessionRegistry<T> implements Iterable<T> {
+
+	// The sessions
+	private Set<T> setSessions = ConcurrentHashMap.newKeySet();
+	// Number of sessions
+	private AtomicInteger iCount = new AtomicInteger(0);
+	// Maximum number of sessions, 0 for no limit
+	private int iMaxSessions = 0;
+
+	/**
+	 * Constructor of class SessionRegistry
+	 * @param iMaxSessions Maximum number of sessions, 0 for no limit
+	 */
+	public SessionRegistry(int iMaxSessions) {
+		this.iMaxSessions = iMaxSessions;
+	}
+
+	/**
+	 * Add a session
+	 * @param session The new session
+	 * @return True if the session was added, false if there was no room or
+	 * it was registered already
+	 */
+	public boolean add(T session){
+		// Reserve a slot first, so the limit holds under concurrent adds
+		int iCurrent;
+		do {
+			iCurrent = this.iCount.get();
+			if (this.iMaxSessions > 0 && iCurrent >= this.iMaxSessions){
+				return false;
+			}
+		} while (!this.iCount.compareAndSet(iCurrent, iCurrent + 1));
+
+		if (!this.setSessions.add(session)){
+			// Registered already, the slot is not needed
+			this.iCount.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Remove a session
+	 * @param session The session leaving
+	 * @return True if the session was registered
+	 */
+	public boolean remove(T session){
+		if (this.setSessions.remove(session)){
+			this.iCount.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Get number of sessions
+	 * @return Number of sessions
+	 */
+	public int size(){
+		return this.iCount.get();
+	}
+
+	/**
+	 * Iterate the sessions (weakly consistent, never throws)
+	 */
+	public Iterator<T> iterator(){
+		return this.setSessions.iterator();
+	}
+}
@@ -0,0 +1,332 @@
+/**
+ * File			: SharedBuffer.java
+ * Package		: securechat.server
+ * Classes		: SharedBuffer
+ * Description	: Encoded message shared by all of its recipients
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.security.GeneralSecurityException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import securechat.tools.Frame;
+import securechat.tools.SessionCipher;
+
+/**
+ * SharedBuffer:
+ * A line encoded once into a pooled buffer. Every recipient holds a
+ * reference and writes the very same bytes through a view of its own; when
+ * the last recipient releases its reference the buffer goes back into the
+ * pool. A broadcast therefore costs one encoding and no copy of the line no
+ * matter how many clients receive it. Buffers are direct for channels (nio
+ * mode) and on the heap for socket streams, which write a heap array as it is.
+ * A line is laid out as frame header, text and line end, so clients using
+ * lines and clients using binary frames share the same bytes as well:
+ *   | header | text | line end |
+ *   |<-- frame --->|
+ *            |<-- line ------->|
+ * @author Mathias Knoll
+ */
+class SharedBuffer {
+
+	// Charset used on the wire, the same as PrintStream and Reader use
+	static final Charset CHARSET = Charset.defaultCharset();
+	// Line separator, the same as PrintStream.println() uses
+	static final String LINE_END = System.lineSeparator();
+	// Flag if buffers are allocated directly (set once at startup)
+	static boolean DIRECT = false;
+
+	// Smallest and largest pooled buffer (bytes, powers of two)
+	private static final int POOL_MIN_SHIFT = 6;
+	private static final int POOL_MAX_SHIFT = 16;
+	// Free buffers kept per size
+	static int POOL_LIMIT = 1024;
+
+	// Free buffers by size, index 0 holding the smallest
+	private static final Queue<ByteBuffer> POOL[] = SharedBuffer.createPool();
+	// Number of free buffers by size
+	private static final AtomicInteger POOL_COUNT[] =
+		new AtomicInteger[POOL_MAX_SHIFT - POOL_MIN_SHIFT + 1];
+	static {
+		for (int i = 0; i < SharedBuffer.POOL_COUNT.length; i++){
+			SharedBuffer.POOL_COUNT[i] = new AtomicInteger(0);
+		}
+	}
+	// One encoder per thread, encoders are not thread safe
+	private static final ThreadLocal<CharsetEncoder> ENCODER =
+		new ThreadLocal<CharsetEncoder>() {
+			protected CharsetEncoder initialValue() {
+				return SharedBuffer.CHARSET.newEncoder();
+			}
+		};
+
+	// The encoded bytes from 0 to limit
+	private ByteBuffer buffer = null;
+	// End of the frame within the buffer
+	private int iFrameEnd = 0;
+	// Flag if there is a line representation (header, payload, line end)
+	private boolean bLine = false;
+	// Flag if the client switches to binary frames after this line
+	private boolean bSwitchToBinary = false;
+	// Flag if clients lagging behind may do without this line
+	private boolean bSheddable = false;
+	// Bytes of the line as a whole, kept beyond the last release
+	private int iSize = 0;
+	// Number of references
+	private AtomicInteger iRefs = new AtomicInteger(1);
+
+	/**
+	 * Constructor of class SharedBuffer
+	 * @param buffer The encoded bytes, flipped
+	 * @param iFrameEnd End of the frame within the buffer
+	 * @param bLine Flag if the buffer holds a line end after the frame
+	 */
+	private SharedBuffer(ByteBuffer buffer, int iFrameEnd, boolean bLine) {
+		this.buffer = buffer;
+		this.iFrameEnd = iFrameEnd;
+		this.bLine = bLine;
+		this.iSize = buffer.limit();
+	}
+
+	/**
+	 * Encode a line into a pooled buffer, ready to be sent as a line as well
+	 * as a frame
+	 * @param sLine The line
+	 * @return The buffer holding one reference for the caller
+	 */
+	static SharedBuffer encode(String sLine){
+		CharsetEncoder encoder = SharedBuffer.ENCODER.get();
+		int iMax = Frame.HEADER + (int) Math.ceil(
+			(sLine.length() + SharedBuffer.LINE_END.length()) *
+			(double) encoder.maxBytesPerChar());
+		ByteBuffer buffer = SharedBuffer.acquire(iMax);
+
+		buffer.position(Frame.HEADER);
+		encoder.reset();
+		encoder.encode(CharBuffer.wrap(sLine), buffer, true);
+		encoder.flush(buffer);
+		int iFrameEnd = buffer.position();
+		encoder.reset();
+		encoder.encode(CharBuffer.wrap(SharedBuffer.LINE_END), buffer, true);
+		encoder.flush(buffer);
+		buffer.flip();
+
+		SharedBuffer.putHeader(buffer, Frame.TEXT, iFrameEnd - Frame.HEADER);
+		return new SharedBuffer(buffer, iFrameEnd, true);
+	}
+
+	/**
+	 * Put a frame, which has no line representation, into a pooled buffer
+	 * @param bType Type of frame
+	 * @param arbPayload Payload
+	 * @return The buffer holding one reference for the caller
+	 */
+	static SharedBuffer frame(byte bType, byte[] arbPayload){
+		ByteBuffer buffer = SharedBuffer.acquire(Frame.HEADER + arbPayload.length);
+		buffer.position(Frame.HEADER);
+		buffer.put(arbPayload);
+		buffer.flip();
+
+		SharedBuffer.putHeader(buffer, bType, arbPayload.length);
+		return new SharedBuffer(buffer, buffer.limit(), false);
+	}
+
+	/**
+	 * Encrypt a line straight into the payload of a pooled frame
+	 * @param cipher The recipient's session cipher
+	 * @param bType Type of frame, CIPHER or CIPHER_ZIP
+	 * @param arbLine The line
+	 * @return The buffer holding one reference for the caller
+	 * @throws GeneralSecurityException
+	 */
+	static SharedBuffer encrypt(SessionCipher cipher, byte bType, byte[] arbLine)
+			throws GeneralSecurityException {
+		ByteBuffer buffer = SharedBuffer.acquire(
+			Frame.HEADER + cipher.getEncryptedSize(arbLine.length));
+		buffer.position(Frame.HEADER);
+		int iLength;
+		try {
+			iLength = cipher.encrypt(ByteBuffer.wrap(arbLine), buffer);
+		} catch (GeneralSecurityException e) {
+			SharedBuffer.recycle(buffer);
+			throw e;
+		}
+		buffer.flip();
+
+		SharedBuffer.putHeader(buffer, bType, iLength);
+		return new SharedBuffer(buffer, buffer.limit(), false);
+	}
+
+	/**
+	 * The line accepting binary frames, the client's last line as text
+	 * @return The buffer holding one reference for the caller
+	 */
+	static SharedBuffer acceptBinary(){
+		SharedBuffer sbAccept = SharedBuffer.encode(Frame.ACCEPT);
+		sbAccept.bSwitchToBinary = true;
+		return sbAccept;
+	}
+
+	/**
+	 * Write a frame header at the start of a buffer
+	 * @param buffer The buffer
+	 * @param bType Type of frame
+	 * @param iLength Length of payload
+	 */
+	private static void putHeader(ByteBuffer buffer, byte bType, int iLength){
+		buffer.putInt(0, iLength);
+		buffer.put(4, bType);
+	}
+
+	/**
+	 * Add a reference, one for each recipient
+	 * @return This buffer
+	 */
+	SharedBuffer retain(){
+		this.iRefs.incrementAndGet();
+		return this;
+	}
+
+	/**
+	 * Drop a reference, the last one gives the buffer back to the pool
+	 */
+	void release(){
+		if (this.iRefs.decrementAndGet() == 0){
+			SharedBuffer.recycle(this.buffer);
+			this.buffer = null;
+		}
+	}
+
+	/**
+	 * A view of the bytes with a position of its own (no copy)
+	 * @param bBinary True for the frame, false for the line
+	 * @return The view, or null if there is no such representation
+	 */
+	ByteBuffer view(boolean bBinary){
+		ByteBuffer bufferView = this.buffer.duplicate();
+		if (bBinary){
+			bufferView.limit(this.iFrameEnd);
+		}else if (this.bLine){
+			bufferView.position(Frame.HEADER);
+		}else{
+			return null;
+		}
+		return bufferView;
+	}
+
+	/**
+	 * Mark the line as one clients lagging behind may do without, e.g. a
+	 * notice (see SlowConsumers)
+	 * @return This buffer
+	 */
+	SharedBuffer sheddable(){
+		this.bSheddable = true;
+		return this;
+	}
+
+	/**
+	 * Tell if clients lagging behind may do without this line
+	 * @return True if it may be shed
+	 */
+	boolean isSheddable(){
+		return this.bSheddable;
+	}
+
+	/**
+	 * Bytes of the line, header, text and line end
+	 * @return Bytes
+	 */
+	int size(){
+		return this.iSize;
+	}
+
+	/**
+	 * Tell if the client reads binary frames after this line
+	 * @return True if this line accepts binary framing
+	 */
+	boolean isSwitchToBinary(){
+		return this.bSwitchToBinary;
+	}
+
+	/**
+	 * Create the pool's queues
+	 * @return The queues by size
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static Queue<ByteBuffer>[] createPool(){
+		Queue<ByteBuffer> arPool[] =
+			new Queue[POOL_MAX_SHIFT - POOL_MIN_SHIFT + 1];
+		for (int i = 0; i < arPool.length; i++){
+			arPool[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+		}
+		return arPool;
+	}
+
+	/**
+	 * Index in the pool for a size
+	 * @param iSize Bytes needed
+	 * @return Index, or -1 if too large to be pooled
+	 */
+	private static int poolIndex(int iSize){
+		int iShift = Math.max(
+			SharedBuffer.POOL_MIN_SHIFT,
+			32 - Integer.numberOfLeadingZeros(Math.max(1, iSize) - 1));
+		return iShift > SharedBuffer.POOL_MAX_SHIFT ?
+			-1 : iShift - SharedBuffer.POOL_MIN_SHIFT;
+	}
+
+	/**
+	 * Get a cleared buffer of at least the given size
+	 * @param iSize Bytes needed
+	 * @return The buffer
+	 */
+	private static ByteBuffer acquire(int iSize){
+		int iIndex = SharedBuffer.poolIndex(iSize);
+		if (iIndex < 0){
+			return SharedBuffer.allocate(iSize);
+		}
+		ByteBuffer buffer = SharedBuffer.POOL[iIndex].poll();
+		if (buffer != null){
+			SharedBuffer.POOL_COUNT[iIndex].decrementAndGet();
+			buffer.clear();
+			return buffer;
+		}
+		return SharedBuffer.allocate(1 << (iIndex + SharedBuffer.POOL_MIN_SHIFT));
+	}
+
+	/**
+	 * Allocate a new buffer, direct or on the heap
+	 * @param iSize Bytes
+	 * @return The buffer
+	 */
+	private static ByteBuffer allocate(int iSize){
+		return SharedBuffer.DIRECT ?
+			ByteBuffer.allocateDirect(iSize) : ByteBuffer.allocate(iSize);
+	}
+
+	/**
+	 * Give a buffer back to the pool
+	 * @param buffer The buffer
+	 */
+	private static void recycle(ByteBuffer buffer){
+		int iIndex = SharedBuffer.poolIndex(buffer.capacity());
+		if (iIndex < 0 ||
+			buffer.capacity() != 1 << (iIndex + SharedBuffer.POOL_MIN_SHIFT)){
+			return;
+		}
+		if (SharedBuffer.POOL_COUNT[iIndex].incrementAndGet() <= SharedBuffer.POOL_LIMIT){
+			SharedBuffer.POOL[iIndex].add(buffer);
+		}else{
+			SharedBuffer.POOL_COUNT[iIndex].decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,327 @@
+/**
+ * File			: Codec.java
+ * Package		: securechat.tools
+ * Classes		: Codec
+ * Description	: Hex and Base64 encoding driven by lookup tables
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.tools;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Codec:
+ * Encodes bytes as hex (lower case, as the chat always sent it) or Base64
+ * (RFC 4648 with padding) and decodes them again. Every direction is a
+ * single pass over lookup tables, the output either goes into a buffer the
+ * caller supplies or into one array of the exact size. Decoding refuses
+ * anything which is not well formed by an IllegalArgumentException.
+ * @author Mathias Knoll
+ */
+public class Codec {
+
+	// Digits of hex and Base64
+	private static final byte HEX[] =
+		"0123456789abcdef".getBytes();
+	private static final byte BASE64[] =
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+	// Padding of Base64
+	private static final char PAD = '=';
+
+	// Value of each ASCII character, -1 if it is no digit
+	private static final byte HEX_VALUE[] = Codec.createValues(Codec.HEX, true);
+	private static final byte BASE64_VALUE[] = Codec.createValues(Codec.BASE64, false);
+
+	/**
+	 * Create a table of values of digits
+	 * @param arbDigits Digits in the order of their values
+	 * @param bIgnoreCase True if upper case letters count as well
+	 * @return Values by character
+	 */
+	private static byte[] createValues(byte[] arbDigits, boolean bIgnoreCase){
+		byte arbValues[] = new byte[128];
+		Arrays.fill(arbValues, (byte) -1);
+		for (int i = 0; i < arbDigits.length; i++){
+			arbValues[arbDigits[i]] = (byte) i;
+			if (bIgnoreCase)
+				arbValues[Character.toUpperCase(arbDigits[i])] = (byte) i;
+		}
+		return arbValues;
+	}
+
+	/**
+	 * Length of hex of some bytes
+	 * @param iLength Number of bytes
+	 * @return Number of characters
+	 */
+	public static int hexLength(int iLength){
+		return iLength * 2;
+	}
+
+	/**
+	 * Encode bytes as hex into a buffer (ASCII)
+	 * @param arbSource The bytes
+	 * @param iOffset First byte
+	 * @param iLength Number of bytes
+	 * @param arbTarget The buffer, room for hexLength(iLength) bytes
+	 * @param iTarget Where to write
+	 * @return Number of bytes written
+	 */
+	public static int encodeHex(
+			byte[] arbSource, int iOffset, int iLength,
+			byte[] arbTarget, int iTarget){
+		int iOut = iTarget;
+		for (int i = iOffset; i < iOffset + iLength; i++){
+			int iByte = arbSource[i] & 0xff;
+			arbTarget[iOut++] = Codec.HEX[iByte >>> 4];
+			arbTarget[iOut++] = Codec.HEX[iByte & 0x0f];
+		}
+		return iOut - iTarget;
+	}
+
+	/**
+	 * Encode bytes as hex
+	 * @param arbSource The bytes
+	 * @return The hex string
+	 */
+	public static String toHex(byte[] arbSource){
+		char arcHex[] = new char[Codec.hexLength(arbSource.length)];
+		int iOut = 0;
+		for (int i = 0; i < arbSource.length; i++){
+			int iByte = arbSource[i] & 0xff;
+			arcHex[iOut++] = (char) Codec.HEX[iByte >>> 4];
+			arcHex[iOut++] = (char) Codec.HEX[iByte & 0x0f];
+		}
+		return new String(arcHex);
+	}
+
+	/**
+	 * Decode hex into a buffer
+	 * @param sHex The hex characters
+	 * @param iStart First character
+	 * @param iEnd End of characters
+	 * @param arbTarget The buffer, room for (iEnd - iStart) / 2 bytes
+	 * @param iTarget Where to write
+	 * @return Number of bytes written
+	 * @throws IllegalArgumentException If the hex is malformed
+	 */
+	public static int decodeHex(
+			String sHex, int iStart, int iEnd,
+			byte[] arbTarget, int iTarget){
+		if (((iEnd - iStart) & 1) != 0){
+			throw new IllegalArgumentException("Odd number of hex digits");
+		}
+		int iOut = iTarget;
+		for (int i = iStart; i < iEnd; i += 2){
+			char cHigh = sHex.charAt(i);
+			char cLow = sHex.charAt(i + 1);
+			if (((cHigh | cLow) & 0xff80) != 0){
+				throw Codec.illegal(i);
+			}
+			// A digit of -1 turns the whole value negative
+			int iValue = Codec.HEX_VALUE[cHigh] << 4 | Codec.HEX_VALUE[cLow];
+			if (iValue < 0){
+				throw Codec.illegal(i);
+			}
+			arbTarget[iOut++] = (byte) iValue;
+		}
+		return iOut - iTarget;
+	}
+
+	/**
+	 * Decode hex
+	 * @param sHex The hex string
+	 * @return The bytes
+	 * @throws IllegalArgumentException If the hex is malformed
+	 */
+	public static byte[] fromHex(String sHex){
+		byte arbResult[] = new byte[sHex.length() / 2];
+		Codec.decodeHex(sHex, 0, sHex.length(), arbResult, 0);
+		return arbResult;
+	}
+
+	/**
+	 * Length of Base64 of some bytes
+	 * @param iLength Number of bytes
+	 * @return Number of characters, padding included
+	 */
+	public static int base64Length(int iLength){
+		return (iLength + 2) / 3 * 4;
+	}
+
+	/**
+	 * Encode bytes as Base64 into a buffer (ASCII)
+	 * @param arbSource The bytes
+	 * @param iOffset First byte
+	 * @param iLength Number of bytes
+	 * @param arbTarget The buffer, room for base64Length(iLength) bytes
+	 * @param iTarget Where to write
+	 * @return Number of bytes written
+	 */
+	public static int encodeBase64(
+			byte[] arbSource, int iOffset, int iLength,
+			byte[] arbTarget, int iTarget){
+		int iOut = iTarget;
+		int iEnd = iOffset + iLength;
+		int i = iOffset;
+		// Whole groups of three bytes
+		for (; i + 3 <= iEnd; i += 3){
+			int iGroup =
+				(arbSource[i] & 0xff) << 16 |
+				(arbSource[i + 1] & 0xff) << 8 |
+				(arbSource[i + 2] & 0xff);
+			arbTarget[iOut++] = Codec.BASE64[iGroup >>> 18];
+			arbTarget[iOut++] = Codec.BASE64[(iGroup >>> 12) & 0x3f];
+			arbTarget[iOut++] = Codec.BASE64[(iGroup >>> 6) & 0x3f];
+			arbTarget[iOut++] = Codec.BASE64[iGroup & 0x3f];
+		}
+		// One or two bytes left, padded
+		int iLeft = iEnd - i;
+		if (iLeft > 0){
+			int iGroup = (arbSource[i] & 0xff) << 16;
+			if (iLeft == 2)
+				iGroup |= (arbSource[i + 1] & 0xff) << 8;
+			arbTarget[iOut++] = Codec.BASE64[iGroup >>> 18];
+			arbTarget[iOut++] = Codec.BASE64[(iGroup >>> 12) & 0x3f];
+			arbTarget[iOut++] = iLeft == 2 ?
+				Codec.BASE64[(iGroup >>> 6) & 0x3f] : (byte) Codec.PAD;
+			arbTarget[iOut++] = (byte) Codec.PAD;
+		}
+		return iOut - iTarget;
+	}
+
+	/**
+	 * Encode bytes as Base64
+	 * @param arbSource The bytes
+	 * @return The Base64 string
+	 */
+	public static String toBase64(byte[] arbSource){
+		byte arbBase64[] = new byte[Codec.base64Length(arbSource.length)];
+		Codec.encodeBase64(arbSource, 0, arbSource.length, arbBase64, 0);
+		return new String(arbBase64, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Number of bytes Base64 decodes to
+	 * @param sBase64 The Base64 characters
+	 * @param iStart First character
+	 * @param iEnd End of characters
+	 * @return Number of bytes
+	 * @throws IllegalArgumentException If the length is no multiple of four
+	 */
+	public static int decodedLength(String sBase64, int iStart, int iEnd){
+		int iLength = iEnd - iStart;
+		if ((iLength & 3) != 0){
+			throw new IllegalArgumentException("Base64 of " + iLength + " characters");
+		}
+		int iPad = 0;
+		if (iLength > 0 && sBase64.charAt(iEnd - 1) == Codec.PAD)
+			iPad++;
+		if (iLength > 1 && sBase64.charAt(iEnd - 2) == Codec.PAD)
+			iPad++;
+		return iLength / 4 * 3 - iPad;
+	}
+
+	/**
+	 * Decode Base64 into a buffer
+	 * @param sBase64 The Base64 characters
+	 * @param iStart First character
+	 * @param iEnd End of characters
+	 * @param arbTarget The buffer, room for decodedLength() bytes
+	 * @param iTarget Where to write
+	 * @return Number of bytes written
+	 * @throws IllegalArgumentException If the Base64 is malformed
+	 */
+	public static int decodeBase64(
+			String sBase64, int iStart, int iEnd,
+			byte[] arbTarget, int iTarget){
+		int iLength = Codec.decodedLength(sBase64, iStart, iEnd);
+		if (iLength == 0){
+			return 0;
+		}
+		int iOut = iTarget;
+		// Whole groups but the last one, which may be padded
+		int iLast = iEnd - 4;
+		for (int i = iStart; i < iLast; i += 4){
+			char c1 = sBase64.charAt(i);
+			char c2 = sBase64.charAt(i + 1);
+			char c3 = sBase64.charAt(i + 2);
+			char c4 = sBase64.charAt(i + 3);
+			if (((c1 | c2 | c3 | c4) & 0xff80) != 0){
+				throw Codec.illegal(i);
+			}
+			// A digit of -1 turns the whole group negative
+			int iGroup =
+				Codec.BASE64_VALUE[c1] << 18 | Codec.BASE64_VALUE[c2] << 12 |
+				Codec.BASE64_VALUE[c3] << 6 | Codec.BASE64_VALUE[c4];
+			if (iGroup < 0){
+				throw Codec.illegal(i);
+			}
+			arbTarget[iOut++] = (byte) (iGroup >>> 16);
+			arbTarget[iOut++] = (byte) (iGroup >>> 8);
+			arbTarget[iOut++] = (byte) iGroup;
+		}
+
+		int iGroup =
+			Codec.value(Codec.BASE64_VALUE, sBase64.charAt(iLast)) << 18 |
+			Codec.value(Codec.BASE64_VALUE, sBase64.charAt(iLast + 1)) << 12;
+		char c3 = sBase64.charAt(iLast + 2);
+		char c4 = sBase64.charAt(iLast + 3);
+		if (c4 == Codec.PAD){
+			// Padding is allowed at the very end only
+			if (c3 != Codec.PAD){
+				iGroup |= Codec.value(Codec.BASE64_VALUE, c3) << 6;
+			}
+		}else{
+			iGroup |=
+				Codec.value(Codec.BASE64_VALUE, c3) << 6 |
+				Codec.value(Codec.BASE64_VALUE, c4);
+		}
+		arbTarget[iOut++] = (byte) (iGroup >>> 16);
+		if (iOut - iTarget < iLength)
+			arbTarget[iOut++] = (byte) (iGroup >>> 8);
+		if (iOut - iTarget < iLength)
+			arbTarget[iOut++] = (byte) iGroup;
+		return iOut - iTarget;
+	}
+
+	/**
+	 * Decode Base64
+	 * @param sBase64 The Base64 string
+	 * @return The bytes
+	 * @throws IllegalArgumentException If the Base64 is malformed
+	 */
+	public static byte[] fromBase64(String sBase64){
+		byte arbResult[] =
+			new byte[Codec.decodedLength(sBase64, 0, sBase64.length())];
+		Codec.decodeBase64(sBase64, 0, sBase64.length(), arbResult, 0);
+		return arbResult;
+	}
+
+	/**
+	 * Exception for malformed input, kept out of the loops to keep them small
+	 * @param iPosition Where the input is malformed
+	 * @return The exception
+	 */
+	private static IllegalArgumentException illegal(int iPosition){
+		return new IllegalArgumentException("Illegal character at " + iPosition);
+	}
+
+	/**
+	 * Value of a digit
+	 * @param arbValues Table of values
+	 * @param c The character
+	 * @return The value
+	 * @throws IllegalArgumentException If the character is no digit
+	 */
+	private static int value(byte[] arbValues, char c){
+		int iValue = c < 128 ? arbValues[c] : -1;
+		if (iValue < 0){
+			throw new IllegalArgumentException("Illegal character '" + c + "'");
+		}
+		return iValue;
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * File			: Compression.java
+ * Package		: securechat.tools
+ * Classes		: Compression
+ * Description	: Deflating single lines by a dictionary known to both sides
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.tools;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression:
+ * Deflates a line on its own (raw deflate, no header or checksum, the
+ * cipher authenticates it anyway) by a preset dictionary client and server
+ * share, so even a short line finds the words it repeats in the dictionary
+ * rather than in lines before it. Lines are compressed before they are
+ * encrypted, each one by itself: no state spans messages,
+ * a line dropped on its way spoils no other and one shared by the members
+ * of a room is compressed once. Lines shorter than MIN_SIZE or not getting
+ * smaller are sent as they are.
+ * Deflaters and inflaters hold native memory and are pooled.
+ * @author Mathias Knoll
+ */
+public class Compression {
+
+	// Version of the dictionary, told by the server accepting compression
+	public static final byte DICTIONARY_VERSION = 1;
+	// Lines shorter than that (bytes) are sent as they are
+	public static int MIN_SIZE = Integer.getInteger("securechat.zip.min", 32);
+	// Level of deflate, 1 (fastest) to 9 (smallest)
+	public static int LEVEL = Integer.getInteger("securechat.zip.level", 6);
+
+	// Words and phrases frequent in chat and the prefix of chat lines; deflate
+	// finds the last ones best
+	private static final byte DICTIONARY[] = (
+		"http://www. https://www. .com/ .org/ .html " +
+		"Thank you very much! Good morning, good night, see you tomorrow. " +
+		"What do you think about it? I don't know, maybe. " +
+		"Yes, I think so. No, I can't. Sorry, I'm not sure. " +
+		"Could you please send me the file? " +
+		"because would should could about which there their they " +
+		"people really something anything nothing everything " +
+		"meeting today tomorrow yesterday morning evening weekend " +
+		"please thanks thank sorry hello hi hey okay ok lol yes no " +
+		"that this with have from what when where will your just " +
+		"like know there here then them been were said time " +
+		"the and you for are not but all can was one out get " +
+		" the  and  you  to  is  it  in  of  a  I > <").getBytes(
+			StandardCharsets.US_ASCII);
+
+	// Deflaters and inflaters not in use
+	private static ConcurrentLinkedQueue<Deflater> queueDeflaters =
+		new ConcurrentLinkedQueue<Deflater>();
+	private static ConcurrentLinkedQueue<Inflater> queueInflaters =
+		new ConcurrentLinkedQueue<Inflater>();
+
+	/**
+	 * Compress a line
+	 * @param arbLine The line
+	 * @return The compressed line or null if it is too short or would not
+	 * get smaller
+	 */
+	public static byte[] deflate(byte[] arbLine){
+		if (arbLine.length < Compression.MIN_SIZE)
+			return null;
+		Deflater deflater = Compression.queueDeflaters.poll();
+		if (deflater == null)
+			deflater = new Deflater(Compression.LEVEL, true);
+		try {
+			deflater.setDictionary(Compression.DICTIONARY);
+			deflater.setInput(arbLine);
+			deflater.finish();
+			// Room for less than the line only, more is not worth it
+			byte arbZipped[] = new byte[arbLine.length - 1];
+			int iLength = 0;
+			while (!deflater.finished() && iLength < arbZipped.length){
+				int iDeflated = deflater.deflate(
+					arbZipped, iLength, arbZipped.length - iLength);
+				if (iDeflated == 0)
+					break;
+				iLength += iDeflated;
+			}
+			if (!deflater.finished())
+				return null;
+			return Arrays.copyOf(arbZipped, iLength);
+		} finally {
+			deflater.reset();
+			Compression.queueDeflaters.offer(deflater);
+		}
+	}
+
+	/**
+	 * Decompress a line
+	 * @param arbZipped The compressed line
+	 * @return The line
+	 * @throws DataFormatException If it is no line compressed by deflate(),
+	 * is cut short or gets longer than a frame may be
+	 */
+	public static byte[] inflate(byte[] arbZipped) throws DataFormatException {
+		Inflater inflater = Compression.queueInflaters.poll();
+		if (inflater == null)
+			inflater = new Inflater(true);
+		try {
+			inflater.setDictionary(Compression.DICTIONARY);
+			inflater.setInput(arbZipped);
+			byte arbLine[] = new byte[Math.max(64, arbZipped.length * 4)];
+			int iLength = 0;
+			while (!inflater.finished()){
+				if (iLength == arbLine.length){
+					if (arbLine.length >= Frame.MAX_PAYLOAD)
+						throw new DataFormatException("Line too long");
+					arbLine = Arrays.copyOf(
+						arbLine, Math.min(Frame.MAX_PAYLOAD, arbLine.length * 2));
+				}
+				int iInflated = inflater.inflate(
+					arbLine, iLength, arbLine.length - iLength);
+				if (iInflated == 0 && inflater.needsInput())
+					throw new DataFormatException("Line cut short");
+				iLength += iInflated;
+			}
+			return Arrays.copyOf(arbLine, iLength);
+		} finally {
+			inflater.reset();
+			Compression.queueInflaters.offer(inflater);
+		}
+	}
+}
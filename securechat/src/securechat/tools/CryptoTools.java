@@ -13,13 +13,22 @@
 package securechat.tools;
 
 // Imports
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
 import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
 
 /**
  * CryptoTools:
@@ -28,6 +37,18 @@ import javax.crypto.SecretKey;
  */
 public class CryptoTools {
 
+	// AES contexts per thread, a lookup of the provider costs more than a line
+	private static final ThreadLocal<Cipher> CIPHER_AES =
+		new ThreadLocal<Cipher>() {
+			protected Cipher initialValue() {
+				try {
+					return Cipher.getInstance("AES");
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+
 	/**
 	 * Get MessageDigest 5 Key
 	 * @param arbData Payload for key calculation
@@ -48,27 +69,17 @@ public class CryptoTools {
 	 * @throws Exception
 	 */
 	public static String getHex(byte[] arByte) throws Exception {
-		String result = "";
-		for (int i=0; i < arByte.length; i++) {
-			result +=
-		      Integer.toString( ( arByte[i] & 0xff ) + 0x100, 16).substring( 1 );
-		}
-		return result;
+		return Codec.toHex(arByte);
 	}
 	
 	/**
 	 * Get a byte array from a hex string
 	 * @param sHex
 	 * @return
+	 * @throws IllegalArgumentException If sHex is no hex string
 	 */
 	public static byte[] getBytes(String sHex){
-		int len = sHex.length();
-	    byte[] data = new byte[len / 2];
-	    for (int i = 0; i < len; i += 2) {
-	        data[i / 2] = (byte) ((Character.digit(sHex.charAt(i), 16) << 4)
-	                             + Character.digit(sHex.charAt(i+1), 16));
-	    }
-	    return data;
+		return Codec.fromHex(sHex);
 	}
 	
 	/**
@@ -106,7 +117,8 @@ public class CryptoTools {
 	}
 	
 	/**
-	 * Encrypt data with secret key (AES)
+	 * Encrypt data with secret key (AES), see SessionCipher for a context
+	 * kept by the session
 	 * @param keySecret
 	 * @param data
 	 * @return
@@ -114,7 +126,7 @@ public class CryptoTools {
 	 */
 	public static byte[] encryptData(
 			SecretKey keySecret, byte[] data) throws Exception{
-		Cipher cipher = Cipher.getInstance("AES");
+		Cipher cipher = CryptoTools.CIPHER_AES.get();
 		cipher.init(Cipher.ENCRYPT_MODE , keySecret);
 		return cipher.doFinal(data);
 	}
@@ -128,7 +140,7 @@ public class CryptoTools {
 	 */
 	public static byte[] decryptData( 
 			SecretKey keySecret, byte[] data) throws Exception{
-		Cipher cipher = Cipher.getInstance("AES");
+		Cipher cipher = CryptoTools.CIPHER_AES.get();
 		cipher.init(Cipher.DECRYPT_MODE , keySecret);
 		return cipher.doFinal(data);
 	}
@@ -156,6 +168,112 @@ public class CryptoTools {
 		}
 	}
 	
+	/**
+	 * Generate a key pair of the elliptic curve suite
+	 * @param sAlgorithm "X25519" for agreement or "Ed25519" for signatures
+	 * @return The key pair
+	 * @throws GeneralSecurityException
+	 */
+	public static KeyPair generateKeyPair(String sAlgorithm)
+			throws GeneralSecurityException {
+		return KeyPairGenerator.getInstance(sAlgorithm).generateKeyPair();
+	}
+	
+	/**
+	 * Get a public key from its X.509 encoding
+	 * @param sAlgorithm "RSA", "X25519" or "Ed25519"
+	 * @param arbKey The encoded key
+	 * @return The key
+	 * @throws GeneralSecurityException
+	 */
+	public static PublicKey getPublicKey(String sAlgorithm, byte[] arbKey)
+			throws GeneralSecurityException {
+		return KeyFactory.getInstance(sAlgorithm).generatePublic(
+			new X509EncodedKeySpec(arbKey));
+	}
+	
+	/**
+	 * Agree on a session key by X25519. Both sides hash the shared secret
+	 * together with both public keys (the client's first), so the key is
+	 * bound to this very exchange.
+	 * @param keyPrivate Own private key
+	 * @param keyPublicPeer Peer's public key
+	 * @param arbKeyClient Client's public key (X.509)
+	 * @param arbKeyServer Server's public key (X.509)
+	 * @return AES session key (128 bits)
+	 * @throws GeneralSecurityException
+	 */
+	public static SecretKey agreeKey(
+			PrivateKey keyPrivate, PublicKey keyPublicPeer,
+			byte[] arbKeyClient, byte[] arbKeyServer)
+			throws GeneralSecurityException {
+		KeyAgreement agreement = KeyAgreement.getInstance("X25519");
+		agreement.init(keyPrivate);
+		agreement.doPhase(keyPublicPeer, true);
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		digest.update("securechat x25519".getBytes());
+		digest.update(agreement.generateSecret());
+		digest.update(arbKeyClient);
+		digest.update(arbKeyServer);
+		return new SecretKeySpec(Arrays.copyOf(digest.digest(), 16), "AES");
+	}
+
+	/**
+	 * Derive the session key of a resumed session from the key a ticket
+	 * stands for and a nonce of the client, so a resumed session never
+	 * starts GCM counters over under the former key.
+	 * @param keySession Session key stored along with the ticket
+	 * @param arbTicket The ticket
+	 * @param arbNonce Nonce of the client
+	 * @return AES session key (128 bits)
+	 * @throws GeneralSecurityException
+	 */
+	public static SecretKey resumeKey(
+			SecretKey keySession, byte[] arbTicket, byte[] arbNonce)
+			throws GeneralSecurityException {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		digest.update("securechat resume".getBytes());
+		digest.update(keySession.getEncoded());
+		digest.update(arbTicket);
+		digest.update(arbNonce);
+		return new SecretKeySpec(Arrays.copyOf(digest.digest(), 16), "AES");
+	}
+
+	/**
+	 * Sign data by Ed25519
+	 * @param keyPrivate The signing key
+	 * @param arbData The data
+	 * @return The signature
+	 * @throws GeneralSecurityException
+	 */
+	public static byte[] signEd25519(PrivateKey keyPrivate, byte[] arbData)
+			throws GeneralSecurityException {
+		Signature sig = Signature.getInstance("Ed25519");
+		sig.initSign(keyPrivate);
+		sig.update(arbData);
+		return sig.sign();
+	}
+	
+	/**
+	 * Verify an Ed25519 signature
+	 * @param keyPublic The verifying key
+	 * @param arbData The data
+	 * @param arbSignature The signature
+	 * @return True if the signature is valid
+	 */
+	public static boolean verifyEd25519(
+			PublicKey keyPublic, byte[] arbData, byte[] arbSignature){
+		try {
+			Signature sig = Signature.getInstance("Ed25519");
+			sig.initVerify(keyPublic);
+			sig.update(arbData);
+			return sig.verify(arbSignature);
+		} catch (Exception e) {
+			System.out.println("[CryptoTool] Exception: " + e.getMessage());
+			return false;
+		}
+	}
+	
 	/** 
 	 * Verify signed key
 	 * @return
@@ -0,0 +1,140 @@
+/**
+ * File			: Frame.java
+ * Package		: securechat.tools
+ * Classes		: Frame
+ * Description	: Message of the binary wire protocol
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Frame:
+ * Once client and server agreed on binary framing ("/binary" answered by
+ * "[binary]OK") every message travels as
+ *   4 bytes  length of the payload (big endian)
+ *   1 byte   type
+ *   n bytes  payload
+ * Control messages get a type of their own instead of a text prefix and
+ * keys and ciphertext are sent as raw bytes instead of hex.
+ * @author Mathias Knoll
+ */
+public class Frame {
+
+	// Line asking for binary framing and its answer (text protocol)
+	public static final String REQUEST = "/binary";
+	public static final String ACCEPT = "[binary]OK";
+
+	// Size of the header
+	public static final int HEADER = 5;
+	// Largest payload accepted
+	public static int MAX_PAYLOAD = 1 << 20;
+
+	// A line of text
+	public static final byte TEXT = 1;
+	// Public key (X.509 encoded)
+	public static final byte PUBLIC_KEY = 2;
+	// Session key wrapped by the public key
+	public static final byte SESSION_KEY = 3;
+	// Signature of the session key
+	public static final byte SIGNED_KEY = 4;
+	// Result of verification, one byte: 1 for OK, 0 for FAIL
+	public static final byte VERIFY_KEY = 5;
+	// A line of text encrypted by the session key
+	public static final byte CIPHER = 6;
+	// Room key: 4 bytes epoch, then the key wrapped by the public key
+	public static final byte ROOM_KEY = 7;
+	// A line of text encrypted by the room key: 4 bytes epoch, then cipher
+	public static final byte ROOM_CIPHER = 8;
+	// Handshake in one round trip: 1 byte flags, 2 bytes length of the
+	// public key, the public key and its signature
+	public static final byte HELLO = 9;
+	// Flag of HELLO asking for the room key
+	public static final byte HELLO_ROOM = 1;
+	// Flag of HELLO for the elliptic curve suite: the key is an X25519 key
+	// for agreement, followed by 2 bytes length and an Ed25519 key signing
+	// it; the session key frame answering holds the server's X25519 key
+	public static final byte HELLO_EC = 2;
+	// Flag of HELLO and RESUME asking for compression (see Compression)
+	public static final byte HELLO_ZIP = 4;
+	// Ticket standing for the session key, to resume the session later on
+	public static final byte TICKET = 10;
+	// Resuming a session: 1 byte flags (as HELLO), the ticket, a nonce of
+	// the client and the ticket encrypted by the derived session key
+	public static final byte RESUME = 11;
+	// Length of a ticket and of the nonce resuming it
+	public static final int TICKET_SIZE = 16;
+	// Compression accepted: 1 byte version of the dictionary
+	public static final byte ZIP = 12;
+	// A compressed line encrypted by the session key
+	public static final byte CIPHER_ZIP = 13;
+	// A compressed line encrypted by the room key: 4 bytes epoch, then cipher
+	public static final byte ROOM_CIPHER_ZIP = 14;
+
+	// Type of frame
+	private byte bType;
+	// Payload
+	private byte arbPayload[];
+
+	/**
+	 * Constructor of class Frame
+	 * @param bType Type of frame
+	 * @param arbPayload Payload
+	 */
+	public Frame(byte bType, byte[] arbPayload) {
+		this.bType = bType;
+		this.arbPayload = arbPayload;
+	}
+
+	/**
+	 * Type of frame
+	 * @return The type
+	 */
+	public byte getType(){
+		return this.bType;
+	}
+
+	/**
+	 * Payload of frame
+	 * @return The payload
+	 */
+	public byte[] getPayload(){
+		return this.arbPayload;
+	}
+
+	/**
+	 * Write the header of a frame into an array
+	 * @param arbTarget Array with at least HEADER bytes from iOffset
+	 * @param iOffset Where to put the header
+	 * @param bType Type of frame
+	 * @param iLength Length of the payload
+	 */
+	public static void putHeader(
+			byte[] arbTarget, int iOffset, byte bType, int iLength){
+		arbTarget[iOffset] = (byte) (iLength >>> 24);
+		arbTarget[iOffset + 1] = (byte) (iLength >>> 16);
+		arbTarget[iOffset + 2] = (byte) (iLength >>> 8);
+		arbTarget[iOffset + 3] = (byte) iLength;
+		arbTarget[iOffset + 4] = bType;
+	}
+
+	/**
+	 * Write a frame in one go and flush it
+	 * @param streamOut The stream
+	 * @param bType Type of frame
+	 * @param arbPayload Payload
+	 * @throws IOException
+	 */
+	public static void write(OutputStream streamOut, byte bType, byte[] arbPayload)
+			throws IOException {
+		byte arbFrame[] = new byte[Frame.HEADER + arbPayload.length];
+		Frame.putHeader(arbFrame, 0, bType, arbPayload.length);
+		System.arraycopy(arbPayload, 0, arbFrame, Frame.HEADER, arbPayload.length);
+		streamOut.write(arbFrame);
+		streamOut.flush();
+	}
+}
@@ -0,0 +1,221 @@
+/**
+ * File			: SessionCipher.java
+ * Package		: securechat.tools
+ * Classes		: SessionCipher
+ * Description	: Cipher contexts of a session, created once and reused
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.tools;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * SessionCipher:
+ * Holds one encrypting and one decrypting Cipher for a session key, so the
+ * provider lookup and the key schedule are paid once per session instead of
+ * once per line. Two modes are known:
+ *   ecb .. "AES" as the chat always used it, for clients asking for "/secure"
+ *   gcm .. AES-GCM, for clients asking for "/secure gcm"
+ * With gcm every message is laid out as
+ *   8 bytes  counter (big endian)
+ *   n bytes  ciphertext
+ *   16 bytes tag
+ * The 12 byte nonce is the counter behind 4 bytes telling the direction, so
+ * client and server never use a nonce twice although they share the key.
+ * The counter travels along since a message may be dropped on its way. A
+ * message whose counter is not above that of the last one decrypted is
+ * refused, so none is taken twice or replayed later on.
+ * Encrypting may be called by many threads, decrypting by one. Messages
+ * have to be sent in the order of their counters, whoever encrypts them.
+ * @author Mathias Knoll
+ */
+public class SessionCipher {
+
+	// Modes
+	public static final String ECB = "ecb";
+	public static final String GCM = "gcm";
+
+	// Length of the counter on the wire, of the nonce and of the tag
+	private static final int COUNTER = 8;
+	private static final int NONCE = 12;
+	private static final int TAG = 16;
+
+	// The session key
+	private SecretKey keySession = null;
+	// Flag if GCM is used
+	private boolean bGCM = false;
+	// Direction of messages encrypted and decrypted here (0 client, 1 server)
+	private byte bDirectionOut = 0;
+	private byte bDirectionIn = 0;
+	// Cipher contexts
+	private Cipher cipherEncrypt = null;
+	private Cipher cipherDecrypt = null;
+	// Counter of the next message encrypted
+	private long lCounter = 0;
+	// Counter of the last message decrypted, -1 before the first one
+	private long lReceived = -1;
+
+	/**
+	 * Constructor of class SessionCipher
+	 * @param keySession The session key
+	 * @param sMode ECB or GCM
+	 * @param bServer True on the server's side
+	 * @throws GeneralSecurityException
+	 */
+	public SessionCipher(SecretKey keySession, String sMode, boolean bServer)
+			throws GeneralSecurityException {
+		this.keySession = keySession;
+		this.bGCM = SessionCipher.GCM.equalsIgnoreCase(sMode);
+		this.bDirectionOut = (byte) (bServer ? 1 : 0);
+		this.bDirectionIn = (byte) (bServer ? 0 : 1);
+		String sTransformation = this.bGCM ? "AES/GCM/NoPadding" : "AES";
+		this.cipherEncrypt = Cipher.getInstance(sTransformation);
+		this.cipherDecrypt = Cipher.getInstance(sTransformation);
+		if (!this.bGCM){
+			// Without a nonce the contexts are initialized once and for all
+			this.cipherEncrypt.init(Cipher.ENCRYPT_MODE, keySession);
+			this.cipherDecrypt.init(Cipher.DECRYPT_MODE, keySession);
+		}
+	}
+
+	/**
+	 * Tell the mode
+	 * @return ECB or GCM
+	 */
+	public String getMode(){
+		return this.bGCM ? SessionCipher.GCM : SessionCipher.ECB;
+	}
+
+	/**
+	 * Size of an encrypted message
+	 * @param iLength Length of the plaintext
+	 * @return Length of the message
+	 */
+	public int getEncryptedSize(int iLength){
+		if (this.bGCM){
+			return SessionCipher.COUNTER + iLength + SessionCipher.TAG;
+		}
+		// PKCS#5 always adds at least one byte of padding
+		return (iLength / 16 + 1) * 16;
+	}
+
+	/**
+	 * Encrypt the remaining bytes of a buffer into another one
+	 * @param bufferIn The plaintext, consumed
+	 * @param bufferOut Room for getEncryptedSize() bytes, advanced
+	 * @return Number of bytes written
+	 * @throws GeneralSecurityException
+	 */
+	public int encrypt(ByteBuffer bufferIn, ByteBuffer bufferOut)
+			throws GeneralSecurityException {
+		synchronized (this.cipherEncrypt){
+			if (!this.bGCM){
+				return this.cipherEncrypt.doFinal(bufferIn, bufferOut);
+			}
+			long lCounterNow = this.lCounter++;
+			if (lCounterNow < 0){
+				throw new GeneralSecurityException("Nonces used up, new key needed");
+			}
+			this.cipherEncrypt.init(
+				Cipher.ENCRYPT_MODE,
+				this.keySession,
+				this.nonce(this.bDirectionOut, lCounterNow));
+			bufferOut.putLong(lCounterNow);
+			return SessionCipher.COUNTER +
+				this.cipherEncrypt.doFinal(bufferIn, bufferOut);
+		}
+	}
+
+	/**
+	 * Decrypt the remaining bytes of a buffer into another one. The output
+	 * may be a view of the very same bytes (in place), it never runs ahead
+	 * of the input.
+	 * @param bufferIn The message, consumed
+	 * @param bufferOut Room for the plaintext, advanced
+	 * @return Number of bytes written
+	 * @throws GeneralSecurityException If the message is not authentic or
+	 * its counter is not above the last one
+	 */
+	public int decrypt(ByteBuffer bufferIn, ByteBuffer bufferOut)
+			throws GeneralSecurityException {
+		synchronized (this.cipherDecrypt){
+			if (!this.bGCM){
+				return this.cipherDecrypt.doFinal(bufferIn, bufferOut);
+			}
+			if (bufferIn.remaining() < SessionCipher.COUNTER + SessionCipher.TAG){
+				throw new GeneralSecurityException("Message too short");
+			}
+			long lCounterIn = bufferIn.getLong();
+			if (lCounterIn <= this.lReceived){
+				throw new GeneralSecurityException(
+					"Message " + lCounterIn + " replayed or out of order");
+			}
+			this.cipherDecrypt.init(
+				Cipher.DECRYPT_MODE,
+				this.keySession,
+				this.nonce(this.bDirectionIn, lCounterIn));
+			int iLength = this.cipherDecrypt.doFinal(bufferIn, bufferOut);
+			// Only an authentic message moves the counter on
+			this.lReceived = lCounterIn;
+			return iLength;
+		}
+	}
+
+	/**
+	 * Encrypt an array
+	 * @param arbPlain The plaintext
+	 * @return The message
+	 * @throws GeneralSecurityException
+	 */
+	public byte[] encrypt(byte[] arbPlain) throws GeneralSecurityException {
+		ByteBuffer bufferOut =
+			ByteBuffer.allocate(this.getEncryptedSize(arbPlain.length));
+		this.encrypt(ByteBuffer.wrap(arbPlain), bufferOut);
+		return SessionCipher.toArray(bufferOut);
+	}
+
+	/**
+	 * Decrypt an array
+	 * @param arbMessage The message
+	 * @return The plaintext
+	 * @throws GeneralSecurityException If the message is not authentic or
+	 * its counter is not above the last one
+	 */
+	public byte[] decrypt(byte[] arbMessage) throws GeneralSecurityException {
+		ByteBuffer bufferOut = ByteBuffer.allocate(arbMessage.length);
+		this.decrypt(ByteBuffer.wrap(arbMessage), bufferOut);
+		return SessionCipher.toArray(bufferOut);
+	}
+
+	/**
+	 * Nonce of a message
+	 * @param bDirection Direction of the message
+	 * @param lCounter Counter of the message
+	 * @return The parameters
+	 */
+	private GCMParameterSpec nonce(byte bDirection, long lCounter){
+		byte arbNonce[] = new byte[SessionCipher.NONCE];
+		arbNonce[0] = bDirection;
+		ByteBuffer.wrap(arbNonce, 4, SessionCipher.COUNTER).putLong(lCounter);
+		return new GCMParameterSpec(SessionCipher.TAG * 8, arbNonce);
+	}
+
+	/**
+	 * Copy what has been written into a buffer
+	 * @param buffer The buffer, written from 0 to its position
+	 * @return The bytes
+	 */
+	private static byte[] toArray(ByteBuffer buffer){
+		byte arbResult[] = new byte[buffer.position()];
+		buffer.flip();
+		buffer.get(arbResult);
+		return arbResult;
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * File			: SessionCacheTest.java
+ * Package		: securechat.server
+ * Classes		: SessionCacheTest
+ * Description	: Tickets expiring, evicted and used up
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * SessionCacheTest:
+ * A ticket is good for one resumption within its time to live, and a full
+ * cache gives up the oldest ticket first.
+ * @author Mathias Knoll
+ */
+class SessionCacheTest {
+
+	// Session key and client's public key the tickets stand for
+	private static SecretKey keySession =
+		new SecretKeySpec(new byte[16], "AES");
+	private static PublicKey keyPublicClient = null;
+
+	@BeforeAll
+	static void createKeys() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(256);
+		SessionCacheTest.keyPublicClient = generator.generateKeyPair().getPublic();
+	}
+
+	/**
+	 * Hand out a ticket for the test's keys
+	 * @param cache The cache
+	 * @return The ticket
+	 */
+	private static byte[] issue(SessionCache cache){
+		return cache.issue(SessionCacheTest.keySession, SessionCacheTest.keyPublicClient);
+	}
+
+	@Test
+	void resumesBySessionOfTicket(){
+		SessionCache cache = new SessionCache(4, 60000);
+		SessionCache.Session session = cache.take(SessionCacheTest.issue(cache));
+		assertNotNull(session);
+		assertSame(SessionCacheTest.keySession, session.keySession);
+		assertSame(SessionCacheTest.keyPublicClient, session.keyPublicClient);
+	}
+
+	@Test
+	void takesTicketOnlyOnce(){
+		SessionCache cache = new SessionCache(4, 60000);
+		byte arbTicket[] = SessionCacheTest.issue(cache);
+		assertNotNull(cache.take(arbTicket));
+		assertEquals(0, cache.size());
+		assertNull(cache.take(arbTicket));
+		assertEquals(1, cache.getRefused());
+	}
+
+	@Test
+	void refusesUnknownTicket(){
+		SessionCache cache = new SessionCache(4, 60000);
+		SessionCacheTest.issue(cache);
+		byte arbTicket[] = SessionCacheTest.issue(cache).clone();
+		arbTicket[0] ^= 1;
+		assertNull(cache.take(arbTicket));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	void refusesExpiredTicket() throws Exception {
+		SessionCache cache = new SessionCache(4, 50);
+		byte arbTicket[] = SessionCacheTest.issue(cache);
+		Thread.sleep(100);
+		assertNull(cache.take(arbTicket));
+		assertEquals(1, cache.getRefused());
+	}
+
+	@Test
+	void dropsExpiredSessionsOnIssuing() throws Exception {
+		SessionCache cache = new SessionCache(4, 50);
+		SessionCacheTest.issue(cache);
+		SessionCacheTest.issue(cache);
+		Thread.sleep(100);
+		byte arbTicket[] = SessionCacheTest.issue(cache);
+		assertEquals(1, cache.size());
+		// Expired, not evicted
+		assertEquals(0, cache.getEvicted());
+		assertNotNull(cache.take(arbTicket));
+	}
+
+	@Test
+	void evictsOldestTicketWhenFull(){
+		SessionCache cache = new SessionCache(2, 60000);
+		byte arbOldest[] = SessionCacheTest.issue(cache);
+		byte arbOlder[] = SessionCacheTest.issue(cache);
+		byte arbNewest[] = SessionCacheTest.issue(cache);
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvicted());
+		assertNull(cache.take(arbOldest));
+		assertNotNull(cache.take(arbOlder));
+		assertNotNull(cache.take(arbNewest));
+	}
+
+	@Test
+	void issuesNoTicketsWithoutCapacity(){
+		SessionCache cache = new SessionCache(0, 60000);
+		assertNull(SessionCacheTest.issue(cache));
+		assertEquals(0, cache.size());
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * File			: CodecTest.java
+ * Package		: securechat.tools
+ * Classes		: CodecTest
+ * Description	: Hex and Base64 round trips and malformed input
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.tools;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * CodecTest:
+ * Bytes of every length up to a few groups, and some large ones, come back
+ * unchanged, in the same characters as the JDK's encoders give; anything
+ * not well formed is refused.
+ * @author Mathias Knoll
+ */
+class CodecTest {
+
+	// Random bytes, the same on every run
+	private static Random random = new Random(2026);
+
+	/**
+	 * Random bytes
+	 * @param iLength Number of bytes
+	 * @return The bytes
+	 */
+	private static byte[] bytes(int iLength){
+		byte arbData[] = new byte[iLength];
+		CodecTest.random.nextBytes(arbData);
+		return arbData;
+	}
+
+	@Test
+	void hexRoundTrip(){
+		for (int iLength : new int[] { 0, 1, 2, 3, 15, 16, 17, 64, 4096, 65536 }){
+			byte arbData[] = CodecTest.bytes(iLength);
+			String sHex = Codec.toHex(arbData);
+			assertEquals(Codec.hexLength(iLength), sHex.length());
+			assertArrayEquals(arbData, Codec.fromHex(sHex));
+		}
+	}
+
+	@Test
+	void hexOfKnownBytes(){
+		byte arbData[] = { 0x00, 0x7f, (byte) 0x80, (byte) 0xff, 0x0a };
+		assertEquals("007f80ff0a", Codec.toHex(arbData));
+		assertArrayEquals(arbData, Codec.fromHex("007F80FF0A"));
+	}
+
+	@Test
+	void hexIntoBuffer(){
+		byte arbData[] = CodecTest.bytes(32);
+		byte arbHex[] = new byte[2 + Codec.hexLength(20)];
+		assertEquals(40, Codec.encodeHex(arbData, 6, 20, arbHex, 2));
+		String sHex = new String(arbHex, StandardCharsets.US_ASCII);
+		byte arbBack[] = new byte[24];
+		assertEquals(20, Codec.decodeHex(sHex, 2, sHex.length(), arbBack, 4));
+		for (int i = 0; i < 20; i++){
+			assertEquals(arbData[6 + i], arbBack[4 + i]);
+		}
+	}
+
+	@Test
+	void hexRefusesMalformed(){
+		for (final String sHex : new String[] { "abc", "0g", "zz", "0 ", "-1", "\u00e400" }){
+			assertThrows(IllegalArgumentException.class, new Executable() {
+				public void execute(){
+					Codec.fromHex(sHex);
+				}
+			}, sHex);
+		}
+	}
+
+	@Test
+	void base64RoundTrip(){
+		for (int iLength = 0; iLength <= 64; iLength++){
+			byte arbData[] = CodecTest.bytes(iLength);
+			String sBase64 = Codec.toBase64(arbData);
+			assertEquals(Base64.getEncoder().encodeToString(arbData), sBase64);
+			assertEquals(Codec.base64Length(iLength), sBase64.length());
+			assertArrayEquals(arbData, Codec.fromBase64(sBase64));
+		}
+		for (int iLength : new int[] { 4096, 65536 }){
+			byte arbData[] = CodecTest.bytes(iLength);
+			assertArrayEquals(arbData, Codec.fromBase64(Codec.toBase64(arbData)));
+		}
+	}
+
+	@Test
+	void base64IntoBuffer(){
+		byte arbData[] = CodecTest.bytes(32);
+		byte arbBase64[] = new byte[3 + Codec.base64Length(20)];
+		assertEquals(28, Codec.encodeBase64(arbData, 5, 20, arbBase64, 3));
+		String sBase64 = new String(arbBase64, StandardCharsets.US_ASCII);
+		assertEquals(20, Codec.decodedLength(sBase64, 3, sBase64.length()));
+		byte arbBack[] = new byte[21];
+		assertEquals(20, Codec.decodeBase64(sBase64, 3, sBase64.length(), arbBack, 1));
+		for (int i = 0; i < 20; i++){
+			assertEquals(arbData[5 + i], arbBack[1 + i]);
+		}
+	}
+
+	@Test
+	void base64RefusesMalformed(){
+		for (final String sBase64 : new String[] {
+				// Length no multiple of four
+				"A", "AB", "ABC", "ABCDE",
+				// Not of the alphabet
+				"AB-D", "AB_D", "AB D", "ABCDAB.D", "\u00e4BCD",
+				// Padding anywhere but at the end
+				"=BCD", "A=CD", "AB=D", "A===", "====", "AB==ABCD"}){
+			assertThrows(IllegalArgumentException.class, new Executable() {
+				public void execute(){
+					Codec.fromBase64(sBase64);
+				}
+			}, sBase64);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * File			: SessionCipherTest.java
+ * Package		: securechat.tools
+ * Classes		: SessionCipherTest
+ * Description	: GCM messages taken in order, replayed ones refused
+ *
+ * Author		: Mathias Knoll
+ * Year			: 2026
+ */
+package securechat.tools;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * SessionCipherTest:
+ * The server encrypts, the client decrypts by the same key. Messages may
+ * get lost on the way, but none is taken twice or after a later one.
+ * @author Mathias Knoll
+ */
+class SessionCipherTest {
+
+	// Key of the session
+	private static SecretKey keySession = new SecretKeySpec(new byte[16], "AES");
+
+	/**
+	 * Bytes of a line
+	 * @param sLine The line
+	 * @return The bytes
+	 */
+	private static byte[] bytes(String sLine){
+		return sLine.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Assert a message is refused
+	 * @param cipher Decrypting cipher
+	 * @param arbMessage The message
+	 */
+	private static void assertRefused(
+			final SessionCipher cipher, final byte[] arbMessage){
+		assertThrows(GeneralSecurityException.class, new Executable() {
+			public void execute() throws Throwable {
+				cipher.decrypt(arbMessage);
+			}
+		});
+	}
+
+	@Test
+	void takesMessagesWithGaps() throws Exception {
+		SessionCipher cipherServer =
+			new SessionCipher(SessionCipherTest.keySession, SessionCipher.GCM, true);
+		SessionCipher cipherClient =
+			new SessionCipher(SessionCipherTest.keySession, SessionCipher.GCM, false);
+		byte arbFirst[] = cipherServer.encrypt(SessionCipherTest.bytes("first"));
+		cipherServer.encrypt(SessionCipherTest.bytes("lost"));
+		byte arbThird[] = cipherServer.encrypt(SessionCipherTest.bytes("third"));
+		assertArrayEquals(SessionCipherTest.bytes("first"), cipherClient.decrypt(arbFirst));
+		assertArrayEquals(SessionCipherTest.bytes("third"), cipherClient.decrypt(arbThird));
+	}
+
+	@Test
+	void refusesReplayedMessage() throws Exception {
+		SessionCipher cipherServer =
+			new SessionCipher(SessionCipherTest.keySession, SessionCipher.GCM, true);
+		SessionCipher cipherClient =
+			new SessionCipher(SessionCipherTest.keySession, SessionCipher.GCM, false);
+		byte arbFirst[] = cipherServer.encrypt(SessionCipherTest.bytes("first"));
+		byte arbSecond[] = cipherServer.encrypt(SessionCipherTest.bytes("second"));
+		cipherClient.decrypt(arbFirst);
+		SessionCipherTest.assertRefused(cipherClient, arbFirst);
+		cipherClient.decrypt(arbSecond);
+		SessionCipherTest.assertRefused(cipherClient, arbSecond);
+		SessionCipherTest.assertRefused(cipherClient, arbFirst);
+	}
+
+	@Test
+	void refusesOlderMessage() throws Exception {
+		SessionCipher cipherServer =
+			new SessionCipher(SessionCipherTest.keySession, SessionCipher.GCM, true);
+		SessionCipher cipherClient =
+			new SessionCipher(SessionCipherTest.keySession, SessionCipher.GCM, false);
+		byte arbFirst[] = cipherServer.encrypt(SessionCipherTest.bytes("first"));
+		byte arbSecond[] = cipherServer.encrypt(SessionCipherTest.bytes("second"));
+		cipherClient.decrypt(arbSecond);
+		SessionCipherTest.assertRefused(cipherClient, arbFirst);
+	}
+
+	@Test
+	void forgedMessageKeepsCounter() throws Exception {
+		SessionCipher cipherServer =
+			new SessionCipher(SessionCipherTest.keySession, SessionCipher.GCM, true);
+		SessionCipher cipherClient =
+			new SessionCipher(SessionCipherTest.keySession, SessionCipher.GCM, false);
+		byte arbFirst[] = cipherServer.encrypt(SessionCipherTest.bytes("first"));
+		// Counter far ahead, but not authentic
+		byte arbForged[] = arbFirst.clone();
+		arbForged[0] = 0x7f;
+		SessionCipherTest.assertRefused(cipherClient, arbForged);
+		assertArrayEquals(SessionCipherTest.bytes("first"), cipherClient.decrypt(arbFirst));
+	}
+}